@@ -0,0 +1,285 @@
+/**
+ * Find what to credit for a basemap layer and hand it to the AttributionEngine. Esri basemap
+ * services publish their contributors and coverage areas as community attribution JSON at
+ * static.arcgis.com/attribution/<service name>, vector tile basemaps under Vector/<service name>.
+ * The service name comes from the layer's URL, for a vector tile layer from the URL of its style's
+ * tile source. Other layers are credited with the service's copyright text. The community JSON is
+ * kept in a DiskCache so it is only downloaded again after the time-to-live. Layers and style sources
+ * requested through the TileProxy are known by their upstream URL.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.esri.arcgisruntime.layers.ArcGISMapImageLayer;
+import com.esri.arcgisruntime.layers.ArcGISTiledLayer;
+import com.esri.arcgisruntime.layers.ArcGISVectorTiledLayer;
+import com.esri.arcgisruntime.layers.Layer;
+import com.esri.arcgisruntime.loadable.LoadStatus;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class AttributionLoader {
+
+    // define callback interface for async loading of a layer's attribution
+    public interface AttributionLoadedInterface {
+        void onAttributionLoaded(String layerKey);
+    }
+
+    private static final String COMMUNITY_ATTRIBUTION_URL = "https://static.arcgis.com/attribution/";
+    private static final Pattern ESRI_SERVICE_URL = Pattern.compile("^https?://[^/]*(arcgisonline\\.com|arcgis\\.com)(/.*?)?/rest/services/(.+?)/(MapServer|VectorTileServer)", Pattern.CASE_INSENSITIVE);
+    private static final int TIMEOUT = 15000;
+
+    private final DiskCache mDiskCache;
+    private final long mTimeToLive;
+    private final ExecutorService mLoadExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Set<String> mLoading = new HashSet<>();
+
+    /**
+     * Construct a loader.
+     * @param cacheDirectory - directory to keep downloaded attribution JSON in.
+     * @param maxCacheBytes - bytes of attribution JSON to keep.
+     * @param timeToLive - milliseconds downloaded attribution JSON is used before downloading it again.
+     */
+    public AttributionLoader(File cacheDirectory, long maxCacheBytes, long timeToLive) {
+        this.mDiskCache = new DiskCache(cacheDirectory, maxCacheBytes);
+        this.mTimeToLive = timeToLive;
+    }
+
+    /**
+     * Let the load thread end once the loads already queued are done. Layers asked for after this
+     * are not loaded.
+     */
+    public void shutdown() {
+        mLoadExecutor.shutdown();
+    }
+
+    /**
+     * @param layer
+     * @return {String} identifies the layer to the AttributionEngine, the same in every run.
+     */
+    public static String layerKey(Layer layer) {
+        String uri = TileProxy.upstreamURLOf(layer.getUri());
+        return uri != null && uri.length() > 0 ? uri : layer.getClass().getSimpleName() + "@" + System.identityHashCode(layer);
+    }
+
+    /**
+     * Find the layer's attribution and set it on the engine. Call on the UI thread, the completion
+     * is called on the UI thread. Nothing happens if the layer is already being loaded.
+     * @param layer {Layer} a basemap layer.
+     * @param attributionEngine {AttributionEngine} receives the attribution.
+     * @param attributionLoaded {AttributionLoadedInterface} told when the engine has it.
+     */
+    public void load(final Layer layer, final AttributionEngine attributionEngine, final AttributionLoadedInterface attributionLoaded) {
+        final String layerKey = layerKey(layer);
+        if ( ! mLoading.add(layerKey)) {
+            return;
+        }
+        if (layer.getLoadStatus() != LoadStatus.LOADED) {
+            layer.addDoneLoadingListener(new Runnable() {
+                @Override
+                public void run() {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mLoading.remove(layerKey);
+                            if (layer.getLoadStatus() == LoadStatus.LOADED) {
+                                load(layer, attributionEngine, attributionLoaded);
+                            }
+                        }
+                    });
+                }
+            });
+            layer.loadAsync();
+            return;
+        }
+        final String serviceAttribution = getServiceAttribution(layer);
+        final String layerURL = layer.getUri();
+        final boolean isVectorTiledLayer = layer instanceof ArcGISVectorTiledLayer;
+        if (mLoadExecutor.isShutdown()) {
+            mLoading.remove(layerKey);
+            return;
+        }
+        mLoadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String communityServiceName = isVectorTiledLayer ? findVectorTileServiceName(layerURL) : findServiceName(layerURL);
+                List<AttributionEngine.Contributor> contributors = communityServiceName != null ? loadContributors(communityServiceName) : null;
+                if (contributors != null) {
+                    attributionEngine.setLayerAttribution(layerKey, null, contributors);
+                } else {
+                    attributionEngine.setLayerAttribution(layerKey, serviceAttribution, null);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLoading.remove(layerKey);
+                        attributionLoaded.onAttributionLoaded(layerKey);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * The copyright text of a loaded layer's service, used when it has no community attribution.
+     * @param layer
+     * @return {String} the attribution or null.
+     */
+    static String getServiceAttribution(Layer layer) {
+        String layerAttribution = layer.getAttribution();
+        if (layerAttribution == null || layerAttribution.length() == 0) { // because getAttribution() returns ""
+            try {
+                if (layer instanceof ArcGISTiledLayer) {
+                    layerAttribution = ((ArcGISTiledLayer) layer).getMapServiceInfo().getAttribution();
+                } else if (layer instanceof ArcGISMapImageLayer) {
+                    layerAttribution = ((ArcGISMapImageLayer) layer).getMapServiceInfo().getAttribution();
+                }
+            } catch (Exception exception) {
+                Log.d("AttributionLoader", "No service info for " + layer.getClass() + ": " + exception.getLocalizedMessage());
+            }
+        }
+        return layerAttribution != null && layerAttribution.length() > 0 ? layerAttribution : null;
+    }
+
+    /**
+     * @param serviceURL {String} URL of a map or vector tile service, proxied or not.
+     * @return {String} the name the service's community attribution is published under, or null if it is not an Esri basemap service.
+     */
+    static String findServiceName(String serviceURL) {
+        if (serviceURL == null) {
+            return null;
+        }
+        Matcher matcher = ESRI_SERVICE_URL.matcher(TileProxy.upstreamURLOf(serviceURL));
+        if ( ! matcher.find()) {
+            return null;
+        }
+        return "VectorTileServer".equalsIgnoreCase(matcher.group(4)) ? "Vector/" + matcher.group(3) : matcher.group(3);
+    }
+
+    /**
+     * A vector tile layer's URL is its style, the service is named by the style's tile sources.
+     */
+    private String findVectorTileServiceName(String styleURL) {
+        String serviceName = findServiceName(styleURL);
+        if (serviceName != null || styleURL == null) {
+            return serviceName;
+        }
+        try {
+            JSONObject sources = new JSONObject(new String(download(styleURL), "UTF-8")).optJSONObject("sources");
+            if (sources != null) {
+                Iterator<String> sourceNames = sources.keys();
+                while (sourceNames.hasNext() && serviceName == null) {
+                    JSONObject source = sources.optJSONObject(sourceNames.next());
+                    serviceName = source != null ? findServiceName(source.optString("url", null)) : null;
+                }
+            }
+        } catch (IOException | JSONException exception) {
+            Log.d("AttributionLoader", "Cannot read vector tile style " + styleURL + ": " + exception.getLocalizedMessage());
+        }
+        return serviceName;
+    }
+
+    /**
+     * Get the contributors of a service from the disk cache, or download them.
+     * @return {List} the contributors or null if they are not available.
+     */
+    private List<AttributionEngine.Contributor> loadContributors(String serviceName) {
+        byte[] json = null;
+        byte[] cached = mDiskCache.get(serviceName);
+        if (cached != null && cached.length > 8) {
+            ByteBuffer cachedBuffer = ByteBuffer.wrap(cached);
+            long savedAt = cachedBuffer.getLong();
+            long now = System.currentTimeMillis();
+            if (now - savedAt <= mTimeToLive && now >= savedAt) {
+                json = new byte[cached.length - 8];
+                cachedBuffer.get(json);
+            }
+        }
+        if (json == null) {
+            try {
+                json = download(COMMUNITY_ATTRIBUTION_URL + serviceName);
+                mDiskCache.put(serviceName, ByteBuffer.allocate(8 + json.length).putLong(System.currentTimeMillis()).put(json).array());
+            } catch (IOException exception) {
+                Log.d("AttributionLoader", "Cannot download attribution for " + serviceName + ": " + exception.getLocalizedMessage());
+                return null;
+            }
+        }
+        try {
+            return parseContributors(new String(json, "UTF-8"));
+        } catch (IOException | JSONException exception) {
+            Log.d("AttributionLoader", "Cannot read attribution for " + serviceName + ": " + exception.getLocalizedMessage());
+            mDiskCache.remove(serviceName);
+            return null;
+        }
+    }
+
+    /**
+     * Read community attribution JSON, a bbox is [south, west, north, east].
+     */
+    static List<AttributionEngine.Contributor> parseContributors(String json) throws JSONException {
+        JSONArray contributorsJSON = new JSONObject(json).getJSONArray("contributors");
+        List<AttributionEngine.Contributor> contributors = new ArrayList<>(contributorsJSON.length());
+        for (int i = 0; i < contributorsJSON.length(); i ++) {
+            JSONObject contributorJSON = contributorsJSON.getJSONObject(i);
+            JSONArray coverageAreasJSON = contributorJSON.getJSONArray("coverageAreas");
+            List<AttributionEngine.CoverageArea> coverageAreas = new ArrayList<>(coverageAreasJSON.length());
+            for (int j = 0; j < coverageAreasJSON.length(); j ++) {
+                JSONObject coverageAreaJSON = coverageAreasJSON.getJSONObject(j);
+                JSONArray bbox = coverageAreaJSON.getJSONArray("bbox");
+                coverageAreas.add(new AttributionEngine.CoverageArea(
+                        coverageAreaJSON.getInt("zoomMin"),
+                        coverageAreaJSON.getInt("zoomMax"),
+                        coverageAreaJSON.optDouble("score", 0),
+                        bbox.getDouble(1), bbox.getDouble(0), bbox.getDouble(3), bbox.getDouble(2)));
+            }
+            contributors.add(new AttributionEngine.Contributor(contributorJSON.getString("attribution"), coverageAreas));
+        }
+        return contributors;
+    }
+
+    private static byte[] download(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + connection.getResponseCode());
+            }
+            InputStream inputStream = connection.getInputStream();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+            }
+            inputStream.close();
+            return outputStream.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
@@ -11,6 +11,7 @@ import android.graphics.BitmapFactory;
 import android.util.Log;
 
 import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.loadable.LoadStatus;
 import com.esri.arcgisruntime.portal.PortalItem;
 
 public class BasemapItem {
@@ -22,24 +23,136 @@ public class BasemapItem {
     }
 
     private final PortalItem mPortalItem;
+    private final String mTitle;
+    private final boolean mRestoredFromCache;
     private int mIndex;
     private Bitmap mImage;
     private boolean mLoadPending;
     private boolean mLoaded;
-    private ListenableFuture<byte[]> mItemThumbnailDataFuture;
+    private volatile ListenableFuture<byte[]> mItemThumbnailDataFuture;
+    private final ThumbnailCache mThumbnailCache;
+    private final String mThumbnailKey;
+    private final ThumbnailFetchScheduler<BasemapItem> mFetchScheduler;
+
+    /**
+     * The scheduled network fetch of our thumbnail. Cancel can come at any point: before the
+     * scheduler starts us, while the portal item is loading, or while the thumbnail is downloading.
+     * Whichever it is the load callback is called once and onFinished is run once.
+     */
+    private class ThumbnailFetchTask implements ThumbnailFetchScheduler.FetchTask {
+        private final ImageLoadedCompletionInterface mImageLoadComplete;
+        private boolean mStarted;
+        private boolean mCancelled;
+
+        ThumbnailFetchTask(ImageLoadedCompletionInterface imageLoadComplete) {
+            this.mImageLoadComplete = imageLoadComplete;
+        }
+
+        synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public void start(Runnable onFinished) {
+            boolean started;
+            synchronized (this) {
+                started = mStarted = ! mCancelled;
+            }
+            if (started) {
+                startThumbnailFetch(mImageLoadComplete, onFinished, this);
+            } else {
+                onFinished.run(); // cancelled before we got going, cancel already reported it
+            }
+        }
+
+        @Override
+        public void cancel() {
+            boolean started;
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                started = mStarted;
+            }
+            if ( ! started) {
+                thumbnailFailed(mImageLoadComplete, "Thumbnail fetch cancelled");
+                return;
+            }
+            // a running fetch reports through its own listener once it sees the flag or the cancelled future
+            ListenableFuture<byte[]> itemThumbnailDataFuture = mItemThumbnailDataFuture;
+            if (itemThumbnailDataFuture != null && ! itemThumbnailDataFuture.isDone()) {
+                itemThumbnailDataFuture.cancel(true);
+            }
+        }
+    }
 
     public BasemapItem(int index, PortalItem item) {
+        this(index, item, null, null);
+    }
+
+    public BasemapItem(int index, PortalItem item, ThumbnailCache thumbnailCache, ThumbnailFetchScheduler<BasemapItem> fetchScheduler) {
+        this(index, item, item != null ? item.getTitle() : null, ThumbnailCache.keyForPortalItem(item), false, thumbnailCache, fetchScheduler);
+    }
+
+    /**
+     * Construct a basemap item for a portal item we know from the BasemapQueryCache. The portal item
+     * is not loaded, so the title and thumbnail key come from the cached copy.
+     */
+    public BasemapItem(int index, PortalItem item, BasemapQueryCache.CachedItem cachedItem, ThumbnailCache thumbnailCache, ThumbnailFetchScheduler<BasemapItem> fetchScheduler) {
+        this(index, item, cachedItem.title, ThumbnailCache.keyFor(cachedItem.itemId, cachedItem.thumbnailFileName, cachedItem.modified), true, thumbnailCache, fetchScheduler);
+    }
+
+    private BasemapItem(int index, PortalItem item, String title, String thumbnailKey, boolean restoredFromCache, ThumbnailCache thumbnailCache, ThumbnailFetchScheduler<BasemapItem> fetchScheduler) {
         this.mIndex = index;
         this.mPortalItem = item;
+        this.mTitle = title;
+        this.mRestoredFromCache = restoredFromCache;
         this.mLoadPending = false;
         this.mLoaded = false;
+        this.mThumbnailCache = thumbnailCache;
+        this.mThumbnailKey = thumbnailKey;
+        this.mFetchScheduler = fetchScheduler;
     }
 
     public PortalItem getPortalItem() {
         return mPortalItem;
     }
 
+    public String getTitle() {
+        return mTitle;
+    }
+
+    public boolean hasThumbnail() {
+        return mThumbnailKey != null || (mPortalItem != null && mPortalItem.getThumbnailFileName() != null);
+    }
+
+    /**
+     * Get the item's thumbnail. When a thumbnail cache is in use we do not hold on to the bitmap
+     * ourselves, the cache owns it and may evict it, in which case the item needs to be loaded again.
+     * @return {Bitmap} the thumbnail or null if it is not loaded.
+     */
     public Bitmap getImage() {
+        return getImage(false);
+    }
+
+    /**
+     * Get the item's thumbnail to show in a view. With a thumbnail cache the thumbnail is counted as
+     * displayed as it is taken from the cache, and the view must call displayEnded when it lets go.
+     * @return {Bitmap} the thumbnail or null if it is not loaded.
+     */
+    public Bitmap getImageForDisplay() {
+        return getImage(true);
+    }
+
+    private Bitmap getImage(boolean forDisplay) {
+        if (mThumbnailCache != null) {
+            Bitmap thumbnail = forDisplay ? mThumbnailCache.getForDisplay(mThumbnailKey) : mThumbnailCache.getFromMemory(mThumbnailKey);
+            if (thumbnail == null && ! mLoadPending) {
+                mLoaded = false;
+            }
+            return thumbnail;
+        }
         return mImage;
     }
 
@@ -47,42 +160,148 @@ public class BasemapItem {
         return mIndex;
     }
 
+    public void setIndex(int index) {
+        mIndex = index;
+    }
+
     public boolean isLoaded() {
         return mLoaded;
     }
 
-    public void loadImage(final ImageLoadedCompletionInterface imageLoadComplete) {
+    public boolean isLoadPending() {
+        return mLoadPending;
+    }
+
+    /**
+     * Start loading the item's thumbnail, from the thumbnail cache if it is there, otherwise from the
+     * portal through the fetch scheduler.
+     * @param imageLoadComplete {ImageLoadedCompletionInterface} called once the load completes or fails.
+     * @return {boolean} true if a load was started, false if it is already loaded or loading.
+     */
+    public boolean loadImage(final ImageLoadedCompletionInterface imageLoadComplete) {
         if (mLoadPending || mLoaded || mPortalItem == null) {
-            return; // don't bother if there is nothing to load or we are already loading it
+            return false; // don't bother if there is nothing to load or we are already loading it
         }
         mLoadPending = true;
+        if (mThumbnailCache != null && mThumbnailKey != null) {
+            // check the memory and disk caches before we go to the network
+            mThumbnailCache.get(mThumbnailKey, new ThumbnailCache.ThumbnailLookupCompletionInterface() {
+                @Override
+                public void onThumbnailFound(Bitmap thumbnail) {
+                    thumbnailLoaded(imageLoadComplete);
+                }
+
+                @Override
+                public void onThumbnailNotFound() {
+                    fetchThumbnail(imageLoadComplete);
+                }
+            });
+        } else {
+            fetchThumbnail(imageLoadComplete);
+        }
+        return true;
+    }
+
+    private void fetchThumbnail(final ImageLoadedCompletionInterface imageLoadComplete) {
+        if (mFetchScheduler == null) {
+            startThumbnailFetch(imageLoadComplete, null, null);
+            return;
+        }
+        // the network fetch waits its turn, the grid adapter raises our priority when we are visible
+        mFetchScheduler.submit(this, new ThumbnailFetchTask(imageLoadComplete), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+    }
+
+    private void startThumbnailFetch(final ImageLoadedCompletionInterface imageLoadComplete, final Runnable onFinished, final ThumbnailFetchTask fetchTask) {
+        if (mRestoredFromCache && mPortalItem.getLoadStatus() != LoadStatus.LOADED) {
+            // items restored from the query cache are not loaded, load the item before asking for its thumbnail
+            mPortalItem.addDoneLoadingListener(new Runnable() {
+                @Override
+                public void run() {
+                    boolean cancelled = fetchTask != null && fetchTask.isCancelled();
+                    if (mPortalItem.getLoadStatus() == LoadStatus.LOADED && ! cancelled) {
+                        startThumbnailFetch(imageLoadComplete, onFinished, fetchTask);
+                    } else {
+                        if (onFinished != null) {
+                            onFinished.run();
+                        }
+                        thumbnailFailed(imageLoadComplete, cancelled ? "Thumbnail fetch cancelled" : "Unable to load portal item");
+                    }
+                }
+            });
+            mPortalItem.loadAsync();
+            return;
+        }
+        TraceRecorder traceRecorder = TraceRecorder.getInstance();
+        long traceSpan = traceRecorder.begin("thumbnail.fetch");
+        final long fetchStartNanos = System.nanoTime();
         mItemThumbnailDataFuture = mPortalItem.fetchThumbnailAsync();
-        mItemThumbnailDataFuture.addDoneListener(new Runnable() {
+        if (fetchTask != null && fetchTask.isCancelled()) {
+            mItemThumbnailDataFuture.cancel(true); // cancelled while we were starting it
+        }
+        mItemThumbnailDataFuture.addDoneListener(traceRecorder.endAfter(traceSpan, new Runnable() {
             @Override
             public void run() {
-                loadImageCompletionHandler(imageLoadComplete);
+                if (onFinished != null) {
+                    onFinished.run();
+                }
+                loadImageCompletionHandler(imageLoadComplete, fetchStartNanos);
             }
-        });
+        }));
     }
 
-    private void loadImageCompletionHandler (final ImageLoadedCompletionInterface imageLoadComplete) {
+    private void loadImageCompletionHandler (final ImageLoadedCompletionInterface imageLoadComplete, long fetchStartNanos) {
+        boolean fetched = false;
         try {
             byte[] itemThumbnailData = mItemThumbnailDataFuture.get();
+            mItemThumbnailDataFuture = null;
+            fetched = true;
+            MetricsRegistry.getInstance().recordSince("thumbnail.fetch", fetchStartNanos, true);
             if ((itemThumbnailData != null) && (itemThumbnailData.length > 0)) {
-                mImage = BitmapFactory.decodeByteArray(itemThumbnailData, 0, itemThumbnailData.length);
-                mLoaded = true;
-                if (imageLoadComplete != null) {
-                    imageLoadComplete.onImageCompleted(this);
+                if (mThumbnailCache != null) {
+                    // decode on the decoder thread, not the thread the runtime called us on
+                    mThumbnailCache.put(mThumbnailKey, itemThumbnailData, new ThumbnailCache.ThumbnailLookupCompletionInterface() {
+                        @Override
+                        public void onThumbnailFound(Bitmap thumbnail) {
+                            thumbnailLoaded(imageLoadComplete);
+                        }
+
+                        @Override
+                        public void onThumbnailNotFound() {
+                            thumbnailFailed(imageLoadComplete, "Unable to decode thumbnail");
+                        }
+                    });
+                    return;
                 }
+                mImage = BitmapFactory.decodeByteArray(itemThumbnailData, 0, itemThumbnailData.length);
+                thumbnailLoaded(imageLoadComplete);
+                return;
             }
         } catch (Exception exception) {
-            Log.d("BasemapItem.loadImage", "load FAILED for " + mPortalItem.getTitle() + " (" + mIndex + "): " + exception.getLocalizedMessage());
-            if (imageLoadComplete != null) {
-                imageLoadComplete.onImageFailed(this, exception.getLocalizedMessage());
-            } else {
-                Log.d("BasemapItem.loadImage", "Unable to load thumbnail for " + mPortalItem.getTitle() + " (" + mIndex + "): " + exception.getLocalizedMessage());
+            mItemThumbnailDataFuture = null;
+            if ( ! fetched) {
+                MetricsRegistry.getInstance().recordSince("thumbnail.fetch", fetchStartNanos, false);
             }
+            thumbnailFailed(imageLoadComplete, exception.getLocalizedMessage());
+            return;
         }
         mLoadPending = false;
     }
+
+    private void thumbnailLoaded(ImageLoadedCompletionInterface imageLoadComplete) {
+        mLoaded = true;
+        mLoadPending = false;
+        if (imageLoadComplete != null) {
+            imageLoadComplete.onImageCompleted(this);
+        }
+    }
+
+    private void thumbnailFailed(ImageLoadedCompletionInterface imageLoadComplete, String errorMessage) {
+        Log.d("BasemapItem.loadImage", "load FAILED for " + mTitle + " (" + mIndex + "): " + errorMessage);
+        mLoadPending = false;
+        if (imageLoadComplete != null) {
+            imageLoadComplete.onImageFailed(this, errorMessage);
+        } else {
+            Log.d("BasemapItem.loadImage", "Unable to load thumbnail for " + mTitle + " (" + mIndex + "): " + errorMessage);
+        }
+    }
 }
@@ -0,0 +1,153 @@
+/**
+ * Keep recently used basemaps loaded so switching back to one is a matter of handing the same
+ * Basemap instance to the map instead of building a new one and loading its service metadata again.
+ * Basemaps are keyed by the caller, for example "type:STREETS" or "item:<portal item id>", and held
+ * in an LRU budgeted by an estimate of the memory each basemap layer takes once loaded. Preloading
+ * creates the basemap and loads it and its layers in the background so it is ready before it is
+ * picked. Basemaps that fail to load are dropped so the next request builds a fresh one.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import com.esri.arcgisruntime.layers.Layer;
+import com.esri.arcgisruntime.loadable.LoadStatus;
+import com.esri.arcgisruntime.mapping.Basemap;
+
+public class BasemapPool {
+
+    // define callback interface for building a basemap the pool does not have
+    public interface BasemapFactory {
+        Basemap create();
+    }
+
+    /**
+     * A pooled basemap and the cost it was entered with, the layer count can change once it loads
+     * but the LRU needs the same size back when the entry is removed.
+     */
+    private static class PooledBasemap {
+        final Basemap basemap;
+        final int cost;
+
+        PooledBasemap(Basemap basemap, int cost) {
+            this.basemap = basemap;
+            this.cost = cost;
+        }
+    }
+
+    private final LruCache<String, PooledBasemap> mPool;
+    private final int mLayerCost;
+    private String mCurrentKey = null;
+
+    /**
+     * Construct a basemap pool.
+     * @param memoryBudgetBytes - estimated bytes of loaded basemaps to keep.
+     * @param layerCostBytes - estimated bytes a loaded basemap layer holds, not counting the tiles
+     *                       the map view draws which the runtime caches on its own.
+     */
+    public BasemapPool(int memoryBudgetBytes, int layerCostBytes) {
+        mLayerCost = Math.max(1, layerCostBytes);
+        mPool = new LruCache<String, PooledBasemap>(Math.max(mLayerCost, memoryBudgetBytes)) {
+            @Override
+            protected int sizeOf(String key, PooledBasemap pooledBasemap) {
+                return pooledBasemap.cost;
+            }
+        };
+    }
+
+    /**
+     * Get the basemap to show for a key, from the pool if it is there and has not failed to load,
+     * otherwise from the factory. The basemap becomes the current one.
+     * @param key {String} identifies the basemap.
+     * @param basemapFactory {BasemapFactory} builds the basemap if the pool does not have it.
+     * @return {Basemap} the basemap to give to the map.
+     */
+    public Basemap acquire(String key, BasemapFactory basemapFactory) {
+        PooledBasemap pooledBasemap = mPool.get(key);
+        if (pooledBasemap != null && pooledBasemap.basemap.getLoadStatus() == LoadStatus.FAILED_TO_LOAD) {
+            mPool.remove(key);
+            pooledBasemap = null;
+        }
+        if (pooledBasemap == null) {
+            pooledBasemap = pool(key, basemapFactory.create());
+            MetricsRegistry.getInstance().increment("basemapPool.miss");
+        } else {
+            MetricsRegistry.getInstance().increment("basemapPool.hit");
+        }
+        mCurrentKey = key;
+        return pooledBasemap.basemap;
+    }
+
+    /**
+     * @return {boolean} true if the pool has this basemap and it is loaded, so showing it needs no
+     *                   network request for its metadata.
+     */
+    public boolean isLoaded(String key) {
+        PooledBasemap pooledBasemap = mPool.get(key);
+        return pooledBasemap != null && pooledBasemap.basemap.getLoadStatus() == LoadStatus.LOADED;
+    }
+
+    /**
+     * Build and load a basemap that is likely to be picked next, unless the pool already has it.
+     * @param key {String} identifies the basemap.
+     * @param basemapFactory {BasemapFactory} builds the basemap.
+     */
+    public void preload(final String key, BasemapFactory basemapFactory) {
+        if (mPool.get(key) != null) {
+            return;
+        }
+        final PooledBasemap pooledBasemap = pool(key, basemapFactory.create());
+        final Basemap basemap = pooledBasemap.basemap;
+        final long preloadStartNanos = System.nanoTime();
+        TraceRecorder traceRecorder = TraceRecorder.getInstance();
+        basemap.addDoneLoadingListener(traceRecorder.endAfter(traceRecorder.begin("basemap.preload"), new Runnable() {
+            @Override
+            public void run() {
+                boolean loaded = basemap.getLoadStatus() == LoadStatus.LOADED;
+                MetricsRegistry.getInstance().recordSince("basemap.preload", preloadStartNanos, loaded);
+                if (loaded) {
+                    for (Layer layer : basemap.getBaseLayers()) {
+                        layer.loadAsync();
+                    }
+                    for (Layer layer : basemap.getReferenceLayers()) {
+                        layer.loadAsync();
+                    }
+                } else {
+                    Log.d("preload", "Basemap " + key + " did not load: " + (basemap.getLoadError() != null ? basemap.getLoadError().getMessage() : ""));
+                    if (mPool.get(key) == pooledBasemap) {
+                        mPool.remove(key);
+                    }
+                }
+            }
+        }));
+        basemap.loadAsync();
+    }
+
+    /**
+     * Drop every basemap but the one on the map, called when the system is low on memory.
+     */
+    public void trimToCurrent() {
+        PooledBasemap current = mCurrentKey != null ? mPool.get(mCurrentKey) : null;
+        mPool.evictAll();
+        if (current != null) {
+            mPool.put(mCurrentKey, current);
+        }
+    }
+
+    /**
+     * Drop every basemap, including the one on the map, for example when the user logs out.
+     */
+    public void evictAll() {
+        mPool.evictAll();
+        mCurrentKey = null;
+    }
+
+    private PooledBasemap pool(String key, Basemap basemap) {
+        int layerCount = basemap.getBaseLayers().size() + basemap.getReferenceLayers().size();
+        PooledBasemap pooledBasemap = new PooledBasemap(basemap, Math.max(1, layerCount) * mLayerCost);
+        mPool.put(key, pooledBasemap);
+        return pooledBasemap;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * A small pool of mutable bitmaps that are no longer displayed so the decoder can reuse their
+ * memory through BitmapFactory.Options.inBitmap instead of allocating a new bitmap for every
+ * thumbnail. The pool is bounded by the total byte size of the bitmaps it holds.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+public class BitmapPool {
+
+    private final LinkedList<Bitmap> mBitmaps;
+    private final int mMaxBytes;
+    private int mCurrentBytes;
+
+    /**
+     * Construct a bitmap pool.
+     * @param maxBytes - maximum number of bytes of bitmaps to hold for reuse.
+     */
+    public BitmapPool(int maxBytes) {
+        this.mBitmaps = new LinkedList<>();
+        this.mMaxBytes = maxBytes;
+        this.mCurrentBytes = 0;
+    }
+
+    /**
+     * Return a bitmap to the pool. Only mutable bitmaps can be reused by the decoder, anything else
+     * is ignored. When the pool is full the oldest bitmaps are dropped.
+     * @param bitmap {Bitmap} a bitmap that is no longer referenced by any view.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || ! bitmap.isMutable() || bitmap.getByteCount() > mMaxBytes) {
+            return;
+        }
+        mBitmaps.addLast(bitmap);
+        mCurrentBytes += bitmap.getByteCount();
+        while (mCurrentBytes > mMaxBytes && ! mBitmaps.isEmpty()) {
+            mCurrentBytes -= mBitmaps.removeFirst().getByteCount();
+        }
+    }
+
+    /**
+     * Find a pooled bitmap the decoder can decode into and remove it from the pool. Before KitKat
+     * the reused bitmap must be exactly the decoded size and no sampling can be used, after that any
+     * bitmap with a large enough allocation will do.
+     * @param width {int} width of the bitmap that will be decoded (after sampling.)
+     * @param height {int} height of the bitmap that will be decoded (after sampling.)
+     * @param config {Bitmap.Config} pixel format that will be decoded.
+     * @param sampleSize {int} the inSampleSize that will be used for the decode.
+     * @return {Bitmap} a reusable bitmap or null if none in the pool fits.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config, int sampleSize) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT && sampleSize != 1) {
+            return null;
+        }
+        int requiredBytes = width * height * bytesPerPixel(config);
+        Iterator<Bitmap> iterator = mBitmaps.iterator();
+        while (iterator.hasNext()) {
+            Bitmap candidate = iterator.next();
+            if (candidate.isRecycled()) {
+                mCurrentBytes -= candidate.getByteCount();
+                iterator.remove();
+                continue;
+            }
+            boolean fits;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                fits = candidate.getAllocationByteCount() >= requiredBytes;
+            } else {
+                fits = candidate.getWidth() == width && candidate.getHeight() == height && candidate.getConfig() == config;
+            }
+            if (fits) {
+                mCurrentBytes -= candidate.getByteCount();
+                iterator.remove();
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    public synchronized void clear() {
+        mBitmaps.clear();
+        mCurrentBytes = 0;
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
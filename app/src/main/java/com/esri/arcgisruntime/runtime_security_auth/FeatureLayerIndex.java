@@ -0,0 +1,307 @@
+/**
+ * Keep a PointIndex of the point features of a feature layer around the visible extent so a tap can
+ * be answered without waiting on MapView.identifyLayerAsync. Whenever the map stops navigating and
+ * the visible extent is no longer inside the indexed extent, the layer's table is queried for a
+ * padded copy of the visible extent and a new index is built off the UI thread. The features come
+ * from the table's cache when the layer already fetched them for drawing.
+ *
+ * The index only answers for locations inside the extent it was built from, findNearest callers
+ * must check covers first and fall back to the runtime identify when it does not.
+ *
+ * When out fields are given the layer's table must be a ServiceFeatureTable in MANUAL_CACHE mode.
+ * The extent is then loaded by a FeaturePopulator asking for only those fields, a page at a time, so
+ * this class is also what fills the table with the features the layer draws.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import android.util.Log;
+
+import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.data.Feature;
+import com.esri.arcgisruntime.data.FeatureQueryResult;
+import com.esri.arcgisruntime.data.QueryParameters;
+import com.esri.arcgisruntime.data.ServiceFeatureTable;
+import com.esri.arcgisruntime.geometry.Envelope;
+import com.esri.arcgisruntime.geometry.Geometry;
+import com.esri.arcgisruntime.geometry.GeometryEngine;
+import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.Polygon;
+import com.esri.arcgisruntime.geometry.SpatialReference;
+import com.esri.arcgisruntime.layers.FeatureLayer;
+import com.esri.arcgisruntime.mapping.view.MapView;
+import com.esri.arcgisruntime.mapping.view.NavigationChangedEvent;
+import com.esri.arcgisruntime.mapping.view.NavigationChangedListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class FeatureLayerIndex {
+
+    private static final double EXTENT_PADDING = 0.5; // index half a screen beyond each edge so small pans stay covered
+
+    /**
+     * An index and the extent it covers, replaced as a whole so a tap always sees a matching pair.
+     */
+    private static class IndexedExtent {
+        final PointIndex<Feature> index;
+        final SpatialReference spatialReference;
+        final double xMin, yMin, xMax, yMax;
+
+        IndexedExtent(PointIndex<Feature> index, Envelope extent) {
+            this.index = index;
+            this.spatialReference = extent.getSpatialReference();
+            this.xMin = extent.getXMin();
+            this.yMin = extent.getYMin();
+            this.xMax = extent.getXMax();
+            this.yMax = extent.getYMax();
+        }
+
+        boolean contains(double x, double y) {
+            return x >= xMin && x <= xMax && y >= yMin && y <= yMax;
+        }
+    }
+
+    private final MapView mMapView;
+    private final FeatureLayer mFeatureLayer;
+    private final int mMaxFeatures;
+    private final List<String> mOutFields;
+    private final int mPageSize;
+    private final ExecutorService mBuildExecutor = Executors.newSingleThreadExecutor();
+    private volatile IndexedExtent mIndexedExtent = null;
+    private ListenableFuture<FeatureQueryResult> mQueryFuture = null;
+    private FeaturePopulator mPopulator = null;
+    private volatile int mGeneration = 0; // bumped by invalidate so an index built for an old extent is dropped
+    private boolean mStarted = false;
+    private boolean mKeepCachedFeatures = false;
+
+    private final NavigationChangedListener mNavigationChangedListener = new NavigationChangedListener() {
+        @Override
+        public void navigationChanged(NavigationChangedEvent navigationChangedEvent) {
+            if ( ! navigationChangedEvent.isNavigating()) {
+                indexVisibleExtent();
+            }
+        }
+    };
+
+    /**
+     * Construct an index for a layer.
+     * @param mapView - the map view showing the layer.
+     * @param featureLayer - the layer to index, only point features are indexed.
+     * @param maxFeatures - an extent with this many features or more is not indexed, taps there fall
+     *                    back to the runtime identify. Keep this at or below the service's max record
+     *                    count so a truncated query result is never taken as complete.
+     */
+    public FeatureLayerIndex(MapView mapView, FeatureLayer featureLayer, int maxFeatures) {
+        this(mapView, featureLayer, maxFeatures, null, 0);
+    }
+
+    /**
+     * Construct an index for a layer that also populates the layer's table.
+     * @param mapView - the map view showing the layer.
+     * @param featureLayer - the layer to index, its table must be a ServiceFeatureTable in MANUAL_CACHE mode.
+     * @param maxFeatures - an extent with this many features or more is not indexed.
+     * @param outFields - the fields to fetch for each feature, null to query what the table already has.
+     * @param pageSize - the service's max record count, the most features one populate returns.
+     */
+    public FeatureLayerIndex(MapView mapView, FeatureLayer featureLayer, int maxFeatures, List<String> outFields, int pageSize) {
+        this.mMapView = mapView;
+        this.mFeatureLayer = featureLayer;
+        this.mMaxFeatures = maxFeatures;
+        this.mOutFields = outFields;
+        this.mPageSize = pageSize;
+    }
+
+    /**
+     * Index the visible extent now and again each time the map comes to rest.
+     */
+    public void start() {
+        if ( ! mStarted) {
+            mStarted = true;
+            mMapView.addNavigationChangedListener(mNavigationChangedListener);
+            indexVisibleExtent();
+        }
+    }
+
+    /**
+     * Stop following the map and drop the index.
+     */
+    public void stop() {
+        if (mStarted) {
+            mStarted = false;
+            mMapView.removeNavigationChangedListener(mNavigationChangedListener);
+        }
+        invalidate();
+    }
+
+    /**
+     * Stop following the map for good and let the index build thread end, for an index that is
+     * being replaced or whose activity is destroyed.
+     */
+    public void shutdown() {
+        stop();
+        mBuildExecutor.shutdown();
+    }
+
+    /**
+     * Keep the features already in the table's cache when populating a new extent instead of
+     * replacing them, set once a region was prefetched into the table so panning does not throw
+     * those features away. Memory then grows with the extents visited.
+     * @param keepCachedFeatures {boolean} true to add to the cache, false to replace it.
+     */
+    public void setKeepCachedFeatures(boolean keepCachedFeatures) {
+        mKeepCachedFeatures = keepCachedFeatures;
+    }
+
+    /**
+     * Drop the index, for example after the layer's features were edited. It is rebuilt the next
+     * time the map comes to rest.
+     */
+    public void invalidate() {
+        mGeneration ++;
+        mIndexedExtent = null;
+        if (mQueryFuture != null) {
+            mQueryFuture.cancel(true);
+            mQueryFuture = null;
+        }
+        if (mPopulator != null) {
+            mPopulator.cancel();
+            mPopulator = null;
+        }
+    }
+
+    /**
+     * @param mapPoint {Point} a location in map coordinates.
+     * @return {boolean} true if the index can answer for this location.
+     */
+    public boolean covers(Point mapPoint) {
+        IndexedExtent indexedExtent = mIndexedExtent;
+        return indexedExtent != null && mapPoint != null && mFeatureLayer.isVisible()
+                && sameSpatialReference(indexedExtent.spatialReference, mapPoint.getSpatialReference())
+                && indexedExtent.contains(mapPoint.getX(), mapPoint.getY());
+    }
+
+    /**
+     * Find the feature nearest to a location. Only meaningful when covers(mapPoint) is true.
+     * @param mapPoint {Point} a location in map coordinates.
+     * @param tolerance {double} only consider features this close or closer, in map units.
+     * @return {Feature} the nearest feature or null if there is none within the tolerance.
+     */
+    public Feature findNearest(Point mapPoint, double tolerance) {
+        IndexedExtent indexedExtent = mIndexedExtent;
+        if (indexedExtent == null || mapPoint == null) {
+            return null;
+        }
+        return indexedExtent.index.nearest(mapPoint.getX(), mapPoint.getY(), tolerance);
+    }
+
+    /**
+     * If the visible extent has moved outside the indexed extent query the layer's table for a
+     * padded extent around it and build a new index from the result.
+     */
+    private void indexVisibleExtent() {
+        Polygon visibleArea = mMapView.getVisibleArea();
+        if (visibleArea == null || visibleArea.isEmpty() || mFeatureLayer.getFeatureTable() == null) {
+            return;
+        }
+        Envelope visibleExtent = visibleArea.getExtent();
+        IndexedExtent indexedExtent = mIndexedExtent;
+        if (indexedExtent != null && sameSpatialReference(indexedExtent.spatialReference, visibleExtent.getSpatialReference())
+                && indexedExtent.contains(visibleExtent.getXMin(), visibleExtent.getYMin())
+                && indexedExtent.contains(visibleExtent.getXMax(), visibleExtent.getYMax())) {
+            return;
+        }
+        double padX = visibleExtent.getWidth() * EXTENT_PADDING;
+        double padY = visibleExtent.getHeight() * EXTENT_PADDING;
+        final Envelope queryExtent = new Envelope(visibleExtent.getXMin() - padX, visibleExtent.getYMin() - padY,
+                visibleExtent.getXMax() + padX, visibleExtent.getYMax() + padY, visibleExtent.getSpatialReference());
+
+        invalidate();
+        final int generation = mGeneration;
+        if (mOutFields != null && mFeatureLayer.getFeatureTable() instanceof ServiceFeatureTable) {
+            // replace the table's cache with this extent so memory stays bounded as the user pans,
+            // unless it holds a prefetched region
+            final FeaturePopulator populator = new FeaturePopulator((ServiceFeatureTable) mFeatureLayer.getFeatureTable(), mOutFields, mPageSize);
+            final boolean clearCache = ! mKeepCachedFeatures;
+            mPopulator = populator;
+            mBuildExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    FeaturePopulator.Result result;
+                    try {
+                        result = populator.populate(queryExtent, clearCache);
+                    } catch (Exception exception) {
+                        Log.d("FeatureLayerIndex", "Cannot populate features to index: " + exception.getLocalizedMessage());
+                        return;
+                    }
+                    buildIndex(generation, result.features, result.complete, queryExtent);
+                }
+            });
+            return;
+        }
+        QueryParameters queryParameters = new QueryParameters();
+        queryParameters.setGeometry(queryExtent);
+        queryParameters.setReturnGeometry(true);
+        final ListenableFuture<FeatureQueryResult> queryFuture = mFeatureLayer.getFeatureTable().queryFeaturesAsync(queryParameters);
+        mQueryFuture = queryFuture;
+        queryFuture.addDoneListener(new Runnable() {
+            @Override
+            public void run() {
+                if (queryFuture.isCancelled() || generation != mGeneration) {
+                    return;
+                }
+                mQueryFuture = null;
+                final FeatureQueryResult queryResult;
+                try {
+                    queryResult = queryFuture.get();
+                } catch (Exception exception) {
+                    Log.d("FeatureLayerIndex", "Cannot query features to index: " + exception.getLocalizedMessage());
+                    return;
+                }
+                mBuildExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        buildIndex(generation, queryResult, true, queryExtent);
+                    }
+                });
+            }
+        });
+    }
+
+    private void buildIndex(int generation, Iterable<Feature> features, boolean complete, Envelope queryExtent) {
+        if ( ! complete) {
+            Log.d("FeatureLayerIndex", "Not all features could be populated, identify will use the runtime.");
+            return;
+        }
+        SpatialReference spatialReference = queryExtent.getSpatialReference();
+        List<PointIndex.Entry<Feature>> entries = new ArrayList<>();
+        int featureCount = 0;
+        for (Feature feature : features) {
+            // a result of the limit or more may have been cut short by the service's max record count,
+            // the index would then miss features that are there, so the extent is not covered
+            if (++ featureCount >= mMaxFeatures) {
+                Log.d("FeatureLayerIndex", "Too many features to index, identify will use the runtime.");
+                return;
+            }
+            Geometry geometry = feature.getGeometry();
+            if (geometry != null && ! sameSpatialReference(geometry.getSpatialReference(), spatialReference)) {
+                geometry = GeometryEngine.project(geometry, spatialReference);
+            }
+            if (geometry instanceof Point) {
+                Point point = (Point) geometry;
+                entries.add(new PointIndex.Entry<>(point.getX(), point.getY(), feature));
+            }
+        }
+        PointIndex<Feature> index = new PointIndex<>(entries);
+        if (generation == mGeneration) {
+            mIndexedExtent = new IndexedExtent(index, queryExtent);
+            Log.d("FeatureLayerIndex", "Indexed " + index.size() + " features.");
+        }
+    }
+
+    private static boolean sameSpatialReference(SpatialReference spatialReference1, SpatialReference spatialReference2) {
+        return spatialReference1 == null ? spatialReference2 == null : spatialReference1.equals(spatialReference2);
+    }
+}
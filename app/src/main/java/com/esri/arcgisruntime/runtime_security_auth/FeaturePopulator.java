@@ -0,0 +1,128 @@
+/**
+ * Fill the cache of a ServiceFeatureTable in MANUAL_CACHE mode with all the features of an extent.
+ * A single populateFromServiceAsync returns at most the service's max record count, so a dense
+ * extent would only draw a subset of its features. When a populate comes back with a full page the
+ * extent is split into quarters and each quarter is populated in turn, down to a fixed depth, so the
+ * table ends up with every feature and only the requested fields.
+ *
+ * populate blocks while the pages download, call it off the UI thread. Each instance fills one
+ * extent, cancel stops it between pages.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.data.Feature;
+import com.esri.arcgisruntime.data.FeatureQueryResult;
+import com.esri.arcgisruntime.data.QueryParameters;
+import com.esri.arcgisruntime.data.ServiceFeatureTable;
+import com.esri.arcgisruntime.geometry.Envelope;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+public class FeaturePopulator {
+
+    private static final int MAX_SPLIT_DEPTH = 3; // at most 4^3 = 64 pages for one extent
+
+    /**
+     * The features an extent was filled with.
+     */
+    public static class Result {
+        public final List<Feature> features;
+        public final boolean complete; // false if a quarter at the deepest split still filled a page
+
+        Result(List<Feature> features, boolean complete) {
+            this.features = features;
+            this.complete = complete;
+        }
+    }
+
+    private final ServiceFeatureTable mFeatureTable;
+    private final List<String> mOutFields;
+    private final int mPageSize;
+    private volatile boolean mCancelled = false;
+    private volatile ListenableFuture<FeatureQueryResult> mPageFuture = null;
+
+    /**
+     * @param featureTable - a table in MANUAL_CACHE mode.
+     * @param outFields - the fields to fetch for each feature.
+     * @param pageSize - the service's max record count, a populate returning this many features is split.
+     */
+    public FeaturePopulator(ServiceFeatureTable featureTable, List<String> outFields, int pageSize) {
+        this.mFeatureTable = featureTable;
+        this.mOutFields = outFields;
+        this.mPageSize = pageSize;
+    }
+
+    /**
+     * Populate the table with every feature in the extent.
+     * @param extent {Envelope} the extent to fill.
+     * @param clearCache {boolean} true to replace what the table's cache holds, false to add to it.
+     * @return {Result} the features of the extent, each once.
+     * @throws CancellationException if cancel was called.
+     * @throws Exception if a page could not be downloaded.
+     */
+    public Result populate(Envelope extent, boolean clearCache) throws Exception {
+        List<Feature> features = new ArrayList<>();
+        boolean complete = populate(extent, clearCache, 0, features);
+        Set<String> objectIds = new HashSet<>();
+        List<Feature> uniqueFeatures = new ArrayList<>(features.size());
+        for (Feature feature : features) {
+            // a feature on the edge between two quarters is returned by both
+            String objectId = MainActivity.getFeatureObjectId(feature);
+            if (objectId == null || objectIds.add(objectId)) {
+                uniqueFeatures.add(feature);
+            }
+        }
+        return new Result(uniqueFeatures, complete);
+    }
+
+    /**
+     * Stop populating, the page downloading now is cancelled and no more are requested.
+     */
+    public void cancel() {
+        mCancelled = true;
+        ListenableFuture<FeatureQueryResult> pageFuture = mPageFuture;
+        if (pageFuture != null) {
+            pageFuture.cancel(true);
+        }
+    }
+
+    private boolean populate(Envelope extent, boolean clearCache, int depth, List<Feature> features) throws Exception {
+        if (mCancelled) {
+            throw new CancellationException();
+        }
+        QueryParameters queryParameters = new QueryParameters();
+        queryParameters.setGeometry(extent);
+        queryParameters.setReturnGeometry(true);
+        ListenableFuture<FeatureQueryResult> pageFuture = mFeatureTable.populateFromServiceAsync(queryParameters, clearCache, mOutFields);
+        mPageFuture = pageFuture;
+        if (mCancelled) {
+            pageFuture.cancel(true);
+        }
+        List<Feature> pageFeatures = new ArrayList<>();
+        for (Feature feature : pageFuture.get()) {
+            pageFeatures.add(feature);
+        }
+        if (pageFeatures.size() < mPageSize) {
+            features.addAll(pageFeatures);
+            return true;
+        }
+        if (depth >= MAX_SPLIT_DEPTH) {
+            features.addAll(pageFeatures);
+            return false;
+        }
+        // the page is full so there may be more, the quarters together cover the whole extent
+        double xMid = (extent.getXMin() + extent.getXMax()) / 2;
+        double yMid = (extent.getYMin() + extent.getYMax()) / 2;
+        boolean complete = populate(new Envelope(extent.getXMin(), extent.getYMin(), xMid, yMid, extent.getSpatialReference()), false, depth + 1, features);
+        complete &= populate(new Envelope(xMid, extent.getYMin(), extent.getXMax(), yMid, extent.getSpatialReference()), false, depth + 1, features);
+        complete &= populate(new Envelope(extent.getXMin(), yMid, xMid, extent.getYMax(), extent.getSpatialReference()), false, depth + 1, features);
+        complete &= populate(new Envelope(xMid, yMid, extent.getXMax(), extent.getYMax(), extent.getSpatialReference()), false, depth + 1, features);
+        return complete;
+    }
+}
@@ -1,14 +1,22 @@
 /**
  * Ask the portal for all the basemaps that belong to the organization of the logged in user. This is
  * an asynchronous task that goes to the portal, gets the group basemap query, then performs
- * the query and fetches a set of results (PortalQueryResultSet). The results are passed on to the
- * BasemapFetchTaskComplete.onBasemapFetchCompleted interface. If there is an error then
- * BasemapFetchTaskComplete.onBasemapFetchFailed is called.
+ * the query and fetches a set of results (PortalQueryResultSet). Results are fetched a page at a time
+ * and each page is passed on to the BasemapFetchTaskComplete.onBasemapPageFetched interface as it
+ * arrives, then BasemapFetchTaskComplete.onBasemapFetchCompleted is called after the last page. If
+ * there is an error then BasemapFetchTaskComplete.onBasemapFetchFailed is called.
+ *
+ * When a BasemapQueryCache is provided and holds a recent result for this portal and user, that
+ * result is passed to BasemapFetchTaskComplete.onBasemapFetchCached right away and the group's
+ * items are then fetched in the background (skipping the group query, we already know the group
+ * id.) Only the items that changed are passed on to BasemapFetchTaskComplete.onBasemapFetchRevalidated.
+ * The query cache is read and written on a background thread, never on the UI thread.
  */
 
 package com.esri.arcgisruntime.runtime_security_auth;
 
 import android.app.Activity;
+import android.util.Log;
 
 import com.esri.arcgisruntime.concurrent.ListenableFuture;
 import com.esri.arcgisruntime.portal.Portal;
@@ -17,6 +25,13 @@ import com.esri.arcgisruntime.portal.PortalInfo;
 import com.esri.arcgisruntime.portal.PortalItem;
 import com.esri.arcgisruntime.portal.PortalQueryParameters;
 import com.esri.arcgisruntime.portal.PortalQueryResultSet;
+import com.esri.arcgisruntime.portal.PortalUser;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 public class FetchGroupBasemaps {
@@ -24,47 +39,60 @@ public class FetchGroupBasemaps {
     private MainActivity.BasemapFetchTaskComplete mDelegate = null;
     private Portal mArcgisPortal;
     private final Activity mActivity;
+    private final BasemapQueryCache mQueryCache;
+    private int mPageSize = DEFAULT_PAGE_SIZE;
+
+    public static final int DEFAULT_PAGE_SIZE = 25;
+    public static final int MAX_PAGE_SIZE = 100; // the most a portal will return for one query
+
+    private static final ExecutorService sCacheExecutor = Executors.newSingleThreadExecutor(); // query cache disk I/O, in order
 
     public FetchGroupBasemaps(Activity activity, Portal portal, MainActivity.BasemapFetchTaskComplete response){
+        this(activity, portal, null, response);
+    }
+
+    public FetchGroupBasemaps(Activity activity, Portal portal, BasemapQueryCache queryCache, MainActivity.BasemapFetchTaskComplete response){
         this.mActivity = activity;
         this.mArcgisPortal = portal;
+        this.mQueryCache = queryCache;
         mDelegate = response;
     }
 
+    /**
+     * Set how many items to ask the portal for in each page of the group item query.
+     * @param pageSize {int} items per page, 1 to MAX_PAGE_SIZE.
+     */
+    public void setPageSize(int pageSize) {
+        mPageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+    }
+
     public Void start() throws Exception {
         try {
-            PortalInfo portalInformation = mArcgisPortal.getPortalInfo();
-            PortalQueryParameters queryParams = new PortalQueryParameters();
-            queryParams.setQuery(portalInformation.getBasemapGalleryGroupQuery());
-            queryParams.setCanSearchPublic(true);
-            final ListenableFuture<PortalQueryResultSet<PortalGroup>> groupFuture = mArcgisPortal.findGroupsAsync(queryParams);
-            groupFuture.addDoneListener(new Runnable() {
+            final PortalInfo portalInformation = mArcgisPortal.getPortalInfo();
+            final String cacheKey = getCacheKey(portalInformation);
+            if (mQueryCache == null) {
+                findBasemapGroup(portalInformation, cacheKey, null);
+                return null;
+            }
+            sCacheExecutor.execute(new Runnable() {
                 @Override
                 public void run() {
-                    try {
-                        PortalQueryResultSet<PortalGroup> basemapGroupResult = groupFuture.get();
-                        PortalGroup group = basemapGroupResult.getResults().get(0);
-                        PortalQueryParameters basemapQueryParams = new PortalQueryParameters();
-                        basemapQueryParams.setQueryForItemsInGroup(group.getGroupId());
-                        final ListenableFuture<PortalQueryResultSet<PortalItem>> contentFuture = mArcgisPortal.findItemsAsync(basemapQueryParams);
-                        contentFuture.addDoneListener(new Runnable() {
-                            @Override
-                            public void run() {
-                                try {
-                                    PortalQueryResultSet<PortalItem> portalResultSet = contentFuture.get();
-                                    if (portalResultSet != null) {
-                                        mDelegate.onBasemapFetchCompleted(portalResultSet);
-                                    } else {
-                                        mDelegate.onBasemapFetchFailed(mActivity.getString(R.string.err_no_items));
-                                    }
-                                } catch (Exception exception) {
-                                    mDelegate.onBasemapFetchFailed(mActivity.getString(R.string.err_cannot_load_query) + exception.getLocalizedMessage());
+                    final BasemapQueryCache.CachedQuery cachedQuery = mQueryCache.get(cacheKey, System.currentTimeMillis());
+                    mActivity.runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                if (cachedQuery != null) {
+                                    mDelegate.onBasemapFetchCached(cachedQuery.items);
+                                    findGroupItems(cachedQuery.groupId, true, cacheKey, cachedQuery);
+                                } else {
+                                    findBasemapGroup(portalInformation, cacheKey, null);
                                 }
+                            } catch (Exception exception) {
+                                mDelegate.onBasemapFetchFailed(exception.getLocalizedMessage());
                             }
-                        });
-                    } catch (Exception exception) {
-                        mDelegate.onBasemapFetchFailed(mActivity.getString(R.string.err_cannot_query_portal) + exception.getLocalizedMessage());
-                    }
+                        }
+                    });
                 }
             });
         } catch (Exception exception) {
@@ -72,4 +100,172 @@ public class FetchGroupBasemaps {
         }
         return null;
     }
+
+    /**
+     * Query the portal for the organization's basemap gallery group, then query the group's items.
+     * @param portalInformation {PortalInfo} info of the loaded portal.
+     * @param cacheKey {String} the key to store the result under.
+     * @param cachedQuery {CachedQuery} the result we already served from the cache, or null.
+     */
+    private void findBasemapGroup(PortalInfo portalInformation, final String cacheKey, final BasemapQueryCache.CachedQuery cachedQuery) {
+        PortalQueryParameters queryParams = new PortalQueryParameters();
+        queryParams.setQuery(portalInformation.getBasemapGalleryGroupQuery());
+        queryParams.setCanSearchPublic(true);
+        TraceRecorder traceRecorder = TraceRecorder.getInstance();
+        long traceSpan = traceRecorder.begin("basemaps.groupQuery");
+        final long queryStartNanos = System.nanoTime();
+        final ListenableFuture<PortalQueryResultSet<PortalGroup>> groupFuture = mArcgisPortal.findGroupsAsync(queryParams);
+        groupFuture.addDoneListener(traceRecorder.endAfter(traceSpan, new Runnable() {
+            @Override
+            public void run() {
+                boolean queried = false;
+                try {
+                    PortalQueryResultSet<PortalGroup> basemapGroupResult = groupFuture.get();
+                    queried = true;
+                    MetricsRegistry.getInstance().recordSince("basemaps.groupQuery", queryStartNanos, true);
+                    PortalGroup group = basemapGroupResult.getResults().get(0);
+                    findGroupItems(group.getGroupId(), false, cacheKey, cachedQuery);
+                } catch (Exception exception) {
+                    if ( ! queried) {
+                        MetricsRegistry.getInstance().recordSince("basemaps.groupQuery", queryStartNanos, false);
+                    }
+                    fetchFailed(cachedQuery, mActivity.getString(R.string.err_cannot_query_portal) + exception.getLocalizedMessage());
+                }
+            }
+        }));
+    }
+
+    /**
+     * Query the items in the basemap gallery group, one page at a time.
+     * @param groupId {String} id of the basemap gallery group.
+     * @param groupFromCache {boolean} true if the group id came from the cache rather than a group query.
+     * @param cacheKey {String} the key to store the result under.
+     * @param cachedQuery {CachedQuery} the result we already served from the cache, or null.
+     */
+    private void findGroupItems(final String groupId, boolean groupFromCache, final String cacheKey, final BasemapQueryCache.CachedQuery cachedQuery) {
+        PortalQueryParameters basemapQueryParams = new PortalQueryParameters();
+        basemapQueryParams.setQueryForItemsInGroup(groupId);
+        basemapQueryParams.setLimit(mPageSize);
+        findGroupItemsPage(basemapQueryParams, groupId, groupFromCache, cacheKey, cachedQuery, new ArrayList<PortalItem>());
+    }
+
+    /**
+     * Fetch one page of the group's items, deliver it (unless we are revalidating a cached result)
+     * and go on to the next page until the portal says there are no more.
+     * @param pageQueryParams {PortalQueryParameters} the query for this page.
+     * @param groupId {String} id of the basemap gallery group.
+     * @param groupFromCache {boolean} true if the group id came from the cache rather than a group query.
+     * @param cacheKey {String} the key to store the result under.
+     * @param cachedQuery {CachedQuery} the result we already served from the cache, or null.
+     * @param fetchedItems {List} all the items fetched by previous pages.
+     */
+    private void findGroupItemsPage(final PortalQueryParameters pageQueryParams, final String groupId, final boolean groupFromCache, final String cacheKey, final BasemapQueryCache.CachedQuery cachedQuery, final List<PortalItem> fetchedItems) {
+        final boolean isFirstPage = fetchedItems.isEmpty();
+        TraceRecorder traceRecorder = TraceRecorder.getInstance();
+        long traceSpan = traceRecorder.begin("basemaps.itemQuery");
+        final long queryStartNanos = System.nanoTime();
+        final ListenableFuture<PortalQueryResultSet<PortalItem>> contentFuture = mArcgisPortal.findItemsAsync(pageQueryParams);
+        contentFuture.addDoneListener(traceRecorder.endAfter(traceSpan, new Runnable() {
+            @Override
+            public void run() {
+                boolean queried = false;
+                try {
+                    PortalQueryResultSet<PortalItem> portalResultSet = contentFuture.get();
+                    queried = true;
+                    MetricsRegistry.getInstance().recordSince("basemaps.itemQuery", queryStartNanos, portalResultSet != null);
+                    if (portalResultSet == null) {
+                        fetchFailed(cachedQuery, mActivity.getString(R.string.err_no_items));
+                        return;
+                    }
+                    List<PortalItem> pageItems = portalResultSet.getResults();
+                    if (isFirstPage && groupFromCache && pageItems.isEmpty() && ! cachedQuery.items.isEmpty()) {
+                        // the group we remembered may no longer be the basemap group, look it up again
+                        sCacheExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                mQueryCache.remove(cacheKey);
+                            }
+                        });
+                        findBasemapGroup(mArcgisPortal.getPortalInfo(), cacheKey, cachedQuery);
+                        return;
+                    }
+                    fetchedItems.addAll(pageItems);
+                    if (cachedQuery == null) {
+                        mDelegate.onBasemapPageFetched(portalResultSet, isFirstPage);
+                    }
+                    PortalQueryParameters nextQueryParams = portalResultSet.getNextQueryParameters();
+                    if (nextQueryParams != null && ! pageItems.isEmpty()) {
+                        findGroupItemsPage(nextQueryParams, groupId, groupFromCache, cacheKey, cachedQuery, fetchedItems);
+                    } else {
+                        groupItemsFetched(fetchedItems, groupId, cacheKey, cachedQuery);
+                    }
+                } catch (Exception exception) {
+                    if ( ! queried) {
+                        MetricsRegistry.getInstance().recordSince("basemaps.itemQuery", queryStartNanos, false);
+                    }
+                    fetchFailed(cachedQuery, mActivity.getString(R.string.err_cannot_load_query) + exception.getLocalizedMessage());
+                }
+            }
+        }));
+    }
+
+    /**
+     * All pages are in. Store the fresh result, then either report completion or, if we already
+     * served a cached result, deliver only the items that are new, changed or removed.
+     */
+    private void groupItemsFetched(List<PortalItem> portalItems, String groupId, final String cacheKey, BasemapQueryCache.CachedQuery cachedQuery) {
+        List<BasemapQueryCache.CachedItem> freshItems = new ArrayList<>(portalItems.size());
+        for (PortalItem portalItem : portalItems) {
+            freshItems.add(toCachedItem(portalItem));
+        }
+        if (mQueryCache != null) {
+            final BasemapQueryCache.CachedQuery freshQuery = new BasemapQueryCache.CachedQuery(groupId, System.currentTimeMillis(), freshItems);
+            sCacheExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mQueryCache.put(cacheKey, freshQuery);
+                }
+            });
+        }
+        if (cachedQuery == null) {
+            mDelegate.onBasemapFetchCompleted(portalItems.size());
+            return;
+        }
+        BasemapQueryCache.Difference difference = BasemapQueryCache.difference(cachedQuery.items, freshItems);
+        if (difference.isEmpty()) {
+            Log.d("FetchGroupBasemaps", "Cached basemap list is current");
+            return;
+        }
+        List<PortalItem> addedOrChangedItems = new ArrayList<>(difference.addedOrChangedIds.size());
+        for (PortalItem portalItem : portalItems) {
+            if (difference.addedOrChangedIds.contains(portalItem.getItemId())) {
+                addedOrChangedItems.add(portalItem);
+            }
+        }
+        mDelegate.onBasemapFetchRevalidated(addedOrChangedItems, difference.removedIds);
+    }
+
+    /**
+     * A failed revalidation is not worth bothering the user about, they already have the cached list.
+     */
+    private void fetchFailed(BasemapQueryCache.CachedQuery cachedQuery, String errorMessage) {
+        if (cachedQuery != null) {
+            Log.d("FetchGroupBasemaps", "Unable to revalidate cached basemaps: " + errorMessage);
+        } else {
+            mDelegate.onBasemapFetchFailed(errorMessage);
+        }
+    }
+
+    /**
+     * The basemap gallery differs by organization and what a user can see differs by user.
+     */
+    private String getCacheKey(PortalInfo portalInformation) {
+        PortalUser portalUser = mArcgisPortal.getUser();
+        return portalInformation.getBasemapGalleryGroupQuery() + "|" + (portalUser != null ? portalUser.getUsername() : "");
+    }
+
+    static BasemapQueryCache.CachedItem toCachedItem(PortalItem portalItem) {
+        Calendar modified = portalItem.getModified();
+        return new BasemapQueryCache.CachedItem(portalItem.getItemId(), portalItem.getTitle(), portalItem.getThumbnailFileName(), modified != null ? modified.getTimeInMillis() : 0);
+    }
 }
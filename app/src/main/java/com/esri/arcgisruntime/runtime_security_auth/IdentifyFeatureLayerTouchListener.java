@@ -8,29 +8,42 @@ import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.support.v7.app.AppCompatActivity;
-import android.text.SpannableString;
-import android.text.util.Linkify;
+import android.text.Spannable;
 import android.util.Log;
 import android.view.MotionEvent;
 
 import com.esri.arcgisruntime.ArcGISRuntimeException;
 import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.data.ArcGISFeature;
 import com.esri.arcgisruntime.data.Feature;
+import com.esri.arcgisruntime.geometry.Point;
 import com.esri.arcgisruntime.layers.FeatureLayer;
+import com.esri.arcgisruntime.loadable.LoadStatus;
 import com.esri.arcgisruntime.mapping.GeoElement;
 import com.esri.arcgisruntime.mapping.view.DefaultMapViewOnTouchListener;
 import com.esri.arcgisruntime.mapping.view.IdentifyLayerResult;
 import com.esri.arcgisruntime.mapping.view.MapView;
 
+import java.util.Arrays;
+import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 
 public class IdentifyFeatureLayerTouchListener extends DefaultMapViewOnTouchListener {
 
+    private static final double IDENTIFY_TOLERANCE = 32.0; // density independent pixels around the tap
+    private static final int MAX_OUTSTANDING_IDENTIFIES = 2; // taps beyond this wait, and only the latest waiting tap runs
+    private static final String[] EDIT_DATE_FIELDS = { "last_edited_date", "EditDate" }; // editor tracking field names we recognize
+
     private Context mContext = null;
     private MapView mMapView = null; // reference to the map view we are working on
     private FeatureLayer mFeatureLayer = null; // reference to the layer to identify features in
+    private FeatureLayerIndex mFeatureLayerIndex = null; // answers taps locally where it has coverage
+    private final IdentifyDispatcher mIdentifyDispatcher = new IdentifyDispatcher(MAX_OUTSTANDING_IDENTIFIES);
+    private AttributeProjection mAttributeProjection = null; // when set, popup fields are loaded on demand
+    private PopupContentFormatter mPopupContentFormatter = null; // formats and caches popup content off the UI thread
     private static Feature mLastFeatureSelected = null;
 
     /**
@@ -46,6 +59,35 @@ public class IdentifyFeatureLayerTouchListener extends DefaultMapViewOnTouchList
         mFeatureLayer = layerToIdentify;
     }
 
+    /**
+     * Construct a touch listener that looks up tapped features in a local index first.
+     * @param context - application context
+     * @param mapView - reference to our main activity map view
+     * @param layerToIdentify - reference to the feature layer we want to use to identify features
+     * @param featureLayerIndex - index of the layer's point features, may be null
+     */
+    public IdentifyFeatureLayerTouchListener(Context context, MapView mapView, FeatureLayer layerToIdentify, FeatureLayerIndex featureLayerIndex) {
+        this(context, mapView, layerToIdentify);
+        mFeatureLayerIndex = featureLayerIndex;
+    }
+
+    /**
+     * Set the attribute projection the layer was loaded with. Features that do not have the popup
+     * fields are loaded before their popup is shown.
+     * @param attributeProjection - may be null if the layer has all fields.
+     */
+    public void setAttributeProjection(AttributeProjection attributeProjection) {
+        mAttributeProjection = attributeProjection;
+    }
+
+    /**
+     * Set the formatter that prepares popup content. Without one the content is formatted on the UI thread.
+     * @param popupContentFormatter - may be null.
+     */
+    public void setPopupContentFormatter(PopupContentFormatter popupContentFormatter) {
+        mPopupContentFormatter = popupContentFormatter;
+    }
+
     /**
      * Respond to a single touch event
      * @param motionEvent
@@ -60,110 +102,224 @@ public class IdentifyFeatureLayerTouchListener extends DefaultMapViewOnTouchList
     }
 
     /**
-     * Setup the asynchronous handler to identify any features on the map near the screen point provided.
+     * Identify any features on the map near the screen point provided. If the feature layer index
+     * covers the tapped location the nearest feature is found right away, otherwise the runtime
+     * identify is started through the identify dispatcher. Either way any identify still running for
+     * an earlier tap is cancelled and its result will not be shown.
      * @param screenPoint
      * @return {boolean} Returns false if we are not able to fire the future.
      */
     public boolean identifyFeatureNearPoint(final android.graphics.Point screenPoint) {
-        boolean identified = true;
+        final boolean[] identified = { true };
         if (mMapView != null && mFeatureLayer != null) {
-            try {
-                final ListenableFuture<IdentifyLayerResult> identifyFuture = mMapView.identifyLayerAsync(mFeatureLayer, screenPoint, 32.0, true);
-                identifyFuture.addDoneListener(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            // get the identify results from the future - returns when the operation is complete
-                            IdentifyLayerResult identifyLayerResult = identifyFuture.get();
-                            if (identifyLayerResult != null) {
-                                FeatureLayer featureLayer = null;
-                                if (identifyLayerResult.getLayerContent() instanceof FeatureLayer) {
-                                    featureLayer = (FeatureLayer) identifyLayerResult.getLayerContent();
-                                }
-                                List<GeoElement> identifiedFeaturesList = identifyLayerResult.getElements();
-                                if (identifiedFeaturesList.size() > 0) {
-                                    // Our app only wants one feature selected at a time. Monitor the last
-                                    // selected feature so we can pass it to the route task if the user asks for a route.
-                                    featureLayer.clearSelection();
-                                    mLastFeatureSelected = (Feature) identifiedFeaturesList.get(0);
-                                    showInfoForFeature(featureLayer, mLastFeatureSelected);
-                                } else {
-                                    Log.d("onSingleTapConfirmed", "No features detected near " + screenPoint.toString());
-                                }
+            if (identifyFeatureInIndex(screenPoint)) {
+                return true;
+            }
+            mIdentifyDispatcher.submit(new IdentifyDispatcher.IdentifyTask() {
+                @Override
+                public Future<?> start(int generation) {
+                    ListenableFuture<IdentifyLayerResult> identifyFuture = startIdentify(screenPoint, generation);
+                    identified[0] = identifyFuture != null;
+                    return identifyFuture;
+                }
+            });
+        }
+        return identified[0];
+    }
+
+    /**
+     * Setup the asynchronous handler to identify any features on the map near the screen point provided.
+     * @param screenPoint
+     * @param generation the tap this identify is for, from the identify dispatcher.
+     * @return {ListenableFuture} the identify operation, or null if we are not able to fire the future.
+     */
+    private ListenableFuture<IdentifyLayerResult> startIdentify(final android.graphics.Point screenPoint, final int generation) {
+        try {
+            TraceRecorder traceRecorder = TraceRecorder.getInstance();
+            long traceSpan = traceRecorder.beginRoot("identify");
+            final long identifyStartNanos = System.nanoTime();
+            final ListenableFuture<IdentifyLayerResult> identifyFuture = mMapView.identifyLayerAsync(mFeatureLayer, screenPoint, IDENTIFY_TOLERANCE, true);
+            identifyFuture.addDoneListener(traceRecorder.endAfter(traceSpan, new Runnable() {
+                @Override
+                public void run() {
+                    boolean identified = false;
+                    try {
+                        if (identifyFuture.isCancelled() || ! mIdentifyDispatcher.isCurrent(generation)) {
+                            Log.d("onSingleTapConfirmed", "Dropping identify result of an earlier tap at " + screenPoint.toString());
+                            return;
+                        }
+                        // get the identify results from the future - returns when the operation is complete
+                        IdentifyLayerResult identifyLayerResult = identifyFuture.get();
+                        identified = true;
+                        MetricsRegistry.getInstance().recordSince("identify", identifyStartNanos, true);
+                        if (identifyLayerResult != null) {
+                            FeatureLayer featureLayer = null;
+                            if (identifyLayerResult.getLayerContent() instanceof FeatureLayer) {
+                                featureLayer = (FeatureLayer) identifyLayerResult.getLayerContent();
+                            }
+                            List<GeoElement> identifiedFeaturesList = identifyLayerResult.getElements();
+                            if (identifiedFeaturesList.size() > 0) {
+                                // Our app only wants one feature selected at a time. Monitor the last
+                                // selected feature so we can pass it to the route task if the user asks for a route.
+                                featureLayer.clearSelection();
+                                mLastFeatureSelected = (Feature) identifiedFeaturesList.get(0);
+                                showInfoForFeature(featureLayer, mLastFeatureSelected);
                             } else {
-                                Log.d("onSingleTapConfirmed", "No layers detected near " + screenPoint.toString());
+                                Log.d("onSingleTapConfirmed", "No features detected near " + screenPoint.toString());
                             }
-                        } catch (ArcGISRuntimeException exception) {
-                            showErrorAlert(mContext.getString(R.string.unknown_error), mContext.getString(R.string.err_fetching_feature) + " " + exception.getErrorCode() + " " + exception.getCause());
-                        } catch (Exception exception) {
-                            showErrorAlert(mContext.getString(R.string.unknown_error), mContext.getString(R.string.err_fetching_feature) + " " + exception.getMessage());
+                        } else {
+                            Log.d("onSingleTapConfirmed", "No layers detected near " + screenPoint.toString());
+                        }
+                    } catch (ArcGISRuntimeException exception) {
+                        if ( ! identified) {
+                            MetricsRegistry.getInstance().recordSince("identify", identifyStartNanos, false);
                         }
+                        showErrorAlert(mContext.getString(R.string.unknown_error), mContext.getString(R.string.err_fetching_feature) + " " + exception.getErrorCode() + " " + exception.getCause());
+                    } catch (Exception exception) {
+                        if ( ! identified) {
+                            MetricsRegistry.getInstance().recordSince("identify", identifyStartNanos, false);
+                        }
+                        showErrorAlert(mContext.getString(R.string.unknown_error), mContext.getString(R.string.err_fetching_feature) + " " + exception.getMessage());
+                    } finally {
+                        mIdentifyDispatcher.finished(generation);
                     }
-                });
-            } catch (IllegalArgumentException exception) {
-                Log.d("onSingleTapConfirmed", "bad arg for identifyPopupsAsync: " + exception.getLocalizedMessage());
-                identified = false;
-            } catch (ArcGISRuntimeException exception) {
-                Log.d("onSingleTapConfirmed", "Runtime exception: (" + exception.getErrorCode() + ") " + exception.getCause());
-                identified = false;
-            } catch (Exception exception) {
-                Log.d("onSingleTapConfirmed", "exception for identifyPopupsAsync: " + exception.getLocalizedMessage());
-                identified = false;
-            }
+                }
+            }));
+            return identifyFuture;
+        } catch (IllegalArgumentException exception) {
+            Log.d("onSingleTapConfirmed", "bad arg for identifyPopupsAsync: " + exception.getLocalizedMessage());
+        } catch (ArcGISRuntimeException exception) {
+            Log.d("onSingleTapConfirmed", "Runtime exception: (" + exception.getErrorCode() + ") " + exception.getCause());
+        } catch (Exception exception) {
+            Log.d("onSingleTapConfirmed", "exception for identifyPopupsAsync: " + exception.getLocalizedMessage());
         }
-        return identified;
+        return null;
+    }
+
+    /**
+     * Look for the feature nearest to the screen point in the feature layer index. The tolerance is
+     * the same as the runtime identify uses, converted to map units at the current scale.
+     * @param screenPoint
+     * @return {boolean} true if the index covers the location and answered the tap, found or not.
+     */
+    private boolean identifyFeatureInIndex(android.graphics.Point screenPoint) {
+        if (mFeatureLayerIndex == null) {
+            return false;
+        }
+        Point mapPoint = mMapView.screenToLocation(screenPoint);
+        if ( ! mFeatureLayerIndex.covers(mapPoint)) {
+            return false;
+        }
+        mIdentifyDispatcher.supersede(); // an identify still running for an earlier tap must not show its popup now
+        long identifyStartNanos = System.nanoTime();
+        Feature feature = mFeatureLayerIndex.findNearest(mapPoint, IDENTIFY_TOLERANCE * mMapView.getUnitsPerDensityIndependentPixel());
+        MetricsRegistry.getInstance().recordSince("identify.index", identifyStartNanos, true);
+        if (feature != null) {
+            mFeatureLayer.clearSelection();
+            mLastFeatureSelected = feature;
+            showInfoForFeature(mFeatureLayer, mLastFeatureSelected);
+        } else {
+            Log.d("onSingleTapConfirmed", "No indexed features near " + screenPoint.toString());
+        }
+        return true;
     }
 
     /**
      * Once we are able to identify a feature on the map then build some GUI to display the info to the user.
-     * Display name, contact, website, description.
+     * Display name, contact, website, description. If the layer was loaded without the popup fields
+     * the feature is loaded first to fetch them.
      * @param arcgisFeature {Feature} the feature we wish to display information about.
      */
-    public void showInfoForFeature (FeatureLayer featureLayer, Feature arcgisFeature) {
+    public void showInfoForFeature (final FeatureLayer featureLayer, final Feature arcgisFeature) {
         if (arcgisFeature != null) {
             if (featureLayer != null) {
                 featureLayer.selectFeature(arcgisFeature);
             }
-            Map<String, Object> featureAttributes = arcgisFeature.getAttributes();
-            if (featureAttributes != null) {
-                String title = (String) featureAttributes.get("name");
-                String website = (String) featureAttributes.get("website");
-                String phoneNumber = (String) featureAttributes.get("contact");
-                String description = (String) featureAttributes.get("description");
-                createPopupDialog(title, description, phoneNumber, website);
+            if (mAttributeProjection != null && arcgisFeature instanceof ArcGISFeature && ! mAttributeProjection.hasPopupFields(arcgisFeature.getAttributes())) {
+                // the layer was loaded with only the render fields, fetch the rest for this feature
+                final ArcGISFeature featureToLoad = (ArcGISFeature) arcgisFeature;
+                final int generation = mIdentifyDispatcher.getCurrentGeneration();
+                TraceRecorder traceRecorder = TraceRecorder.getInstance();
+                featureToLoad.addDoneLoadingListener(traceRecorder.endAfter(traceRecorder.begin("feature.load"), new Runnable() {
+                    @Override
+                    public void run() {
+                        if ( ! mIdentifyDispatcher.isCurrent(generation)) {
+                            return;
+                        }
+                        if (featureToLoad.getLoadStatus() == LoadStatus.LOADED) {
+                            showPopupForFeature(featureToLoad);
+                        } else {
+                            ArcGISRuntimeException loadError = featureToLoad.getLoadError();
+                            showErrorAlert(mContext.getString(R.string.unknown_error), mContext.getString(R.string.err_fetching_feature) + (loadError != null ? " " + loadError.getLocalizedMessage() : ""));
+                        }
+                    }
+                }));
+                featureToLoad.loadAsync();
+            } else {
+                showPopupForFeature(arcgisFeature);
             }
         }
     }
 
     /**
-     * Creates an alert dialog for the given attributes. Here we are going to display the title and
-     * description fields from our feature service, plus an OK button and a Route button.
-     * @param title {String} Name or title of feature to display
-     * @param description {String} description field of the feature
-     * @param phoneNumber {String} contact telephone number
-     * @param website {String} URL to link to
+     * Display name, contact, website, description of a feature that has its popup fields.
+     * @param arcgisFeature {Feature} the feature we wish to display information about.
      */
-    private void createPopupDialog(String title, String description, String phoneNumber, String website) {
-        AppCompatActivity activity = (AppCompatActivity) mContext;
-
-        String formattedDescription = "";
-        if (phoneNumber != null && phoneNumber.length() > 0) {
-            formattedDescription = phoneNumber;
-        }
-        if (website != null && website.length() > 0) {
-            if (formattedDescription.length() > 0) {
-                formattedDescription += " - ";
+    private void showPopupForFeature (Feature arcgisFeature) {
+        Map<String, Object> featureAttributes = arcgisFeature.getAttributes();
+        if (featureAttributes != null) {
+            final String title = (String) featureAttributes.get("name");
+            String website = (String) featureAttributes.get("website");
+            String phoneNumber = (String) featureAttributes.get("contact");
+            String description = (String) featureAttributes.get("description");
+            if (mPopupContentFormatter == null) {
+                createPopupDialog(title, PopupContentFormatter.formatContent(phoneNumber, website, description));
+                return;
             }
-            formattedDescription += website;
-        }
-        if (formattedDescription.length() > 0) {
-            formattedDescription += "\n";
+            String popupKey = PopupText.keyFor(MainActivity.getFeatureObjectId(arcgisFeature), getEditTimestamp(featureAttributes, phoneNumber, website, description));
+            final int generation = mIdentifyDispatcher.getCurrentGeneration();
+            mPopupContentFormatter.format(popupKey, phoneNumber, website, description, new PopupContentFormatter.PopupContentCompletionInterface() {
+                @Override
+                public void onPopupContentReady(Spannable content) {
+                    if (mIdentifyDispatcher.isCurrent(generation)) {
+                        createPopupDialog(title, content);
+                    }
+                }
+            });
         }
-        if (description != null && description.length() > 0) {
-            formattedDescription += description;
+    }
+
+    /**
+     * Find when a feature was last edited so its cached popup is not shown after an edit. If the
+     * layer does not track edits use a hash of the popup attributes instead.
+     * @param featureAttributes
+     * @return {long} the edit time in milliseconds, or the hash.
+     */
+    private static long getEditTimestamp(Map<String, Object> featureAttributes, String phoneNumber, String website, String description) {
+        for (String editDateField : EDIT_DATE_FIELDS) {
+            for (Map.Entry<String, Object> attribute : featureAttributes.entrySet()) {
+                if (editDateField.equalsIgnoreCase(attribute.getKey())) {
+                    Object editDate = attribute.getValue();
+                    if (editDate instanceof Calendar) {
+                        return ((Calendar) editDate).getTimeInMillis();
+                    } else if (editDate instanceof Number) {
+                        return ((Number) editDate).longValue();
+                    }
+                }
+            }
         }
-        final SpannableString fullDescription = new SpannableString(formattedDescription);
-        Linkify.addLinks(fullDescription, Linkify.ALL);
+        return Arrays.hashCode(new Object[] { phoneNumber, website, description });
+    }
+
+    /**
+     * Creates an alert dialog for the given content. Here we are going to display the title and
+     * formatted description of the feature, plus an OK button, a Route button and an Add Stop
+     * button to collect the feature for a multi-stop route.
+     * @param title {String} Name or title of feature to display
+     * @param fullDescription {Spannable} contact, website and description with links from PopupContentFormatter
+     */
+    private void createPopupDialog(String title, Spannable fullDescription) {
+        AppCompatActivity activity = (AppCompatActivity) mContext;
 
         AlertDialog.Builder alertDialog = new AlertDialog.Builder(activity);
         alertDialog.setTitle(title);
@@ -177,11 +333,47 @@ public class IdentifyFeatureLayerTouchListener extends DefaultMapViewOnTouchList
                 }
             }
         });
+        alertDialog.setNeutralButton(R.string.action_add_stop, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                if (mContext != null) {
+                    ((MainActivity) mContext).addRouteStop(mLastFeatureSelected);
+                }
+            }
+        });
         alertDialog.setNegativeButton(R.string.action_OK, null); // this just dismisses the dialog
         AlertDialog alertDialogInstance = alertDialog.create();
         alertDialogInstance.show();
     }
 
+    /**
+     * @return {Feature} the feature the user last selected, null if there is none.
+     */
+    public Feature getSelectedFeature() {
+        return mLastFeatureSelected;
+    }
+
+    /**
+     * Select a feature without showing its popup, for example to restore the selection the user
+     * had when the app was last paused.
+     * @param feature {Feature} the feature to select, null to clear the selection.
+     */
+    public void setSelectedFeature(Feature feature) {
+        if (mFeatureLayer != null) {
+            mFeatureLayer.clearSelection();
+            if (feature != null) {
+                mFeatureLayer.selectFeature(feature);
+            }
+        }
+        mLastFeatureSelected = feature;
+    }
+
+    /**
+     * Cancel any identify in flight, for example when this listener is replaced.
+     */
+    public void cancelIdentify() {
+        mIdentifyDispatcher.cancelAll();
+    }
+
     private void showErrorAlert(String title, String message) {
         if (mContext != null) {
             ((MainActivity) mContext).showErrorAlert(title, message);
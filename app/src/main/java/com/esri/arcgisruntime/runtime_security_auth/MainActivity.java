@@ -5,13 +5,15 @@
 package com.esri.arcgisruntime.runtime_security_auth;
 
 import android.app.AlertDialog;
-import android.graphics.Bitmap;
+import android.content.DialogInterface;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.text.TextUtils;
+import android.text.format.DateUtils;
 import android.util.Log;
 import android.util.TypedValue;
 import android.view.Gravity;
@@ -20,20 +22,23 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.AdapterView;
 import android.widget.GridView;
-import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.esri.arcgisruntime.ArcGISRuntimeEnvironment;
 import com.esri.arcgisruntime.ArcGISRuntimeException;
-import com.esri.arcgisruntime.UnitSystem;
 import com.esri.arcgisruntime.concurrent.ListenableFuture;
 import com.esri.arcgisruntime.data.Feature;
+import com.esri.arcgisruntime.data.FeatureQueryResult;
+import com.esri.arcgisruntime.data.QueryParameters;
 import com.esri.arcgisruntime.data.ServiceFeatureTable;
+import com.esri.arcgisruntime.geometry.Envelope;
 import com.esri.arcgisruntime.geometry.Geometry;
+import com.esri.arcgisruntime.geometry.GeometryEngine;
 import com.esri.arcgisruntime.geometry.GeometryType;
 import com.esri.arcgisruntime.geometry.Point;
+import com.esri.arcgisruntime.geometry.Polygon;
 import com.esri.arcgisruntime.geometry.SpatialReference;
-import com.esri.arcgisruntime.layers.ArcGISMapImageLayer;
+import com.esri.arcgisruntime.geometry.SpatialReferences;
 import com.esri.arcgisruntime.layers.ArcGISTiledLayer;
 import com.esri.arcgisruntime.layers.ArcGISVectorTiledLayer;
 import com.esri.arcgisruntime.layers.Layer;
@@ -47,6 +52,8 @@ import com.esri.arcgisruntime.mapping.view.Graphic;
 import com.esri.arcgisruntime.mapping.view.GraphicsOverlay;
 import com.esri.arcgisruntime.mapping.view.LocationDisplay;
 import com.esri.arcgisruntime.mapping.view.MapView;
+import com.esri.arcgisruntime.mapping.view.NavigationChangedEvent;
+import com.esri.arcgisruntime.mapping.view.NavigationChangedListener;
 import com.esri.arcgisruntime.portal.Portal;
 import com.esri.arcgisruntime.portal.PortalItem;
 import com.esri.arcgisruntime.portal.PortalQueryResultSet;
@@ -55,6 +62,7 @@ import com.esri.arcgisruntime.security.DefaultAuthenticationChallengeHandler;
 import com.esri.arcgisruntime.security.OAuthConfiguration;
 import com.esri.arcgisruntime.symbology.SimpleLineSymbol;
 import com.esri.arcgisruntime.symbology.SimpleMarkerSymbol;
+import com.esri.arcgisruntime.tasks.networkanalysis.DirectionManeuver;
 import com.esri.arcgisruntime.tasks.networkanalysis.Route;
 import com.esri.arcgisruntime.tasks.networkanalysis.RouteParameters;
 import com.esri.arcgisruntime.tasks.networkanalysis.RouteResult;
@@ -62,12 +70,26 @@ import com.esri.arcgisruntime.tasks.networkanalysis.RouteTask;
 import com.esri.arcgisruntime.tasks.networkanalysis.Stop;
 import com.esri.arcgisruntime.util.ListenableList;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 public class MainActivity extends AppCompatActivity {
 
+    private static final double METERS_PER_MILE = 1609.344;
+    private static final int BASEMAP_CYCLE_LENGTH = 8;
+    private static final String SESSION_FILE_NAME = "session.bin"; // in the files directory
+
     // Change these configuration variables based on the needs of your project:
     private String mPortalURL = "http://www.arcgis.com/";             // Server where your users login with OAuth
     private String mOAuthRedirectURI = "arcgis-runtime-auth://auth";  // Your app redirect URL also set in AndroidManifest.xml "android:scheme="
@@ -76,6 +98,7 @@ public class MainActivity extends AppCompatActivity {
     private String mLayerItemId = "7995c5a997d248549e563178ad25c3e1";
     private String mWebMapItemId = "e862b5ed1fbd48a1b084ecd68a30d85e";
     private String mLayerServiceURL = "http://services1.arcgis.com/6677msI40mnLuuLr/arcgis/rest/services/US_Breweries/FeatureServer/0";
+    private String mTiledBasemapURL = "http://services.arcgisonline.com/arcgis/rest/services/World_Street_Map/MapServer";
 
     // Configuration to set at initial load or reset. These private variables are separated as we
     // expect these values to be initialized from a config file or service.
@@ -88,6 +111,45 @@ public class MainActivity extends AppCompatActivity {
     private int mRouteLineSize = 20;
     private SimpleLineSymbol.Style mLineStyle = SimpleLineSymbol.Style.DASH_DOT;
     private String mRouteTaskURL = "http://route.arcgis.com/arcgis/rest/services/World/Route/NAServer/Route_NorthAmerica"; // http://route.arcgis.com/arcgis/rest/services/World/Route/NAServer/Route_World
+    private int mThumbnailMemoryCacheSize = (int) (Runtime.getRuntime().maxMemory() / 8); // bytes of decoded thumbnails to keep in memory
+    private long mThumbnailDiskCacheSize = 10 * 1024 * 1024;          // bytes of thumbnail data to keep on disk
+    private int mThumbnailBitmapPoolSize = 2 * 1024 * 1024;           // bytes of evicted thumbnail bitmaps to keep for reuse
+    private boolean mThumbnailUseRGB565 = true;                        // thumbnails are opaque so use half the memory per pixel
+    private int mThumbnailFetchConcurrency = 4;                        // maximum number of thumbnail fetches in flight at once
+    private int mBasemapQueryPageSize = 25;                            // number of basemaps to request per page of the gallery query
+    private long mBasemapQueryCacheTTL = 7 * 24 * 60 * 60 * 1000L;     // how long a cached basemap list may be shown before it must be refetched
+    private double mRouteCacheCellSize = 50.0;                         // meters, route origins within the same grid cell share a cached route
+    private long mRouteCacheTTL = 60 * 60 * 1000L;                     // how long a solved route may be reused
+    private int mRouteCacheEntries = 32;                               // number of solved routes to keep in memory
+    private boolean mPersistRouteCache = true;                         // also keep solved routes on disk across restarts
+    private long mRouteCacheDiskSize = 2 * 1024 * 1024;               // bytes of solved routes to keep on disk
+    private boolean mUseFeatureIndex = true;                           // answer taps from a local index of the feature layer's points
+    private int mFeatureIndexMaxFeatures = 1000;                       // most features to index, at or below the service's max record count
+    private int mFeaturePageSize = 1000;                               // the feature service's max record count, a full populate is split into quarters
+    private boolean mUseAttributeProjection = true;                    // fetch only the render fields for the layer, popup fields on selection
+    private List<String> mRenderFields = Arrays.asList("objectid", "name"); // fields the renderer, identify and routing use
+    private List<String> mPopupFields = Arrays.asList("name", "website", "contact", "description"); // fields only the popup shows
+    private int mPopupCacheEntries = 64;                               // number of formatted feature popups to keep
+    private long mAttributionCacheSize = 256 * 1024;                   // bytes of downloaded basemap attribution to keep on disk
+    private long mAttributionCacheTTL = 7 * 24 * 60 * 60 * 1000L;      // how long downloaded basemap attribution is used
+    private int mMaxRouteStops = 50;                                   // most features that can be visited in one multi-stop route
+    private boolean mTraceEnabled = true;                              // record async operations and write them to trace.json on pause
+    private double mTraceSampleRate = 0.1;                             // fraction of startups, taps and requests traced
+    private int mTraceBufferSize = 4096;                               // most recent completed operations kept for the trace file
+    private boolean mLogMetrics = true;                                // log operation latency percentiles on pause and write them to metrics.txt
+    private int mBasemapPoolSize = 24 * 1024 * 1024;                  // estimated bytes of loaded basemaps to keep for instant switching
+    private int mBasemapLayerCost = 4 * 1024 * 1024;                  // estimated bytes a loaded basemap layer holds
+    private int mBasemapPreloadCount = 4;                              // basemaps at the top of the selector to load while it is showing
+    private boolean mUseTileProxy = true;                              // route the tiled basemap and vector tile layer through the on-device caching proxy
+    private long mTileCacheSize = 64 * 1024 * 1024;                    // bytes of tiles, styles and service metadata to keep on disk
+    private long mTileCacheDefaultMaxAge = 24 * 60 * 60 * 1000L;       // how long a tile is used without revalidating when the service sends no cache headers
+    private long mStyleCacheSize = 8 * 1024 * 1024;                    // bytes of vector tile styles, sprites and glyphs to keep on disk apart from the tiles
+    private int mPrefetchLevels = 4;                                   // levels below the current one to download when prefetching the visible area
+    private int mPrefetchMaxItems = 20000;                             // most tiles, resources and feature cells one prefetch may download
+    private long mPrefetchMaxBytes = 32 * 1024 * 1024;                 // bytes one prefetch may store, half the tile cache so it never evicts its own tiles
+    private int mPrefetchParallelism = 4;                              // downloads in flight at once while prefetching
+    private boolean mRestoreSession = true;                            // write a session snapshot on pause and reopen the map from it on the next start
+    private String mStandInServerURL = null;                           // set to "http://10.0.2.2:8480/" to use the local stand-in server (./gradlew :standin:run) instead of arcgis.com
 
     // Internal variables used by MainActivity to manage its own state
     private MapView mMapView = null;
@@ -95,12 +157,41 @@ public class MainActivity extends AppCompatActivity {
     private ArcGISMap mMap = null;
     private Portal mArcgisPortal = null;
     private FeatureLayer mFeatureLayer;
+    private FeatureLayerIndex mFeatureLayerIndex = null;
+    private IdentifyFeatureLayerTouchListener mIdentifyTouchListener = null;
+    private AttributeProjection mAttributeProjection = null;
+    private PopupContentFormatter mPopupContentFormatter = null;
+    private AttributionEngine mAttributionEngine = null;
+    private AttributionLoader mAttributionLoader = null;
     private Feature mFeatureToRouteTo;
+    private final ArrayList<Feature> mRouteStopFeatures = new ArrayList<>(); // features to visit in the next multi-stop route
     private ArrayList<BasemapItem> mBasemapList = null; // maintain a cache of the basemaps we discover
+    private ThumbnailCache mThumbnailCache = null;
+    private ThumbnailFetchScheduler<BasemapItem> mThumbnailFetchScheduler = null;
+    private BasemapQueryCache mBasemapQueryCache = null;
+    private BasemapPool mBasemapPool = null;
+    private RegionPrefetcher mRegionPrefetcher = null;
+    private Snackbar mPrefetchSnackbar = null;
+    private boolean mKeepPrefetchedFeatures = false; // a region was prefetched into the feature table, panning adds to its cache
+    private String mVectorTileStyleURL = null;
+    private String mBasemapKey = null; // basemap pool key of the basemap shown, null while it is the start basemap
+    private final ArrayList<SessionSnapshot.LayerSource> mLayerSources = new ArrayList<>(); // what each operational layer was made from
+    private String mRouteGeometryJson = null; // the route on the map, kept for the session snapshot
+    private List<Point> mRouteStopPoints = null;
+    private SessionSnapshot mRestoredSession = null; // read once when the map is set up, null to start from the defaults
+    private String mRestoredSelectedObjectId = null; // selected feature to restore once the feature layer is added
+    private RouteEngine mRouteEngine = null;
+    private RouteCache mRouteCache = null;
+    private ExecutorService mRouteExecutor = null;
+    private RouteRequestManager mRouteRequestManager = null;
     private int mNextBasemap = 0;
     private boolean mShowErrors = true;
     private boolean mUseOAuth = true;
     private boolean mUserIsLoggedIn = false;
+    private static boolean sHasCredentials = false; // the credential cache outlives the activity, remember it has the user's credentials
+    private static TileProxy sTileProxy = null; // one proxy and tile cache per process, layers of a recreated activity keep using it
+    private static VectorStyleCache sVectorStyleCache = null; // the proxy's style cache, styles are revalidated once per process
+    private static final ExecutorService sFileWriter = Executors.newSingleThreadExecutor(); // writes the diagnostics and session files one at a time, across activities
     private boolean mLoadedFeatureService = false;
     private int mThumbnailsRequested = 0;
 
@@ -121,7 +212,10 @@ public class MainActivity extends AppCompatActivity {
      * Define a delegation interface for asynchronous loading of thumbnails from the portal.
      */
     public interface BasemapFetchTaskComplete {
-        void onBasemapFetchCompleted(final PortalQueryResultSet<PortalItem> portalResultSet);
+        void onBasemapPageFetched(final PortalQueryResultSet<PortalItem> portalResultSet, boolean isFirstPage);
+        void onBasemapFetchCompleted(int itemCount);
+        void onBasemapFetchCached(final List<BasemapQueryCache.CachedItem> cachedItems);
+        void onBasemapFetchRevalidated(final List<PortalItem> addedOrChangedItems, final List<String> removedItemIds);
         void onBasemapFetchFailed(String errorMessage);
     }
 
@@ -146,12 +240,68 @@ public class MainActivity extends AppCompatActivity {
                 Log.d("MENU-BUTTON", "Cannot create instance of FloatingActionButton");
             }
         }
+        ThumbnailDecoder thumbnailDecoder = new ThumbnailDecoder(
+                getResources().getDimensionPixelSize(R.dimen.basemap_thumbnail_width),
+                getResources().getDimensionPixelSize(R.dimen.basemap_thumbnail_height),
+                mThumbnailUseRGB565,
+                new BitmapPool(mThumbnailBitmapPoolSize));
+        mThumbnailCache = new ThumbnailCache(new File(getCacheDir(), "thumbnails"), mThumbnailMemoryCacheSize, mThumbnailDiskCacheSize, thumbnailDecoder);
+        mThumbnailFetchScheduler = new ThumbnailFetchScheduler<>(mThumbnailFetchConcurrency);
+        mBasemapQueryCache = new BasemapQueryCache(new File(getCacheDir(), "basemap_queries"), mBasemapQueryCacheTTL);
+        if (mStandInServerURL != null) {
+            useStandInServer(mStandInServerURL);
+        }
+        if (mUseTileProxy && sTileProxy == null) {
+            TileProxy tileProxy = new TileProxy(new DiskCache(new File(getCacheDir(), "tiles"), mTileCacheSize), mTileCacheDefaultMaxAge);
+            VectorStyleCache styleCache = new VectorStyleCache(new DiskCache(new File(getCacheDir(), "styles"), mStyleCacheSize), new VectorStyleParser(), mPrefetchParallelism);
+            tileProxy.setStyleCache(styleCache);
+            try {
+                tileProxy.start();
+                sTileProxy = tileProxy;
+                sVectorStyleCache = styleCache;
+            } catch (IOException exception) {
+                Log.d("onCreate", "Tile proxy not started, tiles are fetched directly: " + exception.getLocalizedMessage());
+            }
+        }
+        if (sTileProxy != null) {
+            mRegionPrefetcher = new RegionPrefetcher(sTileProxy, new File(getFilesDir(), "prefetch"), mPrefetchParallelism, mPrefetchMaxItems, mPrefetchMaxBytes);
+        }
+        mRouteEngine = new RouteEngine(mRouteTaskURL);
+        mBasemapPool = new BasemapPool(mBasemapPoolSize, mBasemapLayerCost);
+        mRouteCache = new RouteCache(mRouteCacheEntries, mRouteCacheTTL, mRouteCacheCellSize, mPersistRouteCache ? new DiskCache(new File(getCacheDir(), "routes"), mRouteCacheDiskSize) : null);
+        mRouteExecutor = Executors.newSingleThreadExecutor();
+        mRouteRequestManager = new RouteRequestManager();
+        mAttributeProjection = new AttributeProjection(mRenderFields, mPopupFields);
+        mPopupContentFormatter = new PopupContentFormatter(mPopupCacheEntries);
+        mAttributionEngine = new AttributionEngine();
+        mAttributionLoader = new AttributionLoader(new File(getCacheDir(), "attribution"), mAttributionCacheSize, mAttributionCacheTTL);
+        if (mTraceEnabled) {
+            TraceRecorder.getInstance().enable(mTraceSampleRate, mTraceBufferSize);
+        }
         setupMap();
     }
 
+    /**
+     * Point the portal, feature service, route service and tiled basemap at the stand-in server so
+     * the app can be measured against a known network. The standard basemaps and vector tile styles
+     * still come from arcgis.com.
+     * @param baseURL String the stand-in server URL ending in a slash.
+     */
+    private void useStandInServer(String baseURL) {
+        mPortalURL = baseURL;
+        mTiledBasemapURL = baseURL + "arcgis/rest/services/World_Street_Map/MapServer";
+        mLayerServiceURL = baseURL + "arcgis/rest/services/US_Breweries/FeatureServer/0";
+        mRouteTaskURL = baseURL + "arcgis/rest/services/World/Route/NAServer/Route_NorthAmerica";
+    }
+
     @Override
     protected void onPause() {
+        if (mRegionPrefetcher != null && mRegionPrefetcher.isRunning()) {
+            mRegionPrefetcher.cancel(); // what was downloaded is kept, prefetching the area again carries on
+        }
+        writeSessionSnapshot();
         mMapView.pause();
+        writeDiagnostics();
         super.onPause();
     }
 
@@ -161,6 +311,142 @@ public class MainActivity extends AppCompatActivity {
         mMapView.resume();
     }
 
+    /**
+     * The executors below belong to this activity, a recreated activity makes its own, so let their
+     * threads end once the work already queued is done.
+     */
+    @Override
+    protected void onDestroy() {
+        if (mRouteExecutor != null) {
+            mRouteExecutor.shutdown();
+        }
+        if (mThumbnailCache != null) {
+            mThumbnailCache.shutdown();
+        }
+        if (mPopupContentFormatter != null) {
+            mPopupContentFormatter.shutdown();
+        }
+        if (mAttributionLoader != null) {
+            mAttributionLoader.shutdown();
+        }
+        if (mFeatureLayerIndex != null) {
+            mFeatureLayerIndex.shutdown();
+        }
+        if (mRegionPrefetcher != null) {
+            mRegionPrefetcher.shutdown();
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public void onLowMemory() {
+        if (mThumbnailCache != null) {
+            mThumbnailCache.evictMemory();
+        }
+        if (mPopupContentFormatter != null) {
+            mPopupContentFormatter.evictAll();
+        }
+        if (mBasemapPool != null) {
+            mBasemapPool.trimToCurrent();
+        }
+        super.onLowMemory();
+    }
+
+    /**
+     * Write the operations traced since startup to trace.json in the app's files directory, open it
+     * in chrome://tracing, and the operation latency percentiles to metrics.txt and the log. Files
+     * are written on the file writer thread so pausing is not held up.
+     */
+    private void writeDiagnostics() {
+        final TraceRecorder traceRecorder = TraceRecorder.getInstance();
+        if ( ! traceRecorder.isEnabled() && ! mLogMetrics) {
+            return;
+        }
+        final File traceFile = traceRecorder.isEnabled() ? new File(getFilesDir(), "trace.json") : null;
+        final File metricsFile = mLogMetrics ? new File(getFilesDir(), "metrics.txt") : null;
+        sFileWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (traceFile != null) {
+                        traceRecorder.writeTo(traceFile);
+                    }
+                    if (metricsFile != null) {
+                        MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+                        for (String metricsLine : metricsRegistry.snapshot()) {
+                            Log.d("metrics", metricsLine);
+                        }
+                        metricsRegistry.writeTo(metricsFile);
+                    }
+                } catch (IOException exception) {
+                    Log.d("writeDiagnostics", "Cannot write diagnostics: " + exception.getLocalizedMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Write what the user is looking at to session.bin in the app's files directory: the viewpoint,
+     * the basemap, the operational layers, the selected feature and the route. setupMap reads it
+     * back so the app reopens where the user left it, even after the process was killed. The
+     * snapshot is taken here on the UI thread and written on the file writer thread, after any
+     * earlier snapshot, so back to back pauses never write the same temporary file at once.
+     */
+    private void writeSessionSnapshot() {
+        if ( ! mRestoreSession || mMap == null || mMap.getLoadStatus() != LoadStatus.LOADED) {
+            return; // nothing shown yet, keep the snapshot the map is still being restored from
+        }
+        SessionSnapshot sessionSnapshot = new SessionSnapshot();
+        Viewpoint viewpoint = mMapView.getCurrentViewpoint(Viewpoint.Type.CENTER_AND_SCALE);
+        if (viewpoint != null && viewpoint.getTargetGeometry() instanceof Point && viewpoint.getTargetGeometry().getSpatialReference() != null) {
+            Point center = (Point) viewpoint.getTargetGeometry();
+            sessionSnapshot.setViewpoint(center.getX(), center.getY(), center.getSpatialReference().getWkid(), viewpoint.getTargetScale(), mMapView.getMapRotation());
+        }
+        sessionSnapshot.setBasemapKey(mBasemapKey);
+        sessionSnapshot.setLayers(mLayerSources);
+        Feature selectedFeature = mIdentifyTouchListener != null ? mIdentifyTouchListener.getSelectedFeature() : null;
+        sessionSnapshot.setSelectedObjectId(selectedFeature != null ? getFeatureObjectId(selectedFeature) : mRestoredSelectedObjectId);
+        if (mRouteGeometryJson != null) {
+            SpatialReference stopsSpatialReference = null;
+            List<Double> stops = new ArrayList<>();
+            for (Point stopPoint : mRouteStopPoints) {
+                if (stopPoint == null || stopPoint.getSpatialReference() == null) {
+                    continue;
+                }
+                if (stopsSpatialReference == null) {
+                    stopsSpatialReference = stopPoint.getSpatialReference();
+                } else if ( ! stopsSpatialReference.equals(stopPoint.getSpatialReference())) {
+                    stopPoint = (Point) GeometryEngine.project(stopPoint, stopsSpatialReference);
+                }
+                stops.add(stopPoint.getX());
+                stops.add(stopPoint.getY());
+            }
+            double[] stopCoordinates = new double[stops.size()];
+            for (int i = 0; i < stopCoordinates.length; i ++) {
+                stopCoordinates[i] = stops.get(i);
+            }
+            sessionSnapshot.setRoute(mRouteGeometryJson, stopsSpatialReference != null ? stopsSpatialReference.getWkid() : 0, stopCoordinates);
+        }
+        final byte[] snapshotData;
+        try {
+            snapshotData = sessionSnapshot.toBytes();
+        } catch (IOException exception) {
+            Log.d("writeSessionSnapshot", "Cannot encode the session: " + exception.getLocalizedMessage());
+            return;
+        }
+        final File sessionFile = new File(getFilesDir(), SESSION_FILE_NAME);
+        sFileWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SessionSnapshot.write(sessionFile, snapshotData);
+                } catch (IOException exception) {
+                    Log.d("writeSessionSnapshot", "Cannot write the session: " + exception.getLocalizedMessage());
+                }
+            }
+        });
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
@@ -171,12 +457,18 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         menu.findItem(R.id.action_login).setTitle(mUserIsLoggedIn ? R.string.action_logout : R.string.action_login);
+        MenuItem routeStopsItem = menu.findItem(R.id.action_route_stops);
+        routeStopsItem.setVisible(mRouteStopFeatures.size() > 0);
+        routeStopsItem.setTitle(getString(R.string.action_route_stops, mRouteStopFeatures.size()));
+        menu.findItem(R.id.action_clear_stops).setVisible(mRouteStopFeatures.size() > 0);
+        menu.findItem(R.id.action_prefetch).setTitle(mRegionPrefetcher != null && mRegionPrefetcher.isRunning() ? R.string.action_cancel_prefetch : R.string.action_prefetch);
         return super.onPrepareOptionsMenu(menu);
     }
 
     /**
      * Handle action bar item clicks here. The option shows Login when user is not logged in, or
-     * logout when the user is logged in.
+     * logout when the user is logged in. Once stops are added the options to route to all of them
+     * or clear them are shown. Prefetch downloads the visible area, or cancels the prefetch running.
      * @param item
      * @return
      */
@@ -191,6 +483,19 @@ public class MainActivity extends AppCompatActivity {
                 loginUser(null);
             }
             return true;
+        } else if (id == R.id.action_route_stops) {
+            startMultiStopRouteTask();
+            return true;
+        } else if (id == R.id.action_clear_stops) {
+            clearRouteStops();
+            return true;
+        } else if (id == R.id.action_prefetch) {
+            if (mRegionPrefetcher != null && mRegionPrefetcher.isRunning()) {
+                mRegionPrefetcher.cancel();
+            } else {
+                prefetchVisibleArea();
+            }
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -209,7 +514,7 @@ public class MainActivity extends AppCompatActivity {
 
         if (mapStyle == 1) {
             // Create a raster tile basemap from a tiled layer service
-            basemap = new Basemap(new ArcGISTiledLayer("http://services.arcgisonline.com/arcgis/rest/services/World_Street_Map/MapServer"));
+            basemap = new Basemap(new ArcGISTiledLayer(proxiedURL(mTiledBasemapURL)));
         } else if (mapStyle == 2) {
             // Create a vector tile basemap from a vector tile service
             basemap = new Basemap(new ArcGISVectorTiledLayer("https://www.arcgis.com/sharing/rest/content/items/8ca2c292cda9495696d74342cff7132a/resources/styles/root.json"));
@@ -253,8 +558,141 @@ public class MainActivity extends AppCompatActivity {
         return basemap;
     }
 
+    /**
+     * @return Basemap the basemap of the restored session from the basemap pool, or the start
+     *         basemap if there is no session or it was showing the start basemap.
+     */
+    private Basemap createRestoredBasemap() {
+        String basemapKey = mRestoredSession != null ? mRestoredSession.getBasemapKey() : null;
+        if (basemapKey != null && basemapKey.startsWith("cycle:")) {
+            try {
+                mNextBasemap = Integer.parseInt(basemapKey.substring("cycle:".length())) % BASEMAP_CYCLE_LENGTH;
+                mBasemapKey = "cycle:" + mNextBasemap;
+                return mBasemapPool.acquire(mBasemapKey, basemapTypeFactory(mNextBasemap));
+            } catch (NumberFormatException exception) {
+                Log.d("createRestoredBasemap", "Not a basemap cycle position: " + basemapKey);
+            }
+        } else if (basemapKey != null && basemapKey.startsWith("item:")) {
+            // the item is loaded with the basemap, the portal does not have to be loaded first
+            mBasemapKey = basemapKey;
+            PortalItem portalItem = new PortalItem(new Portal(mPortalURL), basemapKey.substring("item:".length()));
+            return mBasemapPool.acquire(basemapKey, portalItemBasemapFactory(portalItem));
+        }
+        return createBaseMap();
+    }
+
+    /**
+     * Add the operational layers of the restored session in the order they were added. Layers from
+     * a portal item use the user's portal if they are logged in, otherwise the item is requested
+     * from the portal directly and the challenge handler asks for a login if it is secured.
+     * @return boolean true if the session had layers, false to load the default layers.
+     */
+    private boolean restoreOperationalLayers() {
+        if (mRestoredSession == null || mRestoredSession.getLayers().isEmpty()) {
+            return false;
+        }
+        Portal portal = null;
+        for (SessionSnapshot.LayerSource layerSource : mRestoredSession.getLayers()) {
+            switch (layerSource.type) {
+                case SessionSnapshot.LAYER_FEATURE_SERVICE:
+                    loadFeatureLayerWithService(layerSource.source);
+                    break;
+                case SessionSnapshot.LAYER_FEATURE_ITEM:
+                    if (portal == null) {
+                        portal = mArcgisPortal != null ? mArcgisPortal : new Portal(mPortalURL);
+                    }
+                    loadLayerWithItem(portal, layerSource.source);
+                    break;
+                case SessionSnapshot.LAYER_VECTOR_TILES:
+                    loadVectorTileLayerWithService(layerSource.source);
+                    break;
+                default:
+                    Log.d("restoreOperationalLayers", "Unknown layer type " + layerSource.type + " for " + layerSource.source);
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Draw the route of the restored session from its geometry, it is not solved again.
+     */
+    private void restoreRoute() {
+        if (mRestoredSession == null || mRestoredSession.getRouteGeometryJson() == null) {
+            return;
+        }
+        try {
+            SpatialReference stopsSpatialReference = SpatialReference.create(mRestoredSession.getRouteStopsWkid());
+            double[] stops = mRestoredSession.getRouteStops();
+            List<Point> stopPoints = new ArrayList<>(stops.length / 2);
+            for (int i = 0; i + 1 < stops.length; i += 2) {
+                stopPoints.add(new Point(stops[i], stops[i + 1], stopsSpatialReference));
+            }
+            showRouteInNewGraphicsLayer(Geometry.fromJson(mRestoredSession.getRouteGeometryJson()), stopPoints);
+        } catch (Exception exception) {
+            Log.d("restoreRoute", "Cannot draw the restored route: " + exception.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Select the feature that was selected when the session snapshot was written, found by its
+     * object id with one query. The popup is not shown again. When the layer's table is in manual
+     * cache mode the feature is added to its cache with the render fields.
+     */
+    private void restoreSelectedFeature() {
+        final String objectId = mRestoredSelectedObjectId;
+        final FeatureLayer featureLayer = mFeatureLayer;
+        if (objectId == null || featureLayer == null || ! (featureLayer.getFeatureTable() instanceof ServiceFeatureTable)) {
+            return;
+        }
+        QueryParameters queryParameters = new QueryParameters();
+        try {
+            queryParameters.getObjectIds().add(Long.parseLong(objectId));
+        } catch (NumberFormatException exception) {
+            mRestoredSelectedObjectId = null;
+            return;
+        }
+        queryParameters.setReturnGeometry(true);
+        ServiceFeatureTable serviceFeatureTable = (ServiceFeatureTable) featureLayer.getFeatureTable();
+        final ListenableFuture<FeatureQueryResult> queryFuture = isAttributeProjected(featureLayer)
+                ? serviceFeatureTable.populateFromServiceAsync(queryParameters, false, mAttributeProjection.getRenderFields())
+                : serviceFeatureTable.queryFeaturesAsync(queryParameters);
+        queryFuture.addDoneListener(new Runnable() {
+            @Override
+            public void run() {
+                final Feature feature;
+                try {
+                    Iterator<Feature> features = queryFuture.get().iterator();
+                    feature = features.hasNext() ? features.next() : null;
+                } catch (Exception exception) {
+                    Log.d("restoreSelectedFeature", "Cannot find feature " + objectId + ": " + exception.getLocalizedMessage());
+                    return;
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (featureLayer != mFeatureLayer || mIdentifyTouchListener == null) {
+                            return; // the layer was replaced while the query ran
+                        }
+                        mRestoredSelectedObjectId = null;
+                        Feature selectedFeature = mIdentifyTouchListener.getSelectedFeature();
+                        if (feature != null && (selectedFeature == null || objectId.equals(getFeatureObjectId(selectedFeature)))) {
+                            mIdentifyTouchListener.setSelectedFeature(feature); // unless the user has selected another feature since
+                        }
+                    }
+                });
+            }
+        });
+    }
+
     /**
      * Perform all the necessary steps to setup, initialize, and load the map for the first time.
+     * The steps are run by a startup orchestrator so the ones that do not depend on each other run
+     * at the same time. If this process already has the user's credentials (the activity was
+     * recreated after the user logged in) the portal and the route task are loaded right away rather
+     * than when the user first needs them. If a session snapshot was written when the app was last
+     * paused the map opens on its basemap, viewpoint, layers, selection and route instead of the
+     * start defaults.
      */
     private void setupMap() {
         // ArcGISRuntimeEnvironment.setClientId(mClientId); // <== Don't do this or you are required to also set a license string
@@ -262,31 +700,151 @@ public class MainActivity extends AppCompatActivity {
         Log.d("setupMap", "ArcGIS version: " + ArcGISRuntimeEnvironment.getAPIVersion() + ", " + ArcGISRuntimeEnvironment.getAPILabel());
         mMapView = (MapView) findViewById(R.id.mapView);
         if (mMapView != null) {
-            mMap = new ArcGISMap(createBaseMap());
-            // TODO: Can't do this here! have to wait for the map to load! Even though constructor ArcGISMap(type, lat, long, lod) is able to do it
-            // mMapView.setViewpointCenterAsync(new Point(mStartLongitude, mStartLatitude, SpatialReference.create(4326)), 95000);
-            mMap.addDoneLoadingListener(new Runnable() {
+            if (mRestoreSession) {
+                long readStartNanos = System.nanoTime();
+                mRestoredSession = SessionSnapshot.read(new File(getFilesDir(), SESSION_FILE_NAME));
+                MetricsRegistry.getInstance().recordSince("session.read", readStartNanos, mRestoredSession != null);
+                mRestoredSelectedObjectId = mRestoredSession != null ? mRestoredSession.getSelectedObjectId() : null;
+            }
+            Executor uiExecutor = new Executor() {
                 @Override
-                public void run() {
-                    if (mMap.getLoadStatus() == LoadStatus.LOADED) {
-                        SpatialReference spatialReference = SpatialReference.create(4326); // mMap.getSpatialReference(); // SpatialReference.create(4326); 3857 or 4326?
-                        mMapView.setViewpointCenterAsync(new Point(mStartLongitude, mStartLatitude, spatialReference), 95000);
-                        updateAttribution();
-                    } else {
-                        showErrorAlert(getString(R.string.network_error), getString(R.string.err_cannot_load_basemap));
-                    }
+                public void execute(Runnable command) {
+                    runOnUiThread(command);
                 }
-            });
-            mMapView.setMap(mMap);
-            //loadVectorTileLayerWithService("https://www.arcgis.com/sharing/rest/content/items/bf79e422e9454565ae0cbe9553cf6471/resources/styles/root.json");
-            loadVectorTileLayerWithService("https://www.arcgis.com/sharing/rest/content/items/8ca2c292cda9495696d74342cff7132a/resources/styles/root.json");
-            // loadFeatureLayerWithService(mLayerServiceURL);
-            setupChallengeHandler();
-            setupAttribution();
-            startDeviceLocator();
+            };
+            StartupOrchestrator startupOrchestrator = new StartupOrchestrator(startupListener);
+            startupOrchestrator
+                .setTraceRecorder(TraceRecorder.getInstance())
+                .addStep("challengeHandler", uiExecutor, new StartupOrchestrator.StartupStep() {
+                    @Override
+                    public void run(StartupOrchestrator.StepCompletion completion) {
+                        setupChallengeHandler();
+                        completion.done();
+                    }
+                })
+                .addStep("attributionView", uiExecutor, new StartupOrchestrator.StartupStep() {
+                    @Override
+                    public void run(StartupOrchestrator.StepCompletion completion) {
+                        setupAttribution();
+                        completion.done();
+                    }
+                })
+                .addStep("map", uiExecutor, new StartupOrchestrator.StartupStep() {
+                    @Override
+                    public void run(StartupOrchestrator.StepCompletion completion) {
+                        mMap = new ArcGISMap(createRestoredBasemap());
+                        if (mRestoredSession != null && mRestoredSession.hasViewpoint()) {
+                            mMap.setInitialViewpoint(new Viewpoint(new Point(mRestoredSession.getCenterX(), mRestoredSession.getCenterY(), SpatialReference.create(mRestoredSession.getWkid())),
+                                    mRestoredSession.getScale(), mRestoredSession.getRotation()));
+                        }
+                        mMapView.setMap(mMap);
+                        restoreRoute();
+                        mMapView.addNavigationChangedListener(new NavigationChangedListener() {
+                            @Override
+                            public void navigationChanged(NavigationChangedEvent navigationChangedEvent) {
+                                if ( ! navigationChangedEvent.isNavigating()) {
+                                    updateAttribution();
+                                }
+                            }
+                        });
+                        completion.done();
+                    }
+                })
+                .addStep("mapLoaded", uiExecutor, new StartupOrchestrator.StartupStep() {
+                    @Override
+                    public void run(final StartupOrchestrator.StepCompletion completion) {
+                        // TODO: Can't do this here! have to wait for the map to load! Even though constructor ArcGISMap(type, lat, long, lod) is able to do it
+                        // mMapView.setViewpointCenterAsync(new Point(mStartLongitude, mStartLatitude, SpatialReference.create(4326)), 95000);
+                        TraceRecorder traceRecorder = TraceRecorder.getInstance();
+                        mMap.addDoneLoadingListener(traceRecorder.endAfter(traceRecorder.begin("map.load"), new Runnable() {
+                            @Override
+                            public void run() {
+                                if (mMap.getLoadStatus() == LoadStatus.LOADED) {
+                                    if (mRestoredSession == null || ! mRestoredSession.hasViewpoint()) {
+                                        SpatialReference spatialReference = SpatialReference.create(4326); // mMap.getSpatialReference(); // SpatialReference.create(4326); 3857 or 4326?
+                                        mMapView.setViewpointCenterAsync(new Point(mStartLongitude, mStartLatitude, spatialReference), 95000);
+                                    }
+                                    updateAttribution();
+                                    preloadBasemapType((mNextBasemap + 1) % BASEMAP_CYCLE_LENGTH);
+                                    completion.done();
+                                } else {
+                                    if (mRestoredSession != null) {
+                                        new File(getFilesDir(), SESSION_FILE_NAME).delete(); // the next start uses the defaults rather than this session again
+                                    }
+                                    showErrorAlert(getString(R.string.network_error), getString(R.string.err_cannot_load_basemap));
+                                    completion.failed(getString(R.string.err_cannot_load_basemap));
+                                }
+                            }
+                        }));
+                    }
+                }, "map", "attributionView")
+                .addStep("operationalLayers", uiExecutor, new StartupOrchestrator.StartupStep() {
+                    @Override
+                    public void run(StartupOrchestrator.StepCompletion completion) {
+                        if (restoreOperationalLayers()) {
+                            completion.done();
+                            return;
+                        }
+                        //loadVectorTileLayerWithService("https://www.arcgis.com/sharing/rest/content/items/bf79e422e9454565ae0cbe9553cf6471/resources/styles/root.json");
+                        loadVectorTileLayerWithService("https://www.arcgis.com/sharing/rest/content/items/8ca2c292cda9495696d74342cff7132a/resources/styles/root.json");
+                        // loadFeatureLayerWithService(mLayerServiceURL);
+                        completion.done();
+                    }
+                }, "map", "challengeHandler")
+                .addStep("locator", uiExecutor, new StartupOrchestrator.StartupStep() {
+                    @Override
+                    public void run(StartupOrchestrator.StepCompletion completion) {
+                        // a restored viewpoint is where the user left the map, do not pan away to the device
+                        startDeviceLocator(mRestoredSession == null || ! mRestoredSession.hasViewpoint());
+                        completion.done();
+                    }
+                }, "map")
+                .addStep("portal", uiExecutor, new StartupOrchestrator.StartupStep() {
+                    @Override
+                    public void run(final StartupOrchestrator.StepCompletion completion) {
+                        if ( ! sHasCredentials || mUserIsLoggedIn) {
+                            completion.done();
+                            return;
+                        }
+                        loginUser(new LoginCompletionInterface() {
+                            public void onLoginCompleted() {
+                                completion.done();
+                            }
+
+                            public void onLoginFailed(int errorCode, String errorMessage) {
+                                completion.failed(errorMessage); // the user can still login from the menu
+                            }
+                        });
+                    }
+                }, "challengeHandler")
+                .addStep("routeTask", uiExecutor, new StartupOrchestrator.StartupStep() {
+                    @Override
+                    public void run(StartupOrchestrator.StepCompletion completion) {
+                        if (mUserIsLoggedIn) {
+                            mRouteEngine.warmUp();
+                        }
+                        completion.done();
+                    }
+                }, "portal")
+                .start();
         }
     }
 
+    /**
+     * Log how long each startup step took.
+     */
+    private final StartupOrchestrator.StartupListener startupListener = new StartupOrchestrator.StartupListener() {
+        @Override
+        public void onStepCompleted(String stepName, boolean succeeded, long startedAtMillis, long elapsedMillis) {
+            Log.d("setupMap", "Startup step " + stepName + (succeeded ? " done in " + elapsedMillis + "ms" : " failed or skipped"));
+        }
+
+        @Override
+        public void onStartupCompleted(long elapsedMillis) {
+            Log.d("setupMap", "Startup completed in " + elapsedMillis + "ms");
+        }
+    };
+
     /**
      * Configure the TextView we are going to use to display any map attributions.
      */
@@ -302,66 +860,67 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Determine the map attribution from the basemap collection of layers by iterating the layers
-     * and concatenating all attributions. This is the quick-and-dumb method that does not consider
-     * extent and scale.
-     * TODO: iterate the layers, score the layers, merge attributions - produce the best attribution text possible
-     * TODO: See https://devtopia.esri.com/runtime/dotnet-api/blob/10.2.6/src/Esri.ArcGISRuntime/Esri.ArcGISRuntime.Shared/Layers/CommunityAttribution.cs
-     * TODO: See https://github.com/Esri/esri-leaflet/blob/master/src/Util.js#L218
+     * Update the map attribution displayed based on the current map layer and extent configuration.
+     * The attribution engine credits the contributors whose coverage areas are visible at the
+     * current zoom level. It only looks at the coverage areas again when the basemap layers change
+     * or the view crosses the edge of an area, so this is cheap enough to call after every
+     * navigation. May be called from any thread.
      */
-    private String getBasemapAttribution(ArcGISMap map) {
-        String attributionText = null;
-        if (map != null) {
-            LayerList mapLayers = map.getBasemap().getBaseLayers();
-            if (mapLayers != null && ! mapLayers.isEmpty()) {
-                try {
-                    String layerAttribution;
-                    for (int i = mapLayers.size() - 1; i >= 0; i --) {
-                        Layer mapLayer = mapLayers.get(i);
-                        layerAttribution = mapLayer.getAttribution();
-                        if (layerAttribution == null || layerAttribution.length() == 0) { // because getAttribution() returns ""
-                            if (mapLayer instanceof ArcGISTiledLayer) {
-                                layerAttribution = ((ArcGISTiledLayer) mapLayer).getMapServiceInfo().getAttribution();
-                            } else if (mapLayer instanceof ArcGISMapImageLayer) {
-                                layerAttribution = ((ArcGISMapImageLayer) mapLayer).getMapServiceInfo().getAttribution();
-                            } else if (mapLayer instanceof ArcGISVectorTiledLayer) {
-                                layerAttribution = "Haven't figured out yet how to get attribution on vector layers";
-                            } else {
-                                layerAttribution = "Don't know how to get attribution for " + mapLayer.getClass();
-                            }
-                        }
-                        if (attributionText == null) {
-                            attributionText = layerAttribution;
-                        } else {
-                            attributionText += "; " + layerAttribution;
-                        }
+    private void updateAttribution() {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (mMap == null || mMap.getBasemap() == null || mMapView == null) {
+                    return;
+                }
+                LayerList mapLayers = mMap.getBasemap().getBaseLayers();
+                List<Layer> baseLayers = new ArrayList<>();
+                List<String> layerKeys = new ArrayList<>();
+                for (int i = mapLayers.size() - 1; i >= 0; i --) { // top layer first
+                    baseLayers.add(mapLayers.get(i));
+                    layerKeys.add(AttributionLoader.layerKey(mapLayers.get(i)));
+                }
+                mAttributionEngine.setLayers(layerKeys);
+                for (Layer baseLayer : baseLayers) {
+                    if ( ! mAttributionEngine.hasLayerAttribution(AttributionLoader.layerKey(baseLayer))) {
+                        mAttributionLoader.load(baseLayer, mAttributionEngine, attributionLoaded);
                     }
-                } catch (Exception genericException) {
-                    Log.d("updateAttribution", "Cant cast the layer");
-                    attributionText = "Map attribution unknown.";
                 }
+                showAttribution();
             }
-            if (attributionText == null || attributionText.length() == 0) {
-                attributionText = "Basemap has no attribution.";
-            }
+        });
+    }
+
+    /**
+     * Show the attribution for the current view.
+     */
+    private void showAttribution() {
+        TextView attributionTextView = (TextView) findViewById(R.id.mapAttribution);
+        Polygon visibleArea = mMapView.getVisibleArea();
+        if (attributionTextView == null || visibleArea == null || visibleArea.isEmpty()) {
+            return;
+        }
+        Envelope visibleExtent = (Envelope) GeometryEngine.project(visibleArea.getExtent(), SpatialReferences.getWgs84());
+        String attributionText = mAttributionEngine.getAttribution(visibleExtent.getXMin(), visibleExtent.getYMin(), visibleExtent.getXMax(), visibleExtent.getYMax(), AttributionEngine.zoomForScale(mMapView.getMapScale()));
+        if (attributionText.length() == 0) {
+            attributionText = getString(R.string.info_no_attribution);
+        }
+        if ( ! attributionText.contentEquals(attributionTextView.getText())) {
+            attributionTextView.setText(attributionText);
         }
-        return attributionText;
     }
 
     /**
-     * Update the map attribution displayed based on the current map layer and extent configuration.
+     * Once a layer's attribution is known show it.
      */
-    private void updateAttribution() {
-        if (mMap != null) {
-            TextView attributionTextView = (TextView) findViewById(R.id.mapAttribution);
-            if (attributionTextView != null) {
-                String attributionText = getBasemapAttribution(mMap);
-                if (attributionText != null) {
-                    attributionTextView.setText(attributionText);
-                }
+    private final AttributionLoader.AttributionLoadedInterface attributionLoaded = new AttributionLoader.AttributionLoadedInterface() {
+        @Override
+        public void onAttributionLoaded(String layerKey) {
+            if (mMapView != null) {
+                showAttribution();
             }
         }
-    }
+    };
 
     /**
      * Set a default challenge handler provided by the SDK. We could implement our own by
@@ -393,18 +952,25 @@ public class MainActivity extends AppCompatActivity {
         if (mArcgisPortal == null) {
             mArcgisPortal = new Portal(mPortalURL, true);
         }
-        mArcgisPortal.addDoneLoadingListener(new Runnable() {
+        TraceRecorder traceRecorder = TraceRecorder.getInstance();
+        final long loginStartNanos = System.nanoTime();
+        mArcgisPortal.addDoneLoadingListener(traceRecorder.endAfter(traceRecorder.begin("portal.load"), new Runnable() {
             @Override
             public void run() {
                 final String info;
                 final int errorCode;
                 LoadStatus loadStatus = mArcgisPortal.getLoadStatus();
+                MetricsRegistry.getInstance().recordSince("login", loginStartNanos, loadStatus == LoadStatus.LOADED);
                 if (loadStatus == LoadStatus.LOADED) {
                     // PortalInfo portalInformation = mArcgisPortal.getPortalInfo();
                     // info = portalInformation.getPortalName() + " for " + portalInformation.getOrganizationName();
                     info = null;
                     errorCode = 0;
+                    if ( ! mUserIsLoggedIn) {
+                        mRouteEngine.invalidate(); // credentials changed, reload the route task with them
+                    }
                     mUserIsLoggedIn = true;
+                    sHasCredentials = true;
                 } else {
                     ArcGISRuntimeException loadError = mArcgisPortal.getLoadError();
                     if (loadError != null) {
@@ -438,7 +1004,7 @@ public class MainActivity extends AppCompatActivity {
                     }
                 });
             }
-        });
+        }));
         mArcgisPortal.loadAsync();
         return true;
     }
@@ -450,35 +1016,137 @@ public class MainActivity extends AppCompatActivity {
      */
     private boolean logoutUser() {
         AuthenticationManager.CredentialCache.clear();
+        sHasCredentials = false;
+        mRouteRequestManager.cancel();
+        mRouteEngine.invalidate(); // the route task was loaded with the old user's credentials
+        if ( ! mRouteExecutor.isShutdown()) {
+            // routes solved for the old user are not shown to the next one
+            mRouteExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mRouteCache.clear();
+                }
+            });
+        }
+        final File sessionFile = new File(getFilesDir(), SESSION_FILE_NAME);
+        final TileProxy tileProxy = sTileProxy;
+        sFileWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                sessionFile.delete(); // the next start does not open on what the old user was looking at
+                if (tileProxy != null) {
+                    tileProxy.clear(); // tiles and resources fetched for the old user are not served to the next one
+                }
+            }
+        });
+        if (sVectorStyleCache != null) {
+            sVectorStyleCache.clear();
+        }
+        if (mBasemapPool != null) {
+            mBasemapPool.evictAll(); // basemaps loaded with the old user's credentials are not switched to again
+        }
         mUserIsLoggedIn = false;
         invalidateOptionsMenu();
         return true;
     }
 
     /**
-     * Iterate the portal query result set and build a cache of the portal items. Also start
-     * the fetch of each item's thumbnail.
-     * @param portalResultSet
+     * Iterate a page of the portal query result set and add its portal items to our cache. Also start
+     * the fetch of each item's thumbnail. The first page replaces whatever was cached before, later
+     * pages are appended. Must run on the UI thread since the grid may be showing the list.
+     * @param portalResultSet one page of query results
+     * @param isFirstPage true if this is the first page of the query
      */
-    private void buildPortalItemCache(final PortalQueryResultSet<PortalItem> portalResultSet) {
+    private void buildPortalItemCache(final PortalQueryResultSet<PortalItem> portalResultSet, boolean isFirstPage) {
         if (portalResultSet != null) {
             List<PortalItem> queryResults = portalResultSet.getResults();
+            if (mBasemapList == null) {
+                mBasemapList = new ArrayList<>(queryResults != null ? queryResults.size() : 0);
+            } else if (isFirstPage && ! mBasemapList.isEmpty()) {
+                mBasemapList.clear();
+            }
             if (queryResults != null && ! queryResults.isEmpty()) {
-                if (mBasemapList == null) {
-                    mBasemapList = new ArrayList<>(queryResults.size());
-                } else if ( ! mBasemapList.isEmpty()) {
-                    mBasemapList.clear();
-                }
-                for (int index = 0; index < queryResults.size(); index ++) {
-                    PortalItem portalItem = queryResults.get(index);
-                    BasemapItem basemapItem = new BasemapItem(index, portalItem);
-                    if (basemapItem != null) {
+                for (PortalItem portalItem : queryResults) {
+                    BasemapItem basemapItem = new BasemapItem(mBasemapList.size(), portalItem, mThumbnailCache, mThumbnailFetchScheduler);
+                    if (basemapItem.loadImage(imageLoadedCompletionInterface)) {
                         mThumbnailsRequested ++;
-                        basemapItem.loadImage(imageLoadedCompletionInterface);
-                        mBasemapList.add(basemapItem);
                     }
+                    mBasemapList.add(basemapItem);
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the cache of portal items from a basemap list stored by the BasemapQueryCache. The portal
+     * items are created but not loaded, BasemapItem shows the cached title and thumbnail until
+     * revalidation tells us something changed.
+     * @param cachedItems
+     */
+    private void buildPortalItemCacheFromCachedItems(final List<BasemapQueryCache.CachedItem> cachedItems) {
+        if (cachedItems != null && ! cachedItems.isEmpty()) {
+            if (mBasemapList == null) {
+                mBasemapList = new ArrayList<>(cachedItems.size());
+            } else if ( ! mBasemapList.isEmpty()) {
+                mBasemapList.clear();
+            }
+            for (int index = 0; index < cachedItems.size(); index ++) {
+                BasemapQueryCache.CachedItem cachedItem = cachedItems.get(index);
+                BasemapItem basemapItem = new BasemapItem(index, new PortalItem(mArcgisPortal, cachedItem.itemId), cachedItem, mThumbnailCache, mThumbnailFetchScheduler);
+                if (basemapItem.loadImage(imageLoadedCompletionInterface)) {
+                    mThumbnailsRequested ++;
+                }
+                mBasemapList.add(basemapItem);
+            }
+        }
+    }
+
+    /**
+     * Apply the differences found when the cached basemap list was revalidated: changed items are
+     * replaced in place, new items are appended and removed items are dropped. Must run on the UI
+     * thread since the grid may be showing the list.
+     * @param addedOrChangedItems
+     * @param removedItemIds
+     */
+    private void mergeRevalidatedBasemaps(final List<PortalItem> addedOrChangedItems, final List<String> removedItemIds) {
+        if (mBasemapList == null) {
+            mBasemapList = new ArrayList<>(addedOrChangedItems.size());
+        }
+        for (int index = mBasemapList.size() - 1; index >= 0; index --) {
+            BasemapItem basemapItem = mBasemapList.get(index);
+            if (removedItemIds.contains(basemapItem.getPortalItem().getItemId())) {
+                mThumbnailFetchScheduler.cancel(basemapItem);
+                mBasemapList.remove(index);
+            }
+        }
+        List<BasemapItem> updatedItems = new ArrayList<>(addedOrChangedItems.size());
+        for (PortalItem portalItem : addedOrChangedItems) {
+            BasemapItem basemapItem = new BasemapItem(mBasemapList.size(), portalItem, mThumbnailCache, mThumbnailFetchScheduler);
+            int existingIndex = -1;
+            for (int index = 0; index < mBasemapList.size(); index ++) {
+                if (portalItem.getItemId().equals(mBasemapList.get(index).getPortalItem().getItemId())) {
+                    existingIndex = index;
+                    break;
                 }
             }
+            if (existingIndex >= 0) {
+                mThumbnailFetchScheduler.cancel(mBasemapList.get(existingIndex));
+                mBasemapList.set(existingIndex, basemapItem);
+            } else {
+                mBasemapList.add(basemapItem);
+            }
+            updatedItems.add(basemapItem);
+        }
+        for (int index = 0; index < mBasemapList.size(); index ++) {
+            mBasemapList.get(index).setIndex(index);
+        }
+        for (BasemapItem basemapItem : updatedItems) {
+            if (basemapItem.loadImage(imageLoadedCompletionInterface)) {
+                mThumbnailsRequested ++;
+            }
+        }
+        if (mBasemapGridView != null && mBasemapGridView.getAdapter() instanceof PortalItemQueryAdapter) {
+            ((PortalItemQueryAdapter) mBasemapGridView.getAdapter()).notifyDataSetChanged();
         }
     }
 
@@ -496,8 +1164,16 @@ public class MainActivity extends AppCompatActivity {
         }
         GridView gridView = new GridView(this);
         final AlertDialog gridViewAlertDialog;
+        final PortalItemQueryAdapter portalItemQueryAdapter = new PortalItemQueryAdapter(MainActivity.this, mBasemapList, mThumbnailFetchScheduler, mThumbnailCache);
 
-        gridView.setAdapter(new PortalItemQueryAdapter(MainActivity.this, mBasemapList));
+        // thumbnails cancelled when the grid was last closed (or evicted from memory since) are requested again
+        for (BasemapItem basemapItem : mBasemapList) {
+            if (basemapItem.getImage() == null && basemapItem.loadImage(imageLoadedCompletionInterface)) {
+                mThumbnailsRequested ++;
+            }
+        }
+        gridView.setAdapter(portalItemQueryAdapter);
+        gridView.setOnScrollListener(portalItemQueryAdapter);
         gridView.setNumColumns(2);
         gridView.setDrawSelectorOnTop(true);
         gridView.setSelector(R.drawable.selector_basemap);
@@ -508,6 +1184,16 @@ public class MainActivity extends AppCompatActivity {
         builder.setTitle(R.string.title_select_basemap);
         gridViewAlertDialog = builder.show();
         mBasemapGridView = gridView;
+        preloadSelectorBasemaps();
+        gridViewAlertDialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(DialogInterface dialog) {
+                // nobody is looking at the thumbnails any more so stop fetching them
+                mBasemapGridView = null;
+                mThumbnailFetchScheduler.cancelAll();
+                portalItemQueryAdapter.releaseThumbnails(); // the cells no longer draw them
+            }
+        });
 
         gridView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
@@ -528,78 +1214,127 @@ public class MainActivity extends AppCompatActivity {
 
     /**
      * Set the basemap to a portal item (as long as it is a WEBMAP)
-     * If the item is not loaded we attempt to load it
+     * If the item is not loaded we attempt to load it. Items restored from the basemap query cache
+     * are not loaded so the type can only be checked once loading completes.
      * @param portalItem
      */
     public void changeBasemapToPortalItem(final PortalItem portalItem) {
-        if (portalItem != null && portalItem.getType() == PortalItem.Type.WEBMAP) {
+        if (portalItem != null) {
             mCurrentViewPoint = mMapView.getCurrentViewpoint(Viewpoint.Type.CENTER_AND_SCALE);
             mMapScale = mMapView.getMapScale();
-            portalItem.addDoneLoadingListener(new Runnable() {
+            final String basemapKey = "item:" + portalItem.getItemId();
+            if (mBasemapPool.isLoaded(basemapKey)) {
+                // preloaded while the selector was showing, the item is a web map and its layers are loaded
+                mMap.setBasemap(mBasemapPool.acquire(basemapKey, portalItemBasemapFactory(portalItem)));
+                mBasemapKey = basemapKey;
+                mMapView.setViewpointAsync(mCurrentViewPoint);
+                mMapView.setViewpointScaleAsync(mMapScale);
+                updateAttribution();
+                return;
+            }
+            TraceRecorder traceRecorder = TraceRecorder.getInstance();
+            portalItem.addDoneLoadingListener(traceRecorder.endAfter(traceRecorder.begin("basemap.load"), new Runnable() {
                 @Override
                 public void run() {
                     LoadStatus loadStatus = portalItem.getLoadStatus();
                     if (loadStatus == LoadStatus.LOADED) {
-                        mMap.setBasemap(new Basemap(portalItem));
-                        mMapView.setViewpointAsync(mCurrentViewPoint);
-                        mMapView.setViewpointScaleAsync(mMapScale);
-                        updateAttribution();
+                        if (portalItem.getType() == PortalItem.Type.WEBMAP) {
+                            mMap.setBasemap(mBasemapPool.acquire(basemapKey, portalItemBasemapFactory(portalItem)));
+                            mBasemapKey = basemapKey;
+                            mMapView.setViewpointAsync(mCurrentViewPoint);
+                            mMapView.setViewpointScaleAsync(mMapScale);
+                            updateAttribution();
+                        }
                     } else {
                         ArcGISRuntimeException loadError = portalItem.getLoadError();
                         showErrorAlert(getString(R.string.system_error), getString(R.string.err_cannot_load_item) + " " + loadError.getLocalizedMessage());
                     }
                 }
-            });
+            }));
             portalItem.loadAsync();
         }
     }
 
     /**
      * This method cycles through 8 standard base maps. Use this as a test interface to display
-     * different base maps.
+     * different base maps. Basemaps come from the basemap pool, and the one after the new basemap
+     * is preloaded so the next tap swaps it in without loading anything.
      */
     public void changeBasemapToBasemapType() {
-        Basemap newBasemap;
         mCurrentViewPoint = mMapView.getCurrentViewpoint(Viewpoint.Type.CENTER_AND_SCALE);
         mMapScale = mMapView.getMapScale();
-        mNextBasemap = (mNextBasemap + 1) % 8;
-        switch(mNextBasemap) {
-            case 0:
-                newBasemap = Basemap.createImageryWithLabels();
-                break;
-            case 1:
-                newBasemap = Basemap.createStreets();
-                break;
-            case 2:
-                newBasemap = Basemap.createLightGrayCanvas();
-                break;
-            case 3:
-                newBasemap = Basemap.createNationalGeographic();
-                break;
-            case 4:
-                newBasemap = Basemap.createTopographic();
-                break;
-            case 5:
-                newBasemap = Basemap.createTerrainWithLabels();
-                break;
-            case 6:
-                newBasemap = Basemap.createOceans();
-                break;
-            default:
-                newBasemap = Basemap.createImagery();
-                break;
-        }
-        mMap.setBasemap(newBasemap);
+        mNextBasemap = (mNextBasemap + 1) % BASEMAP_CYCLE_LENGTH;
+        mBasemapKey = "cycle:" + mNextBasemap;
+        mMap.setBasemap(mBasemapPool.acquire(mBasemapKey, basemapTypeFactory(mNextBasemap)));
         mMapView.setViewpointAsync(mCurrentViewPoint);
         mMapView.setViewpointScaleAsync(mMapScale);
+        preloadBasemapType((mNextBasemap + 1) % BASEMAP_CYCLE_LENGTH);
+    }
+
+    private void preloadBasemapType(int cycleIndex) {
+        if (mBasemapPool != null) {
+            mBasemapPool.preload("cycle:" + cycleIndex, basemapTypeFactory(cycleIndex));
+        }
     }
 
     /**
-     * Change the map to the web map portal item. I am mainly using this method to demonstrate
-     * requesting/loading a portal item while no user is logged in and invoking the challenge
-     * hander.
+     * @param cycleIndex position in the changeBasemapToBasemapType cycle.
+     * @return BasemapFactory that builds the standard basemap at that position.
      */
-    public void changeBasemapToWebMap() {
+    private static BasemapPool.BasemapFactory basemapTypeFactory(final int cycleIndex) {
+        return new BasemapPool.BasemapFactory() {
+            @Override
+            public Basemap create() {
+                switch(cycleIndex) {
+                    case 0:
+                        return Basemap.createImageryWithLabels();
+                    case 1:
+                        return Basemap.createStreets();
+                    case 2:
+                        return Basemap.createLightGrayCanvas();
+                    case 3:
+                        return Basemap.createNationalGeographic();
+                    case 4:
+                        return Basemap.createTopographic();
+                    case 5:
+                        return Basemap.createTerrainWithLabels();
+                    case 6:
+                        return Basemap.createOceans();
+                    default:
+                        return Basemap.createImagery();
+                }
+            }
+        };
+    }
+
+    private static BasemapPool.BasemapFactory portalItemBasemapFactory(final PortalItem portalItem) {
+        return new BasemapPool.BasemapFactory() {
+            @Override
+            public Basemap create() {
+                return new Basemap(portalItem);
+            }
+        };
+    }
+
+    /**
+     * Load the basemaps at the top of the selector while the user is looking at it, those that are
+     * not web maps fail to load and are dropped from the pool.
+     */
+    private void preloadSelectorBasemaps() {
+        for (int index = 0; index < Math.min(mBasemapPreloadCount, mBasemapList.size()); index ++) {
+            PortalItem portalItem = mBasemapList.get(index).getPortalItem();
+            if (portalItem != null) {
+                mBasemapPool.preload("item:" + portalItem.getItemId(), portalItemBasemapFactory(portalItem));
+            }
+        }
+    }
+
+    /**
+     * Change the map to the web map portal item. I am mainly using this method to demonstrate
+     * requesting/loading a portal item while no user is logged in and invoking the challenge
+     * hander.
+     */
+    public void changeBasemapToWebMap() {
         if (mArcgisPortal == null) {
             mArcgisPortal = new Portal(mPortalURL, false);
         }
@@ -658,9 +1393,10 @@ public class MainActivity extends AppCompatActivity {
         }
         if (mBasemapList == null) {
             // no base maps in the cache requires us to see if we can load them from the portal
-            FetchGroupBasemaps fetchGroupBasemaps = new FetchGroupBasemaps(this, mArcgisPortal, basemapFetchTaskComplete);
+            FetchGroupBasemaps fetchGroupBasemaps = new FetchGroupBasemaps(this, mArcgisPortal, mBasemapQueryCache, basemapFetchTaskComplete);
             if (fetchGroupBasemaps!= null) {
                 try {
+                    fetchGroupBasemaps.setPageSize(mBasemapQueryPageSize);
                     fetchGroupBasemaps.start();
                 } catch (Exception exception) {
                     showErrorAlert(getString(R.string.action_fetch_basemaps), getString(R.string.err_fetching_basemaps));
@@ -675,7 +1411,52 @@ public class MainActivity extends AppCompatActivity {
      * Setup the map touch handler so we can use touch to identify features on the feature layer.
      */
     private void setMapTouchHandler() {
-        mMapView.setOnTouchListener(new IdentifyFeatureLayerTouchListener(this, mMapView, mFeatureLayer));
+        if (mFeatureLayerIndex != null) {
+            mFeatureLayerIndex.shutdown();
+            mFeatureLayerIndex = null;
+        }
+        boolean isProjected = isAttributeProjected(mFeatureLayer);
+        if ((mUseFeatureIndex || isProjected) && mFeatureLayer != null) {
+            // a projected layer's table is in manual cache mode, the index is what populates it
+            mFeatureLayerIndex = new FeatureLayerIndex(mMapView, mFeatureLayer, mFeatureIndexMaxFeatures, isProjected ? mAttributeProjection.getRenderFields() : null, mFeaturePageSize);
+            mFeatureLayerIndex.setKeepCachedFeatures(mKeepPrefetchedFeatures);
+            mFeatureLayerIndex.start();
+        }
+        if (mIdentifyTouchListener != null) {
+            mIdentifyTouchListener.cancelIdentify();
+        }
+        mIdentifyTouchListener = new IdentifyFeatureLayerTouchListener(this, mMapView, mFeatureLayer, mUseFeatureIndex ? mFeatureLayerIndex : null);
+        mIdentifyTouchListener.setAttributeProjection(isProjected ? mAttributeProjection : null);
+        mIdentifyTouchListener.setPopupContentFormatter(mPopupContentFormatter);
+        mMapView.setOnTouchListener(mIdentifyTouchListener);
+    }
+
+    /**
+     * When attribute projection is on, switch a new layer's service feature table to manual cache
+     * mode so we decide which fields are fetched. Must be called before the layer is loaded.
+     * @param featureLayer
+     */
+    private void applyAttributeProjection(FeatureLayer featureLayer) {
+        if (mUseAttributeProjection && featureLayer.getFeatureTable() instanceof ServiceFeatureTable) {
+            ((ServiceFeatureTable) featureLayer.getFeatureTable()).setFeatureRequestMode(ServiceFeatureTable.FeatureRequestMode.MANUAL_CACHE);
+        }
+    }
+
+    /**
+     * @param featureLayer
+     * @return {boolean} true if the layer's features are fetched with only the render fields.
+     */
+    private boolean isAttributeProjected(FeatureLayer featureLayer) {
+        return mUseAttributeProjection && featureLayer != null && featureLayer.getFeatureTable() instanceof ServiceFeatureTable
+                && ((ServiceFeatureTable) featureLayer.getFeatureTable()).getFeatureRequestMode() == ServiceFeatureTable.FeatureRequestMode.MANUAL_CACHE;
+    }
+
+    /**
+     * @param serviceURL String a tiled or vector tiled service URL.
+     * @return String the URL routed through the caching tile proxy, if it is running.
+     */
+    private static String proxiedURL(String serviceURL) {
+        return sTileProxy != null ? sTileProxy.proxiedURL(serviceURL) : serviceURL;
     }
 
     /**
@@ -685,41 +1466,186 @@ public class MainActivity extends AppCompatActivity {
     private void loadFeatureLayerWithService(String serviceURL) {
         ServiceFeatureTable serviceFeatureTable = new ServiceFeatureTable(serviceURL);
         mFeatureLayer = new FeatureLayer(serviceFeatureTable);
+        applyAttributeProjection(mFeatureLayer);
         mMap.getOperationalLayers().add(mFeatureLayer);
+        mLayerSources.add(new SessionSnapshot.LayerSource(SessionSnapshot.LAYER_FEATURE_SERVICE, serviceURL));
         mLoadedFeatureService = true;
         setMapTouchHandler();
+        restoreSelectedFeature();
     }
 
     /**
-     * Load a vector tile layer given a service URL.
+     * Load a vector tile layer given a service URL. With the tile proxy running the style, sprites
+     * and glyphs are served from the style cache, so a layer that was shown before draws without
+     * waiting on the network while the style is revalidated in the background.
      * @param serviceURL String The URL pointing to the vector tile service (from ArcGIS Online.)
      */
     private void loadVectorTileLayerWithService(String serviceURL) {
-        ArcGISVectorTiledLayer vectorTileLayer = new ArcGISVectorTiledLayer(serviceURL);
+        mVectorTileStyleURL = serviceURL;
+        if (sVectorStyleCache != null) {
+            sVectorStyleCache.open(serviceURL, sTileProxy);
+        }
+        ArcGISVectorTiledLayer vectorTileLayer = new ArcGISVectorTiledLayer(proxiedURL(serviceURL));
         if (vectorTileLayer != null) {
             mMap.getOperationalLayers().add(vectorTileLayer);
+            mLayerSources.add(new SessionSnapshot.LayerSource(SessionSnapshot.LAYER_VECTOR_TILES, serviceURL));
         }
     }
 
+    /**
+     * Download the tiled basemap's tiles, the vector tile layer's style, resources and tiles, and
+     * the feature layer's features for the visible area, from the current level to mPrefetchLevels
+     * below it, so the area can still be browsed where the network is poor. Features are only
+     * prefetched when the layer's table is in manual cache mode. Prefetching the same area at the
+     * same level again carries on where an interrupted prefetch stopped.
+     */
+    private void prefetchVisibleArea() {
+        if (mRegionPrefetcher == null) {
+            showErrorAlert(getString(R.string.system_error), getString(R.string.err_prefetch_unavailable));
+            return;
+        }
+        Polygon visibleArea = mMapView.getVisibleArea();
+        if (visibleArea == null || visibleArea.isEmpty()) {
+            Log.d("prefetchVisibleArea", "The map is not showing anything yet.");
+            return;
+        }
+        Envelope visibleExtent = (Envelope) GeometryEngine.project(visibleArea.getExtent(), SpatialReferences.getWgs84());
+        int minLevel = AttributionEngine.zoomForScale(mMapView.getMapScale());
+        int maxLevel = Math.min(minLevel + mPrefetchLevels, AttributionEngine.MAX_ZOOM);
+        if (RegionPrefetchJob.countTiles(visibleExtent.getXMin(), visibleExtent.getYMin(), visibleExtent.getXMax(), visibleExtent.getYMax(), minLevel, maxLevel) > mPrefetchMaxItems) {
+            showErrorAlert(getString(R.string.network_error), getString(R.string.err_prefetch_too_large, mPrefetchMaxItems));
+            return;
+        }
+        boolean isProjected = isAttributeProjected(mFeatureLayer);
+        mRegionPrefetcher.setTiledServiceURL(mTiledBasemapURL);
+        mRegionPrefetcher.setVectorTileStyleURL(mVectorTileStyleURL);
+        mRegionPrefetcher.setFeatureTable(isProjected ? (ServiceFeatureTable) mFeatureLayer.getFeatureTable() : null, isProjected ? mAttributeProjection.getRenderFields() : null, mFeaturePageSize);
+        if (isProjected) {
+            // the index would replace the table's cache on the next pan and drop the prefetched features
+            mKeepPrefetchedFeatures = true;
+            if (mFeatureLayerIndex != null) {
+                mFeatureLayerIndex.setKeepCachedFeatures(true);
+            }
+        }
+        showPrefetchStatus(getString(R.string.info_prefetch_planning), false);
+        mRegionPrefetcher.start(visibleExtent, minLevel, maxLevel, new RegionPrefetcher.PrefetchListener() {
+            @Override
+            public void onPlanned(final int totalItems) {
+                Log.d("prefetchVisibleArea", "Prefetching " + totalItems + " items.");
+            }
+
+            @Override
+            public void onPlanFailed(final String message) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showPrefetchStatus(null, true);
+                        showErrorAlert(getString(R.string.network_error), message == null ? getString(R.string.err_prefetch_too_large, mPrefetchMaxItems) : getString(R.string.err_prefetch_failed) + " " + message);
+                        invalidateOptionsMenu();
+                    }
+                });
+            }
+
+            @Override
+            public void onProgress(final RegionPrefetchJob.Progress progress) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showPrefetchStatus(getString(R.string.info_prefetch_progress, progress.getPercent(), progress.bytes / (1024.0 * 1024.0),
+                                progress.remainingMillis >= 0 ? DateUtils.formatElapsedTime(progress.remainingMillis / 1000) : "?"), false);
+                    }
+                });
+            }
+
+            @Override
+            public void onFinished(final RegionPrefetchJob.Progress progress) {
+                Log.d("prefetchVisibleArea", "Prefetch finished: " + progress);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (progress.completedItems == progress.totalItems) {
+                            showPrefetchStatus(getString(R.string.info_prefetch_done, progress.totalItems, progress.bytes / (1024.0 * 1024.0)), true);
+                        } else if (progress.budgetReached) {
+                            showPrefetchStatus(getString(R.string.info_prefetch_budget, progress.getPercent(), mPrefetchMaxBytes / (1024.0 * 1024.0)), true);
+                        } else {
+                            showPrefetchStatus(getString(R.string.info_prefetch_stopped, progress.getPercent()), true);
+                        }
+                        invalidateOptionsMenu();
+                    }
+                });
+            }
+        });
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * Show how a prefetch is going in a snackbar that stays up while it runs and can cancel it.
+     * @param status String what to show, null to only take down the running status.
+     * @param finished boolean true when the prefetch is over, the status then times out.
+     */
+    private void showPrefetchStatus(String status, boolean finished) {
+        if (mPrefetchSnackbar != null && ! finished) {
+            mPrefetchSnackbar.setText(status);
+            return;
+        }
+        if (mPrefetchSnackbar != null) {
+            mPrefetchSnackbar.dismiss();
+            mPrefetchSnackbar = null;
+        }
+        if (status == null) {
+            return;
+        }
+        Snackbar snackbar = Snackbar.make(mMapView, status, finished ? Snackbar.LENGTH_LONG : Snackbar.LENGTH_INDEFINITE);
+        if ( ! finished) {
+            snackbar.setAction(R.string.action_cancel, new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    if (mRegionPrefetcher != null) {
+                        mRegionPrefetcher.cancel();
+                    }
+                }
+            });
+            mPrefetchSnackbar = snackbar;
+        }
+        snackbar.show();
+    }
+
     /**
      * Load a feature service given its item id (from ArcGIS Online.)
      * @param itemId String the item id of the feature layer
      */
     private void loadLayerWithItem (String itemId) {
-        if (itemId != null && mMap != null && mArcgisPortal != null) {
+        loadLayerWithItem(mArcgisPortal, itemId);
+    }
+
+    /**
+     * Load a feature service given its item id from the given portal. An item that is already on
+     * the map, for example restored from the session snapshot, is not added again.
+     * @param portal Portal the portal the item is in
+     * @param itemId String the item id of the feature layer
+     */
+    private void loadLayerWithItem (Portal portal, String itemId) {
+        if (itemId != null && mMap != null && portal != null) {
+            final SessionSnapshot.LayerSource layerSource = new SessionSnapshot.LayerSource(SessionSnapshot.LAYER_FEATURE_ITEM, itemId);
+            if (mLayerSources.contains(layerSource)) {
+                Log.d("loadLayerWithItem", "Layer " + itemId + " is already on the map");
+                return;
+            }
+            mLayerSources.add(layerSource);
             try {
-                final PortalItem portalItem = new PortalItem(mArcgisPortal, itemId);
+                final PortalItem portalItem = new PortalItem(portal, itemId);
                 if (portalItem != null) {
-                    portalItem.addDoneLoadingListener(new Runnable() {
+                    TraceRecorder traceRecorder = TraceRecorder.getInstance();
+                    portalItem.addDoneLoadingListener(traceRecorder.endAfter(traceRecorder.begin("layer.load"), new Runnable() {
                         @Override
                         public void run() {
                             layerLoaded(portalItem);
-                            setMapTouchHandler();
                         }
-                    });
+                    }));
                     portalItem.loadAsync();
                 }
             } catch (ArcGISRuntimeException exception) {
+                mLayerSources.remove(layerSource);
                 Log.d("loadLayerWithItem", "Runtime exception " + exception.getLocalizedMessage());
             }
         } else {
@@ -739,13 +1665,22 @@ public class MainActivity extends AppCompatActivity {
                 @Override
                 public void run() {
                     mFeatureLayer = new FeatureLayer(portalItem, 0);
+                    applyAttributeProjection(mFeatureLayer);
                     LayerList layerList = mMap.getOperationalLayers();
                     if (layerList != null) {
                         layerList.add(mFeatureLayer);
                     }
+                    setMapTouchHandler(); // now that there is a layer to identify in
+                    restoreSelectedFeature();
                 }
             });
         } else {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    mLayerSources.remove(new SessionSnapshot.LayerSource(SessionSnapshot.LAYER_FEATURE_ITEM, portalItem.getItemId()));
+                }
+            });
             ArcGISRuntimeException loadError = portalItem.getLoadError();
             showErrorAlert(getString(R.string.system_error), getString(R.string.err_cannot_load_layer) + " " + loadError.getLocalizedMessage());
         }
@@ -767,28 +1702,23 @@ public class MainActivity extends AppCompatActivity {
 
     /**
      * Given a specific basemapItem instance, find that item in the grid view and refresh its content.
+     * Only the item's own cell is redrawn, and only if it is on screen. This may be called from any
+     * thread, the view update is posted to the UI thread.
      * @param basemapItem
      */
-    public void refreshBasemapThumbnail (BasemapItem basemapItem) {
+    public void refreshBasemapThumbnail (final BasemapItem basemapItem) {
         if (mBasemapGridView == null || basemapItem == null) {
             return;
         }
-        View gridViewCell = mBasemapGridView.getChildAt(basemapItem.getIndex());
-        if (gridViewCell != null) {
-            PortalItem portalItem = basemapItem.getPortalItem();
-            TextView textView = (TextView) gridViewCell.findViewById(R.id.textViewMap);
-            textView.setText(portalItem.getTitle());
-            final ImageView imageView = (ImageView) gridViewCell.findViewById(R.id.imageViewMap);
-            if (imageView != null) {
-                Bitmap thumbnail = basemapItem.getImage();
-                // If the image was already loaded we may have it immediately, otherwise a network
-                // request is issued and the image will arrive sometime in the future. When that
-                // happens we use ImageLoadedCompletionInterface to add the loaded image to the view.
-                if (thumbnail != null) {
-                    imageView.setImageBitmap(thumbnail);
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                GridView gridView = mBasemapGridView;
+                if (gridView != null && gridView.getAdapter() instanceof PortalItemQueryAdapter) {
+                    ((PortalItemQueryAdapter) gridView.getAdapter()).updateItemView(gridView, basemapItem.getIndex());
                 }
             }
-        }
+        });
     }
 
     /**
@@ -810,7 +1740,7 @@ public class MainActivity extends AppCompatActivity {
      */
     private final LoginCompletionInterface loginCompletionCallbackForRouting = new LoginCompletionInterface() {
         public void onLoginCompleted() {
-            loadRouteTask();
+            startRouteTask(mFeatureToRouteTo);
         }
 
         public void onLoginFailed(int errorCode, String errorMessage) {
@@ -822,16 +1752,44 @@ public class MainActivity extends AppCompatActivity {
      * Interface for handling asynchronous fetching of the list of available base maps
      */
     private final BasemapFetchTaskComplete basemapFetchTaskComplete = new BasemapFetchTaskComplete() {
-        public void onBasemapFetchCompleted(final PortalQueryResultSet<PortalItem> portalResultSet) {
-            buildPortalItemCache(portalResultSet);
+        public void onBasemapPageFetched(final PortalQueryResultSet<PortalItem> portalResultSet, final boolean isFirstPage) {
             runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
+                    buildPortalItemCache(portalResultSet, isFirstPage);
+                    if (isFirstPage) {
+                        // show what we have now, later pages are added to the grid as they arrive
+                        showGridDialog();
+                    } else if (mBasemapGridView != null && mBasemapGridView.getAdapter() instanceof PortalItemQueryAdapter) {
+                        ((PortalItemQueryAdapter) mBasemapGridView.getAdapter()).notifyDataSetChanged();
+                    }
+                }
+            });
+        }
+
+        public void onBasemapFetchCompleted(int itemCount) {
+            Log.d("onBasemapFetchCompleted", "Fetched " + itemCount + " basemaps");
+        }
+
+        public void onBasemapFetchCached(final List<BasemapQueryCache.CachedItem> cachedItems) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    buildPortalItemCacheFromCachedItems(cachedItems);
                     showGridDialog();
                 }
             });
         }
 
+        public void onBasemapFetchRevalidated(final List<PortalItem> addedOrChangedItems, final List<String> removedItemIds) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    mergeRevalidatedBasemaps(addedOrChangedItems, removedItemIds);
+                }
+            });
+        }
+
         public void onBasemapFetchFailed(String errorMessage) {
             showErrorAlert(getString(R.string.action_fetch_basemaps), getString(R.string.err_fetching_basemaps) + ": " + errorMessage);
         }
@@ -840,18 +1798,30 @@ public class MainActivity extends AppCompatActivity {
     /**
      * Implementation of the ImageLoadedCompletionInterface when thumbnails load asynchronously and
      * we receive the delegation so we can determine what to do with the loaded (or failed) image.
+     * These are called on the thumbnail cache, decoder and runtime threads, the count and the grid
+     * are only touched on the UI thread.
      */
     private final BasemapItem.ImageLoadedCompletionInterface imageLoadedCompletionInterface = new BasemapItem.ImageLoadedCompletionInterface() {
-        public void onImageCompleted(BasemapItem basemapItem) {
-            mThumbnailsRequested --;
-            if (mBasemapGridView != null) {
-                refreshBasemapThumbnail(basemapItem);
-            }
+        public void onImageCompleted(final BasemapItem basemapItem) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    mThumbnailsRequested --;
+                    if (mBasemapGridView != null) {
+                        refreshBasemapThumbnail(basemapItem);
+                    }
+                }
+            });
         }
 
-        public void onImageFailed(BasemapItem basemapItem, String errorMessage) {
-            mThumbnailsRequested --;
-            Log.d("loadThumbnailImage", "Failed to load image " + basemapItem.toString() + ": " + errorMessage);
+        public void onImageFailed(final BasemapItem basemapItem, final String errorMessage) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    mThumbnailsRequested --;
+                    Log.d("loadThumbnailImage", "Failed to load image " + basemapItem.toString() + ": " + errorMessage);
+                }
+            });
         }
     };
 
@@ -879,8 +1849,9 @@ public class MainActivity extends AppCompatActivity {
      * point to a rather complex asynchronous sequence of events:
      *   1. User must be logged in. If user is not logged in then login now.
      *   2. Read device location. If locator is not on then turn it on and wait for a stable read.
-     *   3. Load RouteTask. This is async and we wait for it to complete.
-     *   4. Load default Route Parameters
+     *   3. Load RouteTask. This is async and we wait for it to complete (only the first time, the
+     *      RouteEngine keeps it loaded.)
+     *   4. Create this request's Route Parameters from the loaded task.
      *   5. Set Route Parameters and set stops: current device location, feature location
      *   7. Solve route
      *   8. Create graphics overlay
@@ -890,136 +1861,465 @@ public class MainActivity extends AppCompatActivity {
     public void startRouteTask(Feature featureToRouteTo) {
         if (featureToRouteTo != null) {
             mFeatureToRouteTo = featureToRouteTo;
-//            if ( ! mUserIsLoggedIn) {
-//                loginUser(loginCompletionCallbackForRouting);
-//            } else {
-                loadRouteTask();
-//            }
+            final Point currentLocation = getDeviceCurrentLocation();
+            final String routeCacheKey = getRouteCacheKey(featureToRouteTo, currentLocation);
+            final Geometry routeToPoint = featureToRouteTo.getGeometry();
+            // repeated taps on the same feature from the same place join the request already in flight,
+            // a request for a different route supersedes it
+            final int requestGeneration = mRouteRequestManager.begin(routeCacheKey != null ? routeCacheKey : "feature|" + System.identityHashCode(featureToRouteTo));
+            if (requestGeneration == RouteRequestManager.NO_REQUEST) {
+                Log.d("startRouteTask", "Route to this feature is already in progress.");
+                return;
+            }
+            // look for a route we already solved from about here, the disk tier is read off the UI thread.
+            // Routes are only for logged in users, cached ones as much as solved ones.
+            final boolean userIsLoggedIn = mUserIsLoggedIn;
+            mRouteExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if ( ! mRouteRequestManager.isCurrent(requestGeneration)) {
+                        return;
+                    }
+                    RouteCache.CachedRoute cachedRoute = null;
+                    if (userIsLoggedIn) {
+                        cachedRoute = mRouteCache.get(routeCacheKey, System.currentTimeMillis());
+                        MetricsRegistry.getInstance().increment(cachedRoute != null ? "routeCache.hit" : "routeCache.miss");
+                    }
+                    final RouteCache.CachedRoute routeFromCache = cachedRoute;
+                    if (routeFromCache != null && routeToPoint instanceof Point) {
+                        Log.d("startRouteTask", "Using cached route for " + routeCacheKey);
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (mRouteRequestManager.isCurrent(requestGeneration)) {
+                                    clearRoutes();
+                                    showRouteInNewGraphicsLayer(Geometry.fromJson(routeFromCache.geometryJson), currentLocation, (Point) routeToPoint);
+                                }
+                                mRouteRequestManager.finish(requestGeneration);
+                            }
+                        });
+                    } else {
+                        // the route parameters and the map view belong to the UI thread
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+//                                if ( ! mUserIsLoggedIn) {
+//                                    loginUser(loginCompletionCallbackForRouting);
+//                                } else {
+                                    loadRouteTask(requestGeneration);
+//                                }
+                            }
+                        });
+                    }
+                }
+            });
         } else {
             Log.d("startRouteTask", "No feature to end route task!");
         }
     }
 
     /**
-     * Make sure we are able to load the route task. Once loaded call setupRouteParameters to
-     * complete the route.
+     * Build the route cache key for routing from a location to a feature.
+     * @param featureToRouteTo The route ends here.
+     * @param routeStartPoint The route starts here.
+     * @return {String} the key or null if the route cannot be cached.
      */
-    public void loadRouteTask() {
-        final RouteTask routeTask = new RouteTask(mRouteTaskURL);
-        if (routeTask != null) {
-            routeTask.addDoneLoadingListener(new Runnable() {
-                @Override
-                public void run() {
-                    ArcGISRuntimeException loadError = routeTask.getLoadError();
-                    LoadStatus loadStatus = routeTask.getLoadStatus();
-                    if (loadError == null && loadStatus == LoadStatus.LOADED) {
-                        setupRouteParameters(routeTask);
-                    } else {
-                        Log.d("startRouteTask", "Not able to load route task status=" + loadStatus + ", error=" + loadError.getCause() + "/" + loadError.getLocalizedMessage());
-                    }
-                }
-            });
-            routeTask.loadAsync();
+    private String getRouteCacheKey(Feature featureToRouteTo, Point routeStartPoint) {
+        String destinationId = getFeatureObjectId(featureToRouteTo);
+        if (destinationId == null || routeStartPoint == null || routeStartPoint.getSpatialReference() == null) {
+            return null;
         }
+        SpatialReference spatialReference = routeStartPoint.getSpatialReference();
+        return mRouteCache.keyFor(destinationId, routeStartPoint.getX(), routeStartPoint.getY(), spatialReference.getWkid(), spatialReference.isGeographic());
+    }
+
+    /**
+     * Find the object id of a feature from its attributes.
+     * @param feature
+     * @return {String} the object id or null if the feature does not have one.
+     */
+    static String getFeatureObjectId(Feature feature) {
+        if (feature == null || feature.getAttributes() == null) {
+            return null;
+        }
+        for (Map.Entry<String, Object> attribute : feature.getAttributes().entrySet()) {
+            String fieldName = attribute.getKey();
+            if (attribute.getValue() != null && ("objectid".equalsIgnoreCase(fieldName) || "fid".equalsIgnoreCase(fieldName))) {
+                return attribute.getValue().toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the loaded route task and route parameters of this request's own from the route engine.
+     * The first request loads the task, after that only the parameters are created. Once ready call
+     * setupRouteParameters to complete the route. Call on the UI thread.
+     * @param requestGeneration the route request this is for, from the route request manager.
+     */
+    public void loadRouteTask(final int requestGeneration) {
+        mRouteEngine.prepare(new RouteEngine.RouteParametersCompletionInterface() {
+            @Override
+            public void onRouteParametersReady(RouteTask routeTask, RouteParameters routeParameters) {
+                setupRouteParameters(routeTask, routeParameters, requestGeneration);
+            }
+
+            @Override
+            public void onRouteParametersFailed(String errorMessage) {
+                Log.d("startRouteTask", errorMessage);
+                mRouteRequestManager.finish(requestGeneration);
+            }
+        });
     }
 
     /**
-     * With a loaded route task setup the route parameters then send the task request to the server
-     * and wait for a route solve response. If the route is solved then draw the route on the map view.
+     * With a loaded route task and its default parameters set the stops then send the task request
+     * to the server and wait for a route solve response. If the route is solved then draw the route
+     * on the map view.
      * @param routeTask
+     * @param routeParameters this request's parameters from the route engine with no stops set
+     * @param requestGeneration the route request this is for. If a newer request came along since, nothing is solved or drawn.
      */
-    public void setupRouteParameters(final RouteTask routeTask) {
-        if (mFeatureToRouteTo != null && mUserIsLoggedIn) {
-            final ListenableFuture<RouteParameters> routeParametersFuture = routeTask.createDefaultParametersAsync();
-            routeParametersFuture.addDoneListener(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        Stop routeToStop = null;
-                        Stop routeFromStop = null;
-                        final Point routeEndPoint;
-                        final Point currentLocation;
-
-                        Geometry routeToPoint = mFeatureToRouteTo.getGeometry();
-                        if (routeToPoint != null && routeToPoint.getGeometryType() == GeometryType.POINT) {
-                            routeEndPoint = (Point)routeToPoint;
-                            routeToStop = new Stop(routeEndPoint);
-                            currentLocation = getDeviceCurrentLocation();
-                            if (currentLocation != null) {
-                                routeFromStop = new Stop(currentLocation);
-                            }
-                        } else {
-                            routeEndPoint = null;
-                            currentLocation = null;
-                        }
-                        if (routeToStop != null && routeFromStop != null) {
-                            RouteParameters routeParameters = routeParametersFuture.get();
-                            routeParameters.setReturnDirections(true);
-                            routeParameters.setReturnRoutes(true);
-                            routeParameters.setPreserveFirstStop(true);
-                            routeParameters.setPreserveLastStop(true);
-                            routeParameters.setOutputSpatialReference(mMapView.getSpatialReference());
-                            routeParameters.setDirectionsDistanceUnits(UnitSystem.IMPERIAL);
-                            routeParameters.setReturnStops(true);
-                            routeParameters.getStops().add(routeFromStop);
-                            routeParameters.getStops().add(routeToStop);
-                            final ListenableFuture<RouteResult> routeResultFuture = routeTask.solveRouteAsync(routeParameters);
-                            routeTask.addDoneLoadingListener(new Runnable() {
-                                @Override
-                                public void run() {
-                                    try {
-                                        RouteResult routeResult = routeResultFuture.get();
-                                        if (routeResult != null) {
-                                            Route route = routeResult.getRoutes().get(0);
-                                            List<String> routeMessages = routeResult.getMessages();
-                                            if (route != null && route.getRouteGeometry() != null) {
-                                                clearRoutes();
-                                                showRouteInNewGraphicsLayer(route, currentLocation, routeEndPoint);
-                                            } else {
-                                                showErrorAlert(getString(R.string.route_error), getString(R.string.err_calcing_route));
+    public void setupRouteParameters(final RouteTask routeTask, final RouteParameters routeParameters, final int requestGeneration) {
+        if ( ! mRouteRequestManager.isCurrent(requestGeneration)) {
+            Log.d("setupRouteParameters", "Route request was superseded.");
+        } else if (mFeatureToRouteTo != null && mUserIsLoggedIn) {
+            try {
+                Stop routeToStop = null;
+                Stop routeFromStop = null;
+                final Point routeEndPoint;
+                final Point currentLocation;
+
+                Geometry routeToPoint = mFeatureToRouteTo.getGeometry();
+                if (routeToPoint != null && routeToPoint.getGeometryType() == GeometryType.POINT) {
+                    routeEndPoint = (Point)routeToPoint;
+                    routeToStop = new Stop(routeEndPoint);
+                    currentLocation = getDeviceCurrentLocation();
+                    if (currentLocation != null) {
+                        routeFromStop = new Stop(currentLocation);
+                    }
+                } else {
+                    routeEndPoint = null;
+                    currentLocation = null;
+                }
+                if (routeToStop != null && routeFromStop != null) {
+                    final String routeCacheKey = getRouteCacheKey(mFeatureToRouteTo, currentLocation);
+                    routeParameters.setOutputSpatialReference(mMapView.getSpatialReference());
+                    routeParameters.getStops().add(routeFromStop);
+                    routeParameters.getStops().add(routeToStop);
+                    TraceRecorder traceRecorder = TraceRecorder.getInstance();
+                    long traceSpan = traceRecorder.begin("route.solve");
+                    final long solveStartNanos = System.nanoTime();
+                    final ListenableFuture<RouteResult> routeResultFuture = routeTask.solveRouteAsync(routeParameters);
+                    mRouteRequestManager.track(requestGeneration, routeResultFuture);
+                    routeResultFuture.addDoneListener(traceRecorder.endAfter(traceSpan, new Runnable() {
+                        @Override
+                        public void run() {
+                            boolean solved = false;
+                            try {
+                                if (routeResultFuture.isCancelled() || ! mRouteRequestManager.isCurrent(requestGeneration)) {
+                                    Log.d("setupRouteParameters", "Dropping result of a superseded route request.");
+                                    return;
+                                }
+                                RouteResult routeResult = routeResultFuture.get();
+                                solved = true;
+                                MetricsRegistry.getInstance().recordSince("route.solve", solveStartNanos, routeResult != null);
+                                if (routeResult != null) {
+                                    Route route = routeResult.getRoutes().get(0);
+                                    if (route != null && route.getRouteGeometry() != null) {
+                                        final RouteCache.CachedRoute solvedRoute = toCachedRoute(route);
+                                        // the disk tier is written off the UI thread
+                                        mRouteExecutor.execute(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                mRouteCache.put(routeCacheKey, solvedRoute);
                                             }
-                                        }
-                                    } catch (ArcGISRuntimeException exception) {
-                                        Log.d("setupRouteParameters", "solveAsync Runtime exception: (" + exception.getErrorCode() + ") " + exception.getCause());
-                                    } catch (Exception exception) {
-                                        Log.d("setupRouteParameters", "solveAsync exception: " + exception.getLocalizedMessage());
+                                        });
+                                        clearRoutes();
+                                        showRouteInNewGraphicsLayer(route.getRouteGeometry(), currentLocation, routeEndPoint);
+                                    } else {
+                                        showErrorAlert(getString(R.string.route_error), getString(R.string.err_calcing_route));
                                     }
                                 }
-                            });
-                        } else {
-                            Log.d("setupRouteParameters", "Not enough info to solve a route.");
+                            } catch (ArcGISRuntimeException exception) {
+                                if ( ! solved) {
+                                    MetricsRegistry.getInstance().recordSince("route.solve", solveStartNanos, false);
+                                }
+                                Log.d("setupRouteParameters", "solveAsync Runtime exception: (" + exception.getErrorCode() + ") " + exception.getCause());
+                            } catch (Exception exception) {
+                                if ( ! solved) {
+                                    MetricsRegistry.getInstance().recordSince("route.solve", solveStartNanos, false);
+                                }
+                                Log.d("setupRouteParameters", "solveAsync exception: " + exception.getLocalizedMessage());
+                            } finally {
+                                mRouteRequestManager.finish(requestGeneration);
+                            }
                         }
-                    } catch (ArcGISRuntimeException exception) {
-                        Log.d("setupRouteParameters", "Runtime exception: (" + exception.getErrorCode() + ") " + exception.getCause());
-                    } catch (Exception exception) {
-                        Log.d("setupRouteParameters", "Cannot start route: " + exception.getLocalizedMessage());
-                    }
+                    }));
+                    return;
+                } else {
+                    Log.d("setupRouteParameters", "Not enough info to solve a route.");
                 }
-            });
+            } catch (ArcGISRuntimeException exception) {
+                Log.d("setupRouteParameters", "Runtime exception: (" + exception.getErrorCode() + ") " + exception.getCause());
+            } catch (Exception exception) {
+                Log.d("setupRouteParameters", "Cannot start route: " + exception.getLocalizedMessage());
+            }
         } else {
             Log.d("startRouteTask", "No feature to end route task, or not logged in!");
         }
+        mRouteRequestManager.finish(requestGeneration);
     }
 
     /**
-     * Given a route and the start and end points on the map, create a new graphics layer
-     * and draw the route and start/end markers, then add the graphics overlay to the map view.
+     * Add a feature to the set of stops for the next multi-stop route. A feature is only added once.
+     * @param feature The feature to visit.
+     * @return {boolean} true if the feature was added.
+     */
+    public boolean addRouteStop(Feature feature) {
+        if (feature == null || ! (feature.getGeometry() instanceof Point)) {
+            return false;
+        }
+        if (mRouteStopFeatures.size() >= mMaxRouteStops) {
+            showErrorAlert(getString(R.string.route_error), getString(R.string.err_too_many_stops, mMaxRouteStops));
+            return false;
+        }
+        String objectId = getFeatureObjectId(feature);
+        for (Feature routeStopFeature : mRouteStopFeatures) {
+            if (routeStopFeature == feature || (objectId != null && objectId.equals(getFeatureObjectId(routeStopFeature)))) {
+                return false;
+            }
+        }
+        mRouteStopFeatures.add(feature);
+        invalidateOptionsMenu();
+        return true;
+    }
+
+    /**
+     * Forget the stops collected for a multi-stop route.
+     */
+    public void clearRouteStops() {
+        mRouteStopFeatures.clear();
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * Route from the current location to all the features added with addRouteStop in one solve. The
+     * route service finds the best order to visit them in: the current location stays the first
+     * stop, any of the features may be the last. This follows the same sequence as startRouteTask
+     * but multi-stop routes are not cached.
+     */
+    public void startMultiStopRouteTask() {
+        if (mRouteStopFeatures.isEmpty()) {
+            Log.d("startMultiStopRoute", "No stops to route to!");
+            return;
+        }
+        final List<Feature> routeStopFeatures = new ArrayList<>(mRouteStopFeatures);
+        StringBuilder requestKey = new StringBuilder("stops");
+        for (Feature routeStopFeature : routeStopFeatures) {
+            String objectId = getFeatureObjectId(routeStopFeature);
+            requestKey.append('|').append(objectId != null ? objectId : String.valueOf(System.identityHashCode(routeStopFeature)));
+        }
+        final int requestGeneration = mRouteRequestManager.begin(requestKey.toString());
+        if (requestGeneration == RouteRequestManager.NO_REQUEST) {
+            Log.d("startMultiStopRoute", "Route to these stops is already in progress.");
+            return;
+        }
+        mRouteEngine.prepare(new RouteEngine.RouteParametersCompletionInterface() {
+            @Override
+            public void onRouteParametersReady(RouteTask routeTask, RouteParameters routeParameters) {
+                setupMultiStopRouteParameters(routeTask, routeParameters, routeStopFeatures, requestGeneration);
+            }
+
+            @Override
+            public void onRouteParametersFailed(String errorMessage) {
+                Log.d("startMultiStopRoute", errorMessage);
+                mRouteRequestManager.finish(requestGeneration);
+            }
+        });
+    }
+
+    /**
+     * Set the current location and all the features as stops, allow the service to reorder them, then
+     * solve. If the route is solved draw it with a marker on each stop and show a summary of each leg.
+     * @param routeTask
+     * @param routeParameters this request's parameters from the route engine with no stops set
+     * @param routeStopFeatures the features to visit
+     * @param requestGeneration the route request this is for. If a newer request came along since, nothing is solved or drawn.
+     */
+    private void setupMultiStopRouteParameters(final RouteTask routeTask, final RouteParameters routeParameters, final List<Feature> routeStopFeatures, final int requestGeneration) {
+        final Point currentLocation = getDeviceCurrentLocation();
+        if ( ! mRouteRequestManager.isCurrent(requestGeneration)) {
+            Log.d("startMultiStopRoute", "Route request was superseded.");
+        } else if (currentLocation == null || ! mUserIsLoggedIn) {
+            Log.d("startMultiStopRoute", "No current location, or not logged in!");
+        } else {
+            try {
+                Stop routeFromStop = new Stop(currentLocation);
+                routeFromStop.setName(getString(R.string.route_start));
+                routeParameters.getStops().add(routeFromStop);
+                for (Feature routeStopFeature : routeStopFeatures) {
+                    Stop routeToStop = new Stop((Point) routeStopFeature.getGeometry());
+                    routeToStop.setName(getFeatureName(routeStopFeature));
+                    routeParameters.getStops().add(routeToStop);
+                }
+                routeParameters.setOutputSpatialReference(mMapView.getSpatialReference());
+                routeParameters.setFindBestSequence(true);
+                routeParameters.setPreserveFirstStop(true);
+                routeParameters.setPreserveLastStop(false);
+                TraceRecorder traceRecorder = TraceRecorder.getInstance();
+                long traceSpan = traceRecorder.begin("route.solveMultiStop");
+                final long solveStartNanos = System.nanoTime();
+                final ListenableFuture<RouteResult> routeResultFuture = routeTask.solveRouteAsync(routeParameters);
+                mRouteRequestManager.track(requestGeneration, routeResultFuture);
+                routeResultFuture.addDoneListener(traceRecorder.endAfter(traceSpan, new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean solved = false;
+                        try {
+                            if (routeResultFuture.isCancelled() || ! mRouteRequestManager.isCurrent(requestGeneration)) {
+                                Log.d("startMultiStopRoute", "Dropping result of a superseded route request.");
+                                return;
+                            }
+                            RouteResult routeResult = routeResultFuture.get();
+                            solved = true;
+                            MetricsRegistry.getInstance().recordSince("route.solveMultiStop", solveStartNanos, routeResult != null);
+                            Route route = routeResult != null && routeResult.getRoutes().size() > 0 ? routeResult.getRoutes().get(0) : null;
+                            if (route != null && route.getRouteGeometry() != null) {
+                                List<Point> stopPoints = new ArrayList<>();
+                                stopPoints.add(currentLocation);
+                                for (Feature routeStopFeature : routeStopFeatures) {
+                                    stopPoints.add((Point) routeStopFeature.getGeometry());
+                                }
+                                clearRoutes();
+                                showRouteInNewGraphicsLayer(route.getRouteGeometry(), stopPoints);
+                                showRouteLegSummary(route);
+                            } else {
+                                showErrorAlert(getString(R.string.route_error), getString(R.string.err_calcing_route));
+                            }
+                        } catch (ArcGISRuntimeException exception) {
+                            if ( ! solved) {
+                                MetricsRegistry.getInstance().recordSince("route.solveMultiStop", solveStartNanos, false);
+                            }
+                            Log.d("startMultiStopRoute", "solveAsync Runtime exception: (" + exception.getErrorCode() + ") " + exception.getCause());
+                        } catch (Exception exception) {
+                            if ( ! solved) {
+                                MetricsRegistry.getInstance().recordSince("route.solveMultiStop", solveStartNanos, false);
+                            }
+                            Log.d("startMultiStopRoute", "solveAsync exception: " + exception.getLocalizedMessage());
+                        } finally {
+                            mRouteRequestManager.finish(requestGeneration);
+                        }
+                    }
+                }));
+                return;
+            } catch (ArcGISRuntimeException exception) {
+                Log.d("startMultiStopRoute", "Runtime exception: (" + exception.getErrorCode() + ") " + exception.getCause());
+            } catch (Exception exception) {
+                Log.d("startMultiStopRoute", "Cannot start route: " + exception.getLocalizedMessage());
+            }
+        }
+        mRouteRequestManager.finish(requestGeneration);
+    }
+
+    /**
+     * Show the order the stops are visited in and the distance and time of each leg. The stops come
+     * back from the service with their sequence and the distance and time from the start of the route.
+     * @param route a solved multi-stop route
+     */
+    private void showRouteLegSummary(Route route) {
+        List<Stop> stops = new ArrayList<>(route.getStops());
+        Collections.sort(stops, new Comparator<Stop>() {
+            @Override
+            public int compare(Stop stop1, Stop stop2) {
+                return stop1.getSequence() - stop2.getSequence();
+            }
+        });
+        StringBuilder summary = new StringBuilder();
+        for (int i = 1; i < stops.size(); i ++) {
+            Stop fromStop = stops.get(i - 1);
+            Stop toStop = stops.get(i);
+            double legMiles = (toStop.getCumulativeDistance() - fromStop.getCumulativeDistance()) / METERS_PER_MILE;
+            double legMinutes = toStop.getCumulativeTime() - fromStop.getCumulativeTime();
+            summary.append(getString(R.string.route_leg_summary, i, fromStop.getName(), toStop.getName(), legMiles, legMinutes)).append('\n');
+        }
+        summary.append(getString(R.string.route_total_summary, route.getTotalLength() / METERS_PER_MILE, route.getTotalTime()));
+        AlertDialog.Builder alertDialog = new AlertDialog.Builder(MainActivity.this);
+        alertDialog.setTitle(R.string.title_route_summary);
+        alertDialog.setMessage(summary.toString());
+        alertDialog.setCancelable(true);
+        alertDialog.setNegativeButton(R.string.action_OK, null);
+        alertDialog.create().show();
+    }
+
+    /**
+     * @param feature
+     * @return {String} the feature's name attribute, or its object id if it has no name.
+     */
+    private static String getFeatureName(Feature feature) {
+        Object name = feature.getAttributes() != null ? feature.getAttributes().get("name") : null;
+        if (name != null && name.toString().length() > 0) {
+            return name.toString();
+        }
+        String objectId = getFeatureObjectId(feature);
+        return objectId != null ? objectId : "";
+    }
+
+    /**
+     * Keep the parts of a solved route we need to show it again.
      * @param route
+     * @return {CachedRoute}
+     */
+    private static RouteCache.CachedRoute toCachedRoute(Route route) {
+        List<String> directions = new ArrayList<>();
+        List<DirectionManeuver> directionManeuvers = route.getDirectionManeuvers();
+        if (directionManeuvers != null) {
+            for (DirectionManeuver directionManeuver : directionManeuvers) {
+                directions.add(directionManeuver.getDirectionText());
+            }
+        }
+        return new RouteCache.CachedRoute(route.getRouteGeometry().toJson(), directions, route.getTotalLength(), route.getTotalTime(), System.currentTimeMillis());
+    }
+
+    /**
+     * Given a route geometry and the start and end points on the map, create a new graphics layer
+     * and draw the route and start/end markers, then add the graphics overlay to the map view.
+     * @param routeGeometry
      * @param routeStartPoint
      * @param routeEndPoint
      */
-    public void showRouteInNewGraphicsLayer(Route route, Point routeStartPoint, Point routeEndPoint) {
-        if (route != null && routeStartPoint != null && routeEndPoint != null) {
+    public void showRouteInNewGraphicsLayer(Geometry routeGeometry, Point routeStartPoint, Point routeEndPoint) {
+        if (routeStartPoint != null && routeEndPoint != null) {
+            List<Point> stopPoints = new ArrayList<>(2);
+            stopPoints.add(routeStartPoint);
+            stopPoints.add(routeEndPoint);
+            showRouteInNewGraphicsLayer(routeGeometry, stopPoints);
+        }
+    }
+
+    /**
+     * Given a route geometry and its stops on the map, create a new graphics layer and draw the
+     * route and a marker on each stop, then add the graphics overlay to the map view.
+     * @param routeGeometry
+     * @param stopPoints
+     */
+    public void showRouteInNewGraphicsLayer(Geometry routeGeometry, List<Point> stopPoints) {
+        if (routeGeometry != null && stopPoints != null) {
             GraphicsOverlay graphicsOverlay = new GraphicsOverlay();
             if (graphicsOverlay != null) {
                 SimpleLineSymbol routeSymbol = new SimpleLineSymbol(mLineStyle, mRouteColor, mRouteLineSize);
-                Graphic routeGraphic = new Graphic(route.getRouteGeometry(), routeSymbol);
+                Graphic routeGraphic = new Graphic(routeGeometry, routeSymbol);
                 if (routeGraphic != null) {
                     graphicsOverlay.getGraphics().add(routeGraphic);
                     SimpleMarkerSymbol routeEndpointMarker = new SimpleMarkerSymbol(SimpleMarkerSymbol.Style.CIRCLE, mRouteMarkerColor, mRouteLineSize);
-                    graphicsOverlay.getGraphics().add(new Graphic(routeStartPoint, routeEndpointMarker));
-                    graphicsOverlay.getGraphics().add(new Graphic(routeEndPoint, routeEndpointMarker));
+                    for (Point stopPoint : stopPoints) {
+                        if (stopPoint != null) {
+                            graphicsOverlay.getGraphics().add(new Graphic(stopPoint, routeEndpointMarker));
+                        }
+                    }
                     mMapView.getGraphicsOverlays().add(0, graphicsOverlay);
+                    mRouteGeometryJson = routeGeometry.toJson();
+                    mRouteStopPoints = new ArrayList<>(stopPoints);
                 }
             }
         }
@@ -1034,17 +2334,20 @@ public class MainActivity extends AppCompatActivity {
         if (mapGraphicsOverlays != null) {
             mapGraphicsOverlays.clear();
         }
+        mRouteGeometryJson = null;
+        mRouteStopPoints = null;
     }
 
     /**
      * Start the device locator (GPS). The locator must be started and given time to stabilize
      * before we can use getDeviceCurrentLocation to get an accurate reading.
+     * @param followDevice true to keep the map centered on the device, false to leave the map where it is.
      */
-    public void startDeviceLocator() {
+    public void startDeviceLocator(boolean followDevice) {
         try {
             LocationDisplay locationDisplay = mMapView.getLocationDisplay();
             if (locationDisplay != null) {
-                locationDisplay.setAutoPanMode(LocationDisplay.AutoPanMode.NAVIGATION);
+                locationDisplay.setAutoPanMode(followDevice ? LocationDisplay.AutoPanMode.NAVIGATION : LocationDisplay.AutoPanMode.OFF);
                 locationDisplay.startAsync();
             }
         } catch (Exception exception) {
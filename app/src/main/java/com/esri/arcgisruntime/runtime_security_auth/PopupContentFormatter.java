@@ -0,0 +1,101 @@
+/**
+ * Prepare the text shown in a feature's popup off the UI thread. The contact, website and
+ * description are put together by PopupText and Linkify finds the links, which on a long
+ * description is a slow regex scan. The result is kept in a small LRU keyed by the feature's object
+ * id and edit timestamp, so showing the popup of the same feature again costs nothing, and an edit
+ * to the feature makes a new key.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.util.Linkify;
+import android.util.LruCache;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class PopupContentFormatter {
+
+    // define callback interface for async formatting of popup content
+    public interface PopupContentCompletionInterface {
+        void onPopupContentReady(Spannable content);
+    }
+
+    private final LruCache<String, Spannable> mContentCache;
+    private final ExecutorService mFormatExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Construct a formatter.
+     * @param maxEntries - number of formatted popups to keep.
+     */
+    public PopupContentFormatter(int maxEntries) {
+        mContentCache = new LruCache<>(Math.max(1, maxEntries));
+    }
+
+    /**
+     * Get the popup content. If it is cached the completion is called right away on this thread,
+     * otherwise it is formatted on the background thread and the completion is called on the UI thread.
+     * @param key {String} key from PopupText.keyFor, null to skip the cache.
+     * @param phoneNumber {String} contact telephone number
+     * @param website {String} URL to link to
+     * @param description {String} description field of the feature
+     * @param contentComplete {PopupContentCompletionInterface} receives the content.
+     */
+    public void format(final String key, final String phoneNumber, final String website, final String description, final PopupContentCompletionInterface contentComplete) {
+        if (key != null) {
+            Spannable cachedContent = mContentCache.get(key);
+            if (cachedContent != null) {
+                contentComplete.onPopupContentReady(cachedContent);
+                return;
+            }
+        }
+        if (mFormatExecutor.isShutdown()) {
+            return;
+        }
+        mFormatExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Spannable content = formatContent(phoneNumber, website, description);
+                if (key != null) {
+                    mContentCache.put(key, content);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        contentComplete.onPopupContentReady(content);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Let the format thread end once the popups already queued are formatted. Only cached content
+     * is served after this.
+     */
+    public void shutdown() {
+        mFormatExecutor.shutdown();
+    }
+
+    /**
+     * Forget all formatted content, for example when memory is low.
+     */
+    public void evictAll() {
+        mContentCache.evictAll();
+    }
+
+    /**
+     * Put the popup text together and turn anything that looks like a link, phone number or address
+     * into a link.
+     */
+    static Spannable formatContent(String phoneNumber, String website, String description) {
+        SpannableString fullDescription = new SpannableString(PopupText.assemble(phoneNumber, website, description));
+        Linkify.addLinks(fullDescription, Linkify.ALL);
+        return fullDescription;
+    }
+}
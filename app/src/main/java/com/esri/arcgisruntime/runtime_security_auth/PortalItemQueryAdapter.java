@@ -3,67 +3,176 @@ package com.esri.arcgisruntime.runtime_security_auth;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
 import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
-import com.esri.arcgisruntime.portal.PortalItem;
-
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * PortalItemQueryAdapter is a gridView adapter that uses a PortalQueryResultSet and builds a
  * gridView display of all the items. Each item has a thumbnail image and a title using
- * basemap_grid_item.xml
+ * basemap_grid_item.xml. The adapter is also the grid's scroll listener so it can tell the thumbnail
+ * fetch scheduler which items are on screen. The thumbnail cache is told which thumbnail each cell
+ * shows so an evicted thumbnail's memory is not reused while a cell still draws it.
  */
-public class PortalItemQueryAdapter extends BaseAdapter {
+public class PortalItemQueryAdapter extends BaseAdapter implements AbsListView.OnScrollListener {
 
     private Context mContext;
     private Activity mActivity;
     private ArrayList<BasemapItem> mPortalResults;
+    private ThumbnailFetchScheduler<BasemapItem> mFetchScheduler;
+    private ThumbnailCache mThumbnailCache;
+    private final List<ViewHolder> mViewHolders = new ArrayList<>(); // every cell created, to release their thumbnails
+    private int mFirstVisibleItem = 0;
+    private int mVisibleItemCount = 0;
 
     public PortalItemQueryAdapter(Activity activity, ArrayList<BasemapItem> portalResultSet) {
+        this(activity, portalResultSet, null, null);
+    }
+
+    public PortalItemQueryAdapter(Activity activity, ArrayList<BasemapItem> portalResultSet, ThumbnailFetchScheduler<BasemapItem> fetchScheduler, ThumbnailCache thumbnailCache) {
         mActivity = activity;
         mContext = activity.getBaseContext();
         mPortalResults = portalResultSet;
+        mFetchScheduler = fetchScheduler;
+        mThumbnailCache = thumbnailCache;
+    }
+
+    /**
+     * Holds the child views of a grid cell so a recycled cell can be rebound without looking them up again.
+     */
+    private static class ViewHolder {
+        TextView textView;
+        ImageView imageView;
+        Bitmap thumbnail; // the cached thumbnail the image view shows, null if it shows a placeholder
     }
 
     public View getView(int position, View convertView, ViewGroup parent) {
-        if (position > mPortalResults.size()) {
+        if (position >= mPortalResults.size()) {
             return null;
         }
         View gridViewCell;
+        ViewHolder viewHolder;
+        BasemapItem basemapItem = mPortalResults.get(position);
+        if (mFetchScheduler != null) {
+            // we are asked for the view because it is about to be shown
+            mFetchScheduler.setPriority(basemapItem, ThumbnailFetchScheduler.PRIORITY_VISIBLE);
+        }
 
         if (convertView == null) {
-            boolean errorLoadingImage = false;
-            BasemapItem basemapItem = mPortalResults.get(position);
-            final PortalItem portalItem = basemapItem.getPortalItem();
             LayoutInflater inflater = (LayoutInflater) mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-            gridViewCell = inflater.inflate(R.layout.basemap_grid_item, null);
-            TextView textView = (TextView) gridViewCell.findViewById(R.id.textViewMap);
-            textView.setText(portalItem.getTitle());
-            final ImageView imageView = (ImageView) gridViewCell.findViewById(R.id.imageViewMap);
-            if (imageView != null && portalItem.getThumbnailFileName() != null) {
-                Bitmap thumbnail = basemapItem.getImage();
-                if (thumbnail != null) {
-                    imageView.setImageBitmap(thumbnail);
-                } else {
-                    Log.d("getView", "No image loaded (yet) for " + portalItem.getTitle());
-                }
-            }
-            if (errorLoadingImage) {
-                imageView.setImageResource(R.drawable.no_thumbnail);
-            }
+            gridViewCell = inflater.inflate(R.layout.basemap_grid_item, parent, false);
+            viewHolder = new ViewHolder();
+            viewHolder.textView = (TextView) gridViewCell.findViewById(R.id.textViewMap);
+            viewHolder.imageView = (ImageView) gridViewCell.findViewById(R.id.imageViewMap);
+            gridViewCell.setTag(viewHolder);
+            mViewHolders.add(viewHolder);
         } else {
             gridViewCell = convertView;
+            viewHolder = (ViewHolder) gridViewCell.getTag();
         }
+        bindView(viewHolder, basemapItem);
         return gridViewCell;
     }
 
+    /**
+     * Redraw the cell of a single item if it is currently on screen. Grid children are only the
+     * visible cells, so the item position is mapped to a child through the first visible position.
+     * Must be called on the UI thread.
+     * @param gridView {AdapterView} the grid this adapter is attached to.
+     * @param position {int} the position of the item that changed.
+     * @return {boolean} true if the item was visible and its cell was updated.
+     */
+    public boolean updateItemView(AdapterView<?> gridView, int position) {
+        if (gridView == null || position < 0 || position >= mPortalResults.size()) {
+            return false;
+        }
+        int childIndex = position - gridView.getFirstVisiblePosition();
+        if (childIndex < 0 || childIndex >= gridView.getChildCount()) {
+            return false; // scrolled out of view, it will be bound when it comes back
+        }
+        View gridViewCell = gridView.getChildAt(childIndex);
+        if (gridViewCell == null || ! (gridViewCell.getTag() instanceof ViewHolder)) {
+            return false;
+        }
+        bindView((ViewHolder) gridViewCell.getTag(), mPortalResults.get(position));
+        return true;
+    }
+
+    /**
+     * Bind a basemap item to a (possibly recycled) grid cell. Everything is set every time so a
+     * recycled cell never shows what it showed for its previous item.
+     * @param viewHolder {ViewHolder} the cell's views.
+     * @param basemapItem {BasemapItem} the item to show.
+     */
+    private void bindView(ViewHolder viewHolder, BasemapItem basemapItem) {
+        if (viewHolder.textView != null) {
+            viewHolder.textView.setText(basemapItem.getTitle());
+        }
+        if (viewHolder.imageView != null) {
+            // counted as displayed as it is taken, so it cannot be pooled before the cell holds it
+            Bitmap thumbnail = basemapItem.hasThumbnail() ? basemapItem.getImageForDisplay() : null;
+            if (thumbnail != null) {
+                viewHolder.imageView.setImageBitmap(thumbnail);
+            } else {
+                viewHolder.imageView.setImageResource(R.drawable.no_thumbnail);
+            }
+            if (mThumbnailCache != null) {
+                mThumbnailCache.displayEnded(viewHolder.thumbnail);
+            }
+            viewHolder.thumbnail = thumbnail;
+        }
+    }
+
+    /**
+     * Let go of the thumbnails the cells show once the grid is no longer on screen, so the thumbnail
+     * cache can reuse the memory of those it has evicted. Must be called on the UI thread.
+     */
+    public void releaseThumbnails() {
+        for (ViewHolder viewHolder : mViewHolders) {
+            if (viewHolder.imageView != null) {
+                viewHolder.imageView.setImageDrawable(null);
+            }
+            if (mThumbnailCache != null) {
+                mThumbnailCache.displayEnded(viewHolder.thumbnail);
+            }
+            viewHolder.thumbnail = null;
+        }
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+    }
+
+    /**
+     * As the grid scrolls raise the fetch priority of the items that came into view and lower the
+     * priority of the items that scrolled out of view.
+     */
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (mFetchScheduler == null || (firstVisibleItem == mFirstVisibleItem && visibleItemCount == mVisibleItemCount)) {
+            return;
+        }
+        int itemCount = mPortalResults.size();
+        for (int position = mFirstVisibleItem; position < mFirstVisibleItem + mVisibleItemCount && position < itemCount; position ++) {
+            if (position < firstVisibleItem || position >= firstVisibleItem + visibleItemCount) {
+                mFetchScheduler.setPriority(mPortalResults.get(position), ThumbnailFetchScheduler.PRIORITY_OFFSCREEN);
+            }
+        }
+        for (int position = firstVisibleItem; position < firstVisibleItem + visibleItemCount && position < itemCount; position ++) {
+            mFetchScheduler.setPriority(mPortalResults.get(position), ThumbnailFetchScheduler.PRIORITY_VISIBLE);
+        }
+        mFirstVisibleItem = firstVisibleItem;
+        mVisibleItemCount = visibleItemCount;
+    }
+
     @Override
     public int getCount() {
         return mPortalResults.size();
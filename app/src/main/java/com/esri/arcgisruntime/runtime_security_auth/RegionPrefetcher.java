@@ -0,0 +1,235 @@
+/**
+ * Plan and run a RegionPrefetchJob for what the map shows: the tiles of the tiled basemap, the
+ * style, sprites, glyphs and tiles of the vector tile layer, and the features of the feature layer.
+ * Tiles and styles are downloaded through the TileProxy into its disk cache, or its style cache
+ * for the resources of an opened style. The layers already request them through the proxy so they
+ * are drawn from there. Features are loaded into the
+ * feature table's cache by a FeaturePopulator, which only works when the table is in MANUAL_CACHE
+ * mode, and only last as long as the table.
+ *
+ * Planning reads the vector tile style and service description, so it happens on a background
+ * thread. The listener is called on background threads.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import com.esri.arcgisruntime.data.ServiceFeatureTable;
+import com.esri.arcgisruntime.geometry.Envelope;
+import com.esri.arcgisruntime.geometry.SpatialReferences;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class RegionPrefetcher {
+
+    private static final String FEATURE_CELL = "features|";
+    private static final int FEATURE_CELL_LEVEL_OFFSET = 1; // feature cells are a level finer than the first tile level
+
+    // define callback interface for prefetch planning and job progress
+    public interface PrefetchListener extends RegionPrefetchJob.ProgressListener {
+        void onPlanned(int totalItems);
+        void onPlanFailed(String message); // message is null when the region needs more than maxItems downloads
+    }
+
+    private final TileProxy mTileProxy;
+    private final File mProgressDirectory;
+    private final int mParallelism;
+    private final int mMaxItems;
+    private final long mMaxBytes;
+    private final ExecutorService mPlanExecutor = Executors.newSingleThreadExecutor();
+    private String mTiledServiceURL = null;
+    private String mVectorTileStyleURL = null;
+    private ServiceFeatureTable mFeatureTable = null;
+    private List<String> mOutFields = null;
+    private int mFeaturePageSize = 0;
+    private volatile RegionPrefetchJob mJob = null;
+    private volatile boolean mPlanning = false;
+    private volatile boolean mCancelled = false;
+
+    /**
+     * Construct a prefetcher.
+     * @param tileProxy - the proxy the tiled and vector tile layers are requested through.
+     * @param progressDirectory - where job progress is kept so an interrupted prefetch resumes.
+     * @param parallelism - downloads in flight at once.
+     * @param maxItems - a region needing more downloads than this is refused.
+     * @param maxBytes - a prefetch stops once what it downloaded takes this many bytes, keep it well
+     *                 under the tile cache size so the cache does not evict the region's first tiles.
+     */
+    public RegionPrefetcher(TileProxy tileProxy, File progressDirectory, int parallelism, int maxItems, long maxBytes) {
+        this.mTileProxy = tileProxy;
+        this.mProgressDirectory = progressDirectory;
+        this.mParallelism = parallelism;
+        this.mMaxItems = maxItems;
+        this.mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @param tiledServiceURL {String} the tiled basemap's map service URL, null if there is none.
+     */
+    public void setTiledServiceURL(String tiledServiceURL) {
+        mTiledServiceURL = tiledServiceURL;
+    }
+
+    /**
+     * @param vectorTileStyleURL {String} the vector tile layer's style URL, null if there is none.
+     */
+    public void setVectorTileStyleURL(String vectorTileStyleURL) {
+        mVectorTileStyleURL = vectorTileStyleURL;
+    }
+
+    /**
+     * @param featureTable {ServiceFeatureTable} the table to load features into, null for none.
+     * @param outFields {List} the fields to load for each feature.
+     * @param pageSize {int} the feature service's max record count.
+     */
+    public void setFeatureTable(ServiceFeatureTable featureTable, List<String> outFields, int pageSize) {
+        mFeatureTable = featureTable;
+        mOutFields = outFields;
+        mFeaturePageSize = pageSize;
+    }
+
+    /**
+     * @return {boolean} true while a prefetch is being planned or downloaded.
+     */
+    public boolean isRunning() {
+        return mPlanning || mJob != null;
+    }
+
+    /**
+     * Plan the items for a region and start downloading them. A prefetch already running is
+     * cancelled first.
+     * @param extent {Envelope} the region, in WGS84.
+     * @param minLevel {int} first tile level of the tiled basemap to download.
+     * @param maxLevel {int} last tile level.
+     * @param prefetchListener {PrefetchListener} told about the plan, progress and the end of the job.
+     */
+    public void start(final Envelope extent, final int minLevel, final int maxLevel, final PrefetchListener prefetchListener) {
+        cancel();
+        mCancelled = false;
+        mPlanning = true;
+        final ServiceFeatureTable featureTable = mFeatureTable;
+        final List<String> outFields = mOutFields;
+        final int featurePageSize = mFeaturePageSize;
+        mPlanExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<String> items;
+                try {
+                    items = planItems(extent.getXMin(), extent.getYMin(), extent.getXMax(), extent.getYMax(), minLevel, maxLevel,
+                            featureTable != null && featureTable.getFeatureRequestMode() == ServiceFeatureTable.FeatureRequestMode.MANUAL_CACHE);
+                } catch (Exception exception) {
+                    mPlanning = false;
+                    prefetchListener.onPlanFailed(exception.getLocalizedMessage());
+                    return;
+                }
+                if (items.size() > mMaxItems) {
+                    mPlanning = false;
+                    prefetchListener.onPlanFailed(null);
+                    return;
+                }
+                File progressFile = new File(mProgressDirectory, Integer.toHexString(items.hashCode()) + ".progress");
+                RegionPrefetchJob job = new RegionPrefetchJob(items, new RegionPrefetchJob.ItemFetcher() {
+                    @Override
+                    public long fetch(String item) throws Exception {
+                        if (item.startsWith(FEATURE_CELL)) {
+                            double[] cell = RegionPrefetchJob.parseCell(item, FEATURE_CELL);
+                            // add to the table's cache, the runtime does not report the bytes it downloaded
+                            new FeaturePopulator(featureTable, outFields, featurePageSize)
+                                    .populate(new Envelope(cell[0], cell[1], cell[2], cell[3], SpatialReferences.getWebMercator()), false);
+                            return 0;
+                        }
+                        return mTileProxy.prefetch(item);
+                    }
+                }, mParallelism, progressFile, mMaxBytes);
+                mJob = job;
+                mPlanning = false;
+                if (mCancelled) {
+                    job.cancel(); // cancelled while planning, the job finishes straight away
+                }
+                prefetchListener.onPlanned(items.size());
+                job.start(new RegionPrefetchJob.ProgressListener() {
+                    @Override
+                    public void onProgress(RegionPrefetchJob.Progress progress) {
+                        prefetchListener.onProgress(progress);
+                    }
+
+                    @Override
+                    public void onFinished(RegionPrefetchJob.Progress progress) {
+                        mJob = null;
+                        prefetchListener.onFinished(progress);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stop the running prefetch, what was downloaded is kept and starting the same region again
+     * carries on from there.
+     */
+    public void cancel() {
+        mCancelled = true;
+        RegionPrefetchJob job = mJob;
+        if (job != null) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Cancel the running prefetch and let the planning thread end, for a prefetcher whose activity
+     * is destroyed. Nothing can be started after this.
+     */
+    public void shutdown() {
+        cancel();
+        mPlanExecutor.shutdown();
+    }
+
+    /**
+     * @return {List} the URLs and feature cells to download for a region, each layer's tiles level
+     *                by level from the lowest.
+     */
+    private List<String> planItems(double west, double south, double east, double north, int minLevel, int maxLevel, boolean loadFeatures) throws Exception {
+        List<String> items = new ArrayList<>();
+        if (mTiledServiceURL != null) {
+            items.add(mTiledServiceURL + "?f=json");
+            RegionPrefetchJob.addTileItems(items, mTiledServiceURL + "/tile/{level}/{row}/{col}", west, south, east, north, minLevel, maxLevel);
+        }
+        if (mVectorTileStyleURL != null) {
+            addVectorTileItems(items, west, south, east, north, minLevel, maxLevel);
+        }
+        if (loadFeatures) {
+            RegionPrefetchJob.addCellItems(items, FEATURE_CELL, west, south, east, north, minLevel + FEATURE_CELL_LEVEL_OFFSET);
+        }
+        return items;
+    }
+
+    /**
+     * Read the style to find its vector tile services, sprites and glyphs, and add them and the
+     * service tiles covering the region. Vector tiles are 512 pixels so a vector tile level shows
+     * at the scale of the next tiled basemap level.
+     */
+    private void addVectorTileItems(List<String> items, double west, double south, double east, double north, int minLevel, int maxLevel) throws Exception {
+        items.add(mVectorTileStyleURL);
+        VectorStyleCache.StyleResources styleResources = new VectorStyleParser().parse(mVectorTileStyleURL, mTileProxy.read(mVectorTileStyleURL));
+        items.addAll(styleResources.resourceURLs());
+        for (String serviceURL : styleResources.sourceURLs) {
+            JSONObject serviceInfo = new JSONObject(new String(mTileProxy.read(serviceURL + "?f=json"), "UTF-8"));
+            JSONArray tiles = serviceInfo.optJSONArray("tiles");
+            String tileTemplate = tiles != null && tiles.length() > 0 ? tiles.getString(0) : "tile/{z}/{y}/{x}.pbf";
+            tileTemplate = VectorStyleParser.resolve(serviceURL + "/", tileTemplate).replace("{z}", "{level}").replace("{y}", "{row}").replace("{x}", "{col}");
+            int maxVectorLevel = maxLevel - 1;
+            JSONObject tileInfo = serviceInfo.optJSONObject("tileInfo");
+            JSONArray lods = tileInfo != null ? tileInfo.optJSONArray("lods") : null;
+            if (lods != null && lods.length() > 0) {
+                maxVectorLevel = Math.min(maxVectorLevel, lods.length() - 1);
+            }
+            RegionPrefetchJob.addTileItems(items, tileTemplate, west, south, east, north, Math.max(0, minLevel - 1), maxVectorLevel);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Keep a loaded RouteTask around so a route request does not have to load the task and its service
+ * description every time. The task is loaded once, then each request gets its own RouteParameters,
+ * created from the loaded task's service description with our app settings applied, so one request
+ * never changes another's stops or settings. Requests that arrive while the task is still loading
+ * wait for it. Parameters are handed out from the runtime's done listeners, on the UI thread. Call
+ * invalidate when the route service or the user's credentials change so the next request starts
+ * over.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import android.util.Log;
+
+import com.esri.arcgisruntime.ArcGISRuntimeException;
+import com.esri.arcgisruntime.UnitSystem;
+import com.esri.arcgisruntime.concurrent.ListenableFuture;
+import com.esri.arcgisruntime.loadable.LoadStatus;
+import com.esri.arcgisruntime.tasks.networkanalysis.RouteParameters;
+import com.esri.arcgisruntime.tasks.networkanalysis.RouteTask;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class RouteEngine {
+
+    // define callback interface for async preparation of a route request
+    public interface RouteParametersCompletionInterface {
+        void onRouteParametersReady(RouteTask routeTask, RouteParameters routeParameters);
+        void onRouteParametersFailed(String errorMessage);
+    }
+
+    private String mRouteTaskURL;
+    private RouteTask mRouteTask = null;
+    private boolean mLoading = false;
+    private int mGeneration = 0; // bumped by invalidate so late results of an old load are ignored
+    private final List<RouteParametersCompletionInterface> mWaitingRequests = new ArrayList<>();
+
+    /**
+     * Construct a route engine.
+     * @param routeTaskURL - URL of the route service.
+     */
+    public RouteEngine(String routeTaskURL) {
+        this.mRouteTaskURL = routeTaskURL;
+    }
+
+    public synchronized String getRouteTaskURL() {
+        return mRouteTaskURL;
+    }
+
+    /**
+     * Change the route service. The loaded task is dropped if the URL is different.
+     * @param routeTaskURL {String} URL of the route service.
+     */
+    public void setRouteTaskURL(String routeTaskURL) {
+        synchronized (this) {
+            if (routeTaskURL == null ? mRouteTaskURL == null : routeTaskURL.equals(mRouteTaskURL)) {
+                return;
+            }
+            mRouteTaskURL = routeTaskURL;
+        }
+        invalidate();
+    }
+
+    /**
+     * @return {boolean} true if the task is loaded and can create route parameters.
+     */
+    public synchronized boolean isReady() {
+        return mRouteTask != null;
+    }
+
+    /**
+     * Forget the loaded task, for example after the user logs in or out. Anyone waiting on the
+     * current load is told it failed.
+     */
+    public void invalidate() {
+        List<RouteParametersCompletionInterface> waitingRequests;
+        synchronized (this) {
+            mGeneration ++;
+            mRouteTask = null;
+            mLoading = false;
+            waitingRequests = new ArrayList<>(mWaitingRequests);
+            mWaitingRequests.clear();
+        }
+        for (RouteParametersCompletionInterface waitingRequest : waitingRequests) {
+            waitingRequest.onRouteParametersFailed("Route service changed");
+        }
+    }
+
+    /**
+     * Start loading the task ahead of the first route request.
+     */
+    public void warmUp() {
+        prepare(null);
+    }
+
+    /**
+     * Get a loaded route task and new route parameters of this request's own for its stops. Once the
+     * task is loaded the parameters are created from it without going back to the service,
+     * otherwise they are created once loading completes.
+     * @param parametersComplete {RouteParametersCompletionInterface} receives the task and parameters, may be null to only load.
+     */
+    public void prepare(RouteParametersCompletionInterface parametersComplete) {
+        RouteTask routeTask;
+        synchronized (this) {
+            if (mRouteTask == null) {
+                if (parametersComplete != null) {
+                    mWaitingRequests.add(parametersComplete);
+                }
+                if ( ! mLoading) {
+                    mLoading = true;
+                    loadRouteTask(mGeneration, mRouteTaskURL);
+                }
+                return;
+            }
+            routeTask = mRouteTask;
+        }
+        if (parametersComplete != null) {
+            createRequestParameters(routeTask, parametersComplete);
+        }
+    }
+
+    /**
+     * Create route parameters for one request from the loaded task, with our app settings applied.
+     */
+    private void createRequestParameters(final RouteTask routeTask, final RouteParametersCompletionInterface parametersComplete) {
+        TraceRecorder traceRecorder = TraceRecorder.getInstance();
+        long traceSpan = traceRecorder.begin("routeTask.defaultParameters");
+        final ListenableFuture<RouteParameters> routeParametersFuture = routeTask.createDefaultParametersAsync();
+        routeParametersFuture.addDoneListener(traceRecorder.endAfter(traceSpan, new Runnable() {
+            @Override
+            public void run() {
+                RouteParameters routeParameters;
+                try {
+                    routeParameters = routeParametersFuture.get();
+                } catch (Exception exception) {
+                    parametersComplete.onRouteParametersFailed("Cannot create route parameters: " + exception.getLocalizedMessage());
+                    return;
+                }
+                applyAppSettings(routeParameters);
+                parametersComplete.onRouteParametersReady(routeTask, routeParameters);
+            }
+        }));
+    }
+
+    private void loadRouteTask(final int generation, String routeTaskURL) {
+        final RouteTask routeTask = new RouteTask(routeTaskURL);
+        final long loadStartNanos = System.nanoTime();
+        TraceRecorder traceRecorder = TraceRecorder.getInstance();
+        routeTask.addDoneLoadingListener(traceRecorder.endAfter(traceRecorder.begin("routeTask.load"), new Runnable() {
+            @Override
+            public void run() {
+                ArcGISRuntimeException loadError = routeTask.getLoadError();
+                LoadStatus loadStatus = routeTask.getLoadStatus();
+                MetricsRegistry.getInstance().recordSince("routeTask.load", loadStartNanos, loadError == null && loadStatus == LoadStatus.LOADED);
+                if (loadError == null && loadStatus == LoadStatus.LOADED) {
+                    loadCompleted(generation, routeTask);
+                } else {
+                    String errorMessage = "Not able to load route task status=" + loadStatus + (loadError != null ? ", error=" + loadError.getCause() + "/" + loadError.getLocalizedMessage() : "");
+                    loadFailed(generation, errorMessage);
+                }
+            }
+        }));
+        routeTask.loadAsync();
+    }
+
+    private void loadCompleted(int generation, RouteTask routeTask) {
+        List<RouteParametersCompletionInterface> waitingRequests;
+        synchronized (this) {
+            if (generation != mGeneration) {
+                return; // invalidated while we were loading
+            }
+            mRouteTask = routeTask;
+            mLoading = false;
+            waitingRequests = new ArrayList<>(mWaitingRequests);
+            mWaitingRequests.clear();
+        }
+        for (RouteParametersCompletionInterface waitingRequest : waitingRequests) {
+            createRequestParameters(routeTask, waitingRequest);
+        }
+    }
+
+    private void loadFailed(int generation, String errorMessage) {
+        Log.d("RouteEngine", errorMessage);
+        List<RouteParametersCompletionInterface> waitingRequests;
+        synchronized (this) {
+            if (generation != mGeneration) {
+                return;
+            }
+            mLoading = false;
+            waitingRequests = new ArrayList<>(mWaitingRequests);
+            mWaitingRequests.clear();
+        }
+        for (RouteParametersCompletionInterface waitingRequest : waitingRequests) {
+            waitingRequest.onRouteParametersFailed(errorMessage);
+        }
+    }
+
+    /**
+     * The settings every route request in our app uses, applied to each request's parameters.
+     * @param routeParameters {RouteParameters} default parameters from the service.
+     */
+    private static void applyAppSettings(RouteParameters routeParameters) {
+        routeParameters.setReturnDirections(true);
+        routeParameters.setReturnRoutes(true);
+        routeParameters.setPreserveFirstStop(true);
+        routeParameters.setPreserveLastStop(true);
+        routeParameters.setDirectionsDistanceUnits(UnitSystem.IMPERIAL);
+        routeParameters.setReturnStops(true);
+    }
+}
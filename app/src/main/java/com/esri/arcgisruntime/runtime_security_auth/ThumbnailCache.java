@@ -0,0 +1,289 @@
+/**
+ * A two tier cache for portal item thumbnails. Decoded bitmaps are held in a memory LRU that is
+ * budgeted by bitmap byte size, and the raw thumbnail bytes are kept in a size capped DiskCache so
+ * they survive a restart. Entries are keyed by the portal item id, thumbnail file name and item
+ * modified time, so when an item's thumbnail changes on the portal the old entry is simply never
+ * asked for again and ages out of the LRU. Bitmaps evicted from memory are handed to the decoder's
+ * BitmapPool so their memory can be reused for the next decode, but only once no view is showing
+ * them: views report the thumbnails they show with displayStarted, or take them with getForDisplay,
+ * and displayEnded, and a bitmap evicted while it is on screen is pooled when the last view lets go
+ * of it.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.esri.arcgisruntime.portal.PortalItem;
+
+import java.io.File;
+import java.util.Calendar;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ThumbnailCache {
+
+    // define callback interface for async lookup of a thumbnail
+    public interface ThumbnailLookupCompletionInterface {
+        void onThumbnailFound(Bitmap thumbnail);
+        void onThumbnailNotFound();
+    }
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final DiskCache mDiskCache;
+    private final ExecutorService mDiskExecutor;
+    private final ThumbnailDecoder mDecoder;
+    private final Map<Bitmap, Integer> mDisplayCounts = new IdentityHashMap<>(); // views showing each bitmap
+    private final Map<Bitmap, Boolean> mEvictedWhileDisplayed = new IdentityHashMap<>(); // pooled when no longer shown
+
+    /**
+     * Construct a thumbnail cache.
+     * @param cacheDirectory - directory to use for the disk tier.
+     * @param memoryBudgetBytes - maximum number of bytes of decoded bitmaps to hold in memory.
+     * @param diskBudgetBytes - maximum number of bytes of thumbnail data to hold on disk.
+     * @param decoder - decoder used to turn thumbnail bytes into bitmaps.
+     */
+    public ThumbnailCache(final File cacheDirectory, int memoryBudgetBytes, final long diskBudgetBytes, ThumbnailDecoder decoder) {
+        mDecoder = decoder;
+        mMemoryCache = new LruCache<String, Bitmap>(memoryBudgetBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (evicted) {
+                    recycleWhenNotDisplayed(oldValue);
+                }
+            }
+        };
+        mDiskCache = new DiskCache(cacheDirectory, diskBudgetBytes);
+        mDiskExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    /**
+     * Build the cache key for a portal item's thumbnail.
+     * @param portalItem {PortalItem} the item the thumbnail belongs to.
+     * @return {String} the key, or null if the item has no thumbnail.
+     */
+    public static String keyForPortalItem(PortalItem portalItem) {
+        if (portalItem == null || portalItem.getItemId() == null || portalItem.getThumbnailFileName() == null) {
+            return null;
+        }
+        Calendar modified = portalItem.getModified();
+        return keyFor(portalItem.getItemId(), portalItem.getThumbnailFileName(), modified != null ? modified.getTimeInMillis() : 0);
+    }
+
+    /**
+     * Build the cache key for a thumbnail from its parts, for items we know about without a loaded PortalItem.
+     * @param itemId {String} portal item id.
+     * @param thumbnailFileName {String} the item's thumbnail file name.
+     * @param modified {long} the item's modified time in milliseconds.
+     * @return {String} the key, or null if the item has no thumbnail.
+     */
+    public static String keyFor(String itemId, String thumbnailFileName, long modified) {
+        if (itemId == null || thumbnailFileName == null) {
+            return null;
+        }
+        return itemId + "/" + thumbnailFileName + "/" + modified;
+    }
+
+    /**
+     * Look for a thumbnail in the memory tier only. This is safe to call from the UI thread.
+     * @param key {String} thumbnail key from keyForPortalItem.
+     * @return {Bitmap} the thumbnail, or null if it is not in memory.
+     */
+    public Bitmap getFromMemory(String key) {
+        if (key == null) {
+            return null;
+        }
+        return mMemoryCache.get(key);
+    }
+
+    /**
+     * Look for a thumbnail in the memory tier and, if it is there, count it as shown by one more
+     * view in the same step, so it cannot be evicted to the bitmap pool in between. The caller
+     * must match it with a displayEnded.
+     * @param key {String} thumbnail key from keyForPortalItem.
+     * @return {Bitmap} the thumbnail, or null if it is not in memory.
+     */
+    public Bitmap getForDisplay(String key) {
+        if (key == null) {
+            return null;
+        }
+        synchronized (mDisplayCounts) {
+            Bitmap thumbnail = mMemoryCache.get(key);
+            if (thumbnail != null) {
+                Integer displayCount = mDisplayCounts.get(thumbnail);
+                mDisplayCounts.put(thumbnail, displayCount != null ? displayCount + 1 : 1);
+            }
+            return thumbnail;
+        }
+    }
+
+    /**
+     * Look for a thumbnail, first in memory and then on disk. A memory hit is reported immediately
+     * on the calling thread, the disk read happens on the cache's I/O thread and the decode on the
+     * decoder thread.
+     * @param key {String} thumbnail key from keyForPortalItem.
+     * @param lookupComplete {ThumbnailLookupCompletionInterface} receives the result.
+     */
+    public void get(final String key, final ThumbnailLookupCompletionInterface lookupComplete) {
+        Bitmap thumbnail = getFromMemory(key);
+        if (thumbnail != null) {
+            lookupComplete.onThumbnailFound(thumbnail);
+            return;
+        }
+        if (key == null || mDiskExecutor.isShutdown()) {
+            lookupComplete.onThumbnailNotFound();
+            return;
+        }
+        mDiskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] thumbnailData = mDiskCache.get(key);
+                if (thumbnailData == null) {
+                    lookupComplete.onThumbnailNotFound();
+                    return;
+                }
+                mDecoder.decode(thumbnailData, new ThumbnailDecoder.DecodeCompletionInterface() {
+                    @Override
+                    public void onDecodeCompleted(Bitmap thumbnail) {
+                        mMemoryCache.put(key, thumbnail);
+                        lookupComplete.onThumbnailFound(thumbnail);
+                    }
+
+                    @Override
+                    public void onDecodeFailed(String errorMessage) {
+                        Log.d("ThumbnailCache.get", "Removing undecodable disk entry for " + key);
+                        if ( ! mDiskExecutor.isShutdown()) {
+                            mDiskExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    mDiskCache.remove(key);
+                                }
+                            });
+                        }
+                        lookupComplete.onThumbnailNotFound();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Decode thumbnail bytes fetched from the network on the decoder thread and add the result to
+     * both tiers. The bitmap goes into memory as soon as it is decoded while the bytes are written
+     * to disk on the cache's I/O thread.
+     * @param key {String} thumbnail key from keyForPortalItem.
+     * @param thumbnailData {byte[]} the thumbnail bytes as fetched from the portal.
+     * @param lookupComplete {ThumbnailLookupCompletionInterface} receives the decoded thumbnail.
+     */
+    public void put(final String key, final byte[] thumbnailData, final ThumbnailLookupCompletionInterface lookupComplete) {
+        mDecoder.decode(thumbnailData, new ThumbnailDecoder.DecodeCompletionInterface() {
+            @Override
+            public void onDecodeCompleted(Bitmap thumbnail) {
+                if (key != null && ! mDiskExecutor.isShutdown()) {
+                    mMemoryCache.put(key, thumbnail);
+                    mDiskExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            if ( ! mDiskCache.put(key, thumbnailData)) {
+                                Log.d("ThumbnailCache.put", "Unable to write disk entry for " + key);
+                            }
+                        }
+                    });
+                }
+                lookupComplete.onThumbnailFound(thumbnail);
+            }
+
+            @Override
+            public void onDecodeFailed(String errorMessage) {
+                lookupComplete.onThumbnailNotFound();
+            }
+        });
+    }
+
+    /**
+     * Tell the cache a view has started showing a thumbnail, so its memory is not reused while it
+     * is on screen. Each call must be matched by a displayEnded.
+     * @param thumbnail {Bitmap} the thumbnail now shown, null is ignored.
+     */
+    public void displayStarted(Bitmap thumbnail) {
+        if (thumbnail == null) {
+            return;
+        }
+        synchronized (mDisplayCounts) {
+            Integer displayCount = mDisplayCounts.get(thumbnail);
+            mDisplayCounts.put(thumbnail, displayCount != null ? displayCount + 1 : 1);
+        }
+    }
+
+    /**
+     * Tell the cache a view no longer shows a thumbnail. If the thumbnail was evicted while it was
+     * shown and no other view shows it, it goes to the bitmap pool now.
+     * @param thumbnail {Bitmap} the thumbnail no longer shown, null is ignored.
+     */
+    public void displayEnded(Bitmap thumbnail) {
+        if (thumbnail == null) {
+            return;
+        }
+        synchronized (mDisplayCounts) {
+            Integer displayCount = mDisplayCounts.get(thumbnail);
+            if (displayCount == null) {
+                return;
+            }
+            if (displayCount > 1) {
+                mDisplayCounts.put(thumbnail, displayCount - 1);
+                return;
+            }
+            mDisplayCounts.remove(thumbnail);
+            if (mEvictedWhileDisplayed.remove(thumbnail) == null) {
+                return;
+            }
+        }
+        if (mDecoder.getBitmapPool() != null) {
+            mDecoder.getBitmapPool().put(thumbnail);
+        }
+    }
+
+    /**
+     * Hand a bitmap that left the memory tier to the bitmap pool, or hold it back until the views
+     * showing it let go of it.
+     */
+    private void recycleWhenNotDisplayed(Bitmap thumbnail) {
+        synchronized (mDisplayCounts) {
+            if (mDisplayCounts.containsKey(thumbnail)) {
+                mEvictedWhileDisplayed.put(thumbnail, Boolean.TRUE);
+                return;
+            }
+        }
+        if (mDecoder.getBitmapPool() != null) {
+            mDecoder.getBitmapPool().put(thumbnail);
+        }
+    }
+
+    /**
+     * Let the disk and decoder threads end once the work already queued is done, for example when
+     * the activity that owns the cache is destroyed. Lookups after this find nothing.
+     */
+    public void shutdown() {
+        mDiskExecutor.shutdown();
+        mDecoder.shutdown();
+    }
+
+    /**
+     * Drop the memory tier, for example when the system is low on memory. The disk tier is kept.
+     */
+    public void evictMemory() {
+        mMemoryCache.evictAll();
+        if (mDecoder.getBitmapPool() != null) {
+            mDecoder.getBitmapPool().clear();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Decode thumbnail bytes into bitmaps sized for the basemap grid cell. The image bounds are read
+ * first so we can pick a power of two sample size that is no smaller than the target cell, then the
+ * image is decoded into a pooled bitmap when one fits. All decoding happens on a single background
+ * decoder thread rather than on whatever thread delivered the bytes.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ThumbnailDecoder {
+
+    // define callback interface for async decode completion
+    public interface DecodeCompletionInterface {
+        void onDecodeCompleted(Bitmap bitmap);
+        void onDecodeFailed(String errorMessage);
+    }
+
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+    private final Bitmap.Config mConfig;
+    private final BitmapPool mBitmapPool;
+    private final ExecutorService mDecoderExecutor;
+
+    /**
+     * Construct a thumbnail decoder.
+     * @param targetWidth - width in pixels of the view the thumbnail is displayed in.
+     * @param targetHeight - height in pixels of the view the thumbnail is displayed in.
+     * @param useRGB565 - decode to RGB_565 (half the memory, no alpha) instead of ARGB_8888.
+     * @param bitmapPool - pool of bitmaps to decode into, may be null.
+     */
+    public ThumbnailDecoder(int targetWidth, int targetHeight, boolean useRGB565, BitmapPool bitmapPool) {
+        this.mTargetWidth = targetWidth;
+        this.mTargetHeight = targetHeight;
+        this.mConfig = useRGB565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        this.mBitmapPool = bitmapPool;
+        this.mDecoderExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    public BitmapPool getBitmapPool() {
+        return mBitmapPool;
+    }
+
+    /**
+     * Queue image data to be decoded on the decoder thread. The completion interface is called on
+     * the decoder thread.
+     * @param imageData {byte[]} encoded image bytes (PNG, JPEG, etc.)
+     * @param decodeComplete {DecodeCompletionInterface} receives the decoded bitmap.
+     */
+    public void decode(final byte[] imageData, final DecodeCompletionInterface decodeComplete) {
+        if (mDecoderExecutor.isShutdown()) {
+            decodeComplete.onDecodeFailed("Decoder is shut down");
+            return;
+        }
+        mDecoderExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long decodeStartNanos = System.nanoTime();
+                Bitmap bitmap = decodeNow(imageData);
+                MetricsRegistry.getInstance().recordSince("thumbnail.decode", decodeStartNanos, bitmap != null);
+                if (bitmap != null) {
+                    decodeComplete.onDecodeCompleted(bitmap);
+                } else {
+                    decodeComplete.onDecodeFailed("Unable to decode image data");
+                }
+            }
+        });
+    }
+
+    /**
+     * Let the decoder thread end once the decodes already queued are done. Decodes asked for after
+     * this fail.
+     */
+    public void shutdown() {
+        mDecoderExecutor.shutdown();
+    }
+
+    /**
+     * Decode image data on the calling thread.
+     * @param imageData {byte[]} encoded image bytes.
+     * @return {Bitmap} the decoded bitmap or null if the data cannot be decoded.
+     */
+    public Bitmap decodeNow(byte[] imageData) {
+        if (imageData == null || imageData.length == 0) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(imageData, 0, imageData.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int sampleSize = calculateSampleSize(options.outWidth, options.outHeight, mTargetWidth, mTargetHeight);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = mConfig;
+        options.inMutable = true;
+        if (mBitmapPool != null) {
+            int sampledWidth = (options.outWidth + sampleSize - 1) / sampleSize;
+            int sampledHeight = (options.outHeight + sampleSize - 1) / sampleSize;
+            options.inBitmap = mBitmapPool.get(sampledWidth, sampledHeight, mConfig, sampleSize);
+        }
+        try {
+            return BitmapFactory.decodeByteArray(imageData, 0, imageData.length, options);
+        } catch (IllegalArgumentException exception) {
+            // the pooled bitmap was not usable for this image, decode into a new bitmap instead
+            Log.d("ThumbnailDecoder", "inBitmap rejected: " + exception.getLocalizedMessage());
+            if (mBitmapPool != null && options.inBitmap != null) {
+                mBitmapPool.put(options.inBitmap);
+            }
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(imageData, 0, imageData.length, options);
+        }
+    }
+
+    /**
+     * Find the largest power of two sample size that keeps both dimensions at or above the target.
+     * @param width {int} full width of the image.
+     * @param height {int} full height of the image.
+     * @param targetWidth {int} width we want to display.
+     * @param targetHeight {int} height we want to display.
+     * @return {int} the sample size to use for BitmapFactory.Options.inSampleSize.
+     */
+    static int calculateSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return sampleSize;
+        }
+        while ((width / (sampleSize * 2)) >= targetWidth && (height / (sampleSize * 2)) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Read what a vector tile style points at: the vector tile services of its sources, its sprite
+ * sheet, its glyph URL template and the font stacks its labels use. Relative URLs are resolved
+ * against the style's URL the way the layer resolves them.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+public class VectorStyleParser implements VectorStyleCache.StyleParser {
+
+    @Override
+    public VectorStyleCache.StyleResources parse(String styleURL, byte[] style) throws Exception {
+        JSONObject styleJSON = new JSONObject(new String(style, "UTF-8"));
+        List<String> sourceURLs = new ArrayList<>();
+        JSONObject sources = styleJSON.optJSONObject("sources");
+        JSONArray sourceNames = sources != null ? sources.names() : null;
+        for (int i = 0; sourceNames != null && i < sourceNames.length(); i ++) {
+            JSONObject source = sources.optJSONObject(sourceNames.getString(i));
+            String sourceURL = source != null ? source.optString("url", null) : null;
+            if (sourceURL != null) {
+                sourceURLs.add(resolve(styleURL, sourceURL));
+            }
+        }
+        String sprite = styleJSON.optString("sprite", null);
+        String glyphs = styleJSON.optString("glyphs", null);
+        return new VectorStyleCache.StyleResources(sourceURLs, sprite != null ? resolve(styleURL, sprite) : null,
+                glyphs != null ? resolve(styleURL, glyphs) : null, new ArrayList<>(fontStacks(styleJSON)));
+    }
+
+    /**
+     * @param baseURL {String} URL of the document the relative URL is in.
+     * @param relativeURL {String} URL to resolve, returned unchanged if it is absolute.
+     * @return {String} the absolute URL.
+     */
+    public static String resolve(String baseURL, String relativeURL) {
+        try {
+            return new URL(new URL(baseURL), relativeURL).toString();
+        } catch (MalformedURLException exception) {
+            Log.d("VectorStyleParser", "Cannot resolve " + relativeURL + " against " + baseURL);
+            return relativeURL;
+        }
+    }
+
+    /**
+     * @return {Set} each distinct text-font list used by the style's layers, comma separated.
+     */
+    private static Set<String> fontStacks(JSONObject style) {
+        Set<String> fontStacks = new LinkedHashSet<>();
+        JSONArray layers = style.optJSONArray("layers");
+        for (int i = 0; layers != null && i < layers.length(); i ++) {
+            JSONObject layer = layers.optJSONObject(i);
+            JSONObject layout = layer != null ? layer.optJSONObject("layout") : null;
+            JSONArray textFont = layout != null ? layout.optJSONArray("text-font") : null;
+            if (textFont == null || textFont.length() == 0) {
+                continue;
+            }
+            StringBuilder fontStack = new StringBuilder();
+            for (int j = 0; j < textFont.length(); j ++) {
+                if (j > 0) {
+                    fontStack.append(',');
+                }
+                fontStack.append(textFont.optString(j));
+            }
+            fontStacks.add(fontStack.toString());
+        }
+        return fontStacks;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Look up the attribution of the visible extent with a realistic community attribution load: an
+ * imagery basemap credits several hundred contributors, each with a few coverage areas, plus a
+ * reference layer on top. cachedView repeats the same extent as when the map is still, pan moves
+ * the extent far enough each time to miss the cached result, rebuild sets a layer's attribution
+ * again as when a basemap is switched.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AttributionEngineBenchmark {
+
+    private static final int VIEW_COUNT = 64;
+
+    @Param({"100", "700"})
+    public int contributorCount;
+
+    private AttributionEngine mAttributionEngine;
+    private List<AttributionEngine.Contributor> mImageryContributors;
+    private double[][] mViews;
+    private int mNextView = 0;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        mImageryContributors = createContributors(random, contributorCount);
+        mAttributionEngine = new AttributionEngine();
+        mAttributionEngine.setLayers(Arrays.asList("reference", "imagery"));
+        mAttributionEngine.setLayerAttribution("reference", "Esri, HERE, Garmin", createContributors(random, 20));
+        mAttributionEngine.setLayerAttribution("imagery", "Esri", mImageryContributors);
+        // city sized extents around the world at zoom 12
+        mViews = new double[VIEW_COUNT][];
+        for (int i = 0; i < VIEW_COUNT; i ++) {
+            double west = random.nextDouble() * 340 - 170;
+            double south = random.nextDouble() * 140 - 70;
+            mViews[i] = new double[] { west, south, west + 0.3, south + 0.2 };
+        }
+    }
+
+    @Benchmark
+    public String cachedView() {
+        double[] view = mViews[0];
+        return mAttributionEngine.getAttribution(view[0], view[1], view[2], view[3], 12);
+    }
+
+    @Benchmark
+    public String pan() {
+        double[] view = mViews[mNextView];
+        mNextView = (mNextView + 1) % VIEW_COUNT;
+        return mAttributionEngine.getAttribution(view[0], view[1], view[2], view[3], 12);
+    }
+
+    @Benchmark
+    public String rebuild() {
+        mAttributionEngine.setLayerAttribution("imagery", "Esri", mImageryContributors);
+        double[] view = mViews[0];
+        return mAttributionEngine.getAttribution(view[0], view[1], view[2], view[3], 12);
+    }
+
+    private static List<AttributionEngine.Contributor> createContributors(Random random, int count) {
+        List<AttributionEngine.Contributor> contributors = new ArrayList<>(count);
+        for (int i = 0; i < count; i ++) {
+            int areaCount = 1 + random.nextInt(5);
+            List<AttributionEngine.CoverageArea> coverageAreas = new ArrayList<>(areaCount);
+            for (int j = 0; j < areaCount; j ++) {
+                double width = 0.5 + random.nextDouble() * 20;
+                double height = 0.5 + random.nextDouble() * 15;
+                double west = random.nextDouble() * (360 - width) - 180;
+                double south = random.nextDouble() * (170 - height) - 85;
+                int minZoom = random.nextInt(14);
+                coverageAreas.add(new AttributionEngine.CoverageArea(minZoom, minZoom + 3 + random.nextInt(8), random.nextInt(100), west, south, west + width, south + height));
+            }
+            contributors.add(new AttributionEngine.Contributor("Contributor " + i, coverageAreas));
+        }
+        return contributors;
+    }
+}
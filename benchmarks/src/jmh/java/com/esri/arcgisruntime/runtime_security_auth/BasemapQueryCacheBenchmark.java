@@ -0,0 +1,67 @@
+/**
+ * Revalidate a cached basemap gallery: compare the cached list with the fresh one when a few items
+ * changed, and encode and decode the list for the disk cache. Galleries hold a few dozen items,
+ * organizations with their own basemaps a few hundred.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BasemapQueryCacheBenchmark {
+
+    @Param({"30", "300"})
+    public int itemCount;
+
+    private List<BasemapQueryCache.CachedItem> mCachedItems;
+    private List<BasemapQueryCache.CachedItem> mFreshItems;
+    private BasemapQueryCache.CachedQuery mCachedQuery;
+    private byte[] mEncodedQuery;
+
+    @Setup
+    public void setup() {
+        mCachedItems = new ArrayList<>(itemCount);
+        mFreshItems = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i ++) {
+            String itemId = String.format("%032x", i * 7919L);
+            BasemapQueryCache.CachedItem cachedItem = new BasemapQueryCache.CachedItem(itemId, "Basemap " + i, "thumbnail/ago_downloaded.png", 1480000000000L + i);
+            mCachedItems.add(cachedItem);
+            if (i % 10 == 3) {
+                mFreshItems.add(new BasemapQueryCache.CachedItem(itemId, "Basemap " + i, "thumbnail/ago_downloaded.png", 1490000000000L + i));
+            } else if (i % 10 != 7) {
+                mFreshItems.add(cachedItem);
+            }
+        }
+        mCachedQuery = new BasemapQueryCache.CachedQuery("a9b3c2d1e0f94e8d8c7b6a5f4e3d2c1b", System.currentTimeMillis(), mCachedItems);
+        mEncodedQuery = BasemapQueryCache.encode(mCachedQuery);
+    }
+
+    @Benchmark
+    public BasemapQueryCache.Difference difference() {
+        return BasemapQueryCache.difference(mCachedItems, mFreshItems);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return BasemapQueryCache.encode(mCachedQuery);
+    }
+
+    @Benchmark
+    public BasemapQueryCache.CachedQuery decode() {
+        return BasemapQueryCache.decode(mEncodedQuery);
+    }
+}
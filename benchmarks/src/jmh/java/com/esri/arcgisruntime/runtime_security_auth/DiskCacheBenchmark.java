@@ -0,0 +1,81 @@
+/**
+ * Read and write thumbnail sized entries in the disk cache: a gallery's worth of 20KB entries
+ * under a budget that holds them all. Measures our file handling and bookkeeping on top of the
+ * file system, run on the kind of storage the numbers are meant for.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiskCacheBenchmark {
+
+    @Param({"100"})
+    public int entryCount;
+
+    @Param({"20480"})
+    public int entryBytes;
+
+    private File mDirectory;
+    private DiskCache mDiskCache;
+    private String[] mKeys;
+    private byte[] mData;
+    private int mNextKey = 0;
+
+    @Setup
+    public void setup() throws IOException {
+        mDirectory = File.createTempFile("diskcache", "");
+        if ( ! mDirectory.delete() || ! mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        mDiskCache = new DiskCache(mDirectory, (long) entryCount * entryBytes * 2);
+        mData = new byte[entryBytes];
+        new Random(42).nextBytes(mData);
+        mKeys = new String[entryCount];
+        for (int i = 0; i < entryCount; i ++) {
+            mKeys[i] = "item" + i + "|thumbnail/ago_downloaded.png|1480000000000";
+            mDiskCache.put(mKeys[i], mData);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDiskCache.clear();
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public byte[] get() {
+        byte[] data = mDiskCache.get(mKeys[mNextKey]);
+        mNextKey = (mNextKey + 1) % entryCount;
+        return data;
+    }
+
+    @Benchmark
+    public boolean put() {
+        boolean written = mDiskCache.put(mKeys[mNextKey], mData);
+        mNextKey = (mNextKey + 1) % entryCount;
+        return written;
+    }
+
+    @Benchmark
+    public String fileNameForKey() {
+        return DiskCache.fileNameForKey(mKeys[0]);
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Put together the popup text of a feature, with a short description and with the kind of long
+ * HTML-ish description some layers carry, and build its cache key.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PopupTextBenchmark {
+
+    @Param({"200", "4000"})
+    public int descriptionLength;
+
+    private String mDescription;
+    private long mEditTimestamp = 1480000000000L;
+
+    @Setup
+    public void setup() {
+        StringBuilder description = new StringBuilder(descriptionLength);
+        while (description.length() < descriptionLength) {
+            description.append("Open daily from 9am, see http://www.example.com/visit or call 555-0100. ");
+        }
+        mDescription = description.substring(0, descriptionLength);
+    }
+
+    @Benchmark
+    public String assemble() {
+        return PopupText.assemble("(909) 555-0100", "http://www.example.com", mDescription);
+    }
+
+    @Benchmark
+    public String keyFor() {
+        return PopupText.keyFor("4711", mEditTimestamp ++);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Key and look up solved routes: snapping the device location to a grid cell for both projected
+ * and geographic locations, a hit in the memory tier, and encoding and decoding a cross-town route
+ * (a couple of thousand vertices and a few dozen directions) for the disk tier.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RouteCacheBenchmark {
+
+    private static final int ROUTE_VERTICES = 2000;
+    private static final int ROUTE_DIRECTIONS = 40;
+
+    private RouteCache mRouteCache;
+    private RouteCache.CachedRoute mCachedRoute;
+    private byte[] mEncodedRoute;
+    private String[] mKeys;
+    private long mNow;
+    private int mNextKey = 0;
+
+    @Setup
+    public void setup() {
+        mRouteCache = new RouteCache(32, 60 * 60 * 1000L, 50.0, null);
+        StringBuilder geometryJson = new StringBuilder("{\"paths\":[[");
+        for (int i = 0; i < ROUTE_VERTICES; i ++) {
+            if (i > 0) {
+                geometryJson.append(',');
+            }
+            geometryJson.append('[').append(-13046000.0 + i * 7.31).append(',').append(4036000.0 + i * 3.17).append(']');
+        }
+        geometryJson.append("]],\"spatialReference\":{\"wkid\":102100,\"latestWkid\":3857}}");
+        List<String> directions = new ArrayList<>(ROUTE_DIRECTIONS);
+        for (int i = 0; i < ROUTE_DIRECTIONS; i ++) {
+            directions.add("Turn left on Redlands Blvd and continue for 0." + i + " miles");
+        }
+        mNow = System.currentTimeMillis();
+        mCachedRoute = new RouteCache.CachedRoute(geometryJson.toString(), directions, 12.7, 21.5, mNow);
+        mEncodedRoute = RouteCache.encode(mCachedRoute);
+        mKeys = new String[32];
+        for (int i = 0; i < mKeys.length; i ++) {
+            mKeys[i] = mRouteCache.keyFor(Integer.toString(1000 + i), -13046000.0 + i * 100, 4036000.0, 102100, false);
+            mRouteCache.put(mKeys[i], mCachedRoute);
+        }
+    }
+
+    @Benchmark
+    public String keyForProjected() {
+        return mRouteCache.keyFor("1017", -13046123.4, 4036456.7, 102100, false);
+    }
+
+    @Benchmark
+    public String keyForGeographic() {
+        return mRouteCache.keyFor("1017", -117.195, 34.056, 4326, true);
+    }
+
+    @Benchmark
+    public RouteCache.CachedRoute memoryHit() {
+        RouteCache.CachedRoute cachedRoute = mRouteCache.get(mKeys[mNextKey], mNow);
+        mNextKey = (mNextKey + 1) % mKeys.length;
+        return cachedRoute;
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return RouteCache.encode(mCachedRoute);
+    }
+
+    @Benchmark
+    public RouteCache.CachedRoute decode() {
+        return RouteCache.decode(mEncodedRoute);
+    }
+}
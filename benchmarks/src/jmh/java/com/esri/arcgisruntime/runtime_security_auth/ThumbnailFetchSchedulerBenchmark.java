@@ -0,0 +1,60 @@
+/**
+ * Schedule the thumbnail fetches of a whole basemap gallery the way the grid does: every item is
+ * submitted, the cells on screen are raised to visible while fetches are waiting, and fetches
+ * finish one at a time so the scheduler picks the next one each time a slot frees up.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ThumbnailFetchSchedulerBenchmark {
+
+    private static final int MAX_CONCURRENT = 4;
+    private static final int VISIBLE_CELLS = 12;
+
+    @Param({"30", "300"})
+    public int itemCount;
+
+    @Benchmark
+    public int fetchGallery() {
+        ThumbnailFetchScheduler<Integer> fetchScheduler = new ThumbnailFetchScheduler<>(MAX_CONCURRENT);
+        final ArrayDeque<Runnable> runningFetches = new ArrayDeque<>(MAX_CONCURRENT);
+        ThumbnailFetchScheduler.FetchTask fetchTask = new ThumbnailFetchScheduler.FetchTask() {
+            @Override
+            public void start(Runnable onFinished) {
+                runningFetches.add(onFinished);
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+        for (int i = 0; i < itemCount; i ++) {
+            fetchScheduler.submit(i, fetchTask, ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        }
+        // the user scrolls to the middle of the gallery
+        int firstVisible = itemCount / 2;
+        for (int i = firstVisible; i < Math.min(firstVisible + VISIBLE_CELLS, itemCount); i ++) {
+            fetchScheduler.setPriority(i, ThumbnailFetchScheduler.PRIORITY_VISIBLE);
+        }
+        int finished = 0;
+        while ( ! runningFetches.isEmpty()) {
+            runningFetches.poll().run();
+            finished ++;
+        }
+        return finished;
+    }
+}
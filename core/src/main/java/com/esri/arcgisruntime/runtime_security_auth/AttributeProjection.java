@@ -0,0 +1,61 @@
+/**
+ * Which attributes of a feature layer we actually need, and when. Render fields are fetched with the
+ * features for the visible extent and kept for every feature, they must include whatever the
+ * renderer, labels and the identify/route code read (object id, name.) Popup fields are only fetched
+ * for the one feature the user selects, when its popup is about to be shown. Wide tables then cost a
+ * few columns per feature instead of all of them.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+public class AttributeProjection {
+
+    private final List<String> mRenderFields;
+    private final List<String> mPopupFields;
+
+    /**
+     * Construct a projection.
+     * @param renderFields - fields fetched for every feature.
+     * @param popupFields - fields fetched only for a selected feature.
+     */
+    public AttributeProjection(List<String> renderFields, List<String> popupFields) {
+        this.mRenderFields = Collections.unmodifiableList(new ArrayList<>(renderFields));
+        this.mPopupFields = Collections.unmodifiableList(new ArrayList<>(popupFields));
+    }
+
+    public List<String> getRenderFields() {
+        return mRenderFields;
+    }
+
+    public List<String> getPopupFields() {
+        return mPopupFields;
+    }
+
+    /**
+     * Check whether a feature already has what its popup shows. Field names are compared ignoring
+     * case, services are not consistent about it.
+     * @param attributes {Map} the feature's attributes.
+     * @return {boolean} true if every popup field is present, even if its value is null.
+     */
+    public boolean hasPopupFields(Map<String, Object> attributes) {
+        if (attributes == null) {
+            return false;
+        }
+        List<String> attributeNames = new ArrayList<>(attributes.size());
+        for (String attributeName : attributes.keySet()) {
+            attributeNames.add(attributeName.toLowerCase(Locale.US));
+        }
+        for (String popupField : mPopupFields) {
+            if ( ! attributeNames.contains(popupField.toLowerCase(Locale.US))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
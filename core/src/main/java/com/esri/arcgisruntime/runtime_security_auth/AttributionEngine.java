@@ -0,0 +1,240 @@
+/**
+ * Work out which data contributors to credit for the part of the map on screen, the way community
+ * attribution does on the web maps. Each layer has a fixed attribution and a list of contributors,
+ * and each contributor has coverage areas: a bounding box in degrees, a zoom range and a score. A
+ * contributor is credited when one of its areas overlaps the visible extent at the current zoom.
+ *
+ * The coverage areas are bucketed by zoom level so a lookup only looks at the areas for one level.
+ * After a lookup we remember how far each edge of the extent can move before it crosses the edge of
+ * any area in that bucket. Until the view moves that far, changes zoom level or the layers change,
+ * the previous attribution is returned without looking at any area.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class AttributionEngine {
+
+    public static final int MAX_ZOOM = 23;
+    private static final String SEPARATOR = ", ";
+
+    /**
+     * Where and at which zoom levels a contributor's data is shown.
+     */
+    public static class CoverageArea {
+        public final int minZoom;
+        public final int maxZoom;
+        public final double score;
+        public final double west, south, east, north;
+
+        public CoverageArea(int minZoom, int maxZoom, double score, double west, double south, double east, double north) {
+            this.minZoom = minZoom;
+            this.maxZoom = maxZoom;
+            this.score = score;
+            this.west = west;
+            this.south = south;
+            this.east = east;
+            this.north = north;
+        }
+    }
+
+    /**
+     * A data provider to credit and where its data is.
+     */
+    public static class Contributor {
+        public final String attribution;
+        public final List<CoverageArea> coverageAreas;
+
+        public Contributor(String attribution, List<CoverageArea> coverageAreas) {
+            this.attribution = attribution;
+            this.coverageAreas = coverageAreas;
+        }
+    }
+
+    /**
+     * One coverage area in a zoom bucket, with what we need to order the credits.
+     */
+    private static class IndexedArea {
+        final int layerOrder;
+        final double score;
+        final String attribution;
+        final CoverageArea area;
+
+        IndexedArea(int layerOrder, double score, String attribution, CoverageArea area) {
+            this.layerOrder = layerOrder;
+            this.score = score;
+            this.attribution = attribution;
+            this.area = area;
+        }
+    }
+
+    private final List<String> mLayerKeys = new ArrayList<>();
+    private final Map<String, String> mLayerAttributions = new HashMap<>();
+    private final Map<String, List<Contributor>> mLayerContributors = new HashMap<>();
+    private List<List<IndexedArea>> mZoomBuckets = null; // null when the layers changed and the index must be rebuilt
+
+    // the last lookup and how far its extent may move before it has to be done again
+    private String mLastAttribution = null;
+    private int mLastZoom = -1;
+    private double mLastWest, mLastSouth, mLastEast, mLastNorth;
+    private double mLastMargin = -1;
+
+    /**
+     * Set the layers to attribute, top layer first. Layers that are no longer in the list are
+     * forgotten, new ones have no attribution until setLayerAttribution is called for them.
+     * @param layerKeys {List} identifies each layer, for example its URL.
+     * @return {boolean} true if the layers are different from before.
+     */
+    public synchronized boolean setLayers(List<String> layerKeys) {
+        if (mLayerKeys.equals(layerKeys)) {
+            return false;
+        }
+        mLayerKeys.clear();
+        mLayerKeys.addAll(layerKeys);
+        mLayerAttributions.keySet().retainAll(layerKeys);
+        mLayerContributors.keySet().retainAll(layerKeys);
+        invalidate();
+        return true;
+    }
+
+    /**
+     * @param layerKey {String} identifies the layer.
+     * @return {boolean} true if setLayerAttribution was called for the layer.
+     */
+    public synchronized boolean hasLayerAttribution(String layerKey) {
+        return mLayerAttributions.containsKey(layerKey) || mLayerContributors.containsKey(layerKey);
+    }
+
+    /**
+     * Set what to credit for a layer.
+     * @param layerKey {String} identifies the layer.
+     * @param attribution {String} credited wherever the layer is shown, may be null.
+     * @param contributors {List} credited only where their coverage areas are visible, may be null.
+     */
+    public synchronized void setLayerAttribution(String layerKey, String attribution, List<Contributor> contributors) {
+        if ( ! mLayerKeys.contains(layerKey)) {
+            return;
+        }
+        mLayerAttributions.put(layerKey, attribution);
+        mLayerContributors.put(layerKey, contributors != null ? contributors : new ArrayList<Contributor>());
+        invalidate();
+    }
+
+    /**
+     * Get the attribution for a view.
+     * @param west {double} visible extent in degrees.
+     * @param south {double}
+     * @param east {double}
+     * @param north {double}
+     * @param zoom {int} the web map zoom level of the view.
+     * @return {String} the credits, most important first, or an empty string if there is nothing to credit.
+     */
+    public synchronized String getAttribution(double west, double south, double east, double north, int zoom) {
+        zoom = Math.max(0, Math.min(zoom, MAX_ZOOM));
+        if (mLastAttribution != null && zoom == mLastZoom
+                && Math.abs(west - mLastWest) < mLastMargin && Math.abs(east - mLastEast) < mLastMargin
+                && Math.abs(south - mLastSouth) < mLastMargin && Math.abs(north - mLastNorth) < mLastMargin) {
+            return mLastAttribution;
+        }
+        if (mZoomBuckets == null) {
+            buildIndex();
+        }
+        List<IndexedArea> visibleAreas = new ArrayList<>();
+        double margin = Double.MAX_VALUE;
+        for (IndexedArea indexedArea : mZoomBuckets.get(zoom)) {
+            CoverageArea area = indexedArea.area;
+            if (west <= area.east && east >= area.west && south <= area.north && north >= area.south) {
+                visibleAreas.add(indexedArea);
+            }
+            // the overlap test only changes when an extent edge crosses the opposite area edge
+            margin = Math.min(margin, Math.min(Math.abs(west - area.east), Math.abs(east - area.west)));
+            margin = Math.min(margin, Math.min(Math.abs(south - area.north), Math.abs(north - area.south)));
+        }
+        Collections.sort(visibleAreas, new Comparator<IndexedArea>() {
+            @Override
+            public int compare(IndexedArea area1, IndexedArea area2) {
+                if (area1.layerOrder != area2.layerOrder) {
+                    return area1.layerOrder - area2.layerOrder;
+                }
+                return Double.compare(area2.score, area1.score);
+            }
+        });
+        Set<String> credits = new LinkedHashSet<>();
+        int layerOrder = 0;
+        for (String layerKey : mLayerKeys) {
+            String layerAttribution = mLayerAttributions.get(layerKey);
+            if (layerAttribution != null && layerAttribution.length() > 0) {
+                credits.add(layerAttribution);
+            }
+            for (IndexedArea visibleArea : visibleAreas) {
+                if (visibleArea.layerOrder == layerOrder) {
+                    credits.add(visibleArea.attribution);
+                }
+            }
+            layerOrder ++;
+        }
+        StringBuilder attribution = new StringBuilder();
+        for (String credit : credits) {
+            if (attribution.length() > 0) {
+                attribution.append(SEPARATOR);
+            }
+            attribution.append(credit);
+        }
+        mLastAttribution = attribution.toString();
+        mLastZoom = zoom;
+        mLastWest = west;
+        mLastSouth = south;
+        mLastEast = east;
+        mLastNorth = north;
+        mLastMargin = margin;
+        return mLastAttribution;
+    }
+
+    /**
+     * Convert a map scale to the web map zoom level showing about the same detail.
+     * @param scale {double} the map scale, for example 95000 for 1:95,000.
+     * @return {int} the zoom level.
+     */
+    public static int zoomForScale(double scale) {
+        if (scale <= 0) {
+            return MAX_ZOOM;
+        }
+        long zoom = Math.round(Math.log(591657527.591555 / scale) / Math.log(2));
+        return (int) Math.max(0, Math.min(zoom, MAX_ZOOM));
+    }
+
+    private void invalidate() {
+        mZoomBuckets = null;
+        mLastAttribution = null;
+    }
+
+    private void buildIndex() {
+        mZoomBuckets = new ArrayList<>(MAX_ZOOM + 1);
+        for (int zoom = 0; zoom <= MAX_ZOOM; zoom ++) {
+            mZoomBuckets.add(new ArrayList<IndexedArea>());
+        }
+        int layerOrder = 0;
+        for (String layerKey : mLayerKeys) {
+            List<Contributor> contributors = mLayerContributors.get(layerKey);
+            if (contributors != null) {
+                for (Contributor contributor : contributors) {
+                    for (CoverageArea area : contributor.coverageAreas) {
+                        IndexedArea indexedArea = new IndexedArea(layerOrder, area.score, contributor.attribution, area);
+                        for (int zoom = Math.max(0, area.minZoom); zoom <= Math.min(area.maxZoom, MAX_ZOOM); zoom ++) {
+                            mZoomBuckets.get(zoom).add(indexedArea);
+                        }
+                    }
+                }
+            }
+            layerOrder ++;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Persist the result of the basemap gallery query so the basemap selector can open without going
+ * to the portal. We keep the resolved basemap group id and just enough of each item (id, title,
+ * thumbnail name and modified time) to show the grid and find its thumbnail in the ThumbnailCache.
+ * A stored result is only served while it is younger than the time-to-live, FetchGroupBasemaps
+ * always revalidates it against the portal in the background.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class BasemapQueryCache {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final long MAX_CACHE_BYTES = 512 * 1024;
+
+    /**
+     * The part of a portal item we need to show it in the basemap grid.
+     */
+    public static class CachedItem {
+        public final String itemId;
+        public final String title;
+        public final String thumbnailFileName;
+        public final long modified;
+
+        public CachedItem(String itemId, String title, String thumbnailFileName, long modified) {
+            this.itemId = itemId;
+            this.title = title;
+            this.thumbnailFileName = thumbnailFileName;
+            this.modified = modified;
+        }
+
+        /**
+         * @return {boolean} true if the other item is the same portal item in the same revision.
+         */
+        public boolean isSameRevision(CachedItem other) {
+            return other != null && itemId.equals(other.itemId) && modified == other.modified
+                    && (title == null ? other.title == null : title.equals(other.title))
+                    && (thumbnailFileName == null ? other.thumbnailFileName == null : thumbnailFileName.equals(other.thumbnailFileName));
+        }
+    }
+
+    /**
+     * A stored query result.
+     */
+    public static class CachedQuery {
+        public final String groupId;
+        public final long savedAt;
+        public final List<CachedItem> items;
+
+        public CachedQuery(String groupId, long savedAt, List<CachedItem> items) {
+            this.groupId = groupId;
+            this.savedAt = savedAt;
+            this.items = items;
+        }
+    }
+
+    /**
+     * The difference between a stored query result and a fresh one.
+     */
+    public static class Difference {
+        public final List<String> addedOrChangedIds = new ArrayList<>();
+        public final List<String> removedIds = new ArrayList<>();
+
+        public boolean isEmpty() {
+            return addedOrChangedIds.isEmpty() && removedIds.isEmpty();
+        }
+    }
+
+    private final DiskCache mDiskCache;
+    private final long mTimeToLive;
+
+    /**
+     * Construct a query cache.
+     * @param cacheDirectory - directory to store query results in.
+     * @param timeToLive - milliseconds a stored result may be served for before it must be fetched again.
+     */
+    public BasemapQueryCache(File cacheDirectory, long timeToLive) {
+        this.mDiskCache = new DiskCache(cacheDirectory, MAX_CACHE_BYTES);
+        this.mTimeToLive = timeToLive;
+    }
+
+    /**
+     * Read a stored query result.
+     * @param key {String} identifies the portal and user the query belongs to.
+     * @param now {long} the current time in milliseconds.
+     * @return {CachedQuery} the stored result or null if there is none or it is older than the time-to-live.
+     */
+    public CachedQuery get(String key, long now) {
+        byte[] data = mDiskCache.get(key);
+        if (data == null) {
+            return null;
+        }
+        CachedQuery cachedQuery = decode(data);
+        if (cachedQuery == null) {
+            mDiskCache.remove(key);
+            return null;
+        }
+        if (now - cachedQuery.savedAt > mTimeToLive || now < cachedQuery.savedAt) {
+            return null;
+        }
+        return cachedQuery;
+    }
+
+    /**
+     * Store a query result.
+     * @param key {String} identifies the portal and user the query belongs to.
+     * @param cachedQuery {CachedQuery} the result to store.
+     */
+    public void put(String key, CachedQuery cachedQuery) {
+        byte[] data = encode(cachedQuery);
+        if (data != null) {
+            mDiskCache.put(key, data);
+        }
+    }
+
+    public void remove(String key) {
+        mDiskCache.remove(key);
+    }
+
+    /**
+     * Compare a stored result with a fresh one.
+     * @param cached {List} the items we served from the cache.
+     * @param fresh {List} the items the portal returned.
+     * @return {Difference} the ids of items that are new or changed, and of items that are gone.
+     */
+    public static Difference difference(List<CachedItem> cached, List<CachedItem> fresh) {
+        Difference difference = new Difference();
+        Map<String, CachedItem> cachedById = new HashMap<>(cached.size() * 2);
+        for (CachedItem cachedItem : cached) {
+            cachedById.put(cachedItem.itemId, cachedItem);
+        }
+        for (CachedItem freshItem : fresh) {
+            CachedItem cachedItem = cachedById.remove(freshItem.itemId);
+            if ( ! freshItem.isSameRevision(cachedItem)) {
+                difference.addedOrChangedIds.add(freshItem.itemId);
+            }
+        }
+        for (CachedItem cachedItem : cached) {
+            if (cachedById.containsKey(cachedItem.itemId)) {
+                difference.removedIds.add(cachedItem.itemId);
+            }
+        }
+        return difference;
+    }
+
+    static byte[] encode(CachedQuery cachedQuery) {
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            DataOutputStream outputStream = new DataOutputStream(byteStream);
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeLong(cachedQuery.savedAt);
+            outputStream.writeUTF(cachedQuery.groupId);
+            outputStream.writeInt(cachedQuery.items.size());
+            for (CachedItem item : cachedQuery.items) {
+                outputStream.writeUTF(item.itemId);
+                writeNullableString(outputStream, item.title);
+                writeNullableString(outputStream, item.thumbnailFileName);
+                outputStream.writeLong(item.modified);
+            }
+            outputStream.flush();
+            return byteStream.toByteArray();
+        } catch (IOException exception) {
+            return null;
+        }
+    }
+
+    static CachedQuery decode(byte[] data) {
+        try {
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
+            if (inputStream.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            long savedAt = inputStream.readLong();
+            String groupId = inputStream.readUTF();
+            int itemCount = inputStream.readInt();
+            List<CachedItem> items = new ArrayList<>(itemCount);
+            for (int i = 0; i < itemCount; i ++) {
+                String itemId = inputStream.readUTF();
+                String title = readNullableString(inputStream);
+                String thumbnailFileName = readNullableString(inputStream);
+                long modified = inputStream.readLong();
+                items.add(new CachedItem(itemId, title, thumbnailFileName, modified));
+            }
+            return new CachedQuery(groupId, savedAt, items);
+        } catch (IOException exception) {
+            return null;
+        }
+    }
+
+    private static void writeNullableString(DataOutputStream outputStream, String value) throws IOException {
+        outputStream.writeBoolean(value != null);
+        if (value != null) {
+            outputStream.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream inputStream) throws IOException {
+        return inputStream.readBoolean() ? inputStream.readUTF() : null;
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * A simple size capped, least-recently-used byte store kept in a single directory on disk. Each
+ * entry is one file named by a hash of its key. Access order is tracked in memory and persisted
+ * through the file modified time so the eviction order survives a restart. The directory is indexed
+ * on first use rather than when the cache is constructed, so a cache may be created on the UI thread.
+ * Everything else does blocking file I/O so never call it from the UI thread.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DiskCache {
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private final LinkedHashMap<String, Long> mEntries; // file name -> size, in access order
+    private long mCurrentBytes;
+    private boolean mIndexed = false;
+
+    /**
+     * Construct a disk cache. Anything already stored in the directory is indexed on first use.
+     * @param directory - directory to hold the cache files. It is created if it does not exist.
+     * @param maxBytes - the total size of all entries is kept under this number of bytes.
+     */
+    public DiskCache(File directory, long maxBytes) {
+        this.mDirectory = directory;
+        this.mMaxBytes = maxBytes;
+        this.mEntries = new LinkedHashMap<>(64, 0.75f, true);
+        this.mCurrentBytes = 0;
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized long getCurrentBytes() {
+        indexDirectory();
+        return mCurrentBytes;
+    }
+
+    public synchronized boolean contains(String key) {
+        indexDirectory();
+        return mEntries.containsKey(fileNameForKey(key));
+    }
+
+    /**
+     * Read an entry from the cache.
+     * @param key {String} the key used to store the entry.
+     * @return {byte[]} the stored bytes, or null if there is no entry for the key.
+     */
+    public synchronized byte[] get(String key) {
+        indexDirectory();
+        String fileName = fileNameForKey(key);
+        if ( ! mEntries.containsKey(fileName)) {
+            return null;
+        }
+        File entryFile = new File(mDirectory, fileName);
+        byte[] data = readFile(entryFile);
+        if (data == null) {
+            removeEntry(fileName);
+        } else {
+            mEntries.get(fileName); // touch for access order
+            entryFile.setLastModified(System.currentTimeMillis());
+        }
+        return data;
+    }
+
+    /**
+     * Store an entry in the cache, replacing any prior entry for the same key, then evict the least
+     * recently used entries until the cache is back under its size cap.
+     * @param key {String} key to store the entry under.
+     * @param data {byte[]} the bytes to store.
+     * @return {boolean} false if the entry could not be written.
+     */
+    public synchronized boolean put(String key, byte[] data) {
+        if (data == null || data.length > mMaxBytes) {
+            return false;
+        }
+        indexDirectory();
+        if ( ! mDirectory.exists() && ! mDirectory.mkdirs()) {
+            return false;
+        }
+        String fileName = fileNameForKey(key);
+        File entryFile = new File(mDirectory, fileName);
+        File tempFile = new File(mDirectory, fileName + TEMP_FILE_SUFFIX);
+        if ( ! writeFile(tempFile, data)) {
+            tempFile.delete();
+            return false;
+        }
+        removeEntry(fileName);
+        if ( ! tempFile.renameTo(entryFile)) {
+            tempFile.delete();
+            return false;
+        }
+        mEntries.put(fileName, (long) data.length);
+        mCurrentBytes += data.length;
+        trimToSize(mMaxBytes);
+        return true;
+    }
+
+    public synchronized void remove(String key) {
+        indexDirectory();
+        removeEntry(fileNameForKey(key));
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Evict least recently used entries until the total size is at or below maxBytes.
+     * @param maxBytes {long} the target size.
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        indexDirectory();
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mCurrentBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            new File(mDirectory, eldest.getKey()).delete();
+            mCurrentBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private void removeEntry(String fileName) {
+        Long size = mEntries.remove(fileName);
+        if (size != null) {
+            mCurrentBytes -= size;
+            new File(mDirectory, fileName).delete();
+        }
+    }
+
+    /**
+     * Build the in-memory index from the files on disk the first time it is needed, oldest first so
+     * the least recently used files are evicted first. Left over temp files from an interrupted
+     * write are deleted.
+     */
+    private void indexDirectory() {
+        if (mIndexed) {
+            return;
+        }
+        mIndexed = true;
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File left, File right) {
+                long leftModified = left.lastModified();
+                long rightModified = right.lastModified();
+                return leftModified < rightModified ? -1 : (leftModified == rightModified ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                file.delete();
+            } else if (file.isFile()) {
+                mEntries.put(file.getName(), file.length());
+                mCurrentBytes += file.length();
+            }
+        }
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Keys may contain any characters so we store each entry under a hash of its key.
+     * @param key {String} cache key
+     * @return {String} a file name safe representation of the key.
+     */
+    static String fileNameForKey(String key) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("MD5");
+            byte[] digest = messageDigest.digest(key.getBytes("UTF-8"));
+            StringBuilder fileName = new StringBuilder(digest.length * 2);
+            for (byte digestByte : digest) {
+                fileName.append(Character.forDigit((digestByte >> 4) & 0xf, 16));
+                fileName.append(Character.forDigit(digestByte & 0xf, 16));
+            }
+            return fileName.toString();
+        } catch (NoSuchAlgorithmException | IOException exception) {
+            return Integer.toHexString(key.hashCode()) + "-" + key.length();
+        }
+    }
+
+    private static byte[] readFile(File file) {
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                int bytesRead = inputStream.read(data, offset, data.length - offset);
+                if (bytesRead < 0) {
+                    return null;
+                }
+                offset += bytesRead;
+            }
+            return data;
+        } catch (IOException exception) {
+            return null;
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    private static boolean writeFile(File file, byte[] data) {
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(file);
+            outputStream.write(data);
+            outputStream.flush();
+            return true;
+        } catch (IOException exception) {
+            return false;
+        } finally {
+            closeQuietly(outputStream);
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // nothing we can do about it
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Start identify operations for map taps so only the latest tap gets an answer. Each tap gets a
+ * generation number. A new tap cancels the operations started for older taps and anything that
+ * still arrives for them is dropped by checking isCurrent. At most maxOutstanding operations run at
+ * once, cancelled ones count until they report finished. A tap that arrives when all slots are busy
+ * waits and is replaced by any tap that comes after it, so rapid tapping runs only the last one.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+public class IdentifyDispatcher {
+
+    public interface IdentifyTask {
+        /**
+         * Start the identify operation. Call finished(generation) on the dispatcher when it is
+         * done, successful, failed or cancelled.
+         * @param generation {int} the tap this operation is for.
+         * @return {Future} the operation, so it can be cancelled, or null if it was not started.
+         */
+        Future<?> start(int generation);
+    }
+
+    private final int mMaxOutstanding;
+    private int mCurrentGeneration = 0;
+    private IdentifyTask mPendingTask = null;
+    private int mPendingGeneration = 0;
+    private final Set<Integer> mRunning = new HashSet<>();
+    private final Map<Integer, Future<?>> mRunningFutures = new HashMap<>();
+
+    /**
+     * Construct a dispatcher.
+     * @param maxOutstanding - most identify operations in flight at once.
+     */
+    public IdentifyDispatcher(int maxOutstanding) {
+        this.mMaxOutstanding = Math.max(1, maxOutstanding);
+    }
+
+    /**
+     * A new tap needs an identify operation.
+     * @param task {IdentifyTask} starts the operation.
+     * @return {int} the generation of the tap.
+     */
+    public int submit(IdentifyTask task) {
+        int generation = supersede();
+        synchronized (this) {
+            if (mRunning.size() >= mMaxOutstanding) {
+                mPendingTask = task;
+                mPendingGeneration = generation;
+                return generation;
+            }
+            mRunning.add(generation);
+        }
+        startTask(task, generation);
+        return generation;
+    }
+
+    /**
+     * A new tap was answered without an identify operation, everything older is stale.
+     * @return {int} the generation of the tap.
+     */
+    public int supersede() {
+        Future<?>[] supersededFutures;
+        int generation;
+        synchronized (this) {
+            mCurrentGeneration ++;
+            generation = mCurrentGeneration;
+            mPendingTask = null;
+            supersededFutures = mRunningFutures.values().toArray(new Future<?>[mRunningFutures.size()]);
+            mRunningFutures.clear();
+        }
+        for (Future<?> future : supersededFutures) {
+            future.cancel(true);
+        }
+        return generation;
+    }
+
+    /**
+     * @param generation {int} the tap's generation.
+     * @return {boolean} true if no tap came after it.
+     */
+    public synchronized boolean isCurrent(int generation) {
+        return generation == mCurrentGeneration;
+    }
+
+    /**
+     * An identify operation is done. Frees its slot and starts the waiting tap if there is one.
+     * @param generation {int} the tap the operation was for.
+     */
+    public void finished(int generation) {
+        IdentifyTask nextTask = null;
+        int nextGeneration = 0;
+        synchronized (this) {
+            if ( ! mRunning.remove(generation)) {
+                return;
+            }
+            mRunningFutures.remove(generation);
+            if (mPendingTask != null && mRunning.size() < mMaxOutstanding) {
+                nextTask = mPendingTask;
+                nextGeneration = mPendingGeneration;
+                mPendingTask = null;
+                mRunning.add(nextGeneration);
+            }
+        }
+        if (nextTask != null) {
+            startTask(nextTask, nextGeneration);
+        }
+    }
+
+    /**
+     * @return {int} the generation of the latest tap.
+     */
+    public synchronized int getCurrentGeneration() {
+        return mCurrentGeneration;
+    }
+
+    public synchronized int getOutstandingCount() {
+        return mRunning.size();
+    }
+
+    /**
+     * Cancel everything, for example when the listener is replaced.
+     */
+    public void cancelAll() {
+        supersede();
+    }
+
+    private void startTask(IdentifyTask task, int generation) {
+        Future<?> future;
+        try {
+            future = task.start(generation);
+        } catch (RuntimeException exception) {
+            finished(generation);
+            throw exception;
+        }
+        if (future == null) {
+            finished(generation);
+            return;
+        }
+        boolean cancel;
+        synchronized (this) {
+            if ( ! mRunning.contains(generation)) {
+                return; // already finished
+            }
+            cancel = generation != mCurrentGeneration;
+            if ( ! cancel) {
+                mRunningFutures.put(generation, future);
+            }
+        }
+        if (cancel) {
+            future.cancel(true); // a newer tap came along while this one was starting
+        }
+    }
+}
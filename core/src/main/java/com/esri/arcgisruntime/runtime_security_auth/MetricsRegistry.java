@@ -0,0 +1,232 @@
+/**
+ * Count operations and measure how long they take, so latency budgets can be set from percentiles.
+ * Each operation type (login, a portal query, a thumbnail fetch, a route solve and so on) has a
+ * latency histogram, and named counters count events such as cache hits.
+ *
+ * Histograms bucket durations the way HDR histograms do: values below 16 microseconds have a bucket
+ * each, above that every power of two is split into 16 buckets so a percentile is within about 6%
+ * of the true value. The buckets are a fixed AtomicLongArray, so recording is a few atomic increments
+ * with no locks and no allocation, and the memory used does not grow with the number of samples.
+ * Percentiles are found by walking the buckets, also without allocating.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class MetricsRegistry {
+
+    private static final MetricsRegistry sInstance = new MetricsRegistry();
+
+    /**
+     * Latency of one operation type in microseconds, from 0 to about 2^40 (12 days.)
+     */
+    public static class Histogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_EXPONENT = 40;
+        private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mFailedCount = new AtomicLong();
+        private final AtomicLong mTotalMicros = new AtomicLong();
+        private final AtomicLong mMaxMicros = new AtomicLong();
+
+        /**
+         * Record one operation.
+         * @param micros {long} how long it took.
+         * @param succeeded {boolean} false to also count it as failed.
+         */
+        public void record(long micros, boolean succeeded) {
+            micros = Math.max(0, micros);
+            mBuckets.incrementAndGet(bucketIndex(micros));
+            mCount.incrementAndGet();
+            mTotalMicros.addAndGet(micros);
+            if ( ! succeeded) {
+                mFailedCount.incrementAndGet();
+            }
+            long max = mMaxMicros.get();
+            while (micros > max && ! mMaxMicros.compareAndSet(max, micros)) {
+                max = mMaxMicros.get();
+            }
+        }
+
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getFailedCount() {
+            return mFailedCount.get();
+        }
+
+        public long getMaxMicros() {
+            return mMaxMicros.get();
+        }
+
+        public long getMeanMicros() {
+            long count = mCount.get();
+            return count > 0 ? mTotalMicros.get() / count : 0;
+        }
+
+        /**
+         * @param percentile {double} 0 to 100, for example 99 for p99.
+         * @return {long} the duration in microseconds that this percentage of operations took at most, 0 if none were recorded.
+         */
+        public long getPercentileMicros(double percentile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+            long seen = 0;
+            for (int index = 0; index < BUCKET_COUNT; index ++) {
+                seen += mBuckets.get(index);
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(index), mMaxMicros.get());
+                }
+            }
+            return mMaxMicros.get(); // recorded while we were walking the buckets
+        }
+
+        static int bucketIndex(long micros) {
+            if (micros < SUB_BUCKET_COUNT) {
+                return (int) micros;
+            }
+            int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+            int subBucket = (int) (Math.min(micros >>> (exponent - SUB_BUCKET_BITS), 2 * SUB_BUCKET_COUNT - 1) & (SUB_BUCKET_COUNT - 1));
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+        }
+
+        static long bucketUpperBound(int index) {
+            if (index < SUB_BUCKET_COUNT) {
+                return index;
+            }
+            int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+            int subBucket = index % SUB_BUCKET_COUNT;
+            return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Histogram> mHistograms = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> mCounters = new ConcurrentHashMap<>();
+
+    /**
+     * @return {MetricsRegistry} the registry used throughout the app.
+     */
+    public static MetricsRegistry getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param operation {String} the operation type, for example "route.solve".
+     * @return {Histogram} the operation's histogram, created the first time it is asked for.
+     */
+    public Histogram histogram(String operation) {
+        Histogram histogram = mHistograms.get(operation);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = mHistograms.putIfAbsent(operation, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Record an operation that started at startNanos and just finished.
+     * @param operation {String} the operation type.
+     * @param startNanos {long} System.nanoTime() when the operation started.
+     * @param succeeded {boolean} false if it failed.
+     */
+    public void recordSince(String operation, long startNanos, boolean succeeded) {
+        histogram(operation).record((System.nanoTime() - startNanos) / 1000, succeeded);
+    }
+
+    /**
+     * Count an event.
+     * @param counterName {String} for example "routeCache.hit".
+     */
+    public void increment(String counterName) {
+        AtomicLong counter = mCounters.get(counterName);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = mCounters.putIfAbsent(counterName, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * @param counterName {String}
+     * @return {long} the number of times the event was counted.
+     */
+    public long getCount(String counterName) {
+        AtomicLong counter = mCounters.get(counterName);
+        return counter != null ? counter.get() : 0;
+    }
+
+    /**
+     * Describe every operation and counter, one per line sorted by name, in milliseconds. Each
+     * value is read as it is at the moment, operations recorded during the snapshot may be partly
+     * included.
+     * @return {List} the lines.
+     */
+    public List<String> snapshot() {
+        List<String> operations = new ArrayList<>(mHistograms.keySet());
+        Collections.sort(operations);
+        List<String> counterNames = new ArrayList<>(mCounters.keySet());
+        Collections.sort(counterNames);
+        List<String> lines = new ArrayList<>(operations.size() + counterNames.size());
+        for (String operation : operations) {
+            Histogram histogram = mHistograms.get(operation);
+            lines.add(String.format(Locale.US, "%s count=%d failed=%d mean=%.1fms p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms",
+                    operation, histogram.getCount(), histogram.getFailedCount(),
+                    histogram.getMeanMicros() / 1000.0,
+                    histogram.getPercentileMicros(50) / 1000.0,
+                    histogram.getPercentileMicros(95) / 1000.0,
+                    histogram.getPercentileMicros(99) / 1000.0,
+                    histogram.getMaxMicros() / 1000.0));
+        }
+        for (String counterName : counterNames) {
+            lines.add(counterName + " count=" + getCount(counterName));
+        }
+        return lines;
+    }
+
+    /**
+     * Write a snapshot to a file.
+     * @param metricsFile {File} the file to write, replaced if it exists.
+     * @throws IOException
+     */
+    public void writeTo(File metricsFile) throws IOException {
+        File temporaryFile = new File(metricsFile.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temporaryFile), "UTF-8");
+        try {
+            for (String line : snapshot()) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if ( ! temporaryFile.renameTo(metricsFile)) {
+            temporaryFile.delete();
+            throw new IOException("Cannot write " + metricsFile);
+        }
+    }
+}
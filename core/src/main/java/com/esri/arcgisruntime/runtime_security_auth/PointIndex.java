@@ -0,0 +1,279 @@
+/**
+ * A read-only spatial index over points, used to find the feature nearest to a tap without asking
+ * the runtime to run an identify query. This is a packed R-tree built with the Sort-Tile-Recursive
+ * method: the points are sorted into vertical slices by x, each slice is sorted by y, and runs of
+ * nodeCapacity points become the leaves. Parent levels group runs of nodeCapacity nodes the same
+ * way until there is one root. Every node is full except the last of each level, and the tree is
+ * kept in flat arrays, one per level, so there are no node objects to allocate or chase.
+ *
+ * The index is built once and never changed, build a new one when the points change. It may be
+ * searched from any thread.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class PointIndex<T> {
+
+    public static final int DEFAULT_NODE_CAPACITY = 16;
+
+    /**
+     * A point to put in the index and the item it stands for.
+     */
+    public static class Entry<T> {
+        public final double x;
+        public final double y;
+        public final T item;
+
+        public Entry(double x, double y, T item) {
+            this.x = x;
+            this.y = y;
+            this.item = item;
+        }
+    }
+
+    private final int mNodeCapacity;
+    private final int mSize;
+    private final double[] mX;
+    private final double[] mY;
+    private final Object[] mItems;
+    // bounds of the nodes of each level, level 0 are the leaves, the last level is the root
+    private final double[][] mMinX;
+    private final double[][] mMinY;
+    private final double[][] mMaxX;
+    private final double[][] mMaxY;
+
+    /**
+     * Build an index.
+     * @param entries - the points to index, the list is not kept.
+     * @param nodeCapacity - number of children per node, 4 or more.
+     */
+    public PointIndex(List<Entry<T>> entries, int nodeCapacity) {
+        mNodeCapacity = Math.max(4, nodeCapacity);
+        mSize = entries.size();
+        List<Entry<T>> sortedEntries = sortTileRecursive(entries, mNodeCapacity);
+        mX = new double[mSize];
+        mY = new double[mSize];
+        mItems = new Object[mSize];
+        for (int i = 0; i < mSize; i ++) {
+            Entry<T> entry = sortedEntries.get(i);
+            mX[i] = entry.x;
+            mY[i] = entry.y;
+            mItems[i] = entry.item;
+        }
+
+        List<double[][]> levels = new ArrayList<>();
+        if (mSize > 0) {
+            double[][] level = buildLeafLevel();
+            levels.add(level);
+            while (level[0].length > 1) {
+                level = buildParentLevel(level);
+                levels.add(level);
+            }
+        }
+        int levelCount = levels.size();
+        mMinX = new double[levelCount][];
+        mMinY = new double[levelCount][];
+        mMaxX = new double[levelCount][];
+        mMaxY = new double[levelCount][];
+        for (int i = 0; i < levelCount; i ++) {
+            mMinX[i] = levels.get(i)[0];
+            mMinY[i] = levels.get(i)[1];
+            mMaxX[i] = levels.get(i)[2];
+            mMaxY[i] = levels.get(i)[3];
+        }
+    }
+
+    public PointIndex(List<Entry<T>> entries) {
+        this(entries, DEFAULT_NODE_CAPACITY);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Find the item nearest to a location.
+     * @param x {double} x of the location.
+     * @param y {double} y of the location.
+     * @param maxDistance {double} only consider items this close or closer.
+     * @return {T} the nearest item, or null if there is none within maxDistance.
+     */
+    @SuppressWarnings("unchecked")
+    public T nearest(double x, double y, double maxDistance) {
+        if (mSize == 0) {
+            return null;
+        }
+        double[] bestDistanceSquared = { maxDistance * maxDistance };
+        int nearestIndex = nearest(x, y, mMinX.length - 1, 0, bestDistanceSquared, -1);
+        return nearestIndex >= 0 ? (T) mItems[nearestIndex] : null;
+    }
+
+    /**
+     * Find all the items within a distance of a location.
+     * @param x {double} x of the location.
+     * @param y {double} y of the location.
+     * @param maxDistance {double} only return items this close or closer.
+     * @return {List} the items found, in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> within(double x, double y, double maxDistance) {
+        List<T> found = new ArrayList<>();
+        if (mSize == 0) {
+            return found;
+        }
+        double maxDistanceSquared = maxDistance * maxDistance;
+        int[] nodeStack = new int[64];
+        int[] levelStack = new int[64];
+        int stackSize = 0;
+        nodeStack[stackSize] = 0;
+        levelStack[stackSize ++] = mMinX.length - 1;
+        while (stackSize > 0) {
+            stackSize --;
+            int node = nodeStack[stackSize];
+            int level = levelStack[stackSize];
+            if (distanceSquaredToNode(x, y, level, node) > maxDistanceSquared) {
+                continue;
+            }
+            int firstChild = node * mNodeCapacity;
+            if (level == 0) {
+                int lastChild = Math.min(firstChild + mNodeCapacity, mSize);
+                for (int i = firstChild; i < lastChild; i ++) {
+                    double dx = mX[i] - x;
+                    double dy = mY[i] - y;
+                    if (dx * dx + dy * dy <= maxDistanceSquared) {
+                        found.add((T) mItems[i]);
+                    }
+                }
+            } else {
+                int lastChild = Math.min(firstChild + mNodeCapacity, mMinX[level - 1].length);
+                for (int child = firstChild; child < lastChild; child ++) {
+                    if (stackSize == nodeStack.length) {
+                        nodeStack = Arrays.copyOf(nodeStack, stackSize * 2);
+                        levelStack = Arrays.copyOf(levelStack, stackSize * 2);
+                    }
+                    nodeStack[stackSize] = child;
+                    levelStack[stackSize ++] = level - 1;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Depth first search visiting the closer children first, skipping nodes that cannot hold
+     * anything closer than the best found so far.
+     * @return {int} index of the nearest point found, or nearestIndex if nothing closer was found.
+     */
+    private int nearest(double x, double y, int level, int node, double[] bestDistanceSquared, int nearestIndex) {
+        int firstChild = node * mNodeCapacity;
+        if (level == 0) {
+            int lastChild = Math.min(firstChild + mNodeCapacity, mSize);
+            for (int i = firstChild; i < lastChild; i ++) {
+                double dx = mX[i] - x;
+                double dy = mY[i] - y;
+                double distanceSquared = dx * dx + dy * dy;
+                if (distanceSquared <= bestDistanceSquared[0]) {
+                    bestDistanceSquared[0] = distanceSquared;
+                    nearestIndex = i;
+                }
+            }
+            return nearestIndex;
+        }
+        int lastChild = Math.min(firstChild + mNodeCapacity, mMinX[level - 1].length);
+        int childCount = lastChild - firstChild;
+        double[] childDistances = new double[childCount];
+        Integer[] childOrder = new Integer[childCount];
+        for (int i = 0; i < childCount; i ++) {
+            childDistances[i] = distanceSquaredToNode(x, y, level - 1, firstChild + i);
+            childOrder[i] = i;
+        }
+        final double[] distances = childDistances;
+        Arrays.sort(childOrder, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer child1, Integer child2) {
+                return Double.compare(distances[child1], distances[child2]);
+            }
+        });
+        for (int i = 0; i < childCount; i ++) {
+            int child = childOrder[i];
+            if (childDistances[child] > bestDistanceSquared[0]) {
+                break; // the rest are further away still
+            }
+            nearestIndex = nearest(x, y, level - 1, firstChild + child, bestDistanceSquared, nearestIndex);
+        }
+        return nearestIndex;
+    }
+
+    private double distanceSquaredToNode(double x, double y, int level, int node) {
+        double dx = x < mMinX[level][node] ? mMinX[level][node] - x : (x > mMaxX[level][node] ? x - mMaxX[level][node] : 0);
+        double dy = y < mMinY[level][node] ? mMinY[level][node] - y : (y > mMaxY[level][node] ? y - mMaxY[level][node] : 0);
+        return dx * dx + dy * dy;
+    }
+
+    private double[][] buildLeafLevel() {
+        int nodeCount = (mSize + mNodeCapacity - 1) / mNodeCapacity;
+        double[][] level = newLevel(nodeCount);
+        for (int i = 0; i < mSize; i ++) {
+            extend(level, i / mNodeCapacity, mX[i], mY[i], mX[i], mY[i]);
+        }
+        return level;
+    }
+
+    private double[][] buildParentLevel(double[][] childLevel) {
+        int childCount = childLevel[0].length;
+        int nodeCount = (childCount + mNodeCapacity - 1) / mNodeCapacity;
+        double[][] level = newLevel(nodeCount);
+        for (int i = 0; i < childCount; i ++) {
+            extend(level, i / mNodeCapacity, childLevel[0][i], childLevel[1][i], childLevel[2][i], childLevel[3][i]);
+        }
+        return level;
+    }
+
+    private static double[][] newLevel(int nodeCount) {
+        double[][] level = new double[4][nodeCount];
+        Arrays.fill(level[0], Double.POSITIVE_INFINITY);
+        Arrays.fill(level[1], Double.POSITIVE_INFINITY);
+        Arrays.fill(level[2], Double.NEGATIVE_INFINITY);
+        Arrays.fill(level[3], Double.NEGATIVE_INFINITY);
+        return level;
+    }
+
+    private static void extend(double[][] level, int node, double minX, double minY, double maxX, double maxY) {
+        level[0][node] = Math.min(level[0][node], minX);
+        level[1][node] = Math.min(level[1][node], minY);
+        level[2][node] = Math.max(level[2][node], maxX);
+        level[3][node] = Math.max(level[3][node], maxY);
+    }
+
+    /**
+     * Order the entries so runs of nodeCapacity entries are tight leaves.
+     */
+    private static <T> List<Entry<T>> sortTileRecursive(List<Entry<T>> entries, int nodeCapacity) {
+        List<Entry<T>> sortedEntries = new ArrayList<>(entries);
+        int leafCount = (sortedEntries.size() + nodeCapacity - 1) / nodeCapacity;
+        int sliceCount = (int) Math.ceil(Math.sqrt(leafCount));
+        int sliceSize = Math.max(1, sliceCount) * nodeCapacity;
+        Collections.sort(sortedEntries, new Comparator<Entry<T>>() {
+            @Override
+            public int compare(Entry<T> entry1, Entry<T> entry2) {
+                return Double.compare(entry1.x, entry2.x);
+            }
+        });
+        Comparator<Entry<T>> byY = new Comparator<Entry<T>>() {
+            @Override
+            public int compare(Entry<T> entry1, Entry<T> entry2) {
+                return Double.compare(entry1.y, entry2.y);
+            }
+        };
+        for (int sliceStart = 0; sliceStart < sortedEntries.size(); sliceStart += sliceSize) {
+            Collections.sort(sortedEntries.subList(sliceStart, Math.min(sliceStart + sliceSize, sortedEntries.size())), byY);
+        }
+        return sortedEntries;
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * The text of a feature's popup, without the links. The contact and website go on the first line,
+ * separated by a dash, then the description. PopupContentFormatter adds the links on the device.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+public class PopupText {
+
+    /**
+     * Build the cache key for a feature's popup.
+     * @param objectId {String} the feature's object id, may be null.
+     * @param editTimestamp {long} when the feature was last edited, or a hash of its popup
+     *                      attributes if the layer does not track edits.
+     * @return {String} the key or null if the feature has no object id, such content is not cached.
+     */
+    public static String keyFor(String objectId, long editTimestamp) {
+        return objectId != null ? objectId + "|" + editTimestamp : null;
+    }
+
+    /**
+     * Put the popup text together.
+     * @param phoneNumber {String} contact telephone number, may be null.
+     * @param website {String} URL to link to, may be null.
+     * @param description {String} description field of the feature, may be null.
+     * @return {String} the text, empty if there is nothing to show.
+     */
+    public static String assemble(String phoneNumber, String website, String description) {
+        int length = (phoneNumber != null ? phoneNumber.length() : 0) + (website != null ? website.length() : 0) + (description != null ? description.length() : 0);
+        StringBuilder formattedDescription = new StringBuilder(length + 4);
+        if (phoneNumber != null && phoneNumber.length() > 0) {
+            formattedDescription.append(phoneNumber);
+        }
+        if (website != null && website.length() > 0) {
+            if (formattedDescription.length() > 0) {
+                formattedDescription.append(" - ");
+            }
+            formattedDescription.append(website);
+        }
+        if (formattedDescription.length() > 0) {
+            formattedDescription.append('\n');
+        }
+        if (description != null && description.length() > 0) {
+            formattedDescription.append(description);
+        }
+        return formattedDescription.toString();
+    }
+}
@@ -0,0 +1,447 @@
+/**
+ * Download everything needed for a region before going where the network is poor. A job is a list
+ * of items, usually tile URLs from the Web Mercator tile grid plus cells of the region to load
+ * features for, which an ItemFetcher downloads into the local caches. Items are worked through by a
+ * fixed number of threads. Completed items are recorded in a progress file, so a job that is
+ * cancelled, fails part way or dies with the app carries on where it left off when the same job is
+ * started again. Progress is reported with the bytes stored and an estimate of the time left.
+ *
+ * The caches the items go into evict the least recently used entries, so a job storing more than
+ * they hold would push out its own first items while the progress file still has them done. A job
+ * can be given a byte budget well under the cache size: once the items done, in this run and earlier
+ * ones, take that many bytes no more are started.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RegionPrefetchJob {
+
+    public static final double WEB_MERCATOR_HALF_WIDTH = 20037508.342789244;
+    public static final double MAX_LATITUDE = 85.0511287798066;
+
+    private static final int FORMAT_VERSION = 2;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY = 500; // milliseconds, doubled on each retry
+    private static final int SAVE_INTERVAL = 64; // completed items between progress file writes
+    private static final long PROGRESS_INTERVAL = 250; // milliseconds between progress reports
+
+    // define callback interface for downloading one item of the job
+    public interface ItemFetcher {
+        /**
+         * @param item {String} the item to download.
+         * @return {long} bytes the item takes in the cache, whether it was downloaded or already there.
+         * @throws Exception if the item could not be downloaded, it is tried again.
+         */
+        long fetch(String item) throws Exception;
+    }
+
+    // define callback interface for job progress, called on the job's threads
+    public interface ProgressListener {
+        void onProgress(Progress progress);
+        void onFinished(Progress progress);
+    }
+
+    /**
+     * Where a job is at.
+     */
+    public static class Progress {
+        public final int totalItems;
+        public final int completedItems;
+        public final int failedItems;
+        public final long bytes;
+        public final long remainingMillis;
+        public final boolean cancelled;
+        public final boolean budgetReached; // stopped because the items done take the job's byte budget
+
+        public Progress(int totalItems, int completedItems, int failedItems, long bytes, long remainingMillis, boolean cancelled, boolean budgetReached) {
+            this.totalItems = totalItems;
+            this.completedItems = completedItems;
+            this.failedItems = failedItems;
+            this.bytes = bytes;
+            this.remainingMillis = remainingMillis;
+            this.cancelled = cancelled;
+            this.budgetReached = budgetReached;
+        }
+
+        /**
+         * @return {int} percent of the items done, 0 to 100.
+         */
+        public int getPercent() {
+            return totalItems > 0 ? (int) (100L * completedItems / totalItems) : 100;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d/%d items, %d failed, %.1f MB, %s left", completedItems, totalItems, failedItems, bytes / (1024.0 * 1024.0),
+                    remainingMillis >= 0 ? (remainingMillis / 1000) + "s" : "unknown");
+        }
+    }
+
+    private final List<String> mItems;
+    private final ItemFetcher mItemFetcher;
+    private final int mParallelism;
+    private final File mProgressFile;
+    private final long mMaxBytes;
+    private final BitSet mCompleted;
+    private final AtomicInteger mNextItem = new AtomicInteger();
+    private final AtomicInteger mCompletedCount = new AtomicInteger();
+    private final AtomicInteger mCompletedThisRun = new AtomicInteger();
+    private final AtomicInteger mFailedCount = new AtomicInteger();
+    private final AtomicInteger mActiveWorkers = new AtomicInteger();
+    private final AtomicLong mBytes = new AtomicLong(); // stored by the items done, in this run and earlier ones
+    private final AtomicLong mLastProgressTime = new AtomicLong();
+    private volatile boolean mCancelled = false;
+    private volatile boolean mBudgetReached = false;
+    private ExecutorService mExecutor = null;
+    private long mStartTime;
+
+    /**
+     * Construct a prefetch job and read how far an earlier run of the same job got.
+     * @param items - what to download, the same items in the same order make the same job.
+     * @param itemFetcher - downloads an item.
+     * @param parallelism - items downloaded at the same time.
+     * @param progressFile - where completed items are recorded, may be null to always start over.
+     */
+    public RegionPrefetchJob(List<String> items, ItemFetcher itemFetcher, int parallelism, File progressFile) {
+        this(items, itemFetcher, parallelism, progressFile, Long.MAX_VALUE);
+    }
+
+    /**
+     * Construct a prefetch job that stops once its items take a number of bytes.
+     * @param items - what to download, the same items in the same order make the same job.
+     * @param itemFetcher - downloads an item.
+     * @param parallelism - items downloaded at the same time.
+     * @param progressFile - where completed items are recorded, may be null to always start over.
+     * @param maxBytes - the byte budget, keep it well under the size of the cache the items go into.
+     */
+    public RegionPrefetchJob(List<String> items, ItemFetcher itemFetcher, int parallelism, File progressFile, long maxBytes) {
+        this.mItems = items;
+        this.mItemFetcher = itemFetcher;
+        this.mParallelism = Math.max(1, parallelism);
+        this.mProgressFile = progressFile;
+        this.mMaxBytes = maxBytes;
+        this.mCompleted = readProgress();
+        this.mCompletedCount.set(mCompleted.cardinality());
+        this.mBudgetReached = mBytes.get() >= maxBytes;
+    }
+
+    /**
+     * Start downloading on the job's own threads. A job runs once.
+     * @param progressListener {ProgressListener} told about progress and when the job finishes.
+     */
+    public synchronized void start(final ProgressListener progressListener) {
+        if (mExecutor != null) {
+            return;
+        }
+        mStartTime = System.currentTimeMillis();
+        mExecutor = Executors.newFixedThreadPool(mParallelism);
+        mActiveWorkers.set(mParallelism);
+        for (int i = 0; i < mParallelism; i ++) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    work(progressListener);
+                }
+            });
+        }
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Stop after the items being downloaded, what is done so far is kept for the next run.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public Progress getProgress() {
+        int completed = mCompletedCount.get();
+        int failed = mFailedCount.get();
+        int doneThisRun = mCompletedThisRun.get() + failed;
+        long elapsed = System.currentTimeMillis() - mStartTime;
+        int remaining = mItems.size() - completed - failed;
+        long remainingMillis = remaining <= 0 ? 0 : (doneThisRun > 0 ? elapsed * remaining / doneThisRun : -1);
+        return new Progress(mItems.size(), completed, failed, mBytes.get(), remainingMillis, mCancelled, mBudgetReached);
+    }
+
+    private void work(ProgressListener progressListener) {
+        int itemIndex;
+        while ( ! mCancelled && ! mBudgetReached && (itemIndex = mNextItem.getAndIncrement()) < mItems.size()) {
+            synchronized (mCompleted) {
+                if (mCompleted.get(itemIndex)) {
+                    continue;
+                }
+            }
+            if (fetchWithRetries(mItems.get(itemIndex))) {
+                int completedThisRun;
+                synchronized (mCompleted) {
+                    mCompleted.set(itemIndex);
+                    mCompletedCount.incrementAndGet();
+                    completedThisRun = mCompletedThisRun.incrementAndGet();
+                }
+                if (mBytes.get() >= mMaxBytes) {
+                    mBudgetReached = true; // the items being downloaded still finish
+                }
+                if (completedThisRun % SAVE_INTERVAL == 0) {
+                    saveProgress();
+                }
+            } else {
+                mFailedCount.incrementAndGet();
+            }
+            long now = System.currentTimeMillis();
+            long lastProgressTime = mLastProgressTime.get();
+            if (now - lastProgressTime >= PROGRESS_INTERVAL && mLastProgressTime.compareAndSet(lastProgressTime, now)) {
+                progressListener.onProgress(getProgress());
+            }
+        }
+        if (mActiveWorkers.decrementAndGet() == 0) {
+            Progress progress = getProgress();
+            if ((progress.completedItems == progress.totalItems || progress.budgetReached) && mProgressFile != null) {
+                // all done, or as much as fits, the next run checks everything again
+                mProgressFile.delete();
+            } else {
+                saveProgress();
+            }
+            progressListener.onFinished(progress);
+        }
+    }
+
+    private boolean fetchWithRetries(String item) {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS && ! mCancelled; attempt ++) {
+            long fetchStartNanos = System.nanoTime();
+            try {
+                mBytes.addAndGet(mItemFetcher.fetch(item));
+                MetricsRegistry.getInstance().recordSince("prefetch.item", fetchStartNanos, true);
+                return true;
+            } catch (Exception exception) {
+                MetricsRegistry.getInstance().recordSince("prefetch.item", fetchStartNanos, false);
+                if (attempt < MAX_ATTEMPTS) {
+                    try {
+                        Thread.sleep(RETRY_DELAY << (attempt - 1));
+                    } catch (InterruptedException interruptedException) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param latitude {double} degrees.
+     * @param level {int} tile level, the world is 2^level tiles across.
+     * @return {int} the tile row, counted from the top.
+     */
+    public static int rowForLatitude(double latitude, int level) {
+        double clampedLatitude = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(latitude, MAX_LATITUDE)));
+        double y = (1 - Math.log(Math.tan(clampedLatitude) + 1 / Math.cos(clampedLatitude)) / Math.PI) / 2;
+        return clampTile((int) Math.floor(y * (1 << level)), level);
+    }
+
+    /**
+     * @param longitude {double} degrees.
+     * @param level {int} tile level.
+     * @return {int} the tile column, counted from the antimeridian.
+     */
+    public static int columnForLongitude(double longitude, int level) {
+        double x = (longitude + 180) / 360;
+        return clampTile((int) Math.floor(x * (1 << level)), level);
+    }
+
+    /**
+     * Count the tiles covering a region over a level range, to check a job is not too big.
+     * @return {long} the number of tiles.
+     */
+    public static long countTiles(double west, double south, double east, double north, int minLevel, int maxLevel) {
+        long count = 0;
+        for (int level = minLevel; level <= maxLevel; level ++) {
+            long columns = columnForLongitude(east, level) - columnForLongitude(west, level) + 1;
+            long rows = rowForLatitude(south, level) - rowForLatitude(north, level) + 1;
+            count += columns * rows;
+        }
+        return count;
+    }
+
+    /**
+     * Add the tile URLs covering a region, level by level from the lowest so a partly done job
+     * already has the overview.
+     * @param items {List} where the URLs are added.
+     * @param tileURLTemplate {String} tile URL with {level}, {row} and {col} in it.
+     * @param west {double} region in degrees.
+     * @param south {double}
+     * @param east {double}
+     * @param north {double}
+     * @param minLevel {int} first level.
+     * @param maxLevel {int} last level.
+     */
+    public static void addTileItems(List<String> items, String tileURLTemplate, double west, double south, double east, double north, int minLevel, int maxLevel) {
+        for (int level = minLevel; level <= maxLevel; level ++) {
+            String levelURL = tileURLTemplate.replace("{level}", Integer.toString(level));
+            for (int row = rowForLatitude(north, level); row <= rowForLatitude(south, level); row ++) {
+                String rowURL = levelURL.replace("{row}", Integer.toString(row));
+                for (int column = columnForLongitude(west, level); column <= columnForLongitude(east, level); column ++) {
+                    items.add(rowURL.replace("{col}", Integer.toString(column)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the tiles of one level covering a region as cells, the prefix followed by the tile's
+     * Web Mercator extent as xmin,ymin,xmax,ymax. Used to load features a cell at a time.
+     */
+    public static void addCellItems(List<String> items, String prefix, double west, double south, double east, double north, int level) {
+        double tileSize = 2 * WEB_MERCATOR_HALF_WIDTH / (1 << level);
+        for (int row = rowForLatitude(north, level); row <= rowForLatitude(south, level); row ++) {
+            for (int column = columnForLongitude(west, level); column <= columnForLongitude(east, level); column ++) {
+                double xMin = -WEB_MERCATOR_HALF_WIDTH + column * tileSize;
+                double yMax = WEB_MERCATOR_HALF_WIDTH - row * tileSize;
+                items.add(prefix + xMin + "," + (yMax - tileSize) + "," + (xMin + tileSize) + "," + yMax);
+            }
+        }
+    }
+
+    /**
+     * @param cellItem {String} an item added by addCellItems.
+     * @param prefix {String} the prefix it was added with.
+     * @return {double[]} xmin, ymin, xmax, ymax in Web Mercator.
+     */
+    public static double[] parseCell(String cellItem, String prefix) {
+        String[] coordinates = cellItem.substring(prefix.length()).split(",");
+        return new double[] { Double.parseDouble(coordinates[0]), Double.parseDouble(coordinates[1]), Double.parseDouble(coordinates[2]), Double.parseDouble(coordinates[3]) };
+    }
+
+    private static int clampTile(int tile, int level) {
+        return Math.max(0, Math.min(tile, (1 << level) - 1));
+    }
+
+    private void saveProgress() {
+        if (mProgressFile == null) {
+            return;
+        }
+        byte[] data;
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            DataOutputStream outputStream = new DataOutputStream(byteStream);
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeInt(mItems.size());
+            outputStream.writeInt(mItems.hashCode());
+            outputStream.writeLong(mBytes.get());
+            long[] words;
+            synchronized (mCompleted) {
+                // BitSet.toLongArray needs API 19
+                words = new long[(mCompleted.length() + 63) / 64];
+                for (int index = mCompleted.nextSetBit(0); index >= 0; index = mCompleted.nextSetBit(index + 1)) {
+                    words[index / 64] |= 1L << (index % 64);
+                }
+            }
+            outputStream.writeInt(words.length);
+            for (long word : words) {
+                outputStream.writeLong(word);
+            }
+            outputStream.flush();
+            data = byteStream.toByteArray();
+        } catch (IOException exception) {
+            return;
+        }
+        synchronized (this) {
+            File tempFile = new File(mProgressFile.getPath() + ".tmp");
+            FileOutputStream fileStream = null;
+            try {
+                File directory = mProgressFile.getParentFile();
+                if (directory != null && ! directory.exists()) {
+                    directory.mkdirs();
+                }
+                fileStream = new FileOutputStream(tempFile);
+                fileStream.write(data);
+                fileStream.close();
+                fileStream = null;
+                if ( ! tempFile.renameTo(mProgressFile)) {
+                    tempFile.delete();
+                }
+            } catch (IOException exception) {
+                tempFile.delete();
+            } finally {
+                if (fileStream != null) {
+                    try {
+                        fileStream.close();
+                    } catch (IOException ignored) {
+                        // nothing we can do about it
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Read how far an earlier run of the same job got, and the bytes its items take.
+     * @return {BitSet} the items an earlier run of the same job completed, empty if there was none.
+     */
+    private BitSet readProgress() {
+        File progressFile = mProgressFile;
+        List<String> items = mItems;
+        if (progressFile == null || ! progressFile.isFile()) {
+            return new BitSet(items.size());
+        }
+        FileInputStream fileStream = null;
+        try {
+            fileStream = new FileInputStream(progressFile);
+            byte[] data = new byte[(int) progressFile.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                int bytesRead = fileStream.read(data, offset, data.length - offset);
+                if (bytesRead < 0) {
+                    break;
+                }
+                offset += bytesRead;
+            }
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data, 0, offset));
+            if (inputStream.readInt() != FORMAT_VERSION || inputStream.readInt() != items.size() || inputStream.readInt() != items.hashCode()) {
+                return new BitSet(items.size()); // a different job
+            }
+            long bytes = inputStream.readLong();
+            BitSet completed = new BitSet(items.size());
+            int wordCount = inputStream.readInt();
+            for (int wordIndex = 0; wordIndex < wordCount; wordIndex ++) {
+                long word = inputStream.readLong();
+                for (int bit = 0; bit < 64 && word != 0; bit ++, word >>>= 1) {
+                    if ((word & 1) != 0 && wordIndex * 64 + bit < items.size()) {
+                        completed.set(wordIndex * 64 + bit);
+                    }
+                }
+            }
+            mBytes.set(bytes);
+            return completed;
+        } catch (IOException exception) {
+            return new BitSet(items.size());
+        } finally {
+            if (fileStream != null) {
+                try {
+                    fileStream.close();
+                } catch (IOException ignored) {
+                    // nothing we can do about it
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Remember solved routes so routing to the same destination from nearly the same place does not
+ * need another solve. Routes are keyed by the destination feature's object id plus the origin
+ * snapped to a grid (for example 50 meter cells), so small differences in the device location map
+ * to the same entry. Entries expire after a time-to-live. Recently used routes are kept in a memory
+ * LRU and, when a DiskCache is given, also written to disk so they survive a restart.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RouteCache {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final double METERS_PER_DEGREE = 111320.0;
+
+    /**
+     * What we keep of a solved route: the route geometry as JSON, the direction text of each
+     * maneuver and the route totals.
+     */
+    public static class CachedRoute {
+        public final String geometryJson;
+        public final List<String> directions;
+        public final double totalLength;
+        public final double totalTime;
+        public final long solvedAt;
+
+        public CachedRoute(String geometryJson, List<String> directions, double totalLength, double totalTime, long solvedAt) {
+            this.geometryJson = geometryJson;
+            this.directions = directions;
+            this.totalLength = totalLength;
+            this.totalTime = totalTime;
+            this.solvedAt = solvedAt;
+        }
+    }
+
+    private final LinkedHashMap<String, CachedRoute> mMemoryCache;
+    private final int mMaxEntries;
+    private final long mTimeToLive;
+    private final double mCellSize;
+    private final DiskCache mDiskCache;
+
+    /**
+     * Construct a route cache.
+     * @param maxEntries - number of routes to keep in memory.
+     * @param timeToLive - milliseconds a solved route may be reused for.
+     * @param cellSizeMeters - size of the grid cell origins are snapped to.
+     * @param diskCache - optional persisted tier, may be null.
+     */
+    public RouteCache(int maxEntries, long timeToLive, double cellSizeMeters, DiskCache diskCache) {
+        this.mMaxEntries = Math.max(1, maxEntries);
+        this.mTimeToLive = timeToLive;
+        this.mCellSize = cellSizeMeters;
+        this.mDiskCache = diskCache;
+        this.mMemoryCache = new LinkedHashMap<String, CachedRoute>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedRoute> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    public double getCellSize() {
+        return mCellSize;
+    }
+
+    /**
+     * Build the key for a route.
+     * @param destinationId {String} object id of the destination feature.
+     * @param originX {double} x of the route origin.
+     * @param originY {double} y of the route origin.
+     * @param wkid {int} well known id of the origin's spatial reference.
+     * @param isGeographic {boolean} true if the origin is in degrees rather than meters.
+     * @return {String} the key, or null if there is no destination id.
+     */
+    public String keyFor(String destinationId, double originX, double originY, int wkid, boolean isGeographic) {
+        if (destinationId == null) {
+            return null;
+        }
+        double cellSizeX = mCellSize;
+        double cellSizeY = mCellSize;
+        if (isGeographic) {
+            // close enough for snapping, a degree of longitude shrinks toward the poles
+            cellSizeY = mCellSize / METERS_PER_DEGREE;
+            cellSizeX = cellSizeY / Math.max(0.01, Math.cos(Math.toRadians(originY)));
+        }
+        long cellX = (long) Math.floor(originX / cellSizeX);
+        long cellY = (long) Math.floor(originY / cellSizeY);
+        return destinationId + "|" + wkid + "|" + cellX + "|" + cellY;
+    }
+
+    /**
+     * Find a route that has not expired.
+     * @param key {String} key from keyFor.
+     * @param now {long} the current time in milliseconds.
+     * @return {CachedRoute} the route or null.
+     */
+    public CachedRoute get(String key, long now) {
+        if (key == null) {
+            return null;
+        }
+        CachedRoute cachedRoute;
+        synchronized (mMemoryCache) {
+            cachedRoute = mMemoryCache.get(key);
+        }
+        if (cachedRoute == null && mDiskCache != null) {
+            byte[] data = mDiskCache.get(key);
+            if (data != null) {
+                cachedRoute = decode(data);
+                if (cachedRoute != null) {
+                    synchronized (mMemoryCache) {
+                        mMemoryCache.put(key, cachedRoute);
+                    }
+                }
+            }
+        }
+        if (cachedRoute != null && (now - cachedRoute.solvedAt > mTimeToLive || now < cachedRoute.solvedAt)) {
+            remove(key);
+            return null;
+        }
+        return cachedRoute;
+    }
+
+    /**
+     * Add a solved route to the memory tier and, if there is one, the persisted tier.
+     * @param key {String} key from keyFor.
+     * @param cachedRoute {CachedRoute} the route to keep.
+     */
+    public void put(String key, CachedRoute cachedRoute) {
+        if (key == null || cachedRoute == null) {
+            return;
+        }
+        synchronized (mMemoryCache) {
+            mMemoryCache.put(key, cachedRoute);
+        }
+        if (mDiskCache != null) {
+            byte[] data = encode(cachedRoute);
+            if (data != null) {
+                mDiskCache.put(key, data);
+            }
+        }
+    }
+
+    public void remove(String key) {
+        synchronized (mMemoryCache) {
+            mMemoryCache.remove(key);
+        }
+        if (mDiskCache != null) {
+            mDiskCache.remove(key);
+        }
+    }
+
+    public void clear() {
+        synchronized (mMemoryCache) {
+            mMemoryCache.clear();
+        }
+        if (mDiskCache != null) {
+            mDiskCache.clear();
+        }
+    }
+
+    static byte[] encode(CachedRoute cachedRoute) {
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            DataOutputStream outputStream = new DataOutputStream(byteStream);
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeLong(cachedRoute.solvedAt);
+            outputStream.writeDouble(cachedRoute.totalLength);
+            outputStream.writeDouble(cachedRoute.totalTime);
+            writeLongString(outputStream, cachedRoute.geometryJson);
+            outputStream.writeInt(cachedRoute.directions.size());
+            for (String direction : cachedRoute.directions) {
+                writeLongString(outputStream, direction);
+            }
+            outputStream.flush();
+            return byteStream.toByteArray();
+        } catch (IOException exception) {
+            return null;
+        }
+    }
+
+    static CachedRoute decode(byte[] data) {
+        try {
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
+            if (inputStream.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            long solvedAt = inputStream.readLong();
+            double totalLength = inputStream.readDouble();
+            double totalTime = inputStream.readDouble();
+            String geometryJson = readLongString(inputStream);
+            int directionCount = inputStream.readInt();
+            List<String> directions = new ArrayList<>(directionCount);
+            for (int i = 0; i < directionCount; i ++) {
+                directions.add(readLongString(inputStream));
+            }
+            return new CachedRoute(geometryJson, directions, totalLength, totalTime, solvedAt);
+        } catch (IOException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * DataOutputStream.writeUTF is limited to 64K which a long route geometry easily exceeds.
+     */
+    private static void writeLongString(DataOutputStream outputStream, String value) throws IOException {
+        byte[] bytes = (value != null ? value : "").getBytes("UTF-8");
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    private static String readLongString(DataInputStream inputStream) throws IOException {
+        byte[] bytes = new byte[inputStream.readInt()];
+        inputStream.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Make sure only one route request is being worked on at a time and only its result is drawn.
+ * Each request is identified by a key (destination plus snapped origin, the same as the route
+ * cache.) Asking again for the route that is already in flight is ignored since its result is on
+ * the way. Asking for a different route supersedes the current one: its futures are cancelled and
+ * its generation is no longer current, so anything that still arrives for it is dropped.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+public class RouteRequestManager {
+
+    public static final int NO_REQUEST = -1;
+
+    private int mCurrentGeneration = 0;
+    private String mCurrentKey = null;
+    private boolean mInFlight = false;
+    private final List<Future<?>> mCurrentFutures = new ArrayList<>();
+
+    /**
+     * Start a new route request.
+     * @param key {String} identifies the route being asked for.
+     * @return {int} the generation of the new request, or NO_REQUEST if the same route is already in flight.
+     */
+    public int begin(String key) {
+        List<Future<?>> supersededFutures;
+        int generation;
+        synchronized (this) {
+            if (mInFlight && key != null && key.equals(mCurrentKey)) {
+                return NO_REQUEST;
+            }
+            supersededFutures = new ArrayList<>(mCurrentFutures);
+            mCurrentFutures.clear();
+            mCurrentGeneration ++;
+            mCurrentKey = key;
+            mInFlight = true;
+            generation = mCurrentGeneration;
+        }
+        for (Future<?> future : supersededFutures) {
+            future.cancel(true);
+        }
+        return generation;
+    }
+
+    /**
+     * Remember a future started for a request so it can be cancelled if the request is superseded.
+     * If the request was already superseded the future is cancelled right away.
+     * @param generation {int} the request's generation from begin.
+     * @param future {Future} the operation started for the request.
+     * @return {boolean} false if the request is no longer current.
+     */
+    public boolean track(int generation, Future<?> future) {
+        synchronized (this) {
+            if (generation == mCurrentGeneration && mInFlight) {
+                mCurrentFutures.add(future);
+                return true;
+            }
+        }
+        future.cancel(true);
+        return false;
+    }
+
+    /**
+     * @param generation {int} the request's generation from begin.
+     * @return {boolean} true if the request has not been superseded or finished.
+     */
+    public synchronized boolean isCurrent(int generation) {
+        return generation == mCurrentGeneration && mInFlight;
+    }
+
+    /**
+     * Mark a request done, successful or not. Nothing happens if the request was superseded.
+     * @param generation {int} the request's generation from begin.
+     */
+    public synchronized void finish(int generation) {
+        if (generation == mCurrentGeneration) {
+            mInFlight = false;
+            mCurrentKey = null;
+            mCurrentFutures.clear();
+        }
+    }
+
+    /**
+     * Cancel whatever request is in flight.
+     */
+    public void cancel() {
+        List<Future<?>> cancelledFutures;
+        synchronized (this) {
+            cancelledFutures = new ArrayList<>(mCurrentFutures);
+            mCurrentFutures.clear();
+            mCurrentGeneration ++;
+            mCurrentKey = null;
+            mInFlight = false;
+        }
+        for (Future<?> future : cancelledFutures) {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/**
+ * What the user was looking at when the app was paused: the viewpoint, the basemap, the
+ * operational layers, the selected feature and the route on the map. It is written to one small
+ * binary file on pause and read back in one read when the map is set up, so the app opens where
+ * the user left it even after the process was killed. Basemaps and layers are recorded by the key,
+ * URL or item id they were created from, the route by its geometry JSON and stops.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class SessionSnapshot {
+
+    private static final int FORMAT_VERSION = 1;
+
+    public static final int LAYER_FEATURE_SERVICE = 1; // source is a feature service layer URL
+    public static final int LAYER_FEATURE_ITEM = 2;    // source is the item id of a feature layer item
+    public static final int LAYER_VECTOR_TILES = 3;    // source is a vector tile style URL
+
+    /**
+     * An operational layer and what it was created from.
+     */
+    public static class LayerSource {
+        public final int type;
+        public final String source;
+
+        public LayerSource(int type, String source) {
+            this.type = type;
+            this.source = source;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if ( ! (object instanceof LayerSource)) {
+                return false;
+            }
+            LayerSource layerSource = (LayerSource) object;
+            return type == layerSource.type && source.equals(layerSource.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type + source.hashCode();
+        }
+    }
+
+    private long mSavedAt = 0;
+    private boolean mHasViewpoint = false;
+    private double mCenterX;
+    private double mCenterY;
+    private int mWkid;
+    private double mScale;
+    private double mRotation;
+    private String mBasemapKey = null;
+    private final List<LayerSource> mLayers = new ArrayList<>();
+    private String mSelectedObjectId = null;
+    private String mRouteGeometryJson = null;
+    private int mRouteStopsWkid;
+    private double[] mRouteStops = new double[0];
+
+    /**
+     * @param centerX {double} center of the map view.
+     * @param centerY {double}
+     * @param wkid {int} spatial reference of the center.
+     * @param scale {double} map scale.
+     * @param rotation {double} map rotation in degrees.
+     * @return {SessionSnapshot} this snapshot.
+     */
+    public SessionSnapshot setViewpoint(double centerX, double centerY, int wkid, double scale, double rotation) {
+        mHasViewpoint = true;
+        mCenterX = centerX;
+        mCenterY = centerY;
+        mWkid = wkid;
+        mScale = scale;
+        mRotation = rotation;
+        return this;
+    }
+
+    /**
+     * @param basemapKey {String} the basemap pool key of the basemap, null for the default basemap.
+     * @return {SessionSnapshot} this snapshot.
+     */
+    public SessionSnapshot setBasemapKey(String basemapKey) {
+        mBasemapKey = basemapKey;
+        return this;
+    }
+
+    /**
+     * @param layerSources {List} the operational layers, bottom to top.
+     * @return {SessionSnapshot} this snapshot.
+     */
+    public SessionSnapshot setLayers(List<LayerSource> layerSources) {
+        mLayers.clear();
+        mLayers.addAll(layerSources);
+        return this;
+    }
+
+    /**
+     * @param objectId {String} object id of the selected feature of the feature layer, null if none.
+     * @return {SessionSnapshot} this snapshot.
+     */
+    public SessionSnapshot setSelectedObjectId(String objectId) {
+        mSelectedObjectId = objectId;
+        return this;
+    }
+
+    /**
+     * @param routeGeometryJson {String} the route polyline as JSON, null if no route is shown.
+     * @param stopsWkid {int} spatial reference of the stops.
+     * @param stops {double[]} x and y of each stop in the order they are visited.
+     * @return {SessionSnapshot} this snapshot.
+     */
+    public SessionSnapshot setRoute(String routeGeometryJson, int stopsWkid, double[] stops) {
+        mRouteGeometryJson = routeGeometryJson;
+        mRouteStopsWkid = stopsWkid;
+        mRouteStops = stops != null ? stops.clone() : new double[0];
+        return this;
+    }
+
+    public long getSavedAt() {
+        return mSavedAt;
+    }
+
+    public boolean hasViewpoint() {
+        return mHasViewpoint;
+    }
+
+    public double getCenterX() {
+        return mCenterX;
+    }
+
+    public double getCenterY() {
+        return mCenterY;
+    }
+
+    public int getWkid() {
+        return mWkid;
+    }
+
+    public double getScale() {
+        return mScale;
+    }
+
+    public double getRotation() {
+        return mRotation;
+    }
+
+    public String getBasemapKey() {
+        return mBasemapKey;
+    }
+
+    public List<LayerSource> getLayers() {
+        return Collections.unmodifiableList(mLayers);
+    }
+
+    public String getSelectedObjectId() {
+        return mSelectedObjectId;
+    }
+
+    public String getRouteGeometryJson() {
+        return mRouteGeometryJson;
+    }
+
+    public int getRouteStopsWkid() {
+        return mRouteStopsWkid;
+    }
+
+    public double[] getRouteStops() {
+        return mRouteStops.clone();
+    }
+
+    /**
+     * @return {byte[]} the snapshot in its binary form, stamped with the current time.
+     */
+    public byte[] toBytes() throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream(512 + (mRouteGeometryJson != null ? mRouteGeometryJson.length() : 0));
+        DataOutputStream outputStream = new DataOutputStream(byteStream);
+        outputStream.writeInt(FORMAT_VERSION);
+        outputStream.writeLong(System.currentTimeMillis());
+        outputStream.writeBoolean(mHasViewpoint);
+        if (mHasViewpoint) {
+            outputStream.writeDouble(mCenterX);
+            outputStream.writeDouble(mCenterY);
+            outputStream.writeInt(mWkid);
+            outputStream.writeDouble(mScale);
+            outputStream.writeDouble(mRotation);
+        }
+        writeNullableString(outputStream, mBasemapKey);
+        outputStream.writeInt(mLayers.size());
+        for (LayerSource layerSource : mLayers) {
+            outputStream.writeByte(layerSource.type);
+            outputStream.writeUTF(layerSource.source);
+        }
+        writeNullableString(outputStream, mSelectedObjectId);
+        outputStream.writeBoolean(mRouteGeometryJson != null);
+        if (mRouteGeometryJson != null) {
+            // a long route is more than writeUTF can hold
+            byte[] routeGeometry = mRouteGeometryJson.getBytes("UTF-8");
+            outputStream.writeInt(routeGeometry.length);
+            outputStream.write(routeGeometry);
+            outputStream.writeInt(mRouteStopsWkid);
+            outputStream.writeInt(mRouteStops.length);
+            for (double coordinate : mRouteStops) {
+                outputStream.writeDouble(coordinate);
+            }
+        }
+        outputStream.flush();
+        return byteStream.toByteArray();
+    }
+
+    /**
+     * @param data {byte[]} a snapshot written by toBytes.
+     * @return {SessionSnapshot} the snapshot.
+     * @throws IOException if the data is not a snapshot of this format version or is damaged.
+     */
+    public static SessionSnapshot fromBytes(byte[] data) throws IOException {
+        ByteArrayInputStream byteStream = new ByteArrayInputStream(data);
+        DataInputStream inputStream = new DataInputStream(byteStream);
+        if (inputStream.readInt() != FORMAT_VERSION) {
+            throw new IOException("Not a session snapshot of format version " + FORMAT_VERSION);
+        }
+        SessionSnapshot sessionSnapshot = new SessionSnapshot();
+        sessionSnapshot.mSavedAt = inputStream.readLong();
+        if (inputStream.readBoolean()) {
+            sessionSnapshot.setViewpoint(inputStream.readDouble(), inputStream.readDouble(), inputStream.readInt(), inputStream.readDouble(), inputStream.readDouble());
+        }
+        sessionSnapshot.mBasemapKey = readNullableString(inputStream);
+        int layerCount = readLength(inputStream, byteStream, 3); // a type byte and a string length each
+        for (int i = 0; i < layerCount; i ++) {
+            int type = inputStream.readByte();
+            sessionSnapshot.mLayers.add(new LayerSource(type, inputStream.readUTF()));
+        }
+        sessionSnapshot.mSelectedObjectId = readNullableString(inputStream);
+        if (inputStream.readBoolean()) {
+            byte[] routeGeometry = new byte[readLength(inputStream, byteStream, 1)];
+            inputStream.readFully(routeGeometry);
+            sessionSnapshot.mRouteGeometryJson = new String(routeGeometry, "UTF-8");
+            sessionSnapshot.mRouteStopsWkid = inputStream.readInt();
+            double[] stops = new double[readLength(inputStream, byteStream, 8)];
+            for (int i = 0; i < stops.length; i ++) {
+                stops[i] = inputStream.readDouble();
+            }
+            sessionSnapshot.mRouteStops = stops;
+        }
+        return sessionSnapshot;
+    }
+
+    /**
+     * Replace the snapshot file, through a temporary file so a crash part way leaves the old one.
+     * @param snapshotFile {File} where the snapshot is kept.
+     * @param data {byte[]} from toBytes.
+     */
+    public static void write(File snapshotFile, byte[] data) throws IOException {
+        File tempFile = new File(snapshotFile.getPath() + ".tmp");
+        FileOutputStream fileStream = new FileOutputStream(tempFile);
+        try {
+            fileStream.write(data);
+        } finally {
+            fileStream.close();
+        }
+        if ( ! tempFile.renameTo(snapshotFile)) {
+            tempFile.delete();
+            throw new IOException("Cannot replace " + snapshotFile);
+        }
+    }
+
+    /**
+     * @param snapshotFile {File} where the snapshot is kept.
+     * @return {SessionSnapshot} the snapshot, or null if there is none or it cannot be read.
+     */
+    public static SessionSnapshot read(File snapshotFile) {
+        if ( ! snapshotFile.isFile()) {
+            return null;
+        }
+        FileInputStream fileStream = null;
+        try {
+            fileStream = new FileInputStream(snapshotFile);
+            byte[] data = new byte[(int) snapshotFile.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                int bytesRead = fileStream.read(data, offset, data.length - offset);
+                if (bytesRead < 0) {
+                    throw new IOException("Snapshot ended early");
+                }
+                offset += bytesRead;
+            }
+            return fromBytes(data);
+        } catch (IOException exception) {
+            snapshotFile.delete(); // an older format or a damaged file, start from the defaults
+            return null;
+        } finally {
+            if (fileStream != null) {
+                try {
+                    fileStream.close();
+                } catch (IOException ignored) {
+                    // nothing we can do about it
+                }
+            }
+        }
+    }
+
+    private static void writeNullableString(DataOutputStream outputStream, String value) throws IOException {
+        outputStream.writeBoolean(value != null);
+        if (value != null) {
+            outputStream.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream inputStream) throws IOException {
+        return inputStream.readBoolean() ? inputStream.readUTF() : null;
+    }
+
+    /**
+     * Read a count of elements and check the data left can hold them, so a damaged file cannot make
+     * us allocate a negative or huge array.
+     * @param elementBytes {int} the fewest bytes one element takes.
+     * @return {int} the count.
+     * @throws IOException if the count is negative or more than the data left holds.
+     */
+    private static int readLength(DataInputStream inputStream, ByteArrayInputStream byteStream, int elementBytes) throws IOException {
+        int length = inputStream.readInt();
+        if (length < 0 || length > byteStream.available() / elementBytes) {
+            throw new IOException("Snapshot is damaged, " + length + " elements with " + byteStream.available() + " bytes left");
+        }
+        return length;
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Run the steps of starting up as a dependency graph instead of one after the other. Each step
+ * names the steps it depends on and the executor it runs on. A step starts as soon as all of its
+ * dependencies are done, so steps that do not depend on each other run at the same time. Steps may
+ * be asynchronous: a step is done when it calls its completion, not when its run method returns.
+ * If a step fails the steps that depend on it, directly or not, are skipped.
+ *
+ * With a TraceRecorder the startup is traced: each step is a span under a startup span and is the
+ * current span while it runs, so what a step starts with TraceRecorder.begin(name) is its child.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+public class StartupOrchestrator {
+
+    public interface StartupStep {
+        /**
+         * Do the step's work. Call completion.done() or completion.failed() exactly once when it is
+         * finished, from any thread.
+         */
+        void run(StepCompletion completion);
+    }
+
+    public interface StepCompletion {
+        void done();
+        void failed(String errorMessage);
+    }
+
+    // define callback interface to report progress of the startup
+    public interface StartupListener {
+        void onStepCompleted(String stepName, boolean succeeded, long startedAtMillis, long elapsedMillis);
+        void onStartupCompleted(long elapsedMillis);
+    }
+
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+    private static final int FAILED = 3;
+
+    private static class Step {
+        final String name;
+        final Executor executor;
+        final StartupStep startupStep;
+        final List<String> dependencies;
+        final List<Step> dependents = new ArrayList<>();
+        int remainingDependencies;
+        int state = PENDING;
+        long startedAt;
+        long spanId = TraceRecorder.NO_SPAN;
+
+        Step(String name, Executor executor, StartupStep startupStep, List<String> dependencies) {
+            this.name = name;
+            this.executor = executor;
+            this.startupStep = startupStep;
+            this.dependencies = dependencies;
+        }
+    }
+
+    private final Map<String, Step> mSteps = new LinkedHashMap<>();
+    private final StartupListener mListener;
+    private long mStartedAt = 0;
+    private int mUnfinishedSteps = 0;
+    private boolean mStarted = false;
+    private TraceRecorder mTraceRecorder = null;
+    private long mTraceSpan = TraceRecorder.NO_SPAN;
+
+    /**
+     * Construct an orchestrator.
+     * @param listener - told as steps complete, may be null.
+     */
+    public StartupOrchestrator(StartupListener listener) {
+        this.mListener = listener;
+    }
+
+    /**
+     * Declare a step. All steps must be added before start.
+     * @param name {String} unique name of the step.
+     * @param executor {Executor} the step's run method is called on this executor.
+     * @param startupStep {StartupStep} the work to do.
+     * @param dependsOn {String...} names of the steps that must be done first.
+     * @return {StartupOrchestrator} this, to chain calls.
+     */
+    public synchronized StartupOrchestrator addStep(String name, Executor executor, StartupStep startupStep, String... dependsOn) {
+        if (mStarted) {
+            throw new IllegalStateException("Cannot add step " + name + " after start");
+        }
+        if (mSteps.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate step " + name);
+        }
+        mSteps.put(name, new Step(name, executor, startupStep, Arrays.asList(dependsOn)));
+        return this;
+    }
+
+    /**
+     * Trace the startup, call before start.
+     * @param traceRecorder {TraceRecorder} records the startup and its steps as spans.
+     * @return {StartupOrchestrator} this, to chain calls.
+     */
+    public synchronized StartupOrchestrator setTraceRecorder(TraceRecorder traceRecorder) {
+        mTraceRecorder = traceRecorder;
+        return this;
+    }
+
+    /**
+     * Start every step that has no dependencies, the rest follow as their dependencies complete.
+     * @throws IllegalStateException if a step depends on a step that was not added, or steps depend on each other.
+     */
+    public void start() {
+        List<Step> readySteps = new ArrayList<>();
+        synchronized (this) {
+            if (mStarted) {
+                return;
+            }
+            for (Step step : mSteps.values()) {
+                for (String dependency : step.dependencies) {
+                    Step dependencyStep = mSteps.get(dependency);
+                    if (dependencyStep == null) {
+                        throw new IllegalStateException("Step " + step.name + " depends on unknown step " + dependency);
+                    }
+                    dependencyStep.dependents.add(step);
+                }
+                step.remainingDependencies = step.dependencies.size();
+            }
+            checkForCycles();
+            mStarted = true;
+            mStartedAt = System.currentTimeMillis();
+            if (mTraceRecorder != null) {
+                mTraceSpan = mTraceRecorder.beginRoot("startup");
+            }
+            mUnfinishedSteps = mSteps.size();
+            for (Step step : mSteps.values()) {
+                if (step.remainingDependencies == 0) {
+                    step.state = RUNNING;
+                    readySteps.add(step);
+                }
+            }
+        }
+        for (Step readyStep : readySteps) {
+            runStep(readyStep);
+        }
+        if (readySteps.isEmpty()) {
+            startupCompleted();
+        }
+    }
+
+    /**
+     * @param name {String} name of a step.
+     * @return {boolean} true if the step completed successfully.
+     */
+    public synchronized boolean isDone(String name) {
+        Step step = mSteps.get(name);
+        return step != null && step.state == DONE;
+    }
+
+    private void runStep(final Step step) {
+        step.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                step.startedAt = System.currentTimeMillis();
+                if (mTraceRecorder == null) {
+                    runStartupStep(step);
+                    return;
+                }
+                step.spanId = mTraceRecorder.begin(step.name, mTraceSpan);
+                mTraceRecorder.runInSpan(step.spanId, new Runnable() {
+                    @Override
+                    public void run() {
+                        runStartupStep(step);
+                    }
+                });
+            }
+        });
+    }
+
+    private void runStartupStep(final Step step) {
+        try {
+            step.startupStep.run(new StepCompletion() {
+                @Override
+                public void done() {
+                    stepCompleted(step, true);
+                }
+
+                @Override
+                public void failed(String errorMessage) {
+                    stepCompleted(step, false);
+                }
+            });
+        } catch (RuntimeException exception) {
+            stepCompleted(step, false);
+        }
+    }
+
+    private void stepCompleted(Step step, boolean succeeded) {
+        List<Step> readySteps = new ArrayList<>();
+        List<Step> skippedSteps = new ArrayList<>();
+        boolean allDone;
+        synchronized (this) {
+            if (step.state != RUNNING) {
+                return; // completion called twice
+            }
+            step.state = succeeded ? DONE : FAILED;
+            mUnfinishedSteps --;
+            if (succeeded) {
+                for (Step dependent : step.dependents) {
+                    if (dependent.state == PENDING && -- dependent.remainingDependencies == 0) {
+                        dependent.state = RUNNING;
+                        readySteps.add(dependent);
+                    }
+                }
+            } else {
+                skipDependents(step, skippedSteps);
+            }
+            allDone = mUnfinishedSteps == 0;
+        }
+        if (mTraceRecorder != null) {
+            mTraceRecorder.end(step.spanId);
+        }
+        if (mListener != null) {
+            mListener.onStepCompleted(step.name, succeeded, step.startedAt, System.currentTimeMillis() - step.startedAt);
+            for (Step skippedStep : skippedSteps) {
+                mListener.onStepCompleted(skippedStep.name, false, 0, 0);
+            }
+        }
+        for (Step readyStep : readySteps) {
+            runStep(readyStep);
+        }
+        if (allDone) {
+            startupCompleted();
+        }
+    }
+
+    private void skipDependents(Step step, List<Step> skippedSteps) {
+        for (Step dependent : step.dependents) {
+            if (dependent.state == PENDING) {
+                dependent.state = FAILED;
+                mUnfinishedSteps --;
+                skippedSteps.add(dependent);
+                skipDependents(dependent, skippedSteps);
+            }
+        }
+    }
+
+    private void startupCompleted() {
+        if (mTraceRecorder != null) {
+            mTraceRecorder.end(mTraceSpan);
+        }
+        if (mListener != null) {
+            mListener.onStartupCompleted(System.currentTimeMillis() - mStartedAt);
+        }
+    }
+
+    /**
+     * Remove steps with no remaining dependencies until none are left; whatever cannot be removed is in a cycle.
+     */
+    private void checkForCycles() {
+        Map<Step, Integer> remaining = new HashMap<>();
+        List<Step> ready = new ArrayList<>();
+        for (Step step : mSteps.values()) {
+            remaining.put(step, step.remainingDependencies);
+            if (step.remainingDependencies == 0) {
+                ready.add(step);
+            }
+        }
+        int visited = 0;
+        while ( ! ready.isEmpty()) {
+            Step step = ready.remove(ready.size() - 1);
+            visited ++;
+            for (Step dependent : step.dependents) {
+                int count = remaining.get(dependent) - 1;
+                remaining.put(dependent, count);
+                if (count == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        if (visited != mSteps.size()) {
+            throw new IllegalStateException("Startup steps depend on each other");
+        }
+    }
+}
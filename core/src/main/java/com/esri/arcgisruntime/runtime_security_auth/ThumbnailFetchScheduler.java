@@ -0,0 +1,210 @@
+/**
+ * Limit how many thumbnail fetches are in flight at once and decide which one goes next. Each
+ * fetch is queued under a key with a priority, the highest priority pending fetch is started
+ * whenever a slot frees up (first come first served within the same priority.) Priorities can be
+ * changed while a fetch is still waiting, so the grid can move the cells the user is looking at to
+ * the front of the line, and fetches that are no longer needed can be cancelled. A cancelled fetch
+ * that was already running keeps its slot until it reports finished, so cancelling never lets more
+ * than maxConcurrent fetches hit the network.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ThumbnailFetchScheduler<K> {
+
+    public static final int PRIORITY_OFFSCREEN = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    public static final int PRIORITY_VISIBLE = 2;
+
+    /**
+     * A unit of work the scheduler can run. start must eventually call onFinished exactly once,
+     * whether the fetch succeeds, fails or is cancelled.
+     */
+    public interface FetchTask {
+        void start(Runnable onFinished);
+        void cancel();
+    }
+
+    private static class Entry {
+        final FetchTask task;
+        int priority;
+        final long sequence;
+
+        Entry(FetchTask task, int priority, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    private final int mMaxConcurrent;
+    private final LinkedHashMap<K, Entry> mPending;
+    private final LinkedHashMap<K, Entry> mRunning;
+    private final List<Entry> mCancelled;
+    private long mNextSequence;
+
+    /**
+     * Construct a fetch scheduler.
+     * @param maxConcurrent - the maximum number of fetches allowed to run at the same time.
+     */
+    public ThumbnailFetchScheduler(int maxConcurrent) {
+        this.mMaxConcurrent = Math.max(1, maxConcurrent);
+        this.mPending = new LinkedHashMap<>();
+        this.mRunning = new LinkedHashMap<>();
+        this.mCancelled = new ArrayList<>();
+        this.mNextSequence = 0;
+    }
+
+    public int getMaxConcurrent() {
+        return mMaxConcurrent;
+    }
+
+    public synchronized int getPendingCount() {
+        return mPending.size();
+    }
+
+    /**
+     * @return {int} the fetches holding a slot, including cancelled ones that have not finished yet.
+     */
+    public synchronized int getRunningCount() {
+        return mRunning.size() + mCancelled.size();
+    }
+
+    /**
+     * Queue a fetch. If a fetch is already queued or running under the same key the request is
+     * ignored, except that a queued fetch is raised to the new priority if that is higher.
+     * @param key {K} identifies the fetch for later priority changes or cancel.
+     * @param task {FetchTask} the work to do.
+     * @param priority {int} one of the PRIORITY constants, higher goes first.
+     */
+    public void submit(K key, FetchTask task, int priority) {
+        synchronized (this) {
+            if (mRunning.containsKey(key)) {
+                return;
+            }
+            Entry pending = mPending.get(key);
+            if (pending != null) {
+                pending.priority = Math.max(pending.priority, priority);
+                return;
+            }
+            mPending.put(key, new Entry(task, priority, mNextSequence ++));
+        }
+        dispatch();
+    }
+
+    /**
+     * Change the priority of a fetch that has not started yet. Nothing happens if the fetch is
+     * already running or is unknown.
+     * @param key {K} the key the fetch was submitted under.
+     * @param priority {int} the new priority.
+     */
+    public synchronized void setPriority(K key, int priority) {
+        Entry pending = mPending.get(key);
+        if (pending != null) {
+            pending.priority = priority;
+        }
+    }
+
+    /**
+     * Cancel a single fetch whether it is waiting or running. A running fetch keeps its slot until
+     * it calls onFinished.
+     * @param key {K} the key the fetch was submitted under.
+     * @return {boolean} true if there was something to cancel.
+     */
+    public boolean cancel(K key) {
+        Entry entry;
+        synchronized (this) {
+            entry = mPending.remove(key);
+            if (entry == null) {
+                entry = mRunning.remove(key);
+                if (entry != null) {
+                    mCancelled.add(entry);
+                }
+            }
+        }
+        if (entry == null) {
+            return false;
+        }
+        entry.task.cancel();
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Cancel every waiting and running fetch, for example when the thumbnails are no longer on screen.
+     */
+    public void cancelAll() {
+        List<Entry> cancelled;
+        synchronized (this) {
+            cancelled = new ArrayList<>(mPending.size() + mRunning.size());
+            cancelled.addAll(mRunning.values());
+            cancelled.addAll(mPending.values());
+            mCancelled.addAll(mRunning.values());
+            mRunning.clear();
+            mPending.clear();
+        }
+        for (Entry entry : cancelled) {
+            entry.task.cancel();
+        }
+    }
+
+    /**
+     * Start as many of the highest priority waiting fetches as there are free slots. Tasks are
+     * started outside the lock since a task may complete (and call back into us) synchronously.
+     */
+    private void dispatch() {
+        List<K> startedKeys = null;
+        List<Entry> startedEntries = null;
+        synchronized (this) {
+            while (mRunning.size() + mCancelled.size() < mMaxConcurrent && ! mPending.isEmpty()) {
+                Map.Entry<K, Entry> next = null;
+                Iterator<Map.Entry<K, Entry>> iterator = mPending.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<K, Entry> candidate = iterator.next();
+                    if (next == null || candidate.getValue().priority > next.getValue().priority
+                            || (candidate.getValue().priority == next.getValue().priority && candidate.getValue().sequence < next.getValue().sequence)) {
+                        next = candidate;
+                    }
+                }
+                K key = next.getKey();
+                Entry entry = mPending.remove(key);
+                mRunning.put(key, entry);
+                if (startedKeys == null) {
+                    startedKeys = new ArrayList<>();
+                    startedEntries = new ArrayList<>();
+                }
+                startedKeys.add(key);
+                startedEntries.add(entry);
+            }
+        }
+        if (startedKeys != null) {
+            for (int i = 0; i < startedKeys.size(); i ++) {
+                final K key = startedKeys.get(i);
+                final Entry entry = startedEntries.get(i);
+                entry.task.start(new Runnable() {
+                    @Override
+                    public void run() {
+                        finished(key, entry);
+                    }
+                });
+            }
+        }
+    }
+
+    private void finished(K key, Entry entry) {
+        synchronized (this) {
+            if (mRunning.get(key) == entry) {
+                mRunning.remove(key);
+            } else {
+                mCancelled.remove(entry);
+            }
+        }
+        dispatch();
+    }
+}
@@ -0,0 +1,807 @@
+/**
+ * A caching HTTP proxy on the loopback interface for tiled and vector tiled layers. A layer is
+ * pointed at proxiedURL(serviceURL) and every request it makes (service metadata, styles, sprites,
+ * glyphs and tiles) goes through here. GET responses are kept in a DiskCache: tiles keyed by their
+ * service, level, row and column, everything else by URL without the token. The Cache-Control,
+ * Expires, ETag and Last-Modified headers decide how long an entry is fresh, once stale it is
+ * revalidated with a conditional request and a 304 just extends it. If the service cannot be
+ * reached a stale entry is served rather than nothing. Concurrent requests for the same entry share
+ * one upstream request. Responses fetched with a token or an Authorization header, marked private,
+ * or that are an ArcGIS error object are passed back without being stored, so one user's secured
+ * resources and token errors are never served to anyone else. JSON responses have the absolute
+ * URLs of the resources a style or service points at (sources, tiles, sprites and glyphs)
+ * rewritten through the proxy so they are cached too, other URLs such as the token service are
+ * left alone. Anything that is not a GET is passed through without caching. Vector tile styles
+ * and their resources are kept in a VectorStyleCache
+ * when one is set. This class does blocking network and file I/O on its own threads.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class TileProxy {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final Pattern TILE_PATH = Pattern.compile("^(.*)/tile/(\\d+)/(\\d+)/(\\d+)(\\.\\w+)?$");
+    private static final Pattern TOKEN_PARAMETER = Pattern.compile("([?&])token=[^&]*&?");
+    private static final Pattern ABSOLUTE_URL = Pattern.compile("\"(https?)://");
+    // the values a layer fetches: style sources and services, tile templates, sprites and glyphs
+    private static final Pattern RESOURCE_URLS = Pattern.compile("\"(?:url|tiles|tileServers|sprite|glyphs)\"\\s*:\\s*(?:\"https?://|\\[[^\\]]*\\])");
+    private static final Pattern ERROR_JSON = Pattern.compile("^\\s*\\{\\s*\"error\"\\s*:");
+    private static final Pattern PROXIED_URL = Pattern.compile("^http://127\\.0\\.0\\.1:\\d+(/https?/.*)$");
+    private static final Pattern MAX_AGE = Pattern.compile("(?:^|[,\\s])max-age\\s*=\\s*\"?(\\d+)");
+    private static final String[] FORWARDED_HEADERS = {"user-agent", "referer", "authorization", "x-esri-authorization", "accept", "content-type"};
+    private static final int MAX_HEADER_LINE = 16 * 1024;
+    private static final int IDLE_TIMEOUT = 15000;
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
+
+    /**
+     * A stored response and what is needed to decide whether it is fresh and to revalidate it.
+     */
+    static class CachedResponse {
+        final long expiresAt;
+        final String eTag;
+        final String lastModified;
+        final String contentType;
+        final String contentEncoding;
+        final byte[] body;
+
+        CachedResponse(long expiresAt, String eTag, String lastModified, String contentType, String contentEncoding, byte[] body) {
+            this.expiresAt = expiresAt;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.body = body;
+        }
+
+        CachedResponse withExpiry(long expiresAt) {
+            return new CachedResponse(expiresAt, eTag, lastModified, contentType, contentEncoding, body);
+        }
+    }
+
+    /**
+     * What goes back to the layer, either from the cache or passed through from the service.
+     */
+    static class ProxyResponse {
+        final int status;
+        final String contentType;
+        final String contentEncoding;
+        final byte[] body;
+        final String cacheStatus;
+
+        ProxyResponse(int status, String contentType, String contentEncoding, byte[] body, String cacheStatus) {
+            this.status = status;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.body = body;
+            this.cacheStatus = cacheStatus;
+        }
+    }
+
+    private final DiskCache mDiskCache;
+    private final long mDefaultMaxAge;
+    private final ConcurrentHashMap<String, FutureTask<ProxyResponse>> mInFlight = new ConcurrentHashMap<>();
+    private ServerSocket mServerSocket = null;
+    private ExecutorService mConnectionExecutor = null;
+    private volatile String mProxyBaseURL = null;
+    private volatile VectorStyleCache mStyleCache = null;
+
+    /**
+     * Construct a tile proxy.
+     * @param diskCache - where responses are stored.
+     * @param defaultMaxAge - milliseconds a response is fresh when the service sends no Cache-Control
+     *                      max-age or Expires. Tile services often send neither.
+     */
+    public TileProxy(DiskCache diskCache, long defaultMaxAge) {
+        this.mDiskCache = diskCache;
+        this.mDefaultMaxAge = defaultMaxAge;
+    }
+
+    /**
+     * Start listening on a free loopback port.
+     */
+    public synchronized void start() throws IOException {
+        if (mServerSocket != null) {
+            return;
+        }
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final ExecutorService connectionExecutor = Executors.newCachedThreadPool();
+        mServerSocket = serverSocket;
+        mConnectionExecutor = connectionExecutor;
+        mProxyBaseURL = "http://127.0.0.1:" + serverSocket.getLocalPort() + "/";
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while ( ! serverSocket.isClosed()) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        connectionExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serveConnection(socket);
+                            }
+                        });
+                    } catch (IOException exception) {
+                        // the server socket was closed
+                    }
+                }
+            }
+        }, "TileProxy");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public synchronized void stop() {
+        if (mServerSocket != null) {
+            try {
+                mServerSocket.close();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+            mConnectionExecutor.shutdownNow();
+            mServerSocket = null;
+            mProxyBaseURL = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return mProxyBaseURL != null;
+    }
+
+    /**
+     * @param styleCache {VectorStyleCache} where the styles it has opened and their resources are
+     *                   kept and served from without revalidating, null to cache them like tiles.
+     */
+    public void setStyleCache(VectorStyleCache styleCache) {
+        mStyleCache = styleCache;
+    }
+
+    /**
+     * Drop every stored response, for example when the user logs out. Does file I/O, call it off the
+     * UI thread.
+     */
+    public void clear() {
+        mDiskCache.clear();
+    }
+
+    /**
+     * Route a URL through the proxy.
+     * @param url {String} an http or https URL, for example a MapServer or a vector tile style.
+     * @return {String} the URL to give the layer, or the URL unchanged if the proxy is not running.
+     */
+    public String proxiedURL(String url) {
+        String proxyBaseURL = mProxyBaseURL;
+        if (proxyBaseURL == null || url == null) {
+            return url;
+        }
+        if (url.startsWith("https://")) {
+            return proxyBaseURL + "https/" + url.substring("https://".length());
+        } else if (url.startsWith("http://") && ! url.startsWith(proxyBaseURL)) {
+            return proxyBaseURL + "http/" + url.substring("http://".length());
+        }
+        return url;
+    }
+
+    /**
+     * The URL a proxy request path stands for, the reverse of proxiedURL.
+     * @param pathAndQuery {String} request target such as /https/host/path?query.
+     * @return {String} the upstream URL or null if the path is not a proxied URL.
+     */
+    static String upstreamURL(String pathAndQuery) {
+        if (pathAndQuery.startsWith("/https/")) {
+            return "https://" + pathAndQuery.substring("/https/".length());
+        } else if (pathAndQuery.startsWith("/http/")) {
+            return "http://" + pathAndQuery.substring("/http/".length());
+        }
+        return null;
+    }
+
+    /**
+     * The URL a URL from proxiedURL stands for, whichever port the proxy that made it listened on,
+     * so a proxied layer is still known by its service from one run to the next.
+     * @param url {String} a URL, proxied or not.
+     * @return {String} the upstream URL, or url itself if it is not a proxied URL.
+     */
+    public static String upstreamURLOf(String url) {
+        if (url == null) {
+            return null;
+        }
+        Matcher proxiedMatcher = PROXIED_URL.matcher(url);
+        return proxiedMatcher.matches() ? upstreamURL(proxiedMatcher.group(1)) : url;
+    }
+
+    /**
+     * Build the cache key for a URL: service, level, row and column for a tile, otherwise the URL
+     * without its token so a new token does not empty the cache.
+     * @param url {String} upstream URL.
+     * @return {String} the key.
+     */
+    static String cacheKeyFor(String url) {
+        int queryStart = url.indexOf('?');
+        String path = queryStart >= 0 ? url.substring(0, queryStart) : url;
+        Matcher tileMatcher = TILE_PATH.matcher(path);
+        if (tileMatcher.matches()) {
+            return "tile|" + tileMatcher.group(1) + "|" + tileMatcher.group(2) + "/" + tileMatcher.group(3) + "/" + tileMatcher.group(4);
+        }
+        String key = TOKEN_PARAMETER.matcher(url).replaceAll("$1");
+        if (key.endsWith("?") || key.endsWith("&")) {
+            key = key.substring(0, key.length() - 1);
+        }
+        return "url|" + key;
+    }
+
+    /**
+     * @param url {String} upstream URL.
+     * @param requestHeaders {Map} the layer's request headers, lower case names.
+     * @return {boolean} true if the request carries the user's credentials, so its response may be
+     *                   meant for that user only.
+     */
+    static boolean isSecured(String url, Map<String, String> requestHeaders) {
+        return TOKEN_PARAMETER.matcher(url).find() || requestHeaders.containsKey("authorization") || requestHeaders.containsKey("x-esri-authorization");
+    }
+
+    /**
+     * ArcGIS services answer an invalid or expired token (498, 499) and most other errors with a
+     * 200 and a JSON error object, which must not be stored as the resource.
+     * @return {boolean} true if the body is a JSON object whose first member is error.
+     */
+    static boolean isErrorJSON(String contentType, byte[] body) {
+        if ( ! isJSON(contentType, body)) {
+            return false;
+        }
+        try {
+            String start = new String(body, 0, Math.min(body.length, 64), "UTF-8");
+            return ERROR_JSON.matcher(start).find();
+        } catch (IOException exception) {
+            return false;
+        }
+    }
+
+    /**
+     * Work out when a response stops being fresh.
+     * @param now {long} when the response arrived.
+     * @param cacheControl {String} Cache-Control header, may be null.
+     * @param expires {String} Expires header, may be null.
+     * @param date {String} Date header, may be null.
+     * @param defaultMaxAge {long} milliseconds to use when the headers say nothing.
+     * @return {long} the time it expires, now if it must be revalidated every time, or -1 if it
+     *                must not be stored, which includes a response meant for one user only.
+     */
+    static long expiresAt(long now, String cacheControl, String expires, String date, long defaultMaxAge) {
+        if (cacheControl != null) {
+            String directives = cacheControl.toLowerCase(Locale.US);
+            if (directives.contains("no-store") || directives.contains("private")) {
+                return -1;
+            }
+            if (directives.contains("no-cache")) {
+                return now;
+            }
+            Matcher maxAgeMatcher = MAX_AGE.matcher(directives);
+            if (maxAgeMatcher.find()) {
+                return now + Long.parseLong(maxAgeMatcher.group(1)) * 1000L;
+            }
+        }
+        if (expires != null) {
+            long expiresTime = parseHttpDate(expires);
+            if (expiresTime < 0) {
+                return now; // an invalid Expires means already expired
+            }
+            long dateTime = date != null ? parseHttpDate(date) : -1;
+            return now + Math.max(0, expiresTime - (dateTime >= 0 ? dateTime : now));
+        }
+        return now + defaultMaxAge;
+    }
+
+    /**
+     * Make sure a URL is in the cache and fresh, for prefetching a region.
+     * @param url {String} upstream URL, not a proxied one.
+     * @return {long} bytes of the resource in the cache, whether it was downloaded or already there.
+     * @throws IOException if the service did not answer with the resource.
+     */
+    public long prefetch(String url) throws IOException {
+        return load(url).body.length;
+    }
+
+    /**
+     * Get a resource through the cache, for reading a style or service description to find what
+     * else to prefetch.
+     * @param url {String} upstream URL, not a proxied one.
+     * @return {byte[]} the resource as the service sent it.
+     * @throws IOException if the service did not answer with the resource.
+     */
+    public byte[] read(String url) throws IOException {
+        return load(url).body;
+    }
+
+    /**
+     * Ask the service whether a cached resource is still current even if the entry is fresh or kept
+     * in the style cache, for refreshing a style.
+     * @param url {String} upstream URL, not a proxied one.
+     * @return {byte[]} the resource as it is stored, the cached one if the service is unreachable.
+     * @throws IOException if the service did not answer with the resource and none is cached.
+     */
+    public byte[] revalidate(String url) throws IOException {
+        ProxyResponse response = get(url, new HashMap<String, String>(), true);
+        if (response.status != HttpURLConnection.HTTP_OK || "pass".equals(response.cacheStatus)) {
+            throw new IOException("Cannot fetch " + url + " (" + response.status + " " + response.cacheStatus + ")");
+        }
+        return response.body;
+    }
+
+    private ProxyResponse load(String url) throws IOException {
+        ProxyResponse response = get(url, new HashMap<String, String>(), false);
+        if (response.status != HttpURLConnection.HTTP_OK || "stale".equals(response.cacheStatus) || "pass".equals(response.cacheStatus)) {
+            throw new IOException("Cannot fetch " + url + " (" + response.status + " " + response.cacheStatus + ")");
+        }
+        return response;
+    }
+
+    /**
+     * Answer a GET, from the cache when the entry is fresh or is a style resource, otherwise from
+     * the service.
+     * @param url {String} upstream URL.
+     * @param requestHeaders {Map} the layer's request headers, lower case names.
+     * @param revalidate {boolean} true to ask the service even when the entry could be served.
+     * @return {ProxyResponse} the response to send back.
+     */
+    ProxyResponse get(final String url, final Map<String, String> requestHeaders, boolean revalidate) throws IOException {
+        VectorStyleCache styleCache = mStyleCache;
+        String styleKey = styleCache != null ? styleCache.keyFor(url) : null;
+        final DiskCache diskCache = styleKey != null ? styleCache.getDiskCache() : mDiskCache;
+        final String key = styleKey != null ? styleKey : cacheKeyFor(url);
+        final boolean compact = styleKey != null && VectorStyleCache.isStyleKey(styleKey);
+        final CachedResponse cachedResponse = readCachedResponse(diskCache, key);
+        if (cachedResponse != null && ! revalidate) {
+            if (System.currentTimeMillis() < cachedResponse.expiresAt) {
+                MetricsRegistry.getInstance().increment("tileProxy.hit");
+                return toProxyResponse(cachedResponse, "hit");
+            } else if (styleKey != null) {
+                // the style cache decides when style resources change
+                MetricsRegistry.getInstance().increment("tileProxy.pinned");
+                return toProxyResponse(cachedResponse, "pinned");
+            }
+        }
+        if (isSecured(url, requestHeaders)) {
+            // fetched with this user's credentials, neither stored nor shared with other requests
+            return fetch(url, diskCache, key, false, compact, requestHeaders, cachedResponse);
+        }
+        FutureTask<ProxyResponse> fetchTask = new FutureTask<>(new Callable<ProxyResponse>() {
+            @Override
+            public ProxyResponse call() throws IOException {
+                return fetch(url, diskCache, key, true, compact, requestHeaders, cachedResponse);
+            }
+        });
+        FutureTask<ProxyResponse> inFlightTask = mInFlight.putIfAbsent(key, fetchTask);
+        if (inFlightTask == null) {
+            try {
+                fetchTask.run();
+            } finally {
+                mInFlight.remove(key, fetchTask);
+            }
+            inFlightTask = fetchTask;
+        } else {
+            MetricsRegistry.getInstance().increment("tileProxy.shared");
+        }
+        try {
+            return inFlightTask.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for " + url);
+        } catch (ExecutionException exception) {
+            Throwable cause = exception.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Get a response from the service, conditionally if there is a stale entry to revalidate, and
+     * store it when store is true, JSON with its whitespace removed when compact is true.
+     */
+    private ProxyResponse fetch(String url, DiskCache diskCache, String key, boolean store, boolean compact, Map<String, String> requestHeaders, CachedResponse staleResponse) throws IOException {
+        long fetchStartNanos = System.nanoTime();
+        HttpURLConnection connection = null;
+        try {
+            connection = openConnection(url, "GET", requestHeaders);
+            if (staleResponse != null && staleResponse.eTag != null) {
+                connection.setRequestProperty("If-None-Match", staleResponse.eTag);
+            }
+            if (staleResponse != null && staleResponse.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", staleResponse.lastModified);
+            }
+            int status = connection.getResponseCode();
+            long now = System.currentTimeMillis();
+            long expiresAt = expiresAt(now, connection.getHeaderField("Cache-Control"), connection.getHeaderField("Expires"), connection.getHeaderField("Date"), mDefaultMaxAge);
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && staleResponse != null) {
+                CachedResponse revalidatedResponse = staleResponse.withExpiry(Math.max(expiresAt, now));
+                if (store) {
+                    writeCachedResponse(diskCache, key, revalidatedResponse);
+                }
+                MetricsRegistry.getInstance().recordSince("tileProxy.revalidate", fetchStartNanos, true);
+                MetricsRegistry.getInstance().increment("tileProxy.revalidated");
+                return toProxyResponse(revalidatedResponse, "revalidated");
+            }
+            byte[] body = readBody(connection, status);
+            if (status != HttpURLConnection.HTTP_OK) {
+                MetricsRegistry.getInstance().recordSince("tileProxy.fetch", fetchStartNanos, false);
+                if (staleResponse != null && status >= 500) {
+                    MetricsRegistry.getInstance().increment("tileProxy.stale");
+                    return toProxyResponse(staleResponse, "stale");
+                }
+                return new ProxyResponse(status, connection.getContentType(), connection.getContentEncoding(), body, "pass");
+            }
+            if (connection.getContentEncoding() == null && isErrorJSON(connection.getContentType(), body)) {
+                MetricsRegistry.getInstance().recordSince("tileProxy.fetch", fetchStartNanos, false);
+                MetricsRegistry.getInstance().increment("tileProxy.error");
+                return new ProxyResponse(status, connection.getContentType(), null, body, "pass");
+            }
+            if (compact && connection.getContentEncoding() == null && isJSON(connection.getContentType(), body)) {
+                body = VectorStyleCache.compactJSON(body);
+            }
+            CachedResponse fetchedResponse = new CachedResponse(expiresAt, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"),
+                    connection.getContentType(), connection.getContentEncoding(), body);
+            if (store && expiresAt >= 0) {
+                writeCachedResponse(diskCache, key, fetchedResponse);
+            }
+            MetricsRegistry.getInstance().recordSince("tileProxy.fetch", fetchStartNanos, true);
+            MetricsRegistry.getInstance().increment("tileProxy.miss");
+            return toProxyResponse(fetchedResponse, "miss");
+        } catch (IOException exception) {
+            MetricsRegistry.getInstance().recordSince("tileProxy.fetch", fetchStartNanos, false);
+            if (staleResponse != null) {
+                MetricsRegistry.getInstance().increment("tileProxy.stale");
+                return toProxyResponse(staleResponse, "stale");
+            }
+            throw exception;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Pass a request that is not a GET straight through.
+     */
+    private ProxyResponse forward(String method, String url, Map<String, String> requestHeaders, byte[] requestBody) throws IOException {
+        HttpURLConnection connection = openConnection(url, method, requestHeaders);
+        try {
+            if (requestBody != null && requestBody.length > 0) {
+                connection.setDoOutput(true);
+                connection.setFixedLengthStreamingMode(requestBody.length);
+                OutputStream outputStream = connection.getOutputStream();
+                try {
+                    outputStream.write(requestBody);
+                } finally {
+                    outputStream.close();
+                }
+            }
+            int status = connection.getResponseCode();
+            return new ProxyResponse(status, connection.getContentType(), connection.getContentEncoding(), readBody(connection, status), "pass");
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static ProxyResponse toProxyResponse(CachedResponse cachedResponse, String cacheStatus) {
+        return new ProxyResponse(HttpURLConnection.HTTP_OK, cachedResponse.contentType, cachedResponse.contentEncoding, cachedResponse.body, cacheStatus);
+    }
+
+    /**
+     * Entries are stored as the service sent them and rewritten when served to a layer, since the
+     * proxy port changes from one run to the next.
+     */
+    private ProxyResponse rewriteURLs(ProxyResponse response) {
+        if (response.status != HttpURLConnection.HTTP_OK || response.contentEncoding != null || ! isJSON(response.contentType, response.body)) {
+            return response;
+        }
+        return new ProxyResponse(response.status, response.contentType, response.contentEncoding, rewriteURLs(response.body), response.cacheStatus);
+    }
+
+    private byte[] rewriteURLs(byte[] body) {
+        String proxyBaseURL = mProxyBaseURL;
+        if (proxyBaseURL == null) {
+            return body;
+        }
+        try {
+            String json = new String(body, "UTF-8");
+            String rewritten = rewriteResourceURLs(json, proxyBaseURL);
+            return rewritten != json ? rewritten.getBytes("UTF-8") : body;
+        } catch (IOException exception) {
+            return body;
+        }
+    }
+
+    /**
+     * Point the resource URLs in json at proxyBaseURL. Returns json itself when there are none.
+     */
+    static String rewriteResourceURLs(String json, String proxyBaseURL) {
+        Matcher resourceMatcher = RESOURCE_URLS.matcher(json);
+        if ( ! resourceMatcher.find()) {
+            return json;
+        }
+        String urlReplacement = Matcher.quoteReplacement("\"" + proxyBaseURL) + "$1/";
+        StringBuffer rewritten = new StringBuffer(json.length() + 256);
+        do {
+            resourceMatcher.appendReplacement(rewritten, Matcher.quoteReplacement(ABSOLUTE_URL.matcher(resourceMatcher.group()).replaceAll(urlReplacement)));
+        } while (resourceMatcher.find());
+        resourceMatcher.appendTail(rewritten);
+        return rewritten.toString();
+    }
+
+    private static boolean isJSON(String contentType, byte[] body) {
+        if (contentType == null || body.length == 0) {
+            return false;
+        }
+        String type = contentType.toLowerCase(Locale.US);
+        // ArcGIS services often answer f=json with text/plain
+        return type.contains("json") || (type.startsWith("text/plain") && (body[0] == '{' || body[0] == '['));
+    }
+
+    private static HttpURLConnection openConnection(String url, String method, Map<String, String> requestHeaders) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setUseCaches(false);
+        connection.setInstanceFollowRedirects(true);
+        for (String headerName : FORWARDED_HEADERS) {
+            String headerValue = requestHeaders.get(headerName);
+            if (headerValue != null) {
+                connection.setRequestProperty(headerName, headerValue);
+            }
+        }
+        return connection;
+    }
+
+    private static byte[] readBody(HttpURLConnection connection, int status) throws IOException {
+        InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (inputStream == null) {
+            return new byte[0];
+        }
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream(Math.max(connection.getContentLength(), 1024));
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                body.write(buffer, 0, bytesRead);
+            }
+            return body.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Read requests from one connection until the layer closes it or it sits idle.
+     */
+    private void serveConnection(Socket socket) {
+        try {
+            socket.setSoTimeout(IDLE_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+            OutputStream outputStream = socket.getOutputStream();
+            boolean keepAlive = true;
+            while (keepAlive) {
+                String requestLine = readLine(inputStream);
+                if (requestLine == null) {
+                    break;
+                }
+                if (requestLine.length() == 0) {
+                    continue;
+                }
+                String[] requestParts = requestLine.split(" ");
+                Map<String, String> requestHeaders = new HashMap<>();
+                String headerLine;
+                while ((headerLine = readLine(inputStream)) != null && headerLine.length() > 0) {
+                    int separator = headerLine.indexOf(':');
+                    if (separator > 0) {
+                        requestHeaders.put(headerLine.substring(0, separator).trim().toLowerCase(Locale.US), headerLine.substring(separator + 1).trim());
+                    }
+                }
+                byte[] requestBody = readRequestBody(inputStream, requestHeaders);
+                keepAlive = ! "close".equalsIgnoreCase(requestHeaders.get("connection")) && (requestParts.length < 3 || ! "HTTP/1.0".equals(requestParts[2]));
+                ProxyResponse response;
+                String upstreamURL = requestParts.length >= 2 ? upstreamURL(requestParts[1]) : null;
+                if (upstreamURL == null) {
+                    response = new ProxyResponse(404, "text/plain", null, "Not a proxied URL".getBytes("UTF-8"), "pass");
+                } else {
+                    try {
+                        response = "GET".equals(requestParts[0])
+                                ? get(upstreamURL, requestHeaders, false)
+                                : forward(requestParts[0], upstreamURL, requestHeaders, requestBody);
+                    } catch (IOException exception) {
+                        response = new ProxyResponse(502, "text/plain", null, ("Bad gateway: " + exception.getMessage()).getBytes("UTF-8"), "error");
+                    }
+                }
+                writeResponse(outputStream, rewriteURLs(response), keepAlive, "HEAD".equals(requestParts[0]));
+            }
+        } catch (IOException exception) {
+            // the layer went away or the connection was idle too long
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+        }
+    }
+
+    private static void writeResponse(OutputStream outputStream, ProxyResponse response, boolean keepAlive, boolean headOnly) throws IOException {
+        StringBuilder header = new StringBuilder(256);
+        header.append("HTTP/1.1 ").append(response.status).append(' ').append(reasonPhrase(response.status)).append("\r\n");
+        if (response.contentType != null) {
+            header.append("Content-Type: ").append(response.contentType).append("\r\n");
+        }
+        if (response.contentEncoding != null) {
+            header.append("Content-Encoding: ").append(response.contentEncoding).append("\r\n");
+        }
+        header.append("Content-Length: ").append(response.body.length).append("\r\n");
+        header.append("X-Tile-Proxy: ").append(response.cacheStatus).append("\r\n");
+        header.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+        outputStream.write(header.toString().getBytes("ISO-8859-1"));
+        if ( ! headOnly) {
+            outputStream.write(response.body);
+        }
+        outputStream.flush();
+    }
+
+    private static byte[] readRequestBody(InputStream inputStream, Map<String, String> requestHeaders) throws IOException {
+        String contentLength = requestHeaders.get("content-length");
+        if (contentLength == null) {
+            return null;
+        }
+        int length;
+        try {
+            length = Integer.parseInt(contentLength.trim());
+        } catch (NumberFormatException exception) {
+            throw new IOException("Bad Content-Length " + contentLength);
+        }
+        byte[] body = new byte[length];
+        int offset = 0;
+        while (offset < length) {
+            int bytesRead = inputStream.read(body, offset, length - offset);
+            if (bytesRead < 0) {
+                throw new IOException("Request body ended early");
+            }
+            offset += bytesRead;
+        }
+        return body;
+    }
+
+    /**
+     * @return {String} one header line without its line end, or null at the end of the stream.
+     */
+    private static String readLine(InputStream inputStream) throws IOException {
+        StringBuilder line = new StringBuilder(128);
+        int character;
+        while ((character = inputStream.read()) != -1) {
+            if (character == '\n') {
+                int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+            }
+            if (line.length() >= MAX_HEADER_LINE) {
+                throw new SocketException("Header line too long");
+            }
+            line.append((char) character);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static String reasonPhrase(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 304:
+                return "Not Modified";
+            case 400:
+                return "Bad Request";
+            case 403:
+                return "Forbidden";
+            case 404:
+                return "Not Found";
+            case 500:
+                return "Internal Server Error";
+            case 502:
+                return "Bad Gateway";
+            default:
+                return "Status";
+        }
+    }
+
+    private static CachedResponse readCachedResponse(DiskCache diskCache, String key) {
+        byte[] data = diskCache.get(key);
+        if (data == null) {
+            return null;
+        }
+        try {
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
+            if (inputStream.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            long expiresAt = inputStream.readLong();
+            String eTag = readNullableString(inputStream);
+            String lastModified = readNullableString(inputStream);
+            String contentType = readNullableString(inputStream);
+            String contentEncoding = readNullableString(inputStream);
+            byte[] body = new byte[inputStream.readInt()];
+            inputStream.readFully(body);
+            return new CachedResponse(expiresAt, eTag, lastModified, contentType, contentEncoding, body);
+        } catch (IOException exception) {
+            diskCache.remove(key);
+            return null;
+        }
+    }
+
+    private static void writeCachedResponse(DiskCache diskCache, String key, CachedResponse cachedResponse) {
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream(cachedResponse.body.length + 256);
+            DataOutputStream outputStream = new DataOutputStream(byteStream);
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeLong(cachedResponse.expiresAt);
+            writeNullableString(outputStream, cachedResponse.eTag);
+            writeNullableString(outputStream, cachedResponse.lastModified);
+            writeNullableString(outputStream, cachedResponse.contentType);
+            writeNullableString(outputStream, cachedResponse.contentEncoding);
+            outputStream.writeInt(cachedResponse.body.length);
+            outputStream.write(cachedResponse.body);
+            outputStream.flush();
+            diskCache.put(key, byteStream.toByteArray());
+        } catch (IOException exception) {
+            // not cached, the response is still served
+        }
+    }
+
+    private static void writeNullableString(DataOutputStream outputStream, String value) throws IOException {
+        outputStream.writeBoolean(value != null);
+        if (value != null) {
+            outputStream.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream inputStream) throws IOException {
+        return inputStream.readBoolean() ? inputStream.readUTF() : null;
+    }
+
+    /**
+     * @return {long} the time of an RFC 1123 date, or -1 if it cannot be parsed.
+     */
+    private static long parseHttpDate(String httpDate) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return dateFormat.parse(httpDate.trim()).getTime();
+        } catch (ParseException exception) {
+            return -1;
+        }
+    }
+}
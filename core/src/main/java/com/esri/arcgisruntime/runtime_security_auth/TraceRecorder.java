@@ -0,0 +1,296 @@
+/**
+ * Record how long asynchronous operations take, as spans with parent/child links, and write them
+ * out in the Chrome trace-event JSON format so they can be opened in chrome://tracing or Perfetto.
+ *
+ * A span begins when an operation is started (beginRoot for a top level operation such as startup
+ * or a tap, begin with the parent span for anything it starts) and ends when the operation's done
+ * listener runs. Wrap the done listener with endAfter to end the span and make it the current span
+ * while the listener runs, so operations started from the listener with begin(name) become its
+ * children without passing span ids through every callback.
+ *
+ * Sampling is decided per root span: an unsampled root returns NO_SPAN and begin ignores NO_SPAN
+ * parents, so a whole trace is recorded or none of it, and an unsampled trace costs a random number.
+ * Completed spans go into a fixed size ring buffer, the oldest are overwritten, so the recorder can
+ * stay on in production and write the most recent activity when asked.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TraceRecorder {
+
+    public static final long NO_SPAN = 0;
+
+    private static final TraceRecorder sInstance = new TraceRecorder();
+
+    /**
+     * A recorded operation.
+     */
+    private static class Span {
+        final long id;
+        final long parentId;
+        final long rootId;
+        final String name;
+        final long threadId;
+        final long startMicros;
+        long durationMicros;
+
+        Span(long id, long parentId, long rootId, String name, long threadId, long startMicros) {
+            this.id = id;
+            this.parentId = parentId;
+            this.rootId = rootId;
+            this.name = name;
+            this.threadId = threadId;
+            this.startMicros = startMicros;
+        }
+    }
+
+    private volatile boolean mEnabled = false;
+    private volatile double mSampleRate = 1.0;
+    private final Random mRandom = new Random();
+    private final AtomicLong mNextId = new AtomicLong(1);
+    private final ConcurrentHashMap<Long, Span> mOpenSpans = new ConcurrentHashMap<>();
+    private final ThreadLocal<Span> mCurrentSpan = new ThreadLocal<>();
+    private Span[] mCompletedSpans = new Span[0];
+    private int mNextSlot = 0;
+    private int mCompletedCount = 0;
+
+    /**
+     * @return {TraceRecorder} the recorder used throughout the app.
+     */
+    public static TraceRecorder getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Start recording.
+     * @param sampleRate {double} fraction of root spans to record, 0 to 1.
+     * @param bufferSize {int} number of completed spans to keep.
+     */
+    public synchronized void enable(double sampleRate, int bufferSize) {
+        mSampleRate = Math.max(0, Math.min(sampleRate, 1));
+        if (mCompletedSpans.length != bufferSize) {
+            mCompletedSpans = new Span[Math.max(1, bufferSize)];
+            mNextSlot = 0;
+            mCompletedCount = 0;
+        }
+        mEnabled = true;
+    }
+
+    /**
+     * Stop recording. Spans already begun are dropped when they end.
+     */
+    public synchronized void disable() {
+        mEnabled = false;
+        mOpenSpans.clear();
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Begin a top level span, if this trace is sampled.
+     * @param name {String} what the operation is.
+     * @return {long} the span id, or NO_SPAN if the trace is not recorded.
+     */
+    public long beginRoot(String name) {
+        if ( ! mEnabled || (mSampleRate < 1.0 && mRandom.nextDouble() >= mSampleRate)) {
+            return NO_SPAN;
+        }
+        return begin(name, NO_SPAN, NO_SPAN);
+    }
+
+    /**
+     * Begin a span as a child of another one.
+     * @param name {String} what the operation is.
+     * @param parentId {long} the parent span, NO_SPAN if the trace is not recorded.
+     * @return {long} the span id, or NO_SPAN if the trace is not recorded.
+     */
+    public long begin(String name, long parentId) {
+        if ( ! mEnabled || parentId == NO_SPAN) {
+            return NO_SPAN;
+        }
+        Span parent = mOpenSpans.get(parentId);
+        return begin(name, parentId, parent != null ? parent.rootId : parentId);
+    }
+
+    /**
+     * Begin a span as a child of the current span of this thread, see runInSpan, or as a new trace
+     * if there is none. Use this where an operation can be started both on its own and as part of
+     * something else, for example a login from the menu or during startup.
+     * @param name {String} what the operation is.
+     * @return {long} the span id, or NO_SPAN if the trace is not recorded.
+     */
+    public long begin(String name) {
+        Span currentSpan = mCurrentSpan.get();
+        if (currentSpan == null) {
+            return beginRoot(name);
+        }
+        return mEnabled ? begin(name, currentSpan.id, currentSpan.rootId) : NO_SPAN;
+    }
+
+    /**
+     * @return {long} the span whose work is running on this thread, or NO_SPAN.
+     */
+    public long currentSpan() {
+        Span currentSpan = mCurrentSpan.get();
+        return currentSpan != null ? currentSpan.id : NO_SPAN;
+    }
+
+    /**
+     * @param rootId {long} the trace the span is in, NO_SPAN for a new trace.
+     */
+    private long begin(String name, long parentId, long rootId) {
+        long id = mNextId.getAndIncrement();
+        mOpenSpans.put(id, new Span(id, parentId, rootId != NO_SPAN ? rootId : id, name, Thread.currentThread().getId(), nowMicros()));
+        return id;
+    }
+
+    /**
+     * End a span.
+     * @param spanId {long} from begin, NO_SPAN is ignored.
+     */
+    public void end(long spanId) {
+        if (spanId == NO_SPAN) {
+            return;
+        }
+        Span span = mOpenSpans.remove(spanId);
+        if (span == null) {
+            return;
+        }
+        span.durationMicros = nowMicros() - span.startMicros;
+        synchronized (this) {
+            if (mEnabled) {
+                mCompletedSpans[mNextSlot] = span;
+                mNextSlot = (mNextSlot + 1) % mCompletedSpans.length;
+                mCompletedCount = Math.min(mCompletedCount + 1, mCompletedSpans.length);
+            }
+        }
+    }
+
+    /**
+     * Wrap a done listener so the span ends when the listener runs, and is the current span of the
+     * thread while it runs.
+     * @param spanId {long} from begin, with NO_SPAN the listener is returned as it is.
+     * @param listener {Runnable} the done listener.
+     * @return {Runnable} the listener to register.
+     */
+    public Runnable endAfter(final long spanId, final Runnable listener) {
+        if (spanId == NO_SPAN) {
+            return listener;
+        }
+        return new Runnable() {
+            @Override
+            public void run() {
+                Span span = mOpenSpans.get(spanId);
+                end(spanId);
+                runInSpan(span, listener);
+            }
+        };
+    }
+
+    /**
+     * Run some work with a span as the current span of this thread, so the operations it starts
+     * with begin(name) become children of the span.
+     * @param spanId {long} from begin, with NO_SPAN the work just runs.
+     * @param work {Runnable}
+     */
+    public void runInSpan(long spanId, Runnable work) {
+        runInSpan(spanId != NO_SPAN ? mOpenSpans.get(spanId) : null, work);
+    }
+
+    private void runInSpan(Span span, Runnable work) {
+        if (span == null) {
+            work.run();
+            return;
+        }
+        Span previousSpan = mCurrentSpan.get();
+        mCurrentSpan.set(span);
+        try {
+            work.run();
+        } finally {
+            mCurrentSpan.set(previousSpan);
+        }
+    }
+
+    /**
+     * Write the completed spans, oldest first, as Chrome trace-event JSON. Each trace is an async
+     * track named by its root span so children nest under their root even when they end on another
+     * thread.
+     * @param traceFile {File} the file to write, replaced if it exists.
+     * @throws IOException
+     */
+    public void writeTo(File traceFile) throws IOException {
+        Span[] spans;
+        synchronized (this) {
+            spans = new Span[mCompletedCount];
+            int firstSlot = (mNextSlot - mCompletedCount + mCompletedSpans.length) % mCompletedSpans.length;
+            for (int i = 0; i < mCompletedCount; i ++) {
+                spans[i] = mCompletedSpans[(firstSlot + i) % mCompletedSpans.length];
+            }
+        }
+        File temporaryFile = new File(traceFile.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temporaryFile), "UTF-8");
+        try {
+            writer.write("{\"traceEvents\":[");
+            StringBuilder event = new StringBuilder(256);
+            for (int i = 0; i < spans.length; i ++) {
+                Span span = spans[i];
+                event.setLength(0);
+                if (i > 0) {
+                    event.append(",\n");
+                }
+                appendEvent(event, span, "b", span.startMicros);
+                event.append(",\n");
+                appendEvent(event, span, "e", span.startMicros + span.durationMicros);
+                writer.write(event.toString());
+            }
+            writer.write("]}");
+        } finally {
+            writer.close();
+        }
+        if ( ! temporaryFile.renameTo(traceFile)) {
+            temporaryFile.delete();
+            throw new IOException("Cannot write " + traceFile);
+        }
+    }
+
+    private static void appendEvent(StringBuilder event, Span span, String phase, long timestampMicros) {
+        event.append("{\"name\":\"");
+        appendEscaped(event, span.name);
+        event.append("\",\"cat\":\"app\",\"ph\":\"").append(phase)
+                .append("\",\"id\":\"").append(span.rootId)
+                .append("\",\"pid\":1,\"tid\":").append(span.threadId)
+                .append(",\"ts\":").append(timestampMicros);
+        if ("b".equals(phase)) {
+            event.append(",\"args\":{\"span\":").append(span.id).append(",\"parent\":").append(span.parentId).append('}');
+        }
+        event.append('}');
+    }
+
+    private static void appendEscaped(StringBuilder builder, String value) {
+        for (int i = 0; i < value.length(); i ++) {
+            char character = value.charAt(i);
+            if (character == '"' || character == '\\') {
+                builder.append('\\').append(character);
+            } else if (character < 0x20) {
+                builder.append(String.format("\\u%04x", (int) character));
+            } else {
+                builder.append(character);
+            }
+        }
+    }
+
+    private static long nowMicros() {
+        return System.nanoTime() / 1000;
+    }
+}
@@ -0,0 +1,397 @@
+/**
+ * Keep vector tile styles and the resources they name (the vector tile service descriptions,
+ * sprites and glyph ranges) on disk apart from the tiles, so the vector tile layer can start drawing
+ * without waiting on the network. The TileProxy asks this cache which requests are style resources
+ * and serves them from here without revalidating them first, however old they are.
+ *
+ * A style's resources are stored under keys that carry the style's version, a checksum of the
+ * style. Only the style itself is revalidated, in the background once per run. When it changes
+ * the new version's resources are downloaded in parallel and the old version's are dropped, so the
+ * style and its resources always change together. Styles are stored with the whitespace removed
+ * and what the style points at is kept in a small binary manifest, so a run does not have to parse
+ * the style to know what to serve or to download.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+public class VectorStyleCache {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String GLYPH_RANGE = "0-255"; // the range every label needs first, Latin text
+    private static final String[] SPRITE_SUFFIXES = { ".json", ".png", "@2x.json", "@2x.png" };
+
+    // define callback interface for reading the resources out of a style
+    public interface StyleParser {
+        /**
+         * @param styleURL {String} where the style came from, relative URLs in it are resolved against it.
+         * @param style {byte[]} the style JSON.
+         * @return {StyleResources} what the style points at.
+         * @throws Exception if the style cannot be parsed.
+         */
+        StyleResources parse(String styleURL, byte[] style) throws Exception;
+    }
+
+    /**
+     * What a style points at, with relative URLs already resolved.
+     */
+    public static class StyleResources {
+        public final List<String> sourceURLs; // vector tile service URLs
+        public final String spriteURL; // without the .json or .png suffix, null if the style has no sprites
+        public final String glyphsURL; // with {fontstack} and {range} in it, null if the style has no labels
+        public final List<String> fontStacks; // each distinct text-font list, comma separated
+
+        public StyleResources(List<String> sourceURLs, String spriteURL, String glyphsURL, List<String> fontStacks) {
+            this.sourceURLs = Collections.unmodifiableList(new ArrayList<>(sourceURLs));
+            this.spriteURL = spriteURL;
+            this.glyphsURL = glyphsURL;
+            this.fontStacks = Collections.unmodifiableList(new ArrayList<>(fontStacks));
+        }
+
+        /**
+         * @return {List} the URL of each service description, sprite file and glyph range the
+         *                layer requests before it can draw labelled tiles.
+         */
+        public List<String> resourceURLs() {
+            List<String> resourceURLs = new ArrayList<>();
+            for (String sourceURL : sourceURLs) {
+                resourceURLs.add(sourceURL + "?f=json");
+            }
+            if (spriteURL != null) {
+                for (String suffix : SPRITE_SUFFIXES) {
+                    resourceURLs.add(spriteURL + suffix);
+                }
+            }
+            if (glyphsURL != null) {
+                for (String fontStack : fontStacks) {
+                    resourceURLs.add(glyphsURL.replace("{fontstack}", encodePathSegment(fontStack)).replace("{range}", GLYPH_RANGE));
+                }
+            }
+            return resourceURLs;
+        }
+
+        /**
+         * @param url {String} a URL without its query.
+         * @return {boolean} true if the URL is one of the style's service descriptions, sprites or glyphs.
+         */
+        boolean contains(String url) {
+            if (spriteURL != null && url.startsWith(spriteURL)) {
+                return true;
+            }
+            int fontStackStart = glyphsURL != null ? glyphsURL.indexOf("{fontstack}") : -1;
+            if (fontStackStart > 0 && url.startsWith(glyphsURL.substring(0, fontStackStart))) {
+                return true;
+            }
+            String path = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+            return sourceURLs.contains(path);
+        }
+    }
+
+    /**
+     * A style version and its resources, what is kept on disk for the next run.
+     */
+    static class StyleManifest {
+        final String version;
+        final StyleResources resources;
+
+        StyleManifest(String version, StyleResources resources) {
+            this.version = version;
+            this.resources = resources;
+        }
+    }
+
+    private final DiskCache mDiskCache;
+    private final StyleParser mStyleParser;
+    private final int mParallelism;
+    private final ExecutorService mRefreshExecutor = Executors.newSingleThreadExecutor();
+    private final ConcurrentHashMap<String, StyleManifest> mManifests = new ConcurrentHashMap<>();
+    private final Set<String> mStyleURLs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> mRefreshedStyleURLs = new HashSet<>(); // only used on the refresh thread
+
+    /**
+     * Construct a style cache.
+     * @param diskCache - where styles, their resources and manifests are stored, apart from the tiles
+     *                  so tiles cannot push them out.
+     * @param styleParser - reads the resources out of a style.
+     * @param parallelism - resources downloaded at the same time when a style changes.
+     */
+    public VectorStyleCache(DiskCache diskCache, StyleParser styleParser, int parallelism) {
+        this.mDiskCache = diskCache;
+        this.mStyleParser = styleParser;
+        this.mParallelism = parallelism;
+    }
+
+    DiskCache getDiskCache() {
+        return mDiskCache;
+    }
+
+    /**
+     * Drop the stored styles, their resources and manifests, for example when the user logs out.
+     * Styles still open are cached again as the layer requests them, and revalidated the next time
+     * they are opened.
+     */
+    public void clear() {
+        mRefreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mManifests.clear();
+                mRefreshedStyleURLs.clear();
+                mDiskCache.clear();
+            }
+        });
+    }
+
+    /**
+     * Start serving a style and its resources from this cache. The style's manifest is read and
+     * the style revalidated on a background thread, until the manifest is read the style's
+     * resources go through the tile cache. Call it before the layer is created.
+     * @param styleURL {String} the style URL as given to the layer, not a proxied one.
+     * @param tileProxy {TileProxy} the proxy the layer requests the style through, used to revalidate it.
+     */
+    public void open(final String styleURL, final TileProxy tileProxy) {
+        mStyleURLs.add(styleURL);
+        mRefreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if ( ! mManifests.containsKey(styleURL)) {
+                    StyleManifest manifest = readManifest(styleURL);
+                    if (manifest != null) {
+                        mManifests.putIfAbsent(styleURL, manifest);
+                    }
+                }
+                if (mRefreshedStyleURLs.add(styleURL)) {
+                    refresh(styleURL, tileProxy);
+                }
+            }
+        });
+    }
+
+    /**
+     * The key a style resource is stored under.
+     * @param url {String} upstream URL of a request.
+     * @return {String} the key in this cache's DiskCache, or null if the URL is not a style or a
+     *                  resource of a style that was opened.
+     */
+    String keyFor(String url) {
+        int queryStart = url.indexOf('?');
+        String path = queryStart >= 0 ? url.substring(0, queryStart) : url;
+        if (mStyleURLs.contains(path)) {
+            return styleKey(path);
+        }
+        for (StyleManifest manifest : mManifests.values()) {
+            if (manifest.resources.contains(path)) {
+                return resourceKey(manifest.version, url);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param key {String} a key returned by keyFor.
+     * @return {boolean} true if it is the key of a style rather than of one of its resources.
+     */
+    static boolean isStyleKey(String key) {
+        return key.startsWith("style|");
+    }
+
+    /**
+     * Revalidate a style and, if it is new or changed, record its resources under the new version,
+     * download them and drop the old version's.
+     */
+    private void refresh(final String styleURL, TileProxy tileProxy) {
+        long refreshStartNanos = System.nanoTime();
+        final StyleManifest manifest;
+        try {
+            byte[] style = tileProxy.revalidate(styleURL);
+            String version = versionOf(style);
+            StyleManifest oldManifest = mManifests.get(styleURL);
+            if (oldManifest != null && oldManifest.version.equals(version)) {
+                MetricsRegistry.getInstance().recordSince("styleCache.refresh", refreshStartNanos, true);
+                return;
+            }
+            manifest = new StyleManifest(version, mStyleParser.parse(styleURL, style));
+            mManifests.put(styleURL, manifest);
+            writeManifest(styleURL, manifest);
+            if (oldManifest != null) {
+                for (String resourceURL : oldManifest.resources.resourceURLs()) {
+                    mDiskCache.remove(resourceKey(oldManifest.version, resourceURL));
+                }
+                MetricsRegistry.getInstance().increment("styleCache.versionChanged");
+            }
+            MetricsRegistry.getInstance().recordSince("styleCache.refresh", refreshStartNanos, true);
+        } catch (Exception exception) {
+            MetricsRegistry.getInstance().recordSince("styleCache.refresh", refreshStartNanos, false);
+            return;
+        }
+        final TileProxy proxy = tileProxy;
+        new RegionPrefetchJob(manifest.resources.resourceURLs(), new RegionPrefetchJob.ItemFetcher() {
+            @Override
+            public long fetch(String item) throws Exception {
+                return proxy.prefetch(item);
+            }
+        }, mParallelism, null).start(new RegionPrefetchJob.ProgressListener() {
+            @Override
+            public void onProgress(RegionPrefetchJob.Progress progress) {
+                // nobody is waiting on it
+            }
+
+            @Override
+            public void onFinished(RegionPrefetchJob.Progress progress) {
+                MetricsRegistry.getInstance().increment(progress.failedItems == 0 ? "styleCache.warmed" : "styleCache.warmFailed");
+            }
+        });
+    }
+
+    /**
+     * Remove the whitespace between the tokens of a JSON document. Works on the UTF-8 bytes, the
+     * bytes of multi-byte characters are never ASCII so they are copied as they are.
+     * @param json {byte[]} UTF-8 JSON.
+     * @return {byte[]} the same document without insignificant whitespace.
+     */
+    public static byte[] compactJSON(byte[] json) {
+        ByteArrayOutputStream compact = new ByteArrayOutputStream(json.length);
+        boolean inString = false;
+        boolean escaped = false;
+        for (byte character : json) {
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (character == '\\') {
+                    escaped = true;
+                } else if (character == '"') {
+                    inString = false;
+                }
+            } else if (character == '"') {
+                inString = true;
+            } else if (character == ' ' || character == '\n' || character == '\r' || character == '\t') {
+                continue;
+            }
+            compact.write(character);
+        }
+        return compact.toByteArray();
+    }
+
+    /**
+     * @return {String} the version of a style, a checksum of its compacted form.
+     */
+    static String versionOf(byte[] style) {
+        CRC32 checksum = new CRC32();
+        checksum.update(style);
+        return Long.toHexString(checksum.getValue()) + "-" + Integer.toHexString(style.length);
+    }
+
+    private static String styleKey(String styleURL) {
+        return "style|" + styleURL;
+    }
+
+    private static String resourceKey(String version, String url) {
+        return "resource|" + version + "|" + TileProxy.cacheKeyFor(url);
+    }
+
+    private static String manifestKey(String styleURL) {
+        return "manifest|" + styleURL;
+    }
+
+    /**
+     * Percent-encode a font stack for a glyph URL path.
+     */
+    static String encodePathSegment(String value) {
+        StringBuilder encoded = new StringBuilder(value.length() + 16);
+        byte[] bytes;
+        try {
+            bytes = value.getBytes("UTF-8");
+        } catch (IOException exception) {
+            return value;
+        }
+        for (byte character : bytes) {
+            int unsigned = character & 0xff;
+            if ((unsigned >= 'a' && unsigned <= 'z') || (unsigned >= 'A' && unsigned <= 'Z') || (unsigned >= '0' && unsigned <= '9')
+                    || unsigned == '-' || unsigned == '_' || unsigned == '.' || unsigned == '~') {
+                encoded.append((char) unsigned);
+            } else {
+                encoded.append('%').append(Character.toUpperCase(Character.forDigit(unsigned >> 4, 16))).append(Character.toUpperCase(Character.forDigit(unsigned & 0xf, 16)));
+            }
+        }
+        return encoded.toString();
+    }
+
+    private void writeManifest(String styleURL, StyleManifest manifest) {
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream(1024);
+            DataOutputStream outputStream = new DataOutputStream(byteStream);
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeUTF(manifest.version);
+            writeStrings(outputStream, manifest.resources.sourceURLs);
+            writeNullableString(outputStream, manifest.resources.spriteURL);
+            writeNullableString(outputStream, manifest.resources.glyphsURL);
+            writeStrings(outputStream, manifest.resources.fontStacks);
+            outputStream.flush();
+            mDiskCache.put(manifestKey(styleURL), byteStream.toByteArray());
+        } catch (IOException exception) {
+            // not kept, the next run parses the style again
+        }
+    }
+
+    private StyleManifest readManifest(String styleURL) {
+        byte[] data = mDiskCache.get(manifestKey(styleURL));
+        if (data == null) {
+            return null;
+        }
+        try {
+            DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(data));
+            if (inputStream.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            String version = inputStream.readUTF();
+            List<String> sourceURLs = readStrings(inputStream);
+            String spriteURL = readNullableString(inputStream);
+            String glyphsURL = readNullableString(inputStream);
+            List<String> fontStacks = readStrings(inputStream);
+            return new StyleManifest(version, new StyleResources(sourceURLs, spriteURL, glyphsURL, fontStacks));
+        } catch (IOException exception) {
+            mDiskCache.remove(manifestKey(styleURL));
+            return null;
+        }
+    }
+
+    private static void writeStrings(DataOutputStream outputStream, List<String> values) throws IOException {
+        outputStream.writeInt(values.size());
+        for (String value : values) {
+            outputStream.writeUTF(value);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream inputStream) throws IOException {
+        int count = inputStream.readInt();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i ++) {
+            values.add(inputStream.readUTF());
+        }
+        return values;
+    }
+
+    private static void writeNullableString(DataOutputStream outputStream, String value) throws IOException {
+        outputStream.writeBoolean(value != null);
+        if (value != null) {
+            outputStream.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream inputStream) throws IOException {
+        return inputStream.readBoolean() ? inputStream.readUTF() : null;
+    }
+}
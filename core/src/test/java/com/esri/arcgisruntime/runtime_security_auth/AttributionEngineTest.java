@@ -0,0 +1,85 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AttributionEngineTest {
+
+    private static AttributionEngine.Contributor contributor(String attribution, AttributionEngine.CoverageArea... areas) {
+        return new AttributionEngine.Contributor(attribution, Arrays.asList(areas));
+    }
+
+    private static AttributionEngine engine() {
+        AttributionEngine attributionEngine = new AttributionEngine();
+        attributionEngine.setLayers(Arrays.asList("labels", "imagery"));
+        attributionEngine.setLayerAttribution("labels", "Esri", null);
+        attributionEngine.setLayerAttribution("imagery", null, Arrays.asList(
+                contributor("West Data", new AttributionEngine.CoverageArea(0, 23, 50, -10, -10, 0, 10)),
+                contributor("East Data", new AttributionEngine.CoverageArea(5, 23, 90, 0, -10, 10, 10)),
+                contributor("World Data", new AttributionEngine.CoverageArea(0, 4, 10, -180, -85, 180, 85))));
+        return attributionEngine;
+    }
+
+    @Test
+    public void creditsWhatIsVisibleAtTheZoom() {
+        AttributionEngine attributionEngine = engine();
+        assertEquals("Esri, West Data", attributionEngine.getAttribution(-8, -1, -2, 1, 10));
+        assertEquals("Esri, East Data, West Data", attributionEngine.getAttribution(-2, -1, 2, 1, 10)); // higher score first
+        assertEquals("Esri, West Data, World Data", attributionEngine.getAttribution(-2, -1, 2, 1, 3));
+        assertEquals("Esri", attributionEngine.getAttribution(50, 50, 60, 60, 10));
+    }
+
+    @Test
+    public void cachedAttributionAlwaysMatchesAFreshLookup() {
+        AttributionEngine cachingEngine = engine();
+        Random random = new Random(3);
+        double west = -6;
+        double south = -2;
+        int zoom = 8;
+        for (int i = 0; i < 2000; i ++) {
+            west += (random.nextDouble() - 0.5) * 2;
+            south += (random.nextDouble() - 0.5) * 2;
+            if (random.nextInt(20) == 0) {
+                zoom = random.nextInt(AttributionEngine.MAX_ZOOM + 1);
+            }
+            String expected = engine().getAttribution(west, south, west + 4, south + 4, zoom);
+            assertEquals("step " + i, expected, cachingEngine.getAttribution(west, south, west + 4, south + 4, zoom));
+        }
+    }
+
+    @Test
+    public void newLayerAttributionReplacesTheCachedAnswer() {
+        AttributionEngine attributionEngine = engine();
+        assertEquals("Esri, West Data", attributionEngine.getAttribution(-8, -1, -2, 1, 10));
+        attributionEngine.setLayerAttribution("labels", "Esri, HERE", null);
+        assertEquals("Esri, HERE, West Data", attributionEngine.getAttribution(-8, -1, -2, 1, 10));
+    }
+
+    @Test
+    public void layersThatAreGoneAreForgotten() {
+        AttributionEngine attributionEngine = engine();
+        assertFalse(attributionEngine.setLayers(Arrays.asList("labels", "imagery")));
+        assertTrue(attributionEngine.setLayers(Collections.singletonList("imagery")));
+        assertFalse(attributionEngine.hasLayerAttribution("labels"));
+        assertTrue(attributionEngine.hasLayerAttribution("imagery"));
+        assertEquals("West Data", attributionEngine.getAttribution(-8, -1, -2, 1, 10));
+        attributionEngine.setLayerAttribution("unknown", "Nobody", new ArrayList<AttributionEngine.Contributor>());
+        assertFalse(attributionEngine.hasLayerAttribution("unknown"));
+    }
+
+    @Test
+    public void zoomForScale() {
+        assertEquals(0, AttributionEngine.zoomForScale(591657527.591555));
+        assertEquals(10, AttributionEngine.zoomForScale(577790.554289));
+        assertEquals(AttributionEngine.MAX_ZOOM, AttributionEngine.zoomForScale(0));
+        assertEquals(AttributionEngine.MAX_ZOOM, AttributionEngine.zoomForScale(1));
+        assertEquals(0, AttributionEngine.zoomForScale(1e12));
+    }
+}
@@ -0,0 +1,74 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class BasemapQueryCacheTest {
+
+    private static final long TTL = 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static BasemapQueryCache.CachedItem item(String itemId, String title, long modified) {
+        return new BasemapQueryCache.CachedItem(itemId, title, itemId + ".png", modified);
+    }
+
+    @Test
+    public void sameItemsMakeNoDifference() {
+        BasemapQueryCache.Difference difference = BasemapQueryCache.difference(
+                Arrays.asList(item("a", "Streets", 1), item("b", "Topo", 2)),
+                Arrays.asList(item("b", "Topo", 2), item("a", "Streets", 1)));
+        assertTrue(difference.isEmpty());
+    }
+
+    @Test
+    public void differenceFindsAddedChangedAndRemovedItems() {
+        BasemapQueryCache.Difference difference = BasemapQueryCache.difference(
+                Arrays.asList(item("a", "Streets", 1), item("b", "Topo", 2), item("c", "Imagery", 3)),
+                Arrays.asList(item("a", "Streets", 1), item("b", "Topo", 5), item("c", "Satellite", 3), item("d", "Oceans", 4)));
+        assertEquals(Arrays.asList("b", "c", "d"), difference.addedOrChangedIds);
+        assertTrue(difference.removedIds.isEmpty());
+
+        difference = BasemapQueryCache.difference(
+                Arrays.asList(item("a", "Streets", 1), item("b", "Topo", 2)),
+                Collections.singletonList(item("b", "Topo", 2)));
+        assertTrue(difference.addedOrChangedIds.isEmpty());
+        assertEquals(Collections.singletonList("a"), difference.removedIds);
+    }
+
+    @Test
+    public void changedThumbnailIsAChange() {
+        BasemapQueryCache.Difference difference = BasemapQueryCache.difference(
+                Collections.singletonList(new BasemapQueryCache.CachedItem("a", "Streets", "old.png", 1)),
+                Collections.singletonList(new BasemapQueryCache.CachedItem("a", "Streets", "new.png", 1)));
+        assertEquals(Collections.singletonList("a"), difference.addedOrChangedIds);
+    }
+
+    @Test
+    public void storedQueryIsServedUntilTheTimeToLive() throws Exception {
+        BasemapQueryCache queryCache = new BasemapQueryCache(mFolder.newFolder("queries"), TTL);
+        queryCache.put("portal|user", new BasemapQueryCache.CachedQuery("group", 1000L, Arrays.asList(item("a", null, 1), item("b", "Topo", 2))));
+        BasemapQueryCache.CachedQuery cachedQuery = queryCache.get("portal|user", 1000L + TTL);
+        assertNotNull(cachedQuery);
+        assertEquals("group", cachedQuery.groupId);
+        assertEquals(2, cachedQuery.items.size());
+        assertNull(cachedQuery.items.get(0).title);
+        assertTrue(cachedQuery.items.get(1).isSameRevision(item("b", "Topo", 2)));
+        assertNull(queryCache.get("portal|user", 1000L + TTL + 1));
+        assertNull(queryCache.get("portal|user", 999L));
+        assertNull(queryCache.get("other|user", 1000L));
+    }
+
+    @Test
+    public void damagedEntryIsDropped() {
+        assertNull(BasemapQueryCache.decode(new byte[] { 0, 0, 0, 1 }));
+        assertNull(BasemapQueryCache.decode(new byte[] { 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 0 }));
+    }
+}
@@ -0,0 +1,102 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+public class DiskCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void putThenGetReturnsTheBytes() throws Exception {
+        DiskCache diskCache = new DiskCache(mFolder.newFolder("cache"), 1024);
+        assertTrue(diskCache.put("key", new byte[] { 1, 2, 3 }));
+        assertArrayEquals(new byte[] { 1, 2, 3 }, diskCache.get("key"));
+        assertTrue(diskCache.contains("key"));
+        assertEquals(3, diskCache.getCurrentBytes());
+        assertNull(diskCache.get("other"));
+    }
+
+    @Test
+    public void putReplacesTheEntryForTheSameKey() throws Exception {
+        DiskCache diskCache = new DiskCache(mFolder.newFolder("cache"), 1024);
+        diskCache.put("key", new byte[10]);
+        diskCache.put("key", new byte[4]);
+        assertEquals(4, diskCache.get("key").length);
+        assertEquals(4, diskCache.getCurrentBytes());
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvictedFirst() throws Exception {
+        DiskCache diskCache = new DiskCache(mFolder.newFolder("cache"), 30);
+        diskCache.put("a", new byte[10]);
+        diskCache.put("b", new byte[10]);
+        diskCache.put("c", new byte[10]);
+        diskCache.get("a");
+        diskCache.put("d", new byte[10]);
+        assertTrue(diskCache.contains("a"));
+        assertFalse(diskCache.contains("b"));
+        assertTrue(diskCache.contains("c"));
+        assertTrue(diskCache.contains("d"));
+        assertEquals(30, diskCache.getCurrentBytes());
+    }
+
+    @Test
+    public void entryLargerThanTheCacheIsRefused() throws Exception {
+        DiskCache diskCache = new DiskCache(mFolder.newFolder("cache"), 8);
+        assertFalse(diskCache.put("key", new byte[9]));
+        assertFalse(diskCache.contains("key"));
+    }
+
+    @Test
+    public void removeAndClearDeleteTheFiles() throws Exception {
+        File directory = mFolder.newFolder("cache");
+        DiskCache diskCache = new DiskCache(directory, 1024);
+        diskCache.put("a", new byte[10]);
+        diskCache.put("b", new byte[10]);
+        diskCache.remove("a");
+        assertNull(diskCache.get("a"));
+        assertEquals(1, directory.listFiles().length);
+        diskCache.clear();
+        assertEquals(0, diskCache.getCurrentBytes());
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void constructingDoesNotTouchTheDirectory() throws Exception {
+        File directory = mFolder.newFolder("cache");
+        File leftOver = new File(directory, "entry.tmp");
+        new FileOutputStream(leftOver).close();
+        DiskCache diskCache = new DiskCache(directory, 1024);
+        assertTrue(leftOver.exists());
+        diskCache.getCurrentBytes();
+        assertFalse(leftOver.exists()); // indexed on first use, left over temp files are deleted
+    }
+
+    @Test
+    public void entriesSurviveARestartInAccessOrder() throws Exception {
+        File directory = mFolder.newFolder("cache");
+        DiskCache diskCache = new DiskCache(directory, 30);
+        diskCache.put("a", new byte[10]);
+        new File(directory, DiskCache.fileNameForKey("a")).setLastModified(1000000L);
+        diskCache.put("b", new byte[10]);
+        new File(directory, DiskCache.fileNameForKey("b")).setLastModified(3000000L);
+        diskCache.put("c", new byte[10]);
+        new File(directory, DiskCache.fileNameForKey("c")).setLastModified(2000000L);
+
+        DiskCache restarted = new DiskCache(directory, 30);
+        assertEquals(30, restarted.getCurrentBytes());
+        assertArrayEquals(new byte[10], restarted.get("b"));
+        restarted.put("d", new byte[10]);
+        assertFalse(restarted.contains("a")); // oldest modified time goes first
+        assertTrue(restarted.contains("b"));
+        assertTrue(restarted.contains("c"));
+    }
+}
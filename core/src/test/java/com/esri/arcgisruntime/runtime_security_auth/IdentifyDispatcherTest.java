@@ -0,0 +1,101 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.*;
+
+public class IdentifyDispatcherTest {
+
+    /**
+     * Records the generations it was started for and hands out futures that never complete on
+     * their own.
+     */
+    private static class RecordingTask implements IdentifyDispatcher.IdentifyTask {
+        final List<Integer> startedGenerations = new ArrayList<>();
+        final List<FutureTask<Void>> futures = new ArrayList<>();
+
+        @Override
+        public Future<?> start(int generation) {
+            startedGenerations.add(generation);
+            FutureTask<Void> future = new FutureTask<>(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }, null);
+            futures.add(future);
+            return future;
+        }
+    }
+
+    @Test
+    public void newTapCancelsTheOlderOperation() {
+        IdentifyDispatcher dispatcher = new IdentifyDispatcher(2);
+        RecordingTask task = new RecordingTask();
+        int first = dispatcher.submit(task);
+        int second = dispatcher.submit(task);
+        assertTrue(second > first);
+        assertFalse(dispatcher.isCurrent(first));
+        assertTrue(dispatcher.isCurrent(second));
+        assertTrue(task.futures.get(0).isCancelled());
+        assertFalse(task.futures.get(1).isCancelled());
+    }
+
+    @Test
+    public void tapWaitsForAFreeSlotAndOnlyTheLastOneRuns() {
+        IdentifyDispatcher dispatcher = new IdentifyDispatcher(1);
+        RecordingTask task = new RecordingTask();
+        int first = dispatcher.submit(task);
+        dispatcher.submit(task);
+        int third = dispatcher.submit(task);
+        assertEquals(1, task.startedGenerations.size()); // the slot is still held by the cancelled first tap
+        assertEquals(1, dispatcher.getOutstandingCount());
+        dispatcher.finished(first);
+        assertEquals(2, task.startedGenerations.size());
+        assertEquals(third, (int) task.startedGenerations.get(1));
+        dispatcher.finished(third);
+        assertEquals(0, dispatcher.getOutstandingCount());
+    }
+
+    @Test
+    public void supersedeDropsTheWaitingTap() {
+        IdentifyDispatcher dispatcher = new IdentifyDispatcher(1);
+        RecordingTask task = new RecordingTask();
+        int first = dispatcher.submit(task);
+        dispatcher.submit(task);
+        int answered = dispatcher.supersede();
+        dispatcher.finished(first);
+        assertEquals(1, task.startedGenerations.size());
+        assertTrue(dispatcher.isCurrent(answered));
+        assertEquals(0, dispatcher.getOutstandingCount());
+    }
+
+    @Test
+    public void taskThatDoesNotStartFreesItsSlot() {
+        IdentifyDispatcher dispatcher = new IdentifyDispatcher(1);
+        dispatcher.submit(new IdentifyDispatcher.IdentifyTask() {
+            @Override
+            public Future<?> start(int generation) {
+                return null;
+            }
+        });
+        assertEquals(0, dispatcher.getOutstandingCount());
+        RecordingTask task = new RecordingTask();
+        dispatcher.submit(task);
+        assertEquals(1, task.startedGenerations.size());
+    }
+
+    @Test
+    public void finishingTwiceIsHarmless() {
+        IdentifyDispatcher dispatcher = new IdentifyDispatcher(1);
+        RecordingTask task = new RecordingTask();
+        int generation = dispatcher.submit(task);
+        dispatcher.finished(generation);
+        dispatcher.finished(generation);
+        assertEquals(0, dispatcher.getOutstandingCount());
+    }
+}
@@ -0,0 +1,73 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void everyBucketContainsItsValues() {
+        long previousUpperBound = -1;
+        for (int index = 0; index < 400; index ++) {
+            long upperBound = MetricsRegistry.Histogram.bucketUpperBound(index);
+            assertTrue(upperBound > previousUpperBound);
+            assertEquals(index, MetricsRegistry.Histogram.bucketIndex(previousUpperBound + 1));
+            assertEquals(index, MetricsRegistry.Histogram.bucketIndex(upperBound));
+            previousUpperBound = upperBound;
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinTheBucketError() {
+        MetricsRegistry.Histogram histogram = new MetricsRegistry.Histogram();
+        long[] values = new long[10000];
+        Random random = new Random(5);
+        for (int i = 0; i < values.length; i ++) {
+            values[i] = (long) (random.nextDouble() * random.nextDouble() * 5000000);
+            histogram.record(values[i], true);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[] { 50, 90, 95, 99, 99.9 }) {
+            long expected = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            long found = histogram.getPercentileMicros(percentile);
+            assertTrue(percentile + ": " + found + " vs " + expected, found >= expected && found <= expected * 1.07 + 1);
+        }
+        assertEquals(values[values.length - 1], histogram.getPercentileMicros(100));
+        assertEquals(values[values.length - 1], histogram.getMaxMicros());
+    }
+
+    @Test
+    public void histogramCountsFailuresAndMean() {
+        MetricsRegistry.Histogram histogram = new MetricsRegistry.Histogram();
+        assertEquals(0, histogram.getPercentileMicros(50));
+        histogram.record(100, true);
+        histogram.record(300, false);
+        histogram.record(-5, true); // a clock step back counts as zero
+        assertEquals(3, histogram.getCount());
+        assertEquals(1, histogram.getFailedCount());
+        assertEquals(133, histogram.getMeanMicros());
+        assertEquals(300, histogram.getMaxMicros());
+    }
+
+    @Test
+    public void countersAndSnapshot() {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        metricsRegistry.increment("routeCache.hit");
+        metricsRegistry.increment("routeCache.hit");
+        metricsRegistry.increment("routeCache.miss");
+        metricsRegistry.histogram("route.solve").record(2000, true);
+        assertSame(metricsRegistry.histogram("route.solve"), metricsRegistry.histogram("route.solve"));
+        assertEquals(2, metricsRegistry.getCount("routeCache.hit"));
+        assertEquals(0, metricsRegistry.getCount("unknown"));
+        List<String> lines = metricsRegistry.snapshot();
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(0), lines.get(0).startsWith("route.solve count=1 failed=0 mean=2.0ms"));
+        assertEquals("routeCache.hit count=2", lines.get(1));
+        assertEquals("routeCache.miss count=1", lines.get(2));
+    }
+}
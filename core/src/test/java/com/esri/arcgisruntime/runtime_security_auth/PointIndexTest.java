@@ -0,0 +1,89 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PointIndexTest {
+
+    private static List<PointIndex.Entry<Integer>> randomEntries(int count, long seed) {
+        Random random = new Random(seed);
+        List<PointIndex.Entry<Integer>> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i ++) {
+            entries.add(new PointIndex.Entry<>(random.nextDouble() * 1000, random.nextDouble() * 1000, i));
+        }
+        return entries;
+    }
+
+    private static Integer bruteForceNearest(List<PointIndex.Entry<Integer>> entries, double x, double y, double maxDistance) {
+        Integer nearest = null;
+        double nearestDistanceSquared = maxDistance * maxDistance;
+        for (PointIndex.Entry<Integer> entry : entries) {
+            double distanceSquared = (entry.x - x) * (entry.x - x) + (entry.y - y) * (entry.y - y);
+            if (distanceSquared <= nearestDistanceSquared) {
+                nearest = entry.item;
+                nearestDistanceSquared = distanceSquared;
+            }
+        }
+        return nearest;
+    }
+
+    @Test
+    public void emptyIndexFindsNothing() {
+        PointIndex<Integer> index = new PointIndex<>(new ArrayList<PointIndex.Entry<Integer>>());
+        assertEquals(0, index.size());
+        assertNull(index.nearest(0, 0, 100));
+        assertTrue(index.within(0, 0, 100).isEmpty());
+    }
+
+    @Test
+    public void nearestMatchesABruteForceSearch() {
+        List<PointIndex.Entry<Integer>> entries = randomEntries(5000, 42);
+        PointIndex<Integer> index = new PointIndex<>(entries);
+        assertEquals(5000, index.size());
+        Random random = new Random(7);
+        for (int i = 0; i < 500; i ++) {
+            double x = random.nextDouble() * 1000;
+            double y = random.nextDouble() * 1000;
+            Integer expected = bruteForceNearest(entries, x, y, 20);
+            Integer found = index.nearest(x, y, 20);
+            if (expected == null) {
+                assertNull(found);
+            } else {
+                PointIndex.Entry<Integer> expectedEntry = entries.get(expected);
+                PointIndex.Entry<Integer> foundEntry = entries.get(found);
+                // ties may be broken either way, the distance must be the same
+                assertEquals(Math.hypot(expectedEntry.x - x, expectedEntry.y - y), Math.hypot(foundEntry.x - x, foundEntry.y - y), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void nearestIgnoresItemsBeyondTheMaxDistance() {
+        List<PointIndex.Entry<String>> entries = new ArrayList<>();
+        entries.add(new PointIndex.Entry<>(10, 10, "a"));
+        PointIndex<String> index = new PointIndex<>(entries);
+        assertEquals("a", index.nearest(13, 14, 5));
+        assertNull(index.nearest(13, 14, 4.9));
+    }
+
+    @Test
+    public void withinMatchesABruteForceSearch() {
+        List<PointIndex.Entry<Integer>> entries = randomEntries(3000, 11);
+        PointIndex<Integer> index = new PointIndex<>(entries, 4);
+        List<Integer> found = index.within(500, 500, 60);
+        List<Integer> expected = new ArrayList<>();
+        for (PointIndex.Entry<Integer> entry : entries) {
+            if (Math.hypot(entry.x - 500, entry.y - 500) <= 60) {
+                expected.add(entry.item);
+            }
+        }
+        Collections.sort(found);
+        assertEquals(expected, found);
+    }
+}
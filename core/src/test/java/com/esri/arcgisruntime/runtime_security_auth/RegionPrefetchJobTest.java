@@ -0,0 +1,159 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RegionPrefetchJobTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Records the items fetched, each one taking the same number of bytes, and can cancel the job
+     * after a number of them.
+     */
+    private static class Fetcher implements RegionPrefetchJob.ItemFetcher {
+        final List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+        final long itemBytes;
+        final int cancelAfter;
+        RegionPrefetchJob job;
+
+        Fetcher(long itemBytes, int cancelAfter) {
+            this.itemBytes = itemBytes;
+            this.cancelAfter = cancelAfter;
+        }
+
+        @Override
+        public long fetch(String item) {
+            fetched.add(item);
+            if (fetched.size() == cancelAfter) {
+                job.cancel();
+            }
+            return itemBytes;
+        }
+    }
+
+    private static List<String> items(int count) {
+        List<String> items = new ArrayList<>();
+        for (int i = 0; i < count; i ++) {
+            items.add("item" + i);
+        }
+        return items;
+    }
+
+    private static RegionPrefetchJob.Progress run(RegionPrefetchJob job) throws InterruptedException {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final RegionPrefetchJob.Progress[] result = new RegionPrefetchJob.Progress[1];
+        job.start(new RegionPrefetchJob.ProgressListener() {
+            @Override
+            public void onProgress(RegionPrefetchJob.Progress progress) {
+            }
+
+            @Override
+            public void onFinished(RegionPrefetchJob.Progress progress) {
+                result[0] = progress;
+                finished.countDown();
+            }
+        });
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        return result[0];
+    }
+
+    @Test
+    public void cancelledJobResumesWhereItLeftOff() throws Exception {
+        File progressFile = new File(mFolder.getRoot(), "job.bin");
+        Fetcher firstFetcher = new Fetcher(100, 4);
+        firstFetcher.job = new RegionPrefetchJob(items(10), firstFetcher, 1, progressFile);
+        RegionPrefetchJob.Progress progress = run(firstFetcher.job);
+        assertTrue(progress.cancelled);
+        assertEquals(4, progress.completedItems);
+        assertTrue(progressFile.isFile());
+
+        Fetcher secondFetcher = new Fetcher(100, -1);
+        secondFetcher.job = new RegionPrefetchJob(items(10), secondFetcher, 1, progressFile);
+        assertEquals(4, secondFetcher.job.getProgress().completedItems);
+        assertEquals(400, secondFetcher.job.getProgress().bytes);
+        progress = run(secondFetcher.job);
+        assertEquals(items(10).subList(4, 10), secondFetcher.fetched);
+        assertEquals(10, progress.completedItems);
+        assertEquals(1000, progress.bytes);
+        assertFalse(progressFile.exists()); // a finished job starts over next time
+    }
+
+    @Test
+    public void differentJobIgnoresTheProgressFile() throws Exception {
+        File progressFile = new File(mFolder.getRoot(), "job.bin");
+        Fetcher firstFetcher = new Fetcher(100, 4);
+        firstFetcher.job = new RegionPrefetchJob(items(10), firstFetcher, 1, progressFile);
+        run(firstFetcher.job);
+
+        Fetcher secondFetcher = new Fetcher(100, -1);
+        secondFetcher.job = new RegionPrefetchJob(items(11), secondFetcher, 1, progressFile);
+        assertEquals(0, secondFetcher.job.getProgress().completedItems);
+        run(secondFetcher.job);
+        assertEquals(items(11), secondFetcher.fetched);
+    }
+
+    @Test
+    public void jobStopsAtItsByteBudget() throws Exception {
+        File progressFile = new File(mFolder.getRoot(), "job.bin");
+        Fetcher fetcher = new Fetcher(100, -1);
+        fetcher.job = new RegionPrefetchJob(items(10), fetcher, 1, progressFile, 350);
+        RegionPrefetchJob.Progress progress = run(fetcher.job);
+        assertTrue(progress.budgetReached);
+        assertFalse(progress.cancelled);
+        assertEquals(4, progress.completedItems);
+        assertEquals(400, progress.bytes);
+        assertFalse(progressFile.exists());
+    }
+
+    @Test
+    public void parallelJobFetchesEveryItemOnce() throws Exception {
+        Fetcher fetcher = new Fetcher(10, -1);
+        fetcher.job = new RegionPrefetchJob(items(500), fetcher, 4, null);
+        RegionPrefetchJob.Progress progress = run(fetcher.job);
+        assertEquals(500, progress.completedItems);
+        assertEquals(500, fetcher.fetched.size());
+        assertEquals(500, new java.util.HashSet<>(fetcher.fetched).size());
+        assertEquals(100, progress.getPercent());
+    }
+
+    @Test
+    public void tileGrid() {
+        assertEquals(0, RegionPrefetchJob.columnForLongitude(-180, 3));
+        assertEquals(7, RegionPrefetchJob.columnForLongitude(180, 3)); // clamped to the last column
+        assertEquals(4, RegionPrefetchJob.columnForLongitude(0, 3));
+        assertEquals(0, RegionPrefetchJob.rowForLatitude(90, 3));
+        assertEquals(4, RegionPrefetchJob.rowForLatitude(0, 3));
+        assertEquals(7, RegionPrefetchJob.rowForLatitude(-90, 3));
+        assertEquals(1 + 4 + 16, RegionPrefetchJob.countTiles(-180, -90, 180, 90, 0, 2));
+
+        List<String> items = new ArrayList<>();
+        RegionPrefetchJob.addTileItems(items, "https://tiles/{level}/{row}/{col}", -10, -10, 10, 10, 0, 2);
+        assertEquals(RegionPrefetchJob.countTiles(-10, -10, 10, 10, 0, 2), items.size());
+        assertEquals("https://tiles/0/0/0", items.get(0));
+        assertEquals("https://tiles/1/0/0", items.get(1));
+    }
+
+    @Test
+    public void cellsRoundTrip() {
+        List<String> items = new ArrayList<>();
+        RegionPrefetchJob.addCellItems(items, "cell:", -180, -85, 180, 85, 1);
+        assertEquals(4, items.size());
+        double[] cell = RegionPrefetchJob.parseCell(items.get(0), "cell:");
+        assertEquals(-RegionPrefetchJob.WEB_MERCATOR_HALF_WIDTH, cell[0], 1e-6);
+        assertEquals(0, cell[1], 1e-6);
+        assertEquals(0, cell[2], 1e-6);
+        assertEquals(RegionPrefetchJob.WEB_MERCATOR_HALF_WIDTH, cell[3], 1e-6);
+    }
+}
@@ -0,0 +1,98 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RouteCacheTest {
+
+    private static final long TTL = 60 * 1000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static RouteCache.CachedRoute route(long solvedAt) {
+        return new RouteCache.CachedRoute("{\"paths\":[]}", Arrays.asList("Head north", "Arrive"), 1200.0, 4.5, solvedAt);
+    }
+
+    @Test
+    public void originsInTheSameCellShareAKey() {
+        RouteCache routeCache = new RouteCache(8, TTL, 50.0, null);
+        assertEquals(routeCache.keyFor("7", 1010.0, 2010.0, 3857, false), routeCache.keyFor("7", 1040.0, 2049.0, 3857, false));
+        assertNotEquals(routeCache.keyFor("7", 1010.0, 2010.0, 3857, false), routeCache.keyFor("7", 1060.0, 2010.0, 3857, false));
+        assertNotEquals(routeCache.keyFor("7", 1010.0, 2010.0, 3857, false), routeCache.keyFor("8", 1010.0, 2010.0, 3857, false));
+        assertNotEquals(routeCache.keyFor("7", 1010.0, 2010.0, 3857, false), routeCache.keyFor("7", 1010.0, 2010.0, 102100, false));
+        assertNull(routeCache.keyFor(null, 1010.0, 2010.0, 3857, false));
+    }
+
+    @Test
+    public void geographicOriginsAreSnappedInMeters() {
+        RouteCache routeCache = new RouteCache(8, TTL, 50.0, null);
+        // about 11 meters apart, both inside the 50 meter cell at the origin
+        assertEquals(routeCache.keyFor("7", 0.0001, 0.0001, 4326, true), routeCache.keyFor("7", 0.0001, 0.0002, 4326, true));
+        // about 110 meters apart
+        assertNotEquals(routeCache.keyFor("7", 0.0001, 0.0001, 4326, true), routeCache.keyFor("7", 0.0001, 0.0011, 4326, true));
+        assertNotEquals(routeCache.keyFor("7", 0.0001, 0.0001, 4326, true), routeCache.keyFor("7", 0.0011, 0.0001, 4326, true));
+    }
+
+    @Test
+    public void routeExpiresAfterTheTimeToLive() {
+        RouteCache routeCache = new RouteCache(8, TTL, 50.0, null);
+        routeCache.put("key", route(1000L));
+        assertNotNull(routeCache.get("key", 1000L + TTL));
+        assertNull(routeCache.get("key", 1000L + TTL + 1));
+        assertNull(routeCache.get("key", 1000L)); // an expired route is removed
+    }
+
+    @Test
+    public void routeFromTheFutureIsNotUsed() {
+        RouteCache routeCache = new RouteCache(8, TTL, 50.0, null);
+        routeCache.put("key", route(5000L));
+        assertNull(routeCache.get("key", 4000L));
+    }
+
+    @Test
+    public void memoryTierKeepsTheMostRecentlyUsed() {
+        RouteCache routeCache = new RouteCache(2, TTL, 50.0, null);
+        routeCache.put("a", route(0L));
+        routeCache.put("b", route(0L));
+        routeCache.get("a", 0L);
+        routeCache.put("c", route(0L));
+        assertNotNull(routeCache.get("a", 0L));
+        assertNull(routeCache.get("b", 0L));
+        assertNotNull(routeCache.get("c", 0L));
+    }
+
+    @Test
+    public void diskTierSurvivesANewCache() throws Exception {
+        DiskCache diskCache = new DiskCache(mFolder.newFolder("routes"), 64 * 1024);
+        new RouteCache(8, TTL, 50.0, diskCache).put("key", route(1000L));
+        RouteCache.CachedRoute cachedRoute = new RouteCache(8, TTL, 50.0, diskCache).get("key", 2000L);
+        assertNotNull(cachedRoute);
+        assertEquals("{\"paths\":[]}", cachedRoute.geometryJson);
+        assertEquals(Arrays.asList("Head north", "Arrive"), cachedRoute.directions);
+        assertEquals(1200.0, cachedRoute.totalLength, 0);
+        assertEquals(4.5, cachedRoute.totalTime, 0);
+        assertEquals(1000L, cachedRoute.solvedAt);
+    }
+
+    @Test
+    public void clearEmptiesBothTiers() throws Exception {
+        DiskCache diskCache = new DiskCache(mFolder.newFolder("routes"), 64 * 1024);
+        RouteCache routeCache = new RouteCache(8, TTL, 50.0, diskCache);
+        routeCache.put("key", route(1000L));
+        routeCache.clear();
+        assertNull(routeCache.get("key", 2000L));
+        assertFalse(diskCache.contains("key"));
+    }
+
+    @Test
+    public void damagedDiskEntryIsAMiss() {
+        assertNull(RouteCache.decode(new byte[] { 0, 0, 0, 1, 2 }));
+        assertNull(RouteCache.decode(new byte[] { 9, 9, 9, 9 }));
+    }
+}
@@ -0,0 +1,79 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.*;
+
+public class RouteRequestManagerTest {
+
+    private static FutureTask<String> future() {
+        return new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() {
+                return "route";
+            }
+        });
+    }
+
+    @Test
+    public void sameRouteInFlightIsIgnored() {
+        RouteRequestManager requestManager = new RouteRequestManager();
+        int generation = requestManager.begin("7|4326|1|2");
+        assertNotEquals(RouteRequestManager.NO_REQUEST, generation);
+        assertEquals(RouteRequestManager.NO_REQUEST, requestManager.begin("7|4326|1|2"));
+        assertTrue(requestManager.isCurrent(generation));
+        requestManager.finish(generation);
+        assertFalse(requestManager.isCurrent(generation));
+        assertNotEquals(RouteRequestManager.NO_REQUEST, requestManager.begin("7|4326|1|2")); // done, so asked again
+    }
+
+    @Test
+    public void differentRouteSupersedesTheCurrentOne() {
+        RouteRequestManager requestManager = new RouteRequestManager();
+        int first = requestManager.begin("7|4326|1|2");
+        FutureTask<String> solve = future();
+        assertTrue(requestManager.track(first, solve));
+        int second = requestManager.begin("8|4326|1|2");
+        assertTrue(solve.isCancelled());
+        assertFalse(requestManager.isCurrent(first));
+        assertTrue(requestManager.isCurrent(second));
+        requestManager.finish(first); // a late finish of the superseded request changes nothing
+        assertTrue(requestManager.isCurrent(second));
+    }
+
+    @Test
+    public void futureOfASupersededRequestIsCancelledRightAway() {
+        RouteRequestManager requestManager = new RouteRequestManager();
+        int first = requestManager.begin("a");
+        requestManager.begin("b");
+        FutureTask<String> lateSolve = future();
+        assertFalse(requestManager.track(first, lateSolve));
+        assertTrue(lateSolve.isCancelled());
+    }
+
+    @Test
+    public void finishedFuturesAreNotCancelledByTheNextRequest() {
+        RouteRequestManager requestManager = new RouteRequestManager();
+        int first = requestManager.begin("a");
+        FutureTask<String> solve = future();
+        requestManager.track(first, solve);
+        requestManager.finish(first);
+        requestManager.begin("b");
+        assertFalse(solve.isCancelled());
+    }
+
+    @Test
+    public void cancelEndsTheRequestInFlight() {
+        RouteRequestManager requestManager = new RouteRequestManager();
+        int generation = requestManager.begin("a");
+        FutureTask<String> solve = future();
+        requestManager.track(generation, solve);
+        requestManager.cancel();
+        assertTrue(solve.isCancelled());
+        assertFalse(requestManager.isCurrent(generation));
+        assertNotEquals(RouteRequestManager.NO_REQUEST, requestManager.begin("a"));
+    }
+}
@@ -0,0 +1,107 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SessionSnapshotTest {
+
+    private static final int LAYER_COUNT_OFFSET = 14; // version, saved at, no viewpoint, no basemap
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static SessionSnapshot snapshot() {
+        return new SessionSnapshot()
+                .setViewpoint(-13046000.5, 4036000.25, 3857, 72000, 15)
+                .setBasemapKey("streets")
+                .setLayers(Arrays.asList(
+                        new SessionSnapshot.LayerSource(SessionSnapshot.LAYER_FEATURE_SERVICE, "https://services/FeatureServer/0"),
+                        new SessionSnapshot.LayerSource(SessionSnapshot.LAYER_FEATURE_ITEM, "a1b2c3")))
+                .setSelectedObjectId("42")
+                .setRoute("{\"paths\":[[[1,2],[3,4]]]}", 4326, new double[] { -117.1, 34.0, -117.2, 34.1 });
+    }
+
+    @Test
+    public void snapshotRoundTrips() throws IOException {
+        SessionSnapshot sessionSnapshot = SessionSnapshot.fromBytes(snapshot().toBytes());
+        assertTrue(sessionSnapshot.hasViewpoint());
+        assertEquals(-13046000.5, sessionSnapshot.getCenterX(), 0);
+        assertEquals(4036000.25, sessionSnapshot.getCenterY(), 0);
+        assertEquals(3857, sessionSnapshot.getWkid());
+        assertEquals(72000, sessionSnapshot.getScale(), 0);
+        assertEquals(15, sessionSnapshot.getRotation(), 0);
+        assertEquals("streets", sessionSnapshot.getBasemapKey());
+        assertEquals(snapshot().getLayers(), sessionSnapshot.getLayers());
+        assertEquals("42", sessionSnapshot.getSelectedObjectId());
+        assertEquals("{\"paths\":[[[1,2],[3,4]]]}", sessionSnapshot.getRouteGeometryJson());
+        assertEquals(4326, sessionSnapshot.getRouteStopsWkid());
+        assertArrayEquals(new double[] { -117.1, 34.0, -117.2, 34.1 }, sessionSnapshot.getRouteStops(), 0);
+        assertTrue(sessionSnapshot.getSavedAt() > 0);
+    }
+
+    @Test
+    public void emptySnapshotRoundTrips() throws IOException {
+        SessionSnapshot sessionSnapshot = SessionSnapshot.fromBytes(new SessionSnapshot().toBytes());
+        assertFalse(sessionSnapshot.hasViewpoint());
+        assertNull(sessionSnapshot.getBasemapKey());
+        assertTrue(sessionSnapshot.getLayers().isEmpty());
+        assertNull(sessionSnapshot.getRouteGeometryJson());
+    }
+
+    @Test
+    public void damagedLengthsAreRejected() throws IOException {
+        for (int layerCount : new int[] { -1, Integer.MAX_VALUE, 1 }) {
+            byte[] data = new SessionSnapshot().toBytes();
+            data[LAYER_COUNT_OFFSET] = (byte) (layerCount >>> 24);
+            data[LAYER_COUNT_OFFSET + 1] = (byte) (layerCount >>> 16);
+            data[LAYER_COUNT_OFFSET + 2] = (byte) (layerCount >>> 8);
+            data[LAYER_COUNT_OFFSET + 3] = (byte) layerCount;
+            try {
+                SessionSnapshot.fromBytes(data);
+                fail("layer count " + layerCount);
+            } catch (IOException expected) {
+                // the count is more than the data left holds
+            }
+        }
+    }
+
+    @Test
+    public void truncatedSnapshotIsRejected() throws IOException {
+        byte[] data = snapshot().toBytes();
+        for (int length = 0; length < data.length; length ++) {
+            try {
+                SessionSnapshot.fromBytes(Arrays.copyOf(data, length));
+                fail("length " + length);
+            } catch (IOException expected) {
+                // ended early
+            }
+        }
+    }
+
+    @Test
+    public void writtenSnapshotIsRead() throws IOException {
+        File snapshotFile = new File(mFolder.getRoot(), "session.bin");
+        assertNull(SessionSnapshot.read(snapshotFile));
+        SessionSnapshot.write(snapshotFile, snapshot().toBytes());
+        SessionSnapshot sessionSnapshot = SessionSnapshot.read(snapshotFile);
+        assertNotNull(sessionSnapshot);
+        assertEquals("streets", sessionSnapshot.getBasemapKey());
+        assertFalse(new File(snapshotFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void damagedFileIsDeleted() throws IOException {
+        File snapshotFile = new File(mFolder.getRoot(), "session.bin");
+        byte[] data = snapshot().toBytes();
+        SessionSnapshot.write(snapshotFile, Arrays.copyOf(data, data.length / 2));
+        assertNull(SessionSnapshot.read(snapshotFile));
+        assertFalse(snapshotFile.exists());
+    }
+}
@@ -0,0 +1,144 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class StartupOrchestratorTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    /**
+     * Records what ran and what completed, steps finish when the test completes them.
+     */
+    private static class Recorder implements StartupOrchestrator.StartupListener {
+        final List<String> ran = new ArrayList<>();
+        final Map<String, StartupOrchestrator.StepCompletion> completions = new HashMap<>();
+        final Map<String, Boolean> completed = new HashMap<>();
+        int startupCompletedCount = 0;
+
+        StartupOrchestrator.StartupStep step(final String name) {
+            return new StartupOrchestrator.StartupStep() {
+                @Override
+                public void run(StartupOrchestrator.StepCompletion completion) {
+                    ran.add(name);
+                    completions.put(name, completion);
+                }
+            };
+        }
+
+        @Override
+        public void onStepCompleted(String stepName, boolean succeeded, long startedAtMillis, long elapsedMillis) {
+            completed.put(stepName, succeeded);
+        }
+
+        @Override
+        public void onStartupCompleted(long elapsedMillis) {
+            startupCompletedCount ++;
+        }
+    }
+
+    @Test
+    public void stepsStartOnceTheirDependenciesAreDone() {
+        Recorder recorder = new Recorder();
+        StartupOrchestrator orchestrator = new StartupOrchestrator(recorder)
+                .addStep("portal", DIRECT, recorder.step("portal"))
+                .addStep("map", DIRECT, recorder.step("map"))
+                .addStep("layers", DIRECT, recorder.step("layers"), "portal", "map")
+                .addStep("route", DIRECT, recorder.step("route"), "portal");
+        orchestrator.start();
+        assertEquals(Arrays.asList("portal", "map"), recorder.ran);
+        recorder.completions.get("portal").done();
+        assertEquals(Arrays.asList("portal", "map", "route"), recorder.ran);
+        recorder.completions.get("map").done();
+        assertEquals(Arrays.asList("portal", "map", "route", "layers"), recorder.ran);
+        assertTrue(orchestrator.isDone("map"));
+        assertFalse(orchestrator.isDone("layers"));
+        recorder.completions.get("layers").done();
+        assertEquals(0, recorder.startupCompletedCount);
+        recorder.completions.get("route").done();
+        assertEquals(1, recorder.startupCompletedCount);
+    }
+
+    @Test
+    public void failedStepSkipsEverythingThatDependsOnIt() {
+        Recorder recorder = new Recorder();
+        StartupOrchestrator orchestrator = new StartupOrchestrator(recorder)
+                .addStep("portal", DIRECT, recorder.step("portal"))
+                .addStep("basemaps", DIRECT, recorder.step("basemaps"), "portal")
+                .addStep("thumbnails", DIRECT, recorder.step("thumbnails"), "basemaps")
+                .addStep("map", DIRECT, recorder.step("map"));
+        orchestrator.start();
+        recorder.completions.get("portal").failed("no network");
+        assertEquals(Boolean.FALSE, recorder.completed.get("portal"));
+        assertEquals(Boolean.FALSE, recorder.completed.get("basemaps"));
+        assertEquals(Boolean.FALSE, recorder.completed.get("thumbnails"));
+        assertEquals(Arrays.asList("portal", "map"), recorder.ran);
+        recorder.completions.get("map").done();
+        assertEquals(1, recorder.startupCompletedCount);
+    }
+
+    @Test
+    public void stepThatThrowsFails() {
+        Recorder recorder = new Recorder();
+        new StartupOrchestrator(recorder)
+                .addStep("broken", DIRECT, new StartupOrchestrator.StartupStep() {
+                    @Override
+                    public void run(StartupOrchestrator.StepCompletion completion) {
+                        throw new IllegalStateException("broken");
+                    }
+                })
+                .start();
+        assertEquals(Boolean.FALSE, recorder.completed.get("broken"));
+        assertEquals(1, recorder.startupCompletedCount);
+    }
+
+    @Test
+    public void completingTwiceCountsOnce() {
+        Recorder recorder = new Recorder();
+        new StartupOrchestrator(recorder)
+                .addStep("a", DIRECT, recorder.step("a"))
+                .addStep("b", DIRECT, recorder.step("b"))
+                .start();
+        recorder.completions.get("a").done();
+        recorder.completions.get("a").done();
+        assertEquals(0, recorder.startupCompletedCount);
+        recorder.completions.get("b").done();
+        assertEquals(1, recorder.startupCompletedCount);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unknownDependencyIsRejected() {
+        Recorder recorder = new Recorder();
+        new StartupOrchestrator(recorder).addStep("a", DIRECT, recorder.step("a"), "missing").start();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cycleIsRejected() {
+        Recorder recorder = new Recorder();
+        new StartupOrchestrator(recorder)
+                .addStep("a", DIRECT, recorder.step("a"), "b")
+                .addStep("b", DIRECT, recorder.step("b"), "a")
+                .start();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateStepIsRejected() {
+        Recorder recorder = new Recorder();
+        new StartupOrchestrator(recorder)
+                .addStep("a", DIRECT, recorder.step("a"))
+                .addStep("a", DIRECT, recorder.step("a"));
+    }
+}
@@ -0,0 +1,152 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailFetchSchedulerTest {
+
+    /**
+     * Fetch tasks that finish only when the test says so.
+     */
+    private static class Tasks {
+        final List<String> started = new ArrayList<>();
+        final List<String> cancelled = new ArrayList<>();
+        final Map<String, Runnable> finishers = new HashMap<>();
+
+        ThumbnailFetchScheduler.FetchTask task(final String key) {
+            return new ThumbnailFetchScheduler.FetchTask() {
+                @Override
+                public void start(Runnable onFinished) {
+                    started.add(key);
+                    finishers.put(key, onFinished);
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled.add(key);
+                }
+            };
+        }
+
+        void finish(String key) {
+            finishers.remove(key).run();
+        }
+    }
+
+    @Test
+    public void onlyMaxConcurrentFetchesRun() {
+        Tasks tasks = new Tasks();
+        ThumbnailFetchScheduler<String> scheduler = new ThumbnailFetchScheduler<>(2);
+        for (String key : Arrays.asList("a", "b", "c", "d")) {
+            scheduler.submit(key, tasks.task(key), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        }
+        assertEquals(Arrays.asList("a", "b"), tasks.started);
+        assertEquals(2, scheduler.getRunningCount());
+        assertEquals(2, scheduler.getPendingCount());
+        tasks.finish("a");
+        assertEquals(Arrays.asList("a", "b", "c"), tasks.started);
+    }
+
+    @Test
+    public void highestPriorityGoesNextThenFirstCome() {
+        Tasks tasks = new Tasks();
+        ThumbnailFetchScheduler<String> scheduler = new ThumbnailFetchScheduler<>(1);
+        scheduler.submit("running", tasks.task("running"), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        scheduler.submit("offscreen", tasks.task("offscreen"), ThumbnailFetchScheduler.PRIORITY_OFFSCREEN);
+        scheduler.submit("normal1", tasks.task("normal1"), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        scheduler.submit("normal2", tasks.task("normal2"), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        scheduler.setPriority("normal2", ThumbnailFetchScheduler.PRIORITY_VISIBLE);
+        tasks.finish("running");
+        tasks.finish("normal2");
+        tasks.finish("normal1");
+        assertEquals(Arrays.asList("running", "normal2", "normal1", "offscreen"), tasks.started);
+    }
+
+    @Test
+    public void resubmittingRaisesButNeverLowersThePriority() {
+        Tasks tasks = new Tasks();
+        ThumbnailFetchScheduler<String> scheduler = new ThumbnailFetchScheduler<>(1);
+        scheduler.submit("running", tasks.task("running"), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        scheduler.submit("a", tasks.task("a"), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        scheduler.submit("b", tasks.task("b"), ThumbnailFetchScheduler.PRIORITY_OFFSCREEN);
+        scheduler.submit("b", tasks.task("b"), ThumbnailFetchScheduler.PRIORITY_VISIBLE);
+        scheduler.submit("a", tasks.task("a"), ThumbnailFetchScheduler.PRIORITY_OFFSCREEN);
+        assertEquals(2, scheduler.getPendingCount());
+        tasks.finish("running");
+        assertEquals(Arrays.asList("running", "b"), tasks.started);
+    }
+
+    @Test
+    public void cancelledFetchKeepsItsSlotUntilItFinishes() {
+        Tasks tasks = new Tasks();
+        ThumbnailFetchScheduler<String> scheduler = new ThumbnailFetchScheduler<>(1);
+        scheduler.submit("a", tasks.task("a"), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        scheduler.submit("b", tasks.task("b"), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        assertTrue(scheduler.cancel("a"));
+        assertEquals(Arrays.asList("a"), tasks.cancelled);
+        assertEquals(Arrays.asList("a"), tasks.started);
+        assertEquals(1, scheduler.getRunningCount());
+        tasks.finish("a");
+        assertEquals(Arrays.asList("a", "b"), tasks.started);
+        tasks.finish("b");
+        assertEquals(0, scheduler.getRunningCount());
+        assertFalse(scheduler.cancel("unknown"));
+    }
+
+    @Test
+    public void resubmittedKeyWaitsForItsCancelledFetch() {
+        Tasks tasks = new Tasks();
+        ThumbnailFetchScheduler<String> scheduler = new ThumbnailFetchScheduler<>(1);
+        scheduler.submit("a", tasks.task("a"), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        scheduler.cancel("a");
+        scheduler.submit("a", tasks.task("a"), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        assertEquals(1, scheduler.getPendingCount());
+        tasks.finish("a");
+        assertEquals(Arrays.asList("a", "a"), tasks.started);
+        assertEquals(1, scheduler.getRunningCount());
+    }
+
+    @Test
+    public void cancelAllCancelsWaitingAndRunning() {
+        Tasks tasks = new Tasks();
+        ThumbnailFetchScheduler<String> scheduler = new ThumbnailFetchScheduler<>(1);
+        scheduler.submit("a", tasks.task("a"), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        scheduler.submit("b", tasks.task("b"), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        scheduler.cancelAll();
+        assertEquals(Arrays.asList("a", "b"), tasks.cancelled);
+        assertEquals(0, scheduler.getPendingCount());
+        assertEquals(1, scheduler.getRunningCount());
+        scheduler.submit("c", tasks.task("c"), ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        assertEquals(Arrays.asList("a"), tasks.started);
+        tasks.finish("a");
+        assertEquals(Arrays.asList("a", "c"), tasks.started);
+    }
+
+    @Test
+    public void taskFinishingSynchronouslyStartsTheNext() {
+        final List<String> started = new ArrayList<>();
+        ThumbnailFetchScheduler<String> scheduler = new ThumbnailFetchScheduler<>(1);
+        for (final String key : Arrays.asList("a", "b", "c")) {
+            scheduler.submit(key, new ThumbnailFetchScheduler.FetchTask() {
+                @Override
+                public void start(Runnable onFinished) {
+                    started.add(key);
+                    onFinished.run();
+                }
+
+                @Override
+                public void cancel() {
+                }
+            }, ThumbnailFetchScheduler.PRIORITY_NORMAL);
+        }
+        assertEquals(Arrays.asList("a", "b", "c"), started);
+        assertEquals(0, scheduler.getRunningCount());
+    }
+}
@@ -0,0 +1,114 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TileProxyTest {
+
+    private static final long NOW = 1500000000000L;
+    private static final long DEFAULT_MAX_AGE = 3600 * 1000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void tilesAreKeyedByServiceLevelRowAndColumn() {
+        String key = TileProxy.cacheKeyFor("https://services/World_Street_Map/MapServer/tile/3/2/1?token=abc");
+        assertEquals("tile|https://services/World_Street_Map/MapServer|3/2/1", key);
+        assertEquals(key, TileProxy.cacheKeyFor("https://services/World_Street_Map/MapServer/tile/3/2/1.png"));
+        assertNotEquals(key, TileProxy.cacheKeyFor("https://services/World_Imagery/MapServer/tile/3/2/1"));
+    }
+
+    @Test
+    public void otherURLsAreKeyedWithoutTheirToken() {
+        assertEquals("url|https://services/MapServer?f=json", TileProxy.cacheKeyFor("https://services/MapServer?f=json&token=abc"));
+        assertEquals("url|https://services/MapServer?f=json", TileProxy.cacheKeyFor("https://services/MapServer?token=abc&f=json"));
+        assertEquals("url|https://services/MapServer", TileProxy.cacheKeyFor("https://services/MapServer?token=abc"));
+        assertEquals("url|https://services/MapServer?f=json&a=1", TileProxy.cacheKeyFor("https://services/MapServer?f=json&token=abc&a=1"));
+    }
+
+    @Test
+    public void requestsWithCredentialsAreSecured() {
+        Map<String, String> requestHeaders = new HashMap<>();
+        assertFalse(TileProxy.isSecured("https://services/MapServer/tile/3/2/1", requestHeaders));
+        assertTrue(TileProxy.isSecured("https://services/MapServer/tile/3/2/1?token=abc", requestHeaders));
+        assertTrue(TileProxy.isSecured("https://services/MapServer?f=json&token=abc", requestHeaders));
+        requestHeaders.put("x-esri-authorization", "Bearer abc");
+        assertTrue(TileProxy.isSecured("https://services/MapServer/tile/3/2/1", requestHeaders));
+    }
+
+    @Test
+    public void errorObjectsAreRecognized() throws Exception {
+        assertTrue(TileProxy.isErrorJSON("application/json", "{\"error\":{\"code\":498,\"message\":\"Invalid token.\"}}".getBytes("UTF-8")));
+        assertTrue(TileProxy.isErrorJSON("text/plain; charset=utf-8", "{\n  \"error\" : {\"code\":499}}".getBytes("UTF-8")));
+        assertFalse(TileProxy.isErrorJSON("application/json", "{\"currentVersion\":10.3,\"error\":null}".getBytes("UTF-8")));
+        assertFalse(TileProxy.isErrorJSON("application/x-protobuf", "{\"error\":1}".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void cacheControlDecidesFreshness() {
+        assertEquals(NOW + 60000, TileProxy.expiresAt(NOW, "public, max-age=60", null, null, DEFAULT_MAX_AGE));
+        assertEquals(NOW + 60000, TileProxy.expiresAt(NOW, "Max-Age=\"60\"", null, null, DEFAULT_MAX_AGE));
+        assertEquals(NOW, TileProxy.expiresAt(NOW, "no-cache", null, null, DEFAULT_MAX_AGE));
+        assertEquals(-1, TileProxy.expiresAt(NOW, "no-store, max-age=60", null, null, DEFAULT_MAX_AGE));
+        assertEquals(-1, TileProxy.expiresAt(NOW, "private, max-age=60", null, null, DEFAULT_MAX_AGE));
+        assertEquals(NOW + DEFAULT_MAX_AGE, TileProxy.expiresAt(NOW, "public", null, null, DEFAULT_MAX_AGE));
+        assertEquals(NOW + DEFAULT_MAX_AGE, TileProxy.expiresAt(NOW, null, null, null, DEFAULT_MAX_AGE));
+    }
+
+    @Test
+    public void expiresIsTakenRelativeToTheServerDate() {
+        String date = "Thu, 01 Jan 2015 00:00:00 GMT";
+        String expires = "Thu, 01 Jan 2015 00:10:00 GMT";
+        assertEquals(NOW + 600000, TileProxy.expiresAt(NOW, null, expires, date, DEFAULT_MAX_AGE));
+        assertEquals(NOW, TileProxy.expiresAt(NOW, null, date, expires, DEFAULT_MAX_AGE)); // already expired
+        assertEquals(NOW, TileProxy.expiresAt(NOW, null, "0", date, DEFAULT_MAX_AGE));
+        assertEquals(NOW + 60000, TileProxy.expiresAt(NOW, "max-age=60", expires, date, DEFAULT_MAX_AGE));
+    }
+
+    @Test
+    public void onlyResourceURLsAreRewritten() {
+        String proxyBaseURL = "http://127.0.0.1:41234/";
+        String style = "{\"sprite\":\"https://host/sprites/sprite\",\"glyphs\" : \"https://host/fonts/{fontstack}/{range}.pbf\","
+                + "\"sources\":{\"esri\":{\"type\":\"vector\",\"url\":\"https://host/VectorTileServer\",\"tiles\":[ \"http://host/tile/{z}/{y}/{x}.pbf\" ]}}}";
+        assertEquals("{\"sprite\":\"http://127.0.0.1:41234/https/host/sprites/sprite\",\"glyphs\" : \"http://127.0.0.1:41234/https/host/fonts/{fontstack}/{range}.pbf\","
+                + "\"sources\":{\"esri\":{\"type\":\"vector\",\"url\":\"http://127.0.0.1:41234/https/host/VectorTileServer\",\"tiles\":[ \"http://127.0.0.1:41234/http/host/tile/{z}/{y}/{x}.pbf\" ]}}}",
+                TileProxy.rewriteResourceURLs(style, proxyBaseURL));
+
+        String info = "{\"owningSystemUrl\":\"https://host/portal\",\"authInfo\":{\"isTokenBasedSecurity\":true,\"tokenServicesUrl\":\"https://host/portal/sharing/rest/generateToken\"}}";
+        assertSame(info, TileProxy.rewriteResourceURLs(info, proxyBaseURL));
+    }
+
+    @Test
+    public void upstreamURLs() {
+        assertEquals("https://host/path?f=json", TileProxy.upstreamURL("/https/host/path?f=json"));
+        assertEquals("http://host/path", TileProxy.upstreamURL("/http/host/path"));
+        assertNull(TileProxy.upstreamURL("/favicon.ico"));
+        assertEquals("https://host/MapServer", TileProxy.upstreamURLOf("http://127.0.0.1:41234/https/host/MapServer"));
+        assertEquals("https://host/MapServer", TileProxy.upstreamURLOf("https://host/MapServer"));
+        assertNull(TileProxy.upstreamURLOf(null));
+    }
+
+    @Test
+    public void proxiedURLsRoundTrip() throws Exception {
+        TileProxy tileProxy = new TileProxy(new DiskCache(mFolder.newFolder("tiles"), 1024 * 1024), DEFAULT_MAX_AGE);
+        assertEquals("https://host/MapServer", tileProxy.proxiedURL("https://host/MapServer"));
+        tileProxy.start();
+        try {
+            String proxiedURL = tileProxy.proxiedURL("https://host/MapServer?f=json");
+            assertTrue(proxiedURL, proxiedURL.startsWith("http://127.0.0.1:"));
+            assertEquals("https://host/MapServer?f=json", TileProxy.upstreamURLOf(proxiedURL));
+            assertEquals(proxiedURL, tileProxy.proxiedURL(proxiedURL));
+            assertEquals("http://host/MapServer", TileProxy.upstreamURLOf(tileProxy.proxiedURL("http://host/MapServer")));
+        } finally {
+            tileProxy.stop();
+        }
+        assertFalse(tileProxy.isRunning());
+    }
+}
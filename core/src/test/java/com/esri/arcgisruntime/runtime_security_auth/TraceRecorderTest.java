@@ -0,0 +1,135 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class TraceRecorderTest {
+
+    private static final Pattern BEGIN_EVENT = Pattern.compile("\\{\"name\":\"((?:[^\"\\\\]|\\\\.)*)\",\"cat\":\"app\",\"ph\":\"b\",\"id\":\"(\\d+)\".*?\"args\":\\{\"span\":(\\d+),\"parent\":(\\d+)\\}\\}");
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * The begin events of a written trace, each as name, trace id, span id and parent span id.
+     */
+    private List<String[]> write(TraceRecorder traceRecorder) throws IOException {
+        File traceFile = new File(mFolder.getRoot(), "trace.json");
+        traceRecorder.writeTo(traceFile);
+        assertFalse(new File(traceFile.getPath() + ".tmp").exists());
+        Scanner scanner = new Scanner(traceFile, "UTF-8").useDelimiter("\\A");
+        String json = scanner.hasNext() ? scanner.next() : "";
+        scanner.close();
+        assertTrue(json, json.startsWith("{\"traceEvents\":[") && json.endsWith("]}"));
+        List<String[]> beginEvents = new ArrayList<>();
+        Matcher matcher = BEGIN_EVENT.matcher(json);
+        while (matcher.find()) {
+            beginEvents.add(new String[] { matcher.group(1), matcher.group(2), matcher.group(3), matcher.group(4) });
+        }
+        return beginEvents;
+    }
+
+    @Test
+    public void disabledRecorderRecordsNothing() throws IOException {
+        TraceRecorder traceRecorder = new TraceRecorder();
+        assertEquals(TraceRecorder.NO_SPAN, traceRecorder.beginRoot("startup"));
+        assertEquals(TraceRecorder.NO_SPAN, traceRecorder.begin("portal.load"));
+        final boolean[] ran = new boolean[1];
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                ran[0] = true;
+            }
+        };
+        assertSame(listener, traceRecorder.endAfter(TraceRecorder.NO_SPAN, listener));
+        traceRecorder.runInSpan(TraceRecorder.NO_SPAN, listener);
+        assertTrue(ran[0]);
+    }
+
+    @Test
+    public void childrenStartedFromADoneListenerNestUnderItsSpan() throws IOException {
+        final TraceRecorder traceRecorder = new TraceRecorder();
+        traceRecorder.enable(1.0, 16);
+        long root = traceRecorder.beginRoot("startup");
+        final long portal = traceRecorder.begin("portal.load", root);
+        final long[] child = new long[1];
+        traceRecorder.endAfter(portal, new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(portal, traceRecorder.currentSpan());
+                child[0] = traceRecorder.begin("basemaps.query");
+            }
+        }).run();
+        assertEquals(TraceRecorder.NO_SPAN, traceRecorder.currentSpan());
+        traceRecorder.end(child[0]);
+        traceRecorder.end(root);
+
+        List<String[]> beginEvents = write(traceRecorder);
+        assertEquals(3, beginEvents.size());
+        // written in the order the spans ended, all in the trace of the root span
+        assertEquals("portal.load", beginEvents.get(0)[0]);
+        assertEquals(Long.toString(root), beginEvents.get(0)[3]);
+        assertEquals("basemaps.query", beginEvents.get(1)[0]);
+        assertEquals(Long.toString(portal), beginEvents.get(1)[3]);
+        assertEquals("startup", beginEvents.get(2)[0]);
+        for (String[] beginEvent : beginEvents) {
+            assertEquals(Long.toString(root), beginEvent[1]);
+        }
+    }
+
+    @Test
+    public void unsampledTraceIsNotRecorded() throws IOException {
+        TraceRecorder traceRecorder = new TraceRecorder();
+        traceRecorder.enable(0.0, 16);
+        long root = traceRecorder.beginRoot("tap");
+        assertEquals(TraceRecorder.NO_SPAN, root);
+        assertEquals(TraceRecorder.NO_SPAN, traceRecorder.begin("identify", root));
+        assertTrue(write(traceRecorder).isEmpty());
+    }
+
+    @Test
+    public void ringBufferKeepsTheMostRecentSpans() throws IOException {
+        TraceRecorder traceRecorder = new TraceRecorder();
+        traceRecorder.enable(1.0, 3);
+        for (int i = 0; i < 5; i ++) {
+            traceRecorder.end(traceRecorder.beginRoot("span" + i));
+        }
+        List<String[]> beginEvents = write(traceRecorder);
+        assertEquals(3, beginEvents.size());
+        assertEquals("span2", beginEvents.get(0)[0]);
+        assertEquals("span4", beginEvents.get(2)[0]);
+    }
+
+    @Test
+    public void namesAreEscaped() throws IOException {
+        TraceRecorder traceRecorder = new TraceRecorder();
+        traceRecorder.enable(1.0, 4);
+        traceRecorder.end(traceRecorder.beginRoot("layer \"streets\"\\1"));
+        List<String[]> beginEvents = write(traceRecorder);
+        assertEquals(1, beginEvents.size());
+        assertEquals("layer \\\"streets\\\"\\\\1", beginEvents.get(0)[0]);
+    }
+
+    @Test
+    public void spanEndedTwiceIsRecordedOnce() throws IOException {
+        TraceRecorder traceRecorder = new TraceRecorder();
+        traceRecorder.enable(1.0, 4);
+        long span = traceRecorder.beginRoot("login");
+        traceRecorder.end(span);
+        traceRecorder.end(span);
+        traceRecorder.disable();
+        traceRecorder.end(traceRecorder.beginRoot("ignored"));
+        assertEquals(1, write(traceRecorder).size());
+    }
+}
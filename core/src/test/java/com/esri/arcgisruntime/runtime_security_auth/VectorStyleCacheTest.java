@@ -0,0 +1,176 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class VectorStyleCacheTest {
+
+    private static final long DEFAULT_MAX_AGE = 3600 * 1000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private HttpServer mHttpServer;
+    private String mBaseURL;
+    private volatile String mStyle = "{ \"version\" : 8 }";
+    private final ConcurrentHashMap<String, AtomicInteger> mRequestCounts = new ConcurrentHashMap<>();
+
+    /**
+     * A style service: the style, whatever mStyle is, and any other path answered with its own name.
+     */
+    @Before
+    public void setUp() throws IOException {
+        mHttpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 16);
+        mHttpServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                mRequestCounts.putIfAbsent(path, new AtomicInteger());
+                mRequestCounts.get(path).incrementAndGet();
+                byte[] body = (path.endsWith("/root.json") ? mStyle : path).getBytes("UTF-8");
+                exchange.getResponseHeaders().set("Content-Type", path.endsWith(".json") ? "application/json" : "application/octet-stream");
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(body);
+                outputStream.close();
+            }
+        });
+        mHttpServer.start();
+        mBaseURL = "http://127.0.0.1:" + mHttpServer.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        mHttpServer.stop(0);
+    }
+
+    private int requestCount(String path) {
+        AtomicInteger requestCount = mRequestCounts.get(path);
+        return requestCount != null ? requestCount.get() : 0;
+    }
+
+    private VectorStyleCache.StyleResources resources() {
+        return new VectorStyleCache.StyleResources(Collections.singletonList(mBaseURL + "/VectorTileServer"),
+                mBaseURL + "/sprites/sprite", mBaseURL + "/fonts/{fontstack}/{range}.pbf", Arrays.asList("Arial Regular", "Arial Bold"));
+    }
+
+    /**
+     * Open the style with a new style cache on the same disk cache, as a new run would, and wait
+     * until the style was revalidated and, when it is new or changed, its resources downloaded.
+     */
+    private VectorStyleCache openStyle(DiskCache diskCache, TileProxy tileProxy, String styleURL, boolean downloads) throws InterruptedException {
+        MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+        long refreshes = metricsRegistry.histogram("styleCache.refresh").getCount();
+        long warmed = metricsRegistry.getCount("styleCache.warmed");
+        VectorStyleCache styleCache = new VectorStyleCache(diskCache, new VectorStyleCache.StyleParser() {
+            @Override
+            public VectorStyleCache.StyleResources parse(String styleURL, byte[] style) {
+                return resources();
+            }
+        }, 2);
+        tileProxy.setStyleCache(styleCache);
+        styleCache.open(styleURL, tileProxy);
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((metricsRegistry.histogram("styleCache.refresh").getCount() == refreshes || (downloads && metricsRegistry.getCount("styleCache.warmed") == warmed))
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(System.currentTimeMillis() < deadline);
+        return styleCache;
+    }
+
+    @Test
+    public void whitespaceOutsideStringsIsRemoved() throws IOException {
+        byte[] compact = VectorStyleCache.compactJSON("{ \"text\" : \"a \\\" b\",\n\t\"font\": [ \"Noto Sans\", \"\u00e9 \" ] }".getBytes("UTF-8"));
+        assertEquals("{\"text\":\"a \\\" b\",\"font\":[\"Noto Sans\",\"\u00e9 \"]}", new String(compact, "UTF-8"));
+    }
+
+    @Test
+    public void versionFollowsTheCompactedStyle() throws IOException {
+        String version = VectorStyleCache.versionOf(VectorStyleCache.compactJSON("{ \"version\": 8 }".getBytes("UTF-8")));
+        assertEquals(version, VectorStyleCache.versionOf(VectorStyleCache.compactJSON("{\"version\":\n8}".getBytes("UTF-8"))));
+        assertNotEquals(version, VectorStyleCache.versionOf(VectorStyleCache.compactJSON("{\"version\":9}".getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void resourcesAreTheServicesSpritesAndGlyphs() {
+        VectorStyleCache.StyleResources resources = resources();
+        List<String> resourceURLs = resources.resourceURLs();
+        assertEquals(1 + 4 + 2, resourceURLs.size());
+        assertEquals(mBaseURL + "/VectorTileServer?f=json", resourceURLs.get(0));
+        assertEquals(mBaseURL + "/sprites/sprite@2x.png", resourceURLs.get(4));
+        assertEquals(mBaseURL + "/fonts/Arial%20Regular/0-255.pbf", resourceURLs.get(5));
+        assertEquals("Arial%20Regular%2CArial%20Unicode%20MS%20Regular", VectorStyleCache.encodePathSegment("Arial Regular,Arial Unicode MS Regular"));
+        assertTrue(resources.contains(mBaseURL + "/VectorTileServer/"));
+        assertTrue(resources.contains(mBaseURL + "/fonts/Arial%20Bold/256-511.pbf"));
+        assertFalse(resources.contains(mBaseURL + "/VectorTileServer/tile/0/0/0.pbf"));
+    }
+
+    @Test
+    public void styleResourcesAreServedWithoutRevalidating() throws Exception {
+        DiskCache diskCache = new DiskCache(mFolder.newFolder("styles"), 1024 * 1024);
+        TileProxy tileProxy = new TileProxy(new DiskCache(mFolder.newFolder("tiles"), 1024 * 1024), DEFAULT_MAX_AGE);
+        String styleURL = mBaseURL + "/resources/styles/root.json";
+        VectorStyleCache styleCache = openStyle(diskCache, tileProxy, styleURL, true);
+        assertTrue(VectorStyleCache.isStyleKey(styleCache.keyFor(styleURL + "?f=json")));
+        assertFalse(VectorStyleCache.isStyleKey(styleCache.keyFor(mBaseURL + "/sprites/sprite.png")));
+        assertNull(styleCache.keyFor(mBaseURL + "/VectorTileServer/tile/0/0/0.pbf"));
+        assertEquals(1, requestCount("/sprites/sprite.png"));
+        assertEquals(1, requestCount("/fonts/Arial Bold/0-255.pbf"));
+
+        // no-cache, but the style cache decides when its resources change
+        assertArrayEquals("/sprites/sprite.png".getBytes("UTF-8"), tileProxy.read(mBaseURL + "/sprites/sprite.png"));
+        assertEquals(1, requestCount("/sprites/sprite.png"));
+        assertArrayEquals("{\"version\":8}".getBytes("UTF-8"), tileProxy.read(styleURL));
+        assertEquals(1, requestCount("/resources/styles/root.json"));
+    }
+
+    @Test
+    public void nextRunKeepsTheResourcesOfAnUnchangedStyle() throws Exception {
+        DiskCache diskCache = new DiskCache(mFolder.newFolder("styles"), 1024 * 1024);
+        TileProxy tileProxy = new TileProxy(new DiskCache(mFolder.newFolder("tiles"), 1024 * 1024), DEFAULT_MAX_AGE);
+        String styleURL = mBaseURL + "/resources/styles/root.json";
+        openStyle(diskCache, tileProxy, styleURL, true);
+        mStyle = "{\n  \"version\": 8\n}"; // the same style once compacted
+        VectorStyleCache styleCache = openStyle(diskCache, tileProxy, styleURL, false);
+        assertEquals(2, requestCount("/resources/styles/root.json"));
+        assertEquals(1, requestCount("/sprites/sprite.json"));
+        assertNotNull(styleCache.keyFor(mBaseURL + "/sprites/sprite.json"));
+    }
+
+    @Test
+    public void changedStyleReplacesItsResources() throws Exception {
+        DiskCache diskCache = new DiskCache(mFolder.newFolder("styles"), 1024 * 1024);
+        TileProxy tileProxy = new TileProxy(new DiskCache(mFolder.newFolder("tiles"), 1024 * 1024), DEFAULT_MAX_AGE);
+        String styleURL = mBaseURL + "/resources/styles/root.json";
+        String oldSpriteKey = openStyle(diskCache, tileProxy, styleURL, true).keyFor(mBaseURL + "/sprites/sprite.json");
+        assertNotNull(diskCache.get(oldSpriteKey));
+
+        mStyle = "{\"version\":8,\"name\":\"changed\"}";
+        VectorStyleCache styleCache = openStyle(diskCache, tileProxy, styleURL, true);
+        String newSpriteKey = styleCache.keyFor(mBaseURL + "/sprites/sprite.json");
+        assertNotEquals(oldSpriteKey, newSpriteKey);
+        assertNull(diskCache.get(oldSpriteKey));
+        assertNotNull(diskCache.get(newSpriteKey));
+        assertEquals(2, requestCount("/sprites/sprite.json"));
+    }
+}
@@ -0,0 +1,256 @@
+/**
+ * Drives many scripted app sessions against the stand-in server, or any server that answers the
+ * same requests, and reports the latency of each step. A session does what the app does after
+ * launch: log in, load the portal, find the basemap group, page through its items, fetch some
+ * thumbnails, query the breweries in a random extent and solve a route between two of them.
+ * A step that fails ends its session, the way a failed login or portal load stops the app.
+ *
+ * Run it with ./gradlew :standin:loadTest -Pargs="--sessions=5000 --concurrency=64 --latency=100 --error-rate=0.01"
+ * Without --server= it starts its own stand-in server with the network conditions given.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LoadHarness {
+
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 60000;
+    private static final int PAGE_SIZE = 10;
+    private static final double[] SESSION_AREA = {-74.3, 40.5, -73.7, 41.0}; // where the fixture breweries are
+    private static final double QUERY_EXTENT_DEGREES = 0.1;
+
+    private final String mBaseURL;
+    private final int mThumbnailsPerSession;
+    private final MetricsRegistry mMetricsRegistry;
+    private final AtomicInteger mCompletedSessions = new AtomicInteger();
+    private final AtomicInteger mFailedSessions = new AtomicInteger();
+
+    /**
+     * Construct a harness.
+     * @param baseURL - server URL ending in a slash.
+     * @param thumbnailsPerSession - how many of the basemap thumbnails each session fetches.
+     * @param metricsRegistry - where step latencies are recorded, as harness.<step>.
+     */
+    public LoadHarness(String baseURL, int thumbnailsPerSession, MetricsRegistry metricsRegistry) {
+        this.mBaseURL = baseURL.endsWith("/") ? baseURL : baseURL + "/";
+        this.mThumbnailsPerSession = thumbnailsPerSession;
+        this.mMetricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * Run sessions, some at the same time, and wait for them all.
+     * @param sessionCount - sessions to run.
+     * @param concurrency - sessions in progress at the same time.
+     * @param seed - seed of the random extents and stops, each session gets its own generator.
+     */
+    public void run(int sessionCount, int concurrency, final long seed) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+        for (int i = 0; i < sessionCount; i ++) {
+            final int sessionNumber = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    boolean succeeded = runSession(new Random(seed + sessionNumber));
+                    mCompletedSessions.incrementAndGet();
+                    if ( ! succeeded) {
+                        mFailedSessions.incrementAndGet();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    public int getCompletedSessions() {
+        return mCompletedSessions.get();
+    }
+
+    public int getFailedSessions() {
+        return mFailedSessions.get();
+    }
+
+    /**
+     * One scripted session.
+     * @return {boolean} true if every step succeeded.
+     */
+    private boolean runSession(Random random) {
+        long sessionStartNanos = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            step("info", "sharing/rest/info", "f=json");
+            JSONObject token = step("login", "sharing/rest/generateToken", "f=json&username=standin&password=standin&client=referer&referer=" + encode(mBaseURL));
+            String tokenParameter = "&token=" + encode(token.getString("token"));
+            JSONObject portalSelf = step("portal", "sharing/rest/portals/self", "f=json" + tokenParameter);
+            JSONObject groups = step("groups", "sharing/rest/community/groups", "f=json&num=1&q=" + encode(portalSelf.getString("basemapGalleryGroupQuery")) + tokenParameter);
+            String groupId = groups.getJSONArray("results").getJSONObject(0).getString("id");
+
+            JSONArray items = new JSONArray();
+            int nextStart = 1;
+            while (nextStart > 0) {
+                JSONObject page = step("items", "sharing/rest/search", "f=json&num=" + PAGE_SIZE + "&start=" + nextStart + "&q=" + encode("group:" + groupId) + tokenParameter);
+                JSONArray results = page.getJSONArray("results");
+                for (int i = 0; i < results.length(); i ++) {
+                    items.put(results.getJSONObject(i));
+                }
+                nextStart = page.getInt("nextStart");
+            }
+            for (int i = 0; i < Math.min(mThumbnailsPerSession, items.length()); i ++) {
+                JSONObject item = items.getJSONObject(i);
+                fetch("thumbnail", "sharing/rest/content/items/" + item.getString("id") + "/info/" + item.optString("thumbnail", "thumbnail/thumbnail.png"), null);
+            }
+            step("basemap", "sharing/rest/content/items/" + items.getJSONObject(random.nextInt(items.length())).getString("id") + "/data", "f=json" + tokenParameter);
+
+            double west = SESSION_AREA[0] + random.nextDouble() * (SESSION_AREA[2] - SESSION_AREA[0] - QUERY_EXTENT_DEGREES);
+            double south = SESSION_AREA[1] + random.nextDouble() * (SESSION_AREA[3] - SESSION_AREA[1] - QUERY_EXTENT_DEGREES);
+            String envelope = new JSONObject()
+                    .put("xmin", west).put("ymin", south).put("xmax", west + QUERY_EXTENT_DEGREES).put("ymax", south + QUERY_EXTENT_DEGREES)
+                    .put("spatialReference", new JSONObject().put("wkid", 4326)).toString();
+            step("features", "arcgis/rest/services/US_Breweries/FeatureServer/0/query", "f=json&where=1%3D1&outFields=*&returnGeometry=true&outSR=102100&geometryType=esriGeometryEnvelope&spatialRel=esriSpatialRelIntersects&geometry=" + encode(envelope) + tokenParameter);
+
+            String stops = (SESSION_AREA[0] + random.nextDouble() * (SESSION_AREA[2] - SESSION_AREA[0])) + "," + (SESSION_AREA[1] + random.nextDouble() * (SESSION_AREA[3] - SESSION_AREA[1]))
+                    + ";" + (SESSION_AREA[0] + random.nextDouble() * (SESSION_AREA[2] - SESSION_AREA[0])) + "," + (SESSION_AREA[1] + random.nextDouble() * (SESSION_AREA[3] - SESSION_AREA[1]));
+            step("route", "arcgis/rest/services/World/Route/NAServer/Route_NorthAmerica/solve", "f=json&returnDirections=true&returnRoutes=true&returnStops=true&outSR=102100&stops=" + encode(stops) + tokenParameter);
+            succeeded = true;
+        } catch (IOException | JSONException exception) {
+            // the step has been recorded as failed, the session ends here
+        } finally {
+            mMetricsRegistry.recordSince("harness.session", sessionStartNanos, succeeded);
+        }
+        return succeeded;
+    }
+
+    /**
+     * POST a request that answers with JSON and record how long it took.
+     * @return {JSONObject} the response, an error response throws.
+     */
+    private JSONObject step(String stepName, String path, String formParameters) throws IOException, JSONException {
+        long startNanos = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            JSONObject response = new JSONObject(new String(request(path, formParameters), "UTF-8"));
+            if (response.has("error")) {
+                throw new IOException(stepName + ": " + response.getJSONObject("error").optString("message"));
+            }
+            succeeded = true;
+            return response;
+        } finally {
+            mMetricsRegistry.recordSince("harness." + stepName, startNanos, succeeded);
+        }
+    }
+
+    /**
+     * GET a resource that is not JSON and record how long it took.
+     */
+    private byte[] fetch(String stepName, String path, String queryParameters) throws IOException {
+        long startNanos = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            byte[] response = request(queryParameters != null ? path + "?" + queryParameters : path, null);
+            succeeded = true;
+            return response;
+        } finally {
+            mMetricsRegistry.recordSince("harness." + stepName, startNanos, succeeded);
+        }
+    }
+
+    private byte[] request(String path, String formParameters) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(mBaseURL + path).openConnection();
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            if (formParameters != null) {
+                byte[] body = formParameters.getBytes("UTF-8");
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                connection.setFixedLengthStreamingMode(body.length);
+                OutputStream outputStream = connection.getOutputStream();
+                try {
+                    outputStream.write(body);
+                } finally {
+                    outputStream.close();
+                }
+            }
+            int status = connection.getResponseCode();
+            InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            if (inputStream != null) {
+                try {
+                    byte[] buffer = new byte[8192];
+                    int bytesRead;
+                    while ((bytesRead = inputStream.read(buffer)) != -1) {
+                        response.write(buffer, 0, bytesRead);
+                    }
+                } finally {
+                    inputStream.close();
+                }
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status + " from " + path);
+            }
+            return response.toByteArray();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String encode(String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    /**
+     * Arguments: --server= (otherwise an embedded stand-in server is started and takes the
+     * StandInServer network condition arguments) --sessions= --concurrency= --thumbnails= --seed=
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = StandInServer.parseOptions(args);
+        StandInServer standInServer = null;
+        String baseURL = options.get("server");
+        int concurrency = Integer.parseInt(options.containsKey("concurrency") ? options.get("concurrency") : "32");
+        if (baseURL == null) {
+            standInServer = new StandInServer(0, StandInServer.networkConditionsFrom(options), concurrency * 2);
+            standInServer.start();
+            baseURL = standInServer.getBaseURL();
+        }
+        int sessionCount = Integer.parseInt(options.containsKey("sessions") ? options.get("sessions") : "1000");
+        int thumbnailCount = Integer.parseInt(options.containsKey("thumbnails") ? options.get("thumbnails") : "12");
+        long seed = Long.parseLong(options.containsKey("seed") ? options.get("seed") : "1");
+
+        System.out.println("Running " + sessionCount + " sessions, " + concurrency + " at a time, against " + baseURL);
+        MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+        LoadHarness loadHarness = new LoadHarness(baseURL, thumbnailCount, metricsRegistry);
+        long startNanos = System.nanoTime();
+        loadHarness.run(sessionCount, concurrency, seed);
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        if (standInServer != null) {
+            standInServer.stop();
+        }
+
+        List<String> snapshot = metricsRegistry.snapshot();
+        for (String line : snapshot) {
+            System.out.println(line);
+        }
+        System.out.println(String.format("%d sessions, %d failed, in %.1fs, %.1f sessions/s",
+                loadHarness.getCompletedSessions(), loadHarness.getFailedSessions(), seconds, loadHarness.getCompletedSessions() / seconds));
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * The network the stand-in server pretends to be behind: a fixed latency plus random jitter before
+ * each response, a bandwidth limit on the response body and a rate of failed requests. The random
+ * numbers come from a seeded generator so a load test can be repeated with the same failures.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+public class NetworkConditions {
+
+    private static final int THROTTLE_INTERVAL = 50; // milliseconds between chunks of a throttled response
+
+    private final long mLatencyMillis;
+    private final long mJitterMillis;
+    private final long mBytesPerSecond;
+    private final double mErrorRate;
+    private final Random mRandom;
+
+    /**
+     * Construct network conditions.
+     * @param latencyMillis - milliseconds added before every response.
+     * @param jitterMillis - up to this many more milliseconds, picked at random per response.
+     * @param bytesPerSecond - response bandwidth limit, 0 for no limit.
+     * @param errorRate - fraction of requests that fail, 0 to 1.
+     * @param seed - seed of the random numbers.
+     */
+    public NetworkConditions(long latencyMillis, long jitterMillis, long bytesPerSecond, double errorRate, long seed) {
+        this.mLatencyMillis = Math.max(0, latencyMillis);
+        this.mJitterMillis = Math.max(0, jitterMillis);
+        this.mBytesPerSecond = Math.max(0, bytesPerSecond);
+        this.mErrorRate = Math.max(0, Math.min(errorRate, 1));
+        this.mRandom = new Random(seed);
+    }
+
+    /**
+     * @return {NetworkConditions} a perfect network, no latency, no limit and no errors.
+     */
+    public static NetworkConditions none() {
+        return new NetworkConditions(0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Wait as long as the network takes to answer.
+     */
+    public void delay() throws InterruptedException {
+        long delay = mLatencyMillis;
+        if (mJitterMillis > 0) {
+            synchronized (mRandom) {
+                delay += (long) (mRandom.nextDouble() * mJitterMillis);
+            }
+        }
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * @return {boolean} true if this request should fail.
+     */
+    public boolean shouldFail() {
+        if (mErrorRate <= 0) {
+            return false;
+        }
+        synchronized (mRandom) {
+            return mRandom.nextDouble() < mErrorRate;
+        }
+    }
+
+    /**
+     * Write a response body no faster than the bandwidth limit.
+     * @param outputStream {OutputStream} the response body.
+     * @param data {byte[]} what to write.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void write(OutputStream outputStream, byte[] data) throws IOException, InterruptedException {
+        if (mBytesPerSecond <= 0) {
+            outputStream.write(data);
+            return;
+        }
+        int chunkSize = (int) Math.max(1, mBytesPerSecond * THROTTLE_INTERVAL / 1000);
+        for (int offset = 0; offset < data.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, data.length - offset);
+            outputStream.write(data, offset, length);
+            outputStream.flush();
+            Thread.sleep(length * 1000L / mBytesPerSecond);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "latency=" + mLatencyMillis + "ms jitter=" + mJitterMillis + "ms bandwidth=" + (mBytesPerSecond > 0 ? mBytesPerSecond + "B/s" : "unlimited") + " errorRate=" + mErrorRate;
+    }
+}
@@ -0,0 +1,800 @@
+/**
+ * A local stand-in for the ArcGIS Online services the app talks to, so performance can be measured
+ * the same way every time and without a network. It answers from the recorded fixtures in
+ * resources/fixtures:
+ *   - the portal: info, token, portals/self, community/self, the basemap group query, the group's
+ *     items (paged), each item, its web map data and a generated thumbnail. The app's breweries
+ *     layer and web map item ids are served too, pointing at this server.
+ *   - the US_Breweries feature service: metadata and queries by extent, object ids and out fields,
+ *     with paging, in WGS84 or Web Mercator.
+ *   - the North America route service: metadata and a solve that follows straight lines between
+ *     the stops at town driving speed.
+ *   - a World_Street_Map tiled map service: metadata and generated tiles with an ETag and a short
+ *     max-age, so the TileProxy's caching and revalidation can be exercised.
+ * Every response goes through NetworkConditions to add latency, limit bandwidth and fail some
+ * requests. Any user name, password or token is accepted.
+ *
+ * Run it with ./gradlew :standin:run -Pargs="--port=8480 --latency=150 --jitter=100 --bandwidth=250000 --error-rate=0.01"
+ * and set mStandInServerURL in MainActivity to the server, http://10.0.2.2:8480/ from the emulator.
+ */
+
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.imageio.ImageIO;
+
+public class StandInServer {
+
+    public static final int DEFAULT_PORT = 8480;
+    public static final String FEATURE_SERVICE_PATH = "/arcgis/rest/services/US_Breweries/FeatureServer";
+    public static final String ROUTE_SERVICE_PATH = "/arcgis/rest/services/World/Route/NAServer/Route_NorthAmerica";
+    public static final String TILE_SERVICE_PATH = "/arcgis/rest/services/World_Street_Map/MapServer";
+
+    private static final Pattern ITEM_PATH = Pattern.compile("^/sharing/rest/content/items/([^/]+)(/data|/info/.*)?$");
+    private static final Pattern TILE_PATH = Pattern.compile("^" + TILE_SERVICE_PATH + "/tile/(\\d+)/(\\d+)/(\\d+)$");
+    private static final Pattern GROUP_QUERY = Pattern.compile("group:\"?([^\" )]+)");
+    private static final int THUMBNAIL_WIDTH = 200;
+    private static final int THUMBNAIL_HEIGHT = 133;
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int TILE_SIZE = 256;
+    private static final int TILE_LEVELS = 20;
+    private static final int TILE_MAX_AGE = 60; // seconds
+    private static final double LEVEL_0_RESOLUTION = 156543.03392800014;
+    private static final double LEVEL_0_SCALE = 591657527.591555;
+    private static final double EARTH_RADIUS = 6378137.0;
+    private static final double METERS_PER_MILE = 1609.344;
+    private static final double DRIVING_METERS_PER_MINUTE = 40000.0 / 60; // 40 km/h in town
+
+    private final int mPort;
+    private final NetworkConditions mNetworkConditions;
+    private final int mThreadCount;
+    private HttpServer mHttpServer = null;
+    private ExecutorService mExecutor = null;
+    private String mBaseURL = null;
+
+    private final JSONObject mPortalSelf;
+    private final JSONObject mGroups;
+    private final JSONArray mItems;
+    private final JSONArray mContentItems;
+    private final String mItemData;
+    private final JSONObject mFeatureLayer;
+    private final JSONArray mFeatures;
+    private final JSONObject mRouteLayer;
+    private final Map<String, byte[]> mThumbnails = new ConcurrentHashMap<>();
+
+    /**
+     * Construct a server, the fixtures are read right away.
+     * @param port - port to listen on, 0 for any free port.
+     * @param networkConditions - latency, bandwidth and errors to apply to every response.
+     * @param threadCount - requests handled at the same time. Latency is a sleep so it ties up a thread.
+     */
+    public StandInServer(int port, NetworkConditions networkConditions, int threadCount) throws IOException {
+        this.mPort = port;
+        this.mNetworkConditions = networkConditions;
+        this.mThreadCount = Math.max(1, threadCount);
+        try {
+            mPortalSelf = new JSONObject(readFixture("portal_self.json"));
+            mGroups = new JSONObject(readFixture("groups.json"));
+            mItems = new JSONObject(readFixture("basemap_items.json")).getJSONArray("items");
+            mContentItems = new JSONObject(readFixture("content_items.json")).getJSONArray("items");
+            mItemData = readFixture("basemap_item_data.json");
+            mFeatureLayer = new JSONObject(readFixture("feature_layer.json"));
+            mFeatures = new JSONObject(readFixture("features.json")).getJSONArray("features");
+            mRouteLayer = new JSONObject(readFixture("route_layer.json"));
+        } catch (JSONException exception) {
+            throw new IOException("Bad fixture: " + exception.getMessage());
+        }
+    }
+
+    public synchronized void start() throws IOException {
+        if (mHttpServer != null) {
+            return;
+        }
+        // without this small responses wait on delayed ACKs and every request looks 40ms slower
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        mHttpServer = HttpServer.create(new InetSocketAddress(mPort), 1024);
+        mExecutor = Executors.newFixedThreadPool(mThreadCount);
+        mHttpServer.setExecutor(mExecutor);
+        mHttpServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleRequest(exchange);
+            }
+        });
+        mHttpServer.start();
+        mBaseURL = "http://localhost:" + mHttpServer.getAddress().getPort() + "/";
+    }
+
+    public synchronized void stop() {
+        if (mHttpServer != null) {
+            mHttpServer.stop(0);
+            mExecutor.shutdownNow();
+            mHttpServer = null;
+        }
+    }
+
+    /**
+     * @return {String} the server's URL ending in a slash, once started.
+     */
+    public synchronized String getBaseURL() {
+        return mBaseURL;
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        try {
+            respond(exchange);
+        } catch (InterruptedException exception) {
+            exchange.close(); // the server is stopping
+        }
+    }
+
+    private void respond(HttpExchange exchange) throws IOException, InterruptedException {
+        try {
+            Map<String, String> parameters = readParameters(exchange);
+            mNetworkConditions.delay();
+            if (mNetworkConditions.shouldFail()) {
+                send(exchange, 500, "application/json", errorJSON(500, "Stand-in server injected error").getBytes("UTF-8"));
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String baseURL = baseURLOf(exchange);
+            Matcher itemMatcher = ITEM_PATH.matcher(path);
+            Matcher tileMatcher = TILE_PATH.matcher(path);
+            if (tileMatcher.matches()) {
+                handleTile(exchange, Integer.parseInt(tileMatcher.group(1)), Integer.parseInt(tileMatcher.group(2)), Integer.parseInt(tileMatcher.group(3)));
+            } else if (path.equals(TILE_SERVICE_PATH)) {
+                sendJSON(exchange, tiledServiceInfo());
+            } else if (itemMatcher.matches()) {
+                handleItem(exchange, itemMatcher.group(1), itemMatcher.group(2), baseURL);
+            } else if (path.startsWith("/sharing/rest/info") || path.startsWith("/sharing/info")) {
+                sendJSON(exchange, new JSONObject()
+                        .put("owningSystemUrl", baseURL)
+                        .put("authInfo", new JSONObject()
+                                .put("isTokenBasedSecurity", true)
+                                .put("tokenServicesUrl", baseURL + "sharing/rest/generateToken")));
+            } else if (path.endsWith("/generateToken")) {
+                sendJSON(exchange, new JSONObject()
+                        .put("token", "standin")
+                        .put("expires", System.currentTimeMillis() + 2 * 60 * 60 * 1000L)
+                        .put("ssl", false));
+            } else if (path.startsWith("/sharing/rest/oauth2/token")) {
+                sendJSON(exchange, new JSONObject()
+                        .put("access_token", "standin")
+                        .put("refresh_token", "standin")
+                        .put("expires_in", 7200)
+                        .put("username", mPortalSelf.getJSONObject("user").getString("username")));
+            } else if (path.startsWith("/sharing/rest/portals/self")) {
+                sendJSON(exchange, new JSONObject(mPortalSelf.toString().replace("{base}", baseURL)));
+            } else if (path.startsWith("/sharing/rest/community/self")) {
+                sendJSON(exchange, mPortalSelf.getJSONObject("user"));
+            } else if (path.startsWith("/sharing/rest/community/groups")) {
+                sendJSON(exchange, new JSONObject(mGroups.toString()).put("query", valueOf(parameters, "q", "")));
+            } else if (path.startsWith("/sharing/rest/search")) {
+                handleSearch(exchange, parameters, baseURL);
+            } else if (path.equals(FEATURE_SERVICE_PATH)) {
+                sendJSON(exchange, new JSONObject()
+                        .put("currentVersion", mFeatureLayer.get("currentVersion"))
+                        .put("serviceDescription", mFeatureLayer.getString("description"))
+                        .put("maxRecordCount", mFeatureLayer.getInt("maxRecordCount"))
+                        .put("capabilities", mFeatureLayer.getString("capabilities"))
+                        .put("spatialReference", mFeatureLayer.getJSONObject("extent").getJSONObject("spatialReference"))
+                        .put("layers", new JSONArray().put(new JSONObject().put("id", 0).put("name", mFeatureLayer.getString("name")))));
+            } else if (path.equals(FEATURE_SERVICE_PATH + "/0")) {
+                sendJSON(exchange, mFeatureLayer);
+            } else if (path.equals(FEATURE_SERVICE_PATH + "/0/query")) {
+                sendJSON(exchange, queryFeatures(parameters));
+            } else if (path.equals(ROUTE_SERVICE_PATH.substring(0, ROUTE_SERVICE_PATH.lastIndexOf('/')))) {
+                sendJSON(exchange, new JSONObject()
+                        .put("currentVersion", mRouteLayer.get("currentVersion"))
+                        .put("routeLayers", new JSONArray().put(mRouteLayer.getString("layerName")))
+                        .put("serviceAreaLayers", new JSONArray())
+                        .put("closestFacilityLayers", new JSONArray()));
+            } else if (path.equals(ROUTE_SERVICE_PATH)) {
+                sendJSON(exchange, mRouteLayer);
+            } else if (path.equals(ROUTE_SERVICE_PATH + "/solve")) {
+                sendJSON(exchange, solveRoute(parameters));
+            } else {
+                send(exchange, 404, "application/json", errorJSON(400, "Invalid URL").getBytes("UTF-8"));
+            }
+        } catch (JSONException | IllegalArgumentException exception) {
+            send(exchange, 200, "application/json", errorJSON(400, "Unable to complete operation: " + exception.getMessage()).getBytes("UTF-8"));
+        }
+    }
+
+    /**
+     * A content item, its web map data or its thumbnail.
+     */
+    private void handleItem(HttpExchange exchange, String itemId, String subPath, String baseURL) throws IOException, InterruptedException, JSONException {
+        JSONObject item = findItem(itemId);
+        if (item == null) {
+            send(exchange, 200, "application/json", errorJSON(400, "Item does not exist or is inaccessible.").getBytes("UTF-8"));
+        } else if (subPath == null) {
+            sendJSON(exchange, toPortalItem(item, baseURL));
+        } else if (subPath.equals("/data") && ! item.has("basemapService")) {
+            sendJSON(exchange, new JSONObject());
+        } else if (subPath.equals("/data")) {
+            String itemData = mItemData
+                    .replace("{title}", item.getString("title"))
+                    .replace("{basemapService}", item.getString("basemapService"))
+                    .replace("{base}", baseURL);
+            send(exchange, 200, "application/json", itemData.getBytes("UTF-8"));
+        } else {
+            send(exchange, 200, "image/png", thumbnailFor(itemId));
+        }
+    }
+
+    /**
+     * A generated tile, the same bytes every time so its ETag can be revalidated.
+     */
+    private void handleTile(HttpExchange exchange, int level, int row, int column) throws IOException, InterruptedException {
+        String eTag = "\"" + level + "-" + row + "-" + column + "\"";
+        exchange.getResponseHeaders().set("ETag", eTag);
+        exchange.getResponseHeaders().set("Cache-Control", "max-age=" + TILE_MAX_AGE);
+        if (eTag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(0xf0ede5));
+        graphics.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+        graphics.setColor(new Color(0xc8c2b4));
+        graphics.drawRect(0, 0, TILE_SIZE - 1, TILE_SIZE - 1);
+        graphics.setColor(Color.DARK_GRAY);
+        graphics.drawString(level + "/" + row + "/" + column, 8, 20);
+        graphics.dispose();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", outputStream);
+        send(exchange, 200, "image/png", outputStream.toByteArray());
+    }
+
+    private static JSONObject tiledServiceInfo() throws JSONException {
+        JSONArray levels = new JSONArray();
+        for (int level = 0; level < TILE_LEVELS; level ++) {
+            levels.put(new JSONObject()
+                    .put("level", level)
+                    .put("resolution", LEVEL_0_RESOLUTION / (1 << level))
+                    .put("scale", LEVEL_0_SCALE / (1 << level)));
+        }
+        JSONObject worldExtent = new JSONObject()
+                .put("xmin", -20037508.342787).put("ymin", -20037508.342787)
+                .put("xmax", 20037508.342787).put("ymax", 20037508.342787)
+                .put("spatialReference", spatialReference(102100));
+        return new JSONObject()
+                .put("currentVersion", 10.3)
+                .put("mapName", "Layers")
+                .put("singleFusedMapCache", true)
+                .put("spatialReference", spatialReference(102100))
+                .put("tileInfo", new JSONObject()
+                        .put("rows", TILE_SIZE)
+                        .put("cols", TILE_SIZE)
+                        .put("dpi", 96)
+                        .put("format", "PNG")
+                        .put("compressionQuality", 0)
+                        .put("origin", new JSONObject().put("x", -20037508.342787).put("y", 20037508.342787))
+                        .put("spatialReference", spatialReference(102100))
+                        .put("lods", levels))
+                .put("initialExtent", worldExtent)
+                .put("fullExtent", worldExtent)
+                .put("units", "esriMeters")
+                .put("capabilities", "Map,Query,Data")
+                .put("copyrightText", "Stand-in tiles");
+    }
+
+    /**
+     * Portal search: the items of the basemap group, a page at a time. start counts from 1.
+     */
+    private void handleSearch(HttpExchange exchange, Map<String, String> parameters, String baseURL) throws IOException, InterruptedException, JSONException {
+        String query = valueOf(parameters, "q", "");
+        Matcher groupMatcher = GROUP_QUERY.matcher(query);
+        String basemapGroupId = mGroups.getJSONArray("results").getJSONObject(0).getString("id");
+        boolean isBasemapGroup = ! groupMatcher.find() || basemapGroupId.equals(groupMatcher.group(1));
+        int total = isBasemapGroup ? mItems.length() : 0;
+        int start = Math.max(1, Integer.parseInt(valueOf(parameters, "start", "1")));
+        int pageSize = Math.max(1, Math.min(Integer.parseInt(valueOf(parameters, "num", "10")), MAX_PAGE_SIZE));
+        JSONArray results = new JSONArray();
+        for (int i = start - 1; i < Math.min(total, start - 1 + pageSize); i ++) {
+            results.put(toPortalItem(mItems.getJSONObject(i), baseURL));
+        }
+        sendJSON(exchange, new JSONObject()
+                .put("query", query)
+                .put("total", total)
+                .put("start", start)
+                .put("num", pageSize)
+                .put("nextStart", start - 1 + pageSize < total ? start + pageSize : -1)
+                .put("results", results));
+    }
+
+    /**
+     * Feature query with the parameters the app uses: where (everything), objectIds, an envelope
+     * geometry, outFields, returnGeometry, outSR, returnIdsOnly, returnCountOnly and paging.
+     */
+    private JSONObject queryFeatures(Map<String, String> parameters) throws JSONException {
+        Set<Integer> objectIds = null;
+        String objectIdList = valueOf(parameters, "objectIds", "");
+        if (objectIdList.length() > 0) {
+            objectIds = new HashSet<>();
+            for (String objectId : objectIdList.split(",")) {
+                objectIds.add(Integer.parseInt(objectId.trim()));
+            }
+        }
+        double[] envelope = parseEnvelope(valueOf(parameters, "geometry", ""), parseWkid(valueOf(parameters, "inSR", "")));
+        int outWkid = parseWkid(valueOf(parameters, "outSR", ""));
+        boolean isOutMercator = isWebMercator(outWkid);
+        Set<String> outFields = parseOutFields(valueOf(parameters, "outFields", ""));
+        boolean returnGeometry = ! "false".equalsIgnoreCase(valueOf(parameters, "returnGeometry", "true"));
+        int offset = Math.max(0, Integer.parseInt(valueOf(parameters, "resultOffset", "0")));
+        int maxRecordCount = mFeatureLayer.getInt("maxRecordCount");
+        int recordCount = Math.max(1, Math.min(Integer.parseInt(valueOf(parameters, "resultRecordCount", Integer.toString(maxRecordCount))), maxRecordCount));
+
+        JSONArray features = new JSONArray();
+        JSONArray matchingIds = new JSONArray();
+        int matched = 0;
+        boolean exceededTransferLimit = false;
+        for (int i = 0; i < mFeatures.length(); i ++) {
+            JSONObject feature = mFeatures.getJSONObject(i);
+            JSONObject attributes = feature.getJSONObject("attributes");
+            JSONObject geometry = feature.getJSONObject("geometry");
+            double longitude = geometry.getDouble("x");
+            double latitude = geometry.getDouble("y");
+            if (objectIds != null && ! objectIds.contains(attributes.getInt("objectid"))) {
+                continue;
+            }
+            if (envelope != null && (longitude < envelope[0] || latitude < envelope[1] || longitude > envelope[2] || latitude > envelope[3])) {
+                continue;
+            }
+            matched ++;
+            if (matched <= offset) {
+                continue;
+            }
+            if (features.length() >= recordCount) {
+                exceededTransferLimit = true;
+                continue;
+            }
+            matchingIds.put(attributes.getInt("objectid"));
+            JSONObject outAttributes = new JSONObject();
+            for (String fieldName : JSONObject.getNames(attributes)) {
+                if (outFields == null || outFields.contains(fieldName.toLowerCase())) {
+                    outAttributes.put(fieldName, attributes.get(fieldName));
+                }
+            }
+            JSONObject outFeature = new JSONObject().put("attributes", outAttributes);
+            if (returnGeometry) {
+                outFeature.put("geometry", isOutMercator
+                        ? new JSONObject().put("x", toMercatorX(longitude)).put("y", toMercatorY(latitude))
+                        : new JSONObject().put("x", longitude).put("y", latitude));
+            }
+            features.put(outFeature);
+        }
+        if ("true".equalsIgnoreCase(valueOf(parameters, "returnCountOnly", "false"))) {
+            return new JSONObject().put("count", matched);
+        }
+        if ("true".equalsIgnoreCase(valueOf(parameters, "returnIdsOnly", "false"))) {
+            return new JSONObject().put("objectIdFieldName", "objectid").put("objectIds", matchingIds);
+        }
+        JSONArray fields = new JSONArray();
+        JSONArray layerFields = mFeatureLayer.getJSONArray("fields");
+        for (int i = 0; i < layerFields.length(); i ++) {
+            JSONObject field = layerFields.getJSONObject(i);
+            if (outFields == null || outFields.contains(field.getString("name").toLowerCase())) {
+                fields.put(field);
+            }
+        }
+        return new JSONObject()
+                .put("objectIdFieldName", "objectid")
+                .put("globalIdFieldName", "")
+                .put("geometryType", "esriGeometryPoint")
+                .put("spatialReference", spatialReference(isOutMercator ? 102100 : 4326))
+                .put("fields", fields)
+                .put("features", features)
+                .put("exceededTransferLimit", exceededTransferLimit);
+    }
+
+    /**
+     * Solve a route through the stops in the order given: straight lines at town driving speed.
+     * Stops are a feature set or x,y;x,y pairs in the stops' spatial reference.
+     */
+    private JSONObject solveRoute(Map<String, String> parameters) throws JSONException {
+        String stopsParameter = valueOf(parameters, "stops", "");
+        int stopsWkid = 4326;
+        double[][] stops;
+        JSONArray stopNames = new JSONArray();
+        if (stopsParameter.trim().startsWith("{")) {
+            JSONObject stopsJSON = new JSONObject(stopsParameter);
+            JSONArray stopFeatures = stopsJSON.getJSONArray("features");
+            if (stopsJSON.has("spatialReference")) {
+                stopsWkid = stopsJSON.getJSONObject("spatialReference").optInt("wkid", 4326);
+            }
+            stops = new double[stopFeatures.length()][];
+            for (int i = 0; i < stopFeatures.length(); i ++) {
+                JSONObject geometry = stopFeatures.getJSONObject(i).getJSONObject("geometry");
+                if (geometry.has("spatialReference")) {
+                    stopsWkid = geometry.getJSONObject("spatialReference").optInt("wkid", stopsWkid);
+                }
+                stops[i] = new double[] { geometry.getDouble("x"), geometry.getDouble("y") };
+                JSONObject attributes = stopFeatures.getJSONObject(i).optJSONObject("attributes");
+                stopNames.put(attributes != null ? attributes.optString("Name", "Location " + (i + 1)) : "Location " + (i + 1));
+            }
+        } else {
+            String[] pairs = stopsParameter.split(";");
+            stops = new double[pairs.length][];
+            for (int i = 0; i < pairs.length; i ++) {
+                String[] coordinates = pairs[i].split(",");
+                stops[i] = new double[] { Double.parseDouble(coordinates[0].trim()), Double.parseDouble(coordinates[1].trim()) };
+                stopNames.put("Location " + (i + 1));
+            }
+        }
+        if (stops.length < 2) {
+            throw new IllegalArgumentException("Need at least two stops to solve a route.");
+        }
+        int outWkid = parseWkid(valueOf(parameters, "outSR", Integer.toString(stopsWkid)));
+        if (outWkid == 0) {
+            outWkid = stopsWkid;
+        }
+        boolean isStopsMercator = isWebMercator(stopsWkid);
+        boolean isOutMercator = isWebMercator(outWkid);
+        String routeName = stopNames.getString(0) + " - " + stopNames.getString(stops.length - 1);
+
+        JSONArray path = new JSONArray();
+        JSONArray stopFeatures = new JSONArray();
+        JSONArray directionFeatures = new JSONArray();
+        double totalMeters = 0;
+        for (int i = 0; i < stops.length; i ++) {
+            double longitude = isStopsMercator ? toLongitude(stops[i][0]) : stops[i][0];
+            double latitude = isStopsMercator ? toLatitude(stops[i][1]) : stops[i][1];
+            if (i > 0) {
+                double previousLongitude = isStopsMercator ? toLongitude(stops[i - 1][0]) : stops[i - 1][0];
+                double previousLatitude = isStopsMercator ? toLatitude(stops[i - 1][1]) : stops[i - 1][1];
+                double legMeters = distance(previousLongitude, previousLatitude, longitude, latitude);
+                totalMeters += legMeters;
+                int steps = 20;
+                for (int step = 1; step <= steps; step ++) {
+                    double stepLongitude = previousLongitude + (longitude - previousLongitude) * step / steps;
+                    double stepLatitude = previousLatitude + (latitude - previousLatitude) * step / steps;
+                    path.put(point(stepLongitude, stepLatitude, isOutMercator));
+                }
+                directionFeatures.put(new JSONObject().put("attributes", new JSONObject()
+                        .put("length", legMeters / METERS_PER_MILE)
+                        .put("time", legMeters / DRIVING_METERS_PER_MINUTE)
+                        .put("text", "Drive to " + stopNames.getString(i))
+                        .put("maneuverType", "esriDMTStraight")));
+            } else {
+                path.put(point(longitude, latitude, isOutMercator));
+                directionFeatures.put(new JSONObject().put("attributes", new JSONObject()
+                        .put("length", 0)
+                        .put("time", 0)
+                        .put("text", "Start at " + stopNames.getString(0))
+                        .put("maneuverType", "esriDMTDepart")));
+            }
+            JSONArray stopPoint = point(longitude, latitude, isOutMercator);
+            JSONObject stopGeometry = new JSONObject().put("x", stopPoint.getDouble(0)).put("y", stopPoint.getDouble(1));
+            stopFeatures.put(new JSONObject()
+                    .put("attributes", new JSONObject()
+                            .put("ObjectID", i + 1)
+                            .put("Name", stopNames.getString(i))
+                            .put("RouteName", routeName)
+                            .put("Sequence", i + 1)
+                            .put("Status", 0)
+                            .put("Cumul_Kilometers", totalMeters / 1000)
+                            .put("Cumul_Miles", totalMeters / METERS_PER_MILE)
+                            .put("Cumul_TravelTime", totalMeters / DRIVING_METERS_PER_MINUTE))
+                    .put("geometry", stopGeometry));
+        }
+        JSONObject route = new JSONObject()
+                .put("attributes", new JSONObject()
+                        .put("ObjectID", 1)
+                        .put("Name", routeName)
+                        .put("FirstStopID", 1)
+                        .put("LastStopID", stops.length)
+                        .put("StopCount", stops.length)
+                        .put("Total_Kilometers", totalMeters / 1000)
+                        .put("Total_Miles", totalMeters / METERS_PER_MILE)
+                        .put("Total_TravelTime", totalMeters / DRIVING_METERS_PER_MINUTE)
+                        .put("Shape_Length", totalMeters))
+                .put("geometry", new JSONObject().put("paths", new JSONArray().put(path)));
+        return new JSONObject()
+                .put("messages", new JSONArray())
+                .put("routes", new JSONObject()
+                        .put("geometryType", "esriGeometryPolyline")
+                        .put("spatialReference", spatialReference(outWkid))
+                        .put("features", new JSONArray().put(route)))
+                .put("stops", new JSONObject()
+                        .put("geometryType", "esriGeometryPoint")
+                        .put("spatialReference", spatialReference(outWkid))
+                        .put("features", stopFeatures))
+                .put("directions", new JSONArray().put(new JSONObject()
+                        .put("routeId", 1)
+                        .put("routeName", routeName)
+                        .put("summary", new JSONObject()
+                                .put("totalLength", totalMeters / METERS_PER_MILE)
+                                .put("totalTime", totalMeters / DRIVING_METERS_PER_MINUTE)
+                                .put("totalDriveTime", totalMeters / DRIVING_METERS_PER_MINUTE))
+                        .put("features", directionFeatures)));
+    }
+
+    private JSONObject findItem(String itemId) throws JSONException {
+        for (JSONArray items : new JSONArray[] { mItems, mContentItems }) {
+            for (int i = 0; i < items.length(); i ++) {
+                if (items.getJSONObject(i).getString("id").equals(itemId)) {
+                    return items.getJSONObject(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The fixture items carry the service their web map uses, which is not part of a portal item.
+     */
+    private static JSONObject toPortalItem(JSONObject item, String baseURL) throws JSONException {
+        JSONObject portalItem = new JSONObject(item.toString().replace("{base}", baseURL));
+        portalItem.remove("basemapService");
+        return portalItem;
+    }
+
+    /**
+     * A thumbnail in a color of its own for each item, made once.
+     */
+    private byte[] thumbnailFor(String itemId) throws IOException {
+        byte[] thumbnail = mThumbnails.get(itemId);
+        if (thumbnail == null) {
+            BufferedImage image = new BufferedImage(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = image.createGraphics();
+            graphics.setColor(new Color(itemId.hashCode() & 0xffffff));
+            graphics.fillRect(0, 0, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+            graphics.setColor(Color.WHITE);
+            graphics.drawString(itemId.substring(0, Math.min(16, itemId.length())), 8, THUMBNAIL_HEIGHT - 8);
+            graphics.dispose();
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", outputStream);
+            thumbnail = outputStream.toByteArray();
+            mThumbnails.put(itemId, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    private void sendJSON(HttpExchange exchange, JSONObject json) throws IOException, InterruptedException {
+        send(exchange, 200, "application/json", json.toString().getBytes("UTF-8"));
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", contentType + ("image/png".equals(contentType) ? "" : "; charset=utf-8"));
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        try {
+            mNetworkConditions.write(outputStream, body);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static String errorJSON(int code, String message) {
+        try {
+            return new JSONObject().put("error", new JSONObject().put("code", code).put("message", message).put("details", new JSONArray())).toString();
+        } catch (JSONException exception) {
+            return "{\"error\":{\"code\":" + code + "}}";
+        }
+    }
+
+    /**
+     * Query string and form body parameters, the body wins.
+     */
+    private static Map<String, String> readParameters(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        parseParameters(exchange.getRequestURI().getRawQuery(), parameters);
+        if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            InputStream inputStream = exchange.getRequestBody();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                body.write(buffer, 0, bytesRead);
+            }
+            inputStream.close();
+            parseParameters(new String(body.toByteArray(), "UTF-8"), parameters);
+        }
+        return parameters;
+    }
+
+    private static void parseParameters(String encodedParameters, Map<String, String> parameters) throws IOException {
+        if (encodedParameters == null || encodedParameters.length() == 0) {
+            return;
+        }
+        for (String parameter : encodedParameters.split("&")) {
+            int separator = parameter.indexOf('=');
+            String name = URLDecoder.decode(separator >= 0 ? parameter.substring(0, separator) : parameter, "UTF-8");
+            String value = separator >= 0 ? URLDecoder.decode(parameter.substring(separator + 1), "UTF-8") : "";
+            parameters.put(name, value);
+        }
+    }
+
+    private static String valueOf(Map<String, String> parameters, String name, String defaultValue) {
+        String value = parameters.get(name);
+        return value != null && value.length() > 0 ? value : defaultValue;
+    }
+
+    /**
+     * Clients reach the server as localhost, 10.0.2.2 from the emulator or the machine's address.
+     */
+    private static String baseURLOf(HttpExchange exchange) {
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        return "http://" + (host != null ? host : "localhost:" + exchange.getLocalAddress().getPort()) + "/";
+    }
+
+    /**
+     * @return {Set} lower case field names, or null for all fields.
+     */
+    private static Set<String> parseOutFields(String outFields) {
+        if (outFields.length() == 0 || outFields.trim().equals("*")) {
+            return null;
+        }
+        Set<String> fieldNames = new HashSet<>();
+        for (String fieldName : outFields.split(",")) {
+            fieldNames.add(fieldName.trim().toLowerCase());
+        }
+        fieldNames.add("objectid");
+        return fieldNames;
+    }
+
+    /**
+     * @return {double[]} west, south, east, north in degrees, or null for no envelope.
+     */
+    private static double[] parseEnvelope(String geometry, int inWkid) throws JSONException {
+        if (geometry.length() == 0) {
+            return null;
+        }
+        double xmin, ymin, xmax, ymax;
+        int wkid = inWkid;
+        if (geometry.trim().startsWith("{")) {
+            JSONObject envelope = new JSONObject(geometry);
+            if ( ! envelope.has("xmin")) {
+                return null; // only envelopes are supported, anything else matches everything
+            }
+            xmin = envelope.getDouble("xmin");
+            ymin = envelope.getDouble("ymin");
+            xmax = envelope.getDouble("xmax");
+            ymax = envelope.getDouble("ymax");
+            if (envelope.has("spatialReference")) {
+                wkid = envelope.getJSONObject("spatialReference").optInt("wkid", wkid);
+            }
+        } else {
+            String[] coordinates = geometry.split(",");
+            xmin = Double.parseDouble(coordinates[0].trim());
+            ymin = Double.parseDouble(coordinates[1].trim());
+            xmax = Double.parseDouble(coordinates[2].trim());
+            ymax = Double.parseDouble(coordinates[3].trim());
+        }
+        if (isWebMercator(wkid)) {
+            return new double[] { toLongitude(xmin), toLatitude(ymin), toLongitude(xmax), toLatitude(ymax) };
+        }
+        return new double[] { xmin, ymin, xmax, ymax };
+    }
+
+    private static int parseWkid(String spatialReference) throws JSONException {
+        if (spatialReference.length() == 0) {
+            return 0;
+        }
+        if (spatialReference.trim().startsWith("{")) {
+            return new JSONObject(spatialReference).optInt("wkid", 0);
+        }
+        return Integer.parseInt(spatialReference.trim());
+    }
+
+    private static boolean isWebMercator(int wkid) {
+        return wkid == 102100 || wkid == 3857 || wkid == 102113 || wkid == 900913;
+    }
+
+    private static JSONObject spatialReference(int wkid) throws JSONException {
+        return isWebMercator(wkid) ? new JSONObject().put("wkid", 102100).put("latestWkid", 3857) : new JSONObject().put("wkid", 4326).put("latestWkid", 4326);
+    }
+
+    private static JSONArray point(double longitude, double latitude, boolean isMercator) throws JSONException {
+        return isMercator ? new JSONArray().put(toMercatorX(longitude)).put(toMercatorY(latitude)) : new JSONArray().put(longitude).put(latitude);
+    }
+
+    private static double toMercatorX(double longitude) {
+        return Math.toRadians(longitude) * EARTH_RADIUS;
+    }
+
+    private static double toMercatorY(double latitude) {
+        return Math.log(Math.tan(Math.PI / 4 + Math.toRadians(latitude) / 2)) * EARTH_RADIUS;
+    }
+
+    private static double toLongitude(double x) {
+        return Math.toDegrees(x / EARTH_RADIUS);
+    }
+
+    private static double toLatitude(double y) {
+        return Math.toDegrees(2 * Math.atan(Math.exp(y / EARTH_RADIUS)) - Math.PI / 2);
+    }
+
+    /**
+     * Great circle distance in meters.
+     */
+    private static double distance(double longitude1, double latitude1, double longitude2, double latitude2) {
+        double deltaLatitude = Math.toRadians(latitude2 - latitude1);
+        double deltaLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(deltaLatitude / 2) * Math.sin(deltaLatitude / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * Math.sin(deltaLongitude / 2) * Math.sin(deltaLongitude / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private static String readFixture(String name) throws IOException {
+        InputStream inputStream = StandInServer.class.getResourceAsStream("/fixtures/" + name);
+        if (inputStream == null) {
+            throw new IOException("Missing fixture " + name);
+        }
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+            }
+            return new String(outputStream.toByteArray(), "UTF-8");
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Run the server until it is killed.
+     * Arguments: --port= --latency= --jitter= (milliseconds) --bandwidth= (bytes per second)
+     * --error-rate= (0 to 1) --seed= --threads=
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        StandInServer standInServer = new StandInServer(
+                Integer.parseInt(valueOf(options, "port", Integer.toString(DEFAULT_PORT))),
+                networkConditionsFrom(options),
+                Integer.parseInt(valueOf(options, "threads", "64")));
+        standInServer.start();
+        System.out.println("Stand-in server at " + standInServer.getBaseURL() + " with " + networkConditionsFrom(options));
+    }
+
+    static NetworkConditions networkConditionsFrom(Map<String, String> options) {
+        return new NetworkConditions(
+                Long.parseLong(valueOf(options, "latency", "0")),
+                Long.parseLong(valueOf(options, "jitter", "0")),
+                Long.parseLong(valueOf(options, "bandwidth", "0")),
+                Double.parseDouble(valueOf(options, "error-rate", "0")),
+                Long.parseLong(valueOf(options, "seed", "1")));
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int separator = arg.indexOf('=');
+                options.put(separator > 0 ? arg.substring(2, separator) : arg.substring(2), separator > 0 ? arg.substring(separator + 1) : "true");
+            }
+        }
+        return options;
+    }
+}
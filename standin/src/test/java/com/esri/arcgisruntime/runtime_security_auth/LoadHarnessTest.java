@@ -0,0 +1,49 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class LoadHarnessTest {
+
+    private static LoadHarness runAgainst(NetworkConditions networkConditions, int sessionCount, MetricsRegistry metricsRegistry) throws IOException, InterruptedException {
+        StandInServer standInServer = new StandInServer(0, networkConditions, 8);
+        standInServer.start();
+        try {
+            LoadHarness loadHarness = new LoadHarness(standInServer.getBaseURL(), 3, metricsRegistry);
+            loadHarness.run(sessionCount, 4, 1);
+            return loadHarness;
+        } finally {
+            standInServer.stop();
+        }
+    }
+
+    @Test
+    public void everyStepOfEverySessionIsRecorded() throws IOException, InterruptedException {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        LoadHarness loadHarness = runAgainst(NetworkConditions.none(), 6, metricsRegistry);
+        assertEquals(6, loadHarness.getCompletedSessions());
+        assertEquals(0, loadHarness.getFailedSessions());
+        assertEquals(6, metricsRegistry.histogram("harness.session").getCount());
+        assertEquals(0, metricsRegistry.histogram("harness.session").getFailedCount());
+        assertEquals(6, metricsRegistry.histogram("harness.login").getCount());
+        assertEquals(18, metricsRegistry.histogram("harness.thumbnail").getCount());
+        assertEquals(6, metricsRegistry.histogram("harness.features").getCount());
+        assertEquals(6, metricsRegistry.histogram("harness.route").getCount());
+        // the basemap group is paged through, more than one page per session
+        assertTrue(metricsRegistry.histogram("harness.items").getCount() > 6);
+    }
+
+    @Test
+    public void failedStepEndsItsSession() throws IOException, InterruptedException {
+        MetricsRegistry metricsRegistry = new MetricsRegistry();
+        LoadHarness loadHarness = runAgainst(new NetworkConditions(0, 0, 0, 1, 1), 4, metricsRegistry);
+        assertEquals(4, loadHarness.getCompletedSessions());
+        assertEquals(4, loadHarness.getFailedSessions());
+        assertEquals(4, metricsRegistry.histogram("harness.info").getFailedCount());
+        assertEquals(0, metricsRegistry.histogram("harness.login").getCount());
+        assertEquals(4, metricsRegistry.histogram("harness.session").getFailedCount());
+    }
+}
@@ -0,0 +1,71 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class NetworkConditionsTest {
+
+    @Test
+    public void perfectNetworkNeverFails() {
+        NetworkConditions networkConditions = NetworkConditions.none();
+        for (int i = 0; i < 1000; i ++) {
+            assertFalse(networkConditions.shouldFail());
+        }
+    }
+
+    @Test
+    public void errorRateIsClampedToOne() {
+        NetworkConditions networkConditions = new NetworkConditions(0, 0, 0, 2.5, 1);
+        for (int i = 0; i < 100; i ++) {
+            assertTrue(networkConditions.shouldFail());
+        }
+    }
+
+    @Test
+    public void sameSeedFailsTheSameRequests() {
+        NetworkConditions first = new NetworkConditions(0, 0, 0, 0.3, 42);
+        NetworkConditions second = new NetworkConditions(0, 0, 0, 0.3, 42);
+        int failures = 0;
+        for (int i = 0; i < 1000; i ++) {
+            boolean shouldFail = first.shouldFail();
+            assertEquals(shouldFail, second.shouldFail());
+            failures += shouldFail ? 1 : 0;
+        }
+        assertTrue(failures > 200 && failures < 400);
+    }
+
+    @Test
+    public void delayWaitsAtLeastTheLatency() throws InterruptedException {
+        NetworkConditions networkConditions = new NetworkConditions(50, 20, 0, 0, 1);
+        long startNanos = System.nanoTime();
+        networkConditions.delay();
+        assertTrue(System.nanoTime() - startNanos >= 50 * 1000000L);
+    }
+
+    @Test
+    public void unlimitedWriteWritesEverything() throws IOException, InterruptedException {
+        byte[] data = new byte[100000];
+        Arrays.fill(data, (byte) 7);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        NetworkConditions.none().write(outputStream, data);
+        assertArrayEquals(data, outputStream.toByteArray());
+    }
+
+    @Test
+    public void throttledWriteTakesAsLongAsTheBandwidthAllows() throws IOException, InterruptedException {
+        byte[] data = new byte[250];
+        for (int i = 0; i < data.length; i ++) {
+            data[i] = (byte) i;
+        }
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        long startNanos = System.nanoTime();
+        new NetworkConditions(0, 0, 1000, 0, 1).write(outputStream, data); // 50 bytes every 50ms
+        assertTrue(System.nanoTime() - startNanos >= 200 * 1000000L);
+        assertArrayEquals(data, outputStream.toByteArray());
+    }
+}
@@ -0,0 +1,168 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StandInServerTest {
+
+    private StandInServer mStandInServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mStandInServer = new StandInServer(0, NetworkConditions.none(), 4);
+        mStandInServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mStandInServer.stop();
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) >= 0) {
+            outputStream.write(buffer, 0, bytesRead);
+        }
+        inputStream.close();
+        return outputStream.toByteArray();
+    }
+
+    private HttpURLConnection get(String pathAndQuery) throws IOException {
+        return (HttpURLConnection) new URL(mStandInServer.getBaseURL() + pathAndQuery).openConnection();
+    }
+
+    private JSONObject getJSON(String pathAndQuery) throws IOException, JSONException {
+        HttpURLConnection connection = get(pathAndQuery);
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+            return new JSONObject(new String(readAll(connection.getInputStream()), "UTF-8"));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String encode(String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    @Test
+    public void optionsBecomeNetworkConditions() {
+        Map<String, String> options = StandInServer.parseOptions(new String[] { "--latency=150", "--error-rate=0.5", "--verbose", "stray" });
+        assertEquals("150", options.get("latency"));
+        assertEquals("0.5", options.get("error-rate"));
+        assertEquals("true", options.get("verbose"));
+        assertEquals(3, options.size());
+        assertEquals("latency=150ms jitter=0ms bandwidth=unlimited errorRate=0.5", StandInServer.networkConditionsFrom(options).toString());
+    }
+
+    @Test
+    public void portalInfoPointsAtTheServer() throws IOException, JSONException {
+        JSONObject info = getJSON("sharing/rest/info?f=json");
+        assertEquals(mStandInServer.getBaseURL(), info.getString("owningSystemUrl"));
+        assertEquals(mStandInServer.getBaseURL() + "sharing/rest/generateToken", info.getJSONObject("authInfo").getString("tokenServicesUrl"));
+    }
+
+    @Test
+    public void groupItemsArePaged() throws IOException, JSONException {
+        JSONObject firstPage = getJSON("sharing/rest/search?f=json&num=10&start=1&q=" + encode("group:standinbasemapgroup"));
+        assertEquals(24, firstPage.getInt("total"));
+        assertEquals(10, firstPage.getJSONArray("results").length());
+        assertEquals(11, firstPage.getInt("nextStart"));
+        assertFalse(firstPage.getJSONArray("results").getJSONObject(0).has("basemapService"));
+        JSONObject lastPage = getJSON("sharing/rest/search?f=json&num=10&start=21&q=" + encode("group:standinbasemapgroup"));
+        assertEquals(4, lastPage.getJSONArray("results").length());
+        assertEquals(-1, lastPage.getInt("nextStart"));
+        JSONObject otherGroup = getJSON("sharing/rest/search?f=json&q=" + encode("group:someothergroup"));
+        assertEquals(0, otherGroup.getInt("total"));
+    }
+
+    @Test
+    public void featureQueryHonorsObjectIdsAndOutFields() throws IOException, JSONException {
+        JSONObject result = getJSON(StandInServer.FEATURE_SERVICE_PATH.substring(1) + "/0/query?f=json&objectIds=1,2,3&outFields=name&returnGeometry=false");
+        JSONArray features = result.getJSONArray("features");
+        assertEquals(3, features.length());
+        JSONObject attributes = features.getJSONObject(0).getJSONObject("attributes");
+        assertTrue(attributes.has("objectid"));
+        assertTrue(attributes.has("name"));
+        assertFalse(attributes.has("website"));
+        assertFalse(features.getJSONObject(0).has("geometry"));
+        assertEquals(2, result.getJSONArray("fields").length());
+        assertEquals(3, getJSON(StandInServer.FEATURE_SERVICE_PATH.substring(1) + "/0/query?f=json&objectIds=1,2,3&returnCountOnly=true").getInt("count"));
+    }
+
+    @Test
+    public void featureQueryPagesPastTheRecordCount() throws IOException, JSONException {
+        JSONObject result = getJSON(StandInServer.FEATURE_SERVICE_PATH.substring(1) + "/0/query?f=json&resultRecordCount=100&resultOffset=200");
+        assertEquals(40, result.getJSONArray("features").length());
+        assertFalse(result.getBoolean("exceededTransferLimit"));
+        assertTrue(getJSON(StandInServer.FEATURE_SERVICE_PATH.substring(1) + "/0/query?f=json&resultRecordCount=100").getBoolean("exceededTransferLimit"));
+    }
+
+    @Test
+    public void routeFollowsTheStops() throws IOException, JSONException {
+        JSONObject result = getJSON(StandInServer.ROUTE_SERVICE_PATH.substring(1) + "/solve?f=json&outSR=102100&stops=" + encode("-74.0,40.7;-73.9,40.8;-73.8,40.7"));
+        JSONObject route = result.getJSONObject("routes").getJSONArray("features").getJSONObject(0);
+        assertEquals(3, route.getJSONObject("attributes").getInt("StopCount"));
+        assertTrue(route.getJSONObject("attributes").getDouble("Total_Kilometers") > 20);
+        assertEquals(102100, result.getJSONObject("routes").getJSONObject("spatialReference").getInt("wkid"));
+        assertEquals(3, result.getJSONArray("directions").getJSONObject(0).getJSONArray("features").length());
+        JSONObject oneStop = getJSON(StandInServer.ROUTE_SERVICE_PATH.substring(1) + "/solve?f=json&stops=" + encode("-74.0,40.7"));
+        assertEquals(400, oneStop.getJSONObject("error").getInt("code"));
+    }
+
+    @Test
+    public void thumbnailsArePNGs() throws IOException {
+        HttpURLConnection connection = get("sharing/rest/content/items/standinbasemap000000000000000000/info/thumbnail/ago_downloaded.png");
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+            assertEquals("image/png", connection.getContentType());
+            byte[] thumbnail = readAll(connection.getInputStream());
+            assertEquals((byte) 0x89, thumbnail[0]);
+            assertEquals('P', thumbnail[1]);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void unknownPathIsNotFound() throws IOException {
+        HttpURLConnection connection = get("arcgis/rest/services/Nothing/MapServer");
+        try {
+            assertEquals(HttpURLConnection.HTTP_NOT_FOUND, connection.getResponseCode());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void injectedErrorsAreServerErrors() throws IOException {
+        StandInServer failingServer = new StandInServer(0, new NetworkConditions(0, 0, 0, 1, 1), 1);
+        failingServer.start();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(failingServer.getBaseURL() + "sharing/rest/info?f=json").openConnection();
+            try {
+                assertEquals(HttpURLConnection.HTTP_INTERNAL_ERROR, connection.getResponseCode());
+            } finally {
+                connection.disconnect();
+            }
+        } finally {
+            failingServer.stop();
+        }
+    }
+}
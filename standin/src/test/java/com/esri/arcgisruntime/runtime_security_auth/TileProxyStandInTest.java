@@ -0,0 +1,181 @@
+package com.esri.arcgisruntime.runtime_security_auth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class TileProxyStandInTest {
+
+    private static final long DEFAULT_MAX_AGE = 3600 * 1000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private StandInServer mStandInServer;
+    private DiskCache mDiskCache;
+    private TileProxy mTileProxy;
+
+    @Before
+    public void setUp() throws IOException {
+        // enough latency that concurrent requests for a tile overlap
+        mStandInServer = new StandInServer(0, new NetworkConditions(300, 0, 0, 0, 1), 8);
+        mStandInServer.start();
+        mDiskCache = new DiskCache(mFolder.newFolder("tiles"), 16 * 1024 * 1024);
+        mTileProxy = new TileProxy(mDiskCache, DEFAULT_MAX_AGE);
+        mTileProxy.start();
+    }
+
+    @After
+    public void tearDown() {
+        mTileProxy.stop();
+        mStandInServer.stop();
+    }
+
+    private String tileURL(int level, int row, int column) {
+        return mStandInServer.getBaseURL() + StandInServer.TILE_SERVICE_PATH.substring(1) + "/tile/" + level + "/" + row + "/" + column;
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) >= 0) {
+            outputStream.write(buffer, 0, bytesRead);
+        }
+        return outputStream.toByteArray();
+    }
+
+    @Test
+    public void secondFetchOfATileIsServedFromTheCache() throws IOException {
+        MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+        long misses = metricsRegistry.getCount("tileProxy.miss");
+        long hits = metricsRegistry.getCount("tileProxy.hit");
+        String url = tileURL(3, 2, 1);
+        byte[] fetched = mTileProxy.read(url);
+        assertEquals(misses + 1, metricsRegistry.getCount("tileProxy.miss"));
+        long startMillis = System.currentTimeMillis();
+        assertArrayEquals(fetched, mTileProxy.read(url + "?token=new")); // a new token is the same tile
+        assertTrue(System.currentTimeMillis() - startMillis < 300);
+        assertEquals(hits + 1, metricsRegistry.getCount("tileProxy.hit"));
+        assertEquals(misses + 1, metricsRegistry.getCount("tileProxy.miss"));
+        assertEquals(fetched.length, mTileProxy.prefetch(url));
+    }
+
+    @Test
+    public void concurrentRequestsForATileShareOneFetch() throws Exception {
+        MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+        long misses = metricsRegistry.getCount("tileProxy.miss");
+        final String url = tileURL(4, 5, 6);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<byte[]>> reads = new ArrayList<>();
+            for (int i = 0; i < 8; i ++) {
+                reads.add(executor.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return mTileProxy.read(url);
+                    }
+                }));
+            }
+            byte[] first = reads.get(0).get();
+            for (Future<byte[]> read : reads) {
+                assertArrayEquals(first, read.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(misses + 1, metricsRegistry.getCount("tileProxy.miss"));
+    }
+
+    @Test
+    public void layerRequestsGoThroughTheProxy() throws IOException {
+        String url = tileURL(2, 1, 1);
+        String proxiedURL = mTileProxy.proxiedURL(url);
+        assertNotEquals(url, proxiedURL);
+        for (String expectedCacheStatus : new String[] { "miss", "hit" }) {
+            HttpURLConnection connection = (HttpURLConnection) new URL(proxiedURL).openConnection();
+            try {
+                assertEquals(200, connection.getResponseCode());
+                assertEquals("image/png", connection.getContentType());
+                assertEquals(expectedCacheStatus, connection.getHeaderField("X-Tile-Proxy"));
+                InputStream inputStream = connection.getInputStream();
+                try {
+                    assertArrayEquals(mTileProxy.read(url), readAll(inputStream));
+                } finally {
+                    inputStream.close();
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+    }
+
+    @Test
+    public void securedResponsesAreNotStored() throws IOException {
+        String url = tileURL(5, 3, 3);
+        mTileProxy.read(url + "?token=userA");
+        assertFalse(mDiskCache.contains(TileProxy.cacheKeyFor(url)));
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(mTileProxy.proxiedURL(url)).openConnection();
+        try {
+            connection.setRequestProperty("Authorization", "Bearer userA");
+            assertEquals(200, connection.getResponseCode());
+            assertEquals("miss", connection.getHeaderField("X-Tile-Proxy"));
+            readAll(connection.getInputStream());
+        } finally {
+            connection.disconnect();
+        }
+        assertFalse(mDiskCache.contains(TileProxy.cacheKeyFor(url)));
+
+        mTileProxy.read(url);
+        assertTrue(mDiskCache.contains(TileProxy.cacheKeyFor(url)));
+    }
+
+    @Test
+    public void errorObjectsAreNotStored() throws IOException {
+        String url = mStandInServer.getBaseURL() + "sharing/rest/content/items/nosuchitem?f=json";
+        try {
+            mTileProxy.read(url);
+            fail("an error object is not the resource");
+        } catch (IOException expected) {
+            // answered with a 200 and {"error":...}
+        }
+        assertFalse(mDiskCache.contains(TileProxy.cacheKeyFor(url)));
+    }
+
+    @Test
+    public void clearDropsEveryStoredResponse() throws IOException {
+        String url = tileURL(6, 4, 4);
+        mTileProxy.read(url);
+        mTileProxy.clear();
+        assertFalse(mDiskCache.contains(TileProxy.cacheKeyFor(url)));
+    }
+
+    @Test
+    public void unknownPathIsNotFound() throws IOException {
+        String proxiedURL = mTileProxy.proxiedURL(tileURL(0, 0, 0));
+        String baseURL = proxiedURL.substring(0, proxiedURL.indexOf("/http/") + 1);
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseURL + "favicon.ico").openConnection();
+        try {
+            assertEquals(404, connection.getResponseCode());
+        } finally {
+            connection.disconnect();
+        }
+    }
+}